@@ -0,0 +1,78 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lcm.lcm.LCMEncodable;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+
+/**
+ * Simulated peers and messages shared by the benchmarks
+ * 
+ * @author patrick.theisen
+ */
+final class BenchmarkPeers {
+	public static final String TYPE = "benchmark";
+
+	/**
+	 * 
+	 */
+	private BenchmarkPeers() {
+	}
+
+	/**
+	 * @param seed
+	 * @return A {@link Peer} generated from the given seed
+	 */
+	public static Peer mockPeer(int seed) {
+		return mockPeer(seed, 2);
+	}
+
+	/**
+	 * @param seed
+	 * @param protocols The number of protocols the peer supports, at least 2
+	 * @return A {@link Peer} generated from the given seed
+	 */
+	public static Peer mockPeer(int seed, int protocols) {
+		Peer.Builder builder = new Peer.Builder();
+		builder.id("peer-" + seed);
+		builder.type(TYPE);
+		builder.status(Status.ACTIVE);
+		builder.description("A simulated peer used for benchmarking");
+		builder.protocol("IPC", "/tmp/peer-" + seed);
+		builder.protocol("TCP", "10.0.0.1:" + (1024 + seed % 60000));
+		for(int i = 2; i < protocols; i++) {
+			builder.protocol("protocol-" + i, "address-" + seed + "-" + i);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @param seed
+	 * @return A {@link HeartbeatMessage} from the peer generated from the given
+	 * seed, which matches the version of its {@link PeerMessage}
+	 */
+	public static HeartbeatMessage mockHeartbeat(int seed) {
+		HeartbeatMessage heartbeat = new HeartbeatMessage();
+		heartbeat.id = "peer-" + seed;
+		heartbeat.sequence = 1;
+		heartbeat.interval = 1000;
+		return heartbeat;
+	}
+
+	/**
+	 * @param message
+	 * @return The encoding of the given message
+	 * @throws IOException
+	 */
+	public static byte[] encode(LCMEncodable message) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		message.encode(new DataOutputStream(output));
+		return output.toByteArray();
+	}
+}
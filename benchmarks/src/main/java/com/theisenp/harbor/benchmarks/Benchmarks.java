@@ -0,0 +1,32 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * The entry point of the benchmarks jar, which runs JMH with the allocation
+ * profiler enabled, since most of the discovery paths are judged by how much
+ * garbage they produce as well as by how long they take. Any arguments are
+ * passed to JMH. If they name profilers of their own, those are used instead.
+ * 
+ * @author patrick.theisen
+ */
+public class Benchmarks {
+	private static final String PROFILER_OPTION = "-prof";
+	private static final String DEFAULT_PROFILER = "gc";
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if(!Arrays.asList(args).contains(PROFILER_OPTION)) {
+			String[] profiled = Arrays.copyOf(args, args.length + 2);
+			profiled[args.length] = PROFILER_OPTION;
+			profiled[args.length + 1] = DEFAULT_PROFILER;
+			args = profiled;
+		}
+		Main.main(args);
+	}
+}
@@ -0,0 +1,93 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.encode;
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCMDataInputStream;
+import lcm.lcm.LCMDataOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * Measures each step between a {@link Peer} and the bytes of its
+ * {@link PeerMessage}, in both directions. These are the costs that the
+ * object path pays for every advertisement, and that the pre-encoded and in
+ * place paths avoid.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodecBenchmark {
+	@Param({ "2", "16" })
+	public int protocols;
+
+	private Peer peer;
+	private PeerMessage message;
+	private byte[] payload;
+
+	@Setup
+	public void setUp() throws IOException {
+		peer = mockPeer(0, protocols);
+		message = PeerUtils.toMessage(peer);
+		payload = encode(message);
+	}
+
+	/**
+	 * @return The {@link PeerMessage} built from the peer
+	 */
+	@Benchmark
+	public PeerMessage toMessage() {
+		return PeerUtils.toMessage(peer);
+	}
+
+	/**
+	 * @return The {@link Peer} built from the message
+	 */
+	@Benchmark
+	public Peer fromMessage() {
+		return PeerUtils.fromMessage(message, Status.ACTIVE);
+	}
+
+	/**
+	 * @return The encoding of the message
+	 * @throws IOException
+	 */
+	@Benchmark
+	public byte[] encodeMessage() throws IOException {
+		LCMDataOutputStream output = new LCMDataOutputStream();
+		message.encode(output);
+		return output.toByteArray();
+	}
+
+	/**
+	 * @return The message decoded from its encoding
+	 * @throws IOException
+	 */
+	@Benchmark
+	public PeerMessage decodeMessage() throws IOException {
+		return new PeerMessage(new LCMDataInputStream(payload));
+	}
+}
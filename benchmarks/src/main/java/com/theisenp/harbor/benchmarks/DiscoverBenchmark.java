@@ -0,0 +1,100 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.encode;
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCMDataInputStream;
+
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.filters.TypeFilter;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.timing.TimingWheel;
+import com.theisenp.harbor.utils.LcmConstants;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * Measures the receive thread cost of discovering a new peer from its first
+ * advertisement, which decodes its descriptor, indexes it, schedules its
+ * timeout and notifies the listeners. The listeners stand in for outstanding
+ * searches, so each one waits for a type of its own that never appears.
+ * <p>
+ * Every peer is new the first time through the advertisements. After that,
+ * the subscriber is cleared, and its cost is spread across the whole pass.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiscoverBenchmark {
+	@Param({ "10000" })
+	public int peers;
+
+	@Param({ "0", "1000" })
+	public int listeners;
+
+	private ScheduledExecutorService executor;
+	private Subscriber subscriber;
+	private byte[][] payloads;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		TimingWheel wheel = new TimingWheel(executor, Duration.millis(10));
+		subscriber = new Subscriber(wheel, Duration.standardHours(1), mockPeer(-1));
+		for(int i = 0; i < listeners; i++) {
+			Listener waiter = new Listener.Adapter() {
+			};
+			subscriber.addListener(waiter, new TypeFilter("type-" + i),
+					MoreExecutors.directExecutor());
+		}
+
+		payloads = new byte[peers][];
+		for(int i = 0; i < peers; i++) {
+			payloads[i] = encode(PeerUtils.toMessage(mockPeer(i)));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Handles the first advertisement from a peer through the subscriber
+	 */
+	@Benchmark
+	public void discover() {
+		if(next == 0) {
+			subscriber.clear();
+		}
+		byte[] payload = payloads[next];
+		next = (next + 1) % peers;
+		subscriber.messageReceived(null, LcmConstants.PEER_CHANNEL,
+				new LCMDataInputStream(payload));
+	}
+}
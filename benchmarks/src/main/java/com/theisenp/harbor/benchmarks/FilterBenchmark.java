@@ -0,0 +1,99 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.DisjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+
+/**
+ * Measures the evaluation of a deep tree of {@link ConjunctiveFilter} and
+ * {@link DisjunctiveFilter} nodes against a single {@link Peer}. The levels
+ * alternate, and each is built so that the peer passes every leaf of a
+ * conjunction and fails every leaf of a disjunction, which forces the whole
+ * tree to be evaluated before the peer passes.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FilterBenchmark {
+	@Param({ "4", "16" })
+	public int depth;
+
+	@Param({ "2", "8" })
+	public int width;
+
+	private Peer peer;
+	private Filter filter;
+
+	@Setup
+	public void setUp() {
+		peer = mockPeer(0);
+		filter = new TypeFilter(BenchmarkPeers.TYPE);
+		for(int level = 0; level < depth; level++) {
+			boolean conjunction = (level % 2 == 0);
+			List<Filter> children = new ArrayList<>();
+			for(int i = 1; i < width; i++) {
+				children.add(leaf(i, conjunction));
+			}
+			children.add(filter);
+			if(conjunction) {
+				filter = new ConjunctiveFilter(children);
+			}
+			else {
+				filter = new DisjunctiveFilter(children);
+			}
+		}
+	}
+
+	/**
+	 * @return True, once the whole tree has been evaluated
+	 */
+	@Benchmark
+	public boolean filter() {
+		return filter.filter(peer);
+	}
+
+	/**
+	 * @param seed
+	 * @param pass
+	 * @return A type, protocol or status {@link Filter}, chosen by the given
+	 * seed, that the peer passes or fails
+	 */
+	private static Filter leaf(int seed, boolean pass) {
+		switch(seed % 3) {
+			case 0:
+				return new TypeFilter(pass ? BenchmarkPeers.TYPE : "missing");
+			case 1:
+				return new ProtocolFilter(pass ? "IPC" : "missing");
+			default:
+				return new StatusFilter(pass ? Status.ACTIVE : Status.INACTIVE);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.theisenp.harbor.FindPeer;
+import com.theisenp.harbor.Harbor;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.TypeFilter;
+
+/**
+ * Measures starting and cancelling a {@link FindPeer} search while many other
+ * searches are outstanding, which covers registering and removing its
+ * listener and querying the known peers. Each search looks for a type of its
+ * own, so none of them completes. The harbor is never opened, so no traffic
+ * reaches it.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FindBenchmark {
+	@Param({ "100", "10000" })
+	public int finds;
+
+	private Harbor harbor;
+	private List<ListenableFuture<Peer>> outstanding;
+	private Filter[] filters;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		harbor = new Harbor.Builder().self(mockPeer(-1)).build();
+		outstanding = new ArrayList<>();
+		filters = new Filter[finds];
+		for(int i = 0; i < finds; i++) {
+			filters[i] = new TypeFilter("type-" + i);
+			outstanding.add(harbor.find(filters[i]));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for(ListenableFuture<Peer> result : outstanding) {
+			result.cancel(false);
+		}
+	}
+
+	/**
+	 * Starts a search for one of the outstanding types, and cancels it
+	 * 
+	 * @return The cancelled result
+	 */
+	@Benchmark
+	public ListenableFuture<Peer> find() {
+		Filter filter = filters[next];
+		next = (next + 1) % finds;
+		ListenableFuture<Peer> result = harbor.find(filter);
+		result.cancel(false);
+		return result;
+	}
+}
@@ -0,0 +1,100 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies, with buckets that grow geometrically so
+ * that each value is kept to within an eighth of itself. Values are recorded
+ * in microseconds, from any number of threads.
+ *
+ * @author patrick.theisen
+ */
+final class LatencyHistogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BITS + 1);
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * @param nanos A latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		counts.incrementAndGet(indexOf(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos))));
+	}
+
+	/**
+	 * Moves every recorded value into the given histogram
+	 *
+	 * @param total
+	 */
+	public void drainTo(LatencyHistogram total) {
+		for(int i = 0; i < BUCKETS; i++) {
+			long count = counts.getAndSet(i, 0);
+			if(count != 0) {
+				total.counts.addAndGet(i, count);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return The latency below which the given percentage of the recorded
+	 * values fall, in milliseconds, or NaN if none have been recorded
+	 */
+	public double getPercentile(double percentile) {
+		long count = getCount();
+		if(count == 0) {
+			return Double.NaN;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= rank) {
+				return highestOf(i) / 1000.0;
+			}
+		}
+		return highestOf(BUCKETS - 1) / 1000.0;
+	}
+
+	/**
+	 * @param micros
+	 * @return The bucket of the given value
+	 */
+	private static int indexOf(long micros) {
+		if(micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS * (exponent - SUB_BITS + 1) + sub;
+	}
+
+	/**
+	 * @param index
+	 * @return The largest value that falls in the given bucket
+	 */
+	private static long highestOf(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = index % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+		return lowest + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
@@ -0,0 +1,368 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Duration;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.benchmarks.VirtualPeers.VirtualPeer;
+import com.theisenp.harbor.capture.CaptureWriter;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.lcm.MemoryNetwork;
+import com.theisenp.harbor.lcm.SharedTransport;
+import com.theisenp.harbor.lcm.Subscribe;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.TimeoutScheduler;
+import com.theisenp.harbor.timing.TimingWheel;
+
+/**
+ * Drives real {@link Subscriber} instances with a large population of
+ * {@link VirtualPeers} over a {@link MemoryNetwork}, to find the number of
+ * peers at which a single Harbor can no longer keep up
+ * <p>
+ * Each subscriber is set up as a Harbor sets up its own, with a receive
+ * thread and a single timer thread. Every second, the generator reports the
+ * CPU time and the allocation rate of those threads, the latency of connect
+ * and disconnect events, and the backlog of both the receive queues and the
+ * timer thread. A Harbor that is falling over drops datagrams, falls behind
+ * its timers, and declares live peers inactive.
+ * <p>
+ * This is a simulation rather than a JMH benchmark. Run it from the
+ * benchmarks jar, with any of the options below given as name=value:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.theisenp.harbor.benchmarks.LoadGenerator peers=50000
+ * </pre>
+ *
+ * <ul>
+ * <li>peers: The size of the population</li>
+ * <li>seconds: How long to run</li>
+ * <li>period: The period of each peer, in milliseconds</li>
+ * <li>timeout: The timeout of each subscriber, in milliseconds</li>
+ * <li>tick: The tick of a timing wheel, in milliseconds, or 0 for a timer
+ * task per peer</li>
+ * <li>jitter: The largest offset of an advertisement, as a fraction of the
+ * period</li>
+ * <li>loss: The probability that an advertisement is lost</li>
+ * <li>churn: The number of peers replaced per second</li>
+ * <li>subscribers: The number of subscribers</li>
+ * <li>capacity: The number of datagrams each receive queue holds</li>
+ * <li>capture: A file in which to capture the datagrams received by the
+ * first subscriber, for the {@link ReplayLoad}</li>
+ * </ul>
+ *
+ * @author patrick.theisen
+ */
+public class LoadGenerator {
+	private static final long PROBE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+	private static final String HEADER = "%5s %8s %9s %9s %8s %8s %7s %9s "
+			+ "%17s %17s %7s %8s %6s%n";
+	private static final String ROW = "%5d %8d %9d %9d %8d %8d %7.1f %9s "
+			+ "%17s %17s %7d %8.1f %6d%n";
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parse(args);
+		int peers = Integer.parseInt(option(options, "peers", "10000"));
+		int seconds = Integer.parseInt(option(options, "seconds", "30"));
+		long period = Long.parseLong(option(options, "period", "1000"));
+		long timeout = Long.parseLong(option(options, "timeout", "5000"));
+		long tick = Long.parseLong(option(options, "tick", "0"));
+		double jitter = Double.parseDouble(option(options, "jitter", "0.1"));
+		double loss = Double.parseDouble(option(options, "loss", "0"));
+		double churn = Double.parseDouble(option(options, "churn", "0"));
+		int count = Integer.parseInt(option(options, "subscribers", "1"));
+		int capacity = Integer.parseInt(option(options, "capacity",
+				String.valueOf(MemoryNetwork.DEFAULT_CAPACITY)));
+		String capture = option(options, "capture", null);
+
+		ThreadUsage usage = new ThreadUsage("harbor");
+		MemoryNetwork network = new MemoryNetwork(capacity, usage);
+		VirtualPeers population = new VirtualPeers(network.connect(), peers,
+				TimeUnit.MILLISECONDS.toNanos(period), jitter, loss, churn);
+		Probe probe = new Probe(population);
+
+		// Set up each subscriber as a Harbor would
+		List<Subscriber> subscribers = new ArrayList<>();
+		List<ScheduledThreadPoolExecutor> executors = new ArrayList<>();
+		List<TimerProbe> timers = new ArrayList<>();
+		List<SharedTransport> transports = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, usage);
+			TimeoutScheduler scheduler;
+			if(tick > 0) {
+				scheduler = new TimingWheel(executor, Duration.millis(tick));
+			}
+			else {
+				scheduler = new ExecutorTimeoutScheduler(executor);
+			}
+			Subscriber subscriber = new Subscriber(scheduler, new Dispatcher(),
+					Duration.millis(timeout), BenchmarkPeers.mockPeer(-1 - i));
+			subscriber.addListener(probe, MoreExecutors.directExecutor());
+
+			TimerProbe timer = new TimerProbe();
+			executor.scheduleAtFixedRate(timer, PROBE_INTERVAL, PROBE_INTERVAL,
+					TimeUnit.NANOSECONDS);
+
+			// Each subscriber gets an endpoint of its own, as a separate process
+			// would, rather than sharing the group's url
+			String url = "memory://load/" + i;
+			SharedTransport transport = SharedTransport.acquire(network, url);
+			new Subscribe(subscriber).apply(transport);
+
+			subscribers.add(subscriber);
+			executors.add(executor);
+			timers.add(timer);
+			transports.add(transport);
+		}
+
+		CaptureWriter writer = null;
+		if(capture != null) {
+			writer = new CaptureWriter(new File(capture), Clock.SYSTEM);
+			subscribers.get(0).setTap(writer);
+		}
+
+		Thread publisher = new Thread(population, "virtual-peers");
+		publisher.setDaemon(true);
+		publisher.start();
+
+		System.out.printf(Locale.ROOT, HEADER, "time", "known", "sent/s", "recv/s", "dropped",
+				"backlog", "cpu%", "alloc/s", "connect p50/p99", "leave p50/p99", "timers",
+				"lag ms", "false");
+		LatencyHistogram connects = new LatencyHistogram();
+		LatencyHistogram leaves = new LatencyHistogram();
+		long sent = 0;
+		long delivered = 0;
+		long cpu = 0;
+		long allocated = 0;
+		long last = System.nanoTime();
+		for(int second = 1; second <= seconds; second++) {
+			Thread.sleep(REPORT_INTERVAL);
+			long now = System.nanoTime();
+			double elapsed = (now - last) / 1e9;
+			last = now;
+
+			long known = 0;
+			for(Subscriber subscriber : subscribers) {
+				known += subscriber.getPeerCount();
+			}
+			long pending = 0;
+			for(ScheduledThreadPoolExecutor executor : executors) {
+				pending += executor.getQueue().size();
+			}
+			long lag = 0;
+			for(TimerProbe timer : timers) {
+				lag = Math.max(lag, timer.takeMaxLag());
+			}
+
+			long nextCpu = usage.getCpuTime();
+			long nextAllocated = usage.getAllocatedBytes();
+			String allocation = "n/a";
+			if(nextAllocated >= 0) {
+				allocation = bytes((nextAllocated - allocated) / elapsed);
+			}
+
+			System.out.printf(Locale.ROOT, ROW, second, known / count,
+					(long) ((population.getSent() - sent) / elapsed),
+					(long) ((network.getDelivered() - delivered) / elapsed),
+					network.getDropped(), network.getBacklog(),
+					100 * (nextCpu - cpu) / 1e9 / elapsed, allocation,
+					latencies(probe.connects, connects), latencies(probe.leaves, leaves),
+					pending, lag / 1e6, probe.falseInactive.get());
+
+			sent = population.getSent();
+			delivered = network.getDelivered();
+			cpu = nextCpu;
+			allocated = nextAllocated;
+		}
+
+		population.stop();
+		for(SharedTransport transport : transports) {
+			transport.release();
+		}
+		for(ScheduledThreadPoolExecutor executor : executors) {
+			executor.shutdownNow();
+		}
+		if(writer != null) {
+			subscribers.get(0).setTap(null);
+			writer.close();
+		}
+
+		System.out.println();
+		System.out.printf(Locale.ROOT, "connect latency ms: %s over %d peers%n",
+				summary(connects), connects.getCount());
+		System.out.printf(Locale.ROOT, "leave latency ms: %s over %d peers%n",
+				summary(leaves), leaves.getCount());
+		System.out.printf(Locale.ROOT, "dropped datagrams: %d, lost on purpose: %d%n",
+				network.getDropped(), population.getLost());
+		System.out.printf(Locale.ROOT, "live peers declared inactive: %d, disconnected: %d%n",
+				probe.falseInactive.get(), probe.falseDisconnected.get());
+		if(writer != null) {
+			System.out.printf(Locale.ROOT, "captured datagrams: %d in %s%n", writer.getCount(),
+					capture);
+		}
+	}
+
+	/**
+	 * @param args
+	 * @return The options given as name=value
+	 */
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for(String arg : args) {
+			int split = arg.indexOf('=');
+			if(split <= 0) {
+				String message = "Options must be given as name=value: " + arg;
+				throw new IllegalArgumentException(message);
+			}
+			options.put(arg.substring(0, split), arg.substring(split + 1));
+		}
+		return options;
+	}
+
+	/**
+	 * @param options
+	 * @param name
+	 * @param fallback
+	 * @return The value of the given option, or the fallback if it was not
+	 * given
+	 */
+	private static String option(Map<String, String> options, String name, String fallback) {
+		String value = options.get(name);
+		return (value == null) ? fallback : value;
+	}
+
+	/**
+	 * @param interval The latencies recorded since the last report, which are
+	 * moved into the total
+	 * @param total
+	 * @return The median and the 99th percentile of the recent latencies
+	 */
+	private static String latencies(LatencyHistogram interval, LatencyHistogram total) {
+		LatencyHistogram recent = new LatencyHistogram();
+		interval.drainTo(recent);
+		if(recent.getCount() == 0) {
+			return "-";
+		}
+
+		String result = String.format(Locale.ROOT, "%.1f/%.1f", recent.getPercentile(50),
+				recent.getPercentile(99));
+		recent.drainTo(total);
+		return result;
+	}
+
+	/**
+	 * @param histogram
+	 * @return The median, 99th percentile and maximum of the given histogram
+	 */
+	private static String summary(LatencyHistogram histogram) {
+		return String.format(Locale.ROOT, "p50 %.1f, p99 %.1f, max %.1f",
+				histogram.getPercentile(50), histogram.getPercentile(99),
+				histogram.getPercentile(100));
+	}
+
+	/**
+	 * @param rate
+	 * @return The given number of bytes, in a readable unit
+	 */
+	private static String bytes(double rate) {
+		if(rate >= 1 << 20) {
+			return String.format(Locale.ROOT, "%.1fMB", rate / (1 << 20));
+		}
+		return String.format(Locale.ROOT, "%.1fKB", rate / (1 << 10));
+	}
+
+	/**
+	 * A {@link Listener} that measures how long the subscribers take to notice
+	 * peers joining and leaving, and counts live peers that they suspect
+	 *
+	 * @author patrick.theisen
+	 */
+	private static class Probe extends Listener.Adapter {
+		private final VirtualPeers population;
+		private final LatencyHistogram connects = new LatencyHistogram();
+		private final LatencyHistogram leaves = new LatencyHistogram();
+		private final AtomicLong falseInactive = new AtomicLong();
+		private final AtomicLong falseDisconnected = new AtomicLong();
+
+		/**
+		 * @param population
+		 */
+		public Probe(VirtualPeers population) {
+			this.population = population;
+		}
+
+		@Override
+		public void onConnected(Peer peer) {
+			VirtualPeer virtual = population.get(peer.getId());
+			if(virtual != null && virtual.getJoined() != 0) {
+				connects.record(System.nanoTime() - virtual.getJoined());
+			}
+		}
+
+		@Override
+		public void onInactive(Peer peer) {
+			VirtualPeer virtual = population.get(peer.getId());
+			if(virtual != null && virtual.isAlive()) {
+				falseInactive.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void onDisconnected(Peer peer) {
+			VirtualPeer virtual = population.get(peer.getId());
+			if(virtual == null) {
+				return;
+			}
+			if(virtual.isAlive()) {
+				falseDisconnected.incrementAndGet();
+			}
+			else {
+				leaves.record(System.nanoTime() - virtual.getLeft());
+			}
+		}
+	}
+
+	/**
+	 * A periodic task on a timer thread that measures how late it runs, which
+	 * is how far behind the timeouts on that thread are
+	 *
+	 * @author patrick.theisen
+	 */
+	private static class TimerProbe implements Runnable {
+		private final AtomicLong maxLag = new AtomicLong();
+		private long expected = System.nanoTime() + PROBE_INTERVAL;
+
+		@Override
+		public void run() {
+			long lag = System.nanoTime() - expected;
+			if(lag > maxLag.get()) {
+				maxLag.set(lag);
+			}
+			expected += PROBE_INTERVAL;
+		}
+
+		/**
+		 * @return The latest the task ran since the last call, in nanoseconds
+		 */
+		public long takeMaxLag() {
+			return maxLag.getAndSet(0);
+		}
+	}
+}
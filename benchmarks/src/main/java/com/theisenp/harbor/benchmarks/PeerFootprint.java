@@ -0,0 +1,151 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+
+/**
+ * Estimates the heap retained by each {@link Peer} descriptor in a large
+ * group. Peers are decoded from the network one at a time, so each is built
+ * from its own copies of the strings, as a subscriber would build it. Types,
+ * descriptions and protocol names repeat across the group, while ids and
+ * addresses are unique.
+ * <p>
+ * The same group is also measured as {@link MapPeer} descriptors, which keep
+ * the original layout of a {@link Peer}, with its own copies of every string
+ * and an immutable map of protocols, so that both figures come from one run.
+ * <p>
+ * This is a measurement rather than a JMH benchmark, since the quantity of
+ * interest is retained memory rather than the cost of an operation. Run it
+ * from the benchmarks jar:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.theisenp.harbor.benchmarks.PeerFootprint [peers]
+ * </pre>
+ * 
+ * @author patrick.theisen
+ */
+public class PeerFootprint {
+	private static final String[] TYPES = { "camera", "lidar", "planner", "logger" };
+	private static final int COLLECTIONS = 5;
+
+	// Keeps the measured peers reachable until the heap has been measured
+	private static Object[] retained;
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+		// Warm up the builders, so that their classes are not counted
+		build(1000);
+		buildMaps(1000);
+
+		long before = used();
+		retained = buildMaps(count);
+		long after = used();
+		retained = null;
+		System.out.println(count + " map peers, " + (after - before) / count + " bytes per peer");
+
+		before = used();
+		retained = build(count);
+		after = used();
+		retained = null;
+		System.out.println(count + " peers, " + (after - before) / count + " bytes per peer");
+	}
+
+	/**
+	 * @param count
+	 * @return The given number of peers
+	 */
+	private static Peer[] build(int count) {
+		Peer[] peers = new Peer[count];
+		for(int i = 0; i < count; i++) {
+			String type = TYPES[i % TYPES.length];
+			Peer.Builder builder = new Peer.Builder();
+			builder.id(copy("peer-" + i));
+			builder.type(copy(type));
+			builder.status(Status.ACTIVE);
+			builder.description(copy("A " + type + " node"));
+			builder.protocol(copy("IPC"), copy("/tmp/peer-" + i));
+			String host = "10.0." + (i >> 8 & 0xff) + "." + (i & 0xff);
+			builder.protocol(copy("TCP"), copy(host + ":5555"));
+			peers[i] = builder.build();
+		}
+		return peers;
+	}
+
+	/**
+	 * @param count
+	 * @return The given number of peers, in the original layout
+	 */
+	private static MapPeer[] buildMaps(int count) {
+		MapPeer[] peers = new MapPeer[count];
+		for(int i = 0; i < count; i++) {
+			String type = TYPES[i % TYPES.length];
+			Map<String, String> protocols = new HashMap<>();
+			protocols.put(copy("IPC"), copy("/tmp/peer-" + i));
+			String host = "10.0." + (i >> 8 & 0xff) + "." + (i & 0xff);
+			protocols.put(copy("TCP"), copy(host + ":5555"));
+			peers[i] = new MapPeer(copy("peer-" + i), copy(type), Status.ACTIVE,
+					copy("A " + type + " node"), protocols);
+		}
+		return peers;
+	}
+
+	/**
+	 * @param value
+	 * @return A distinct copy of the given string, as a decoder produces
+	 */
+	private static String copy(String value) {
+		return new String(value.toCharArray());
+	}
+
+	/**
+	 * @return The heap in use after collecting garbage, in bytes
+	 * @throws InterruptedException
+	 */
+	private static long used() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < COLLECTIONS; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * A peer descriptor with the fields of the original {@link Peer}, before
+	 * strings and protocol names were shared
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class MapPeer {
+		private final String id;
+		private final String type;
+		private final Status status;
+		private final String description;
+		private final ImmutableMap<String, String> protocols;
+
+		/**
+		 * @param id
+		 * @param type
+		 * @param status
+		 * @param description
+		 * @param protocols
+		 */
+		public MapPeer(String id, String type, Status status, String description,
+				Map<String, String> protocols) {
+			this.id = id;
+			this.type = type;
+			this.status = status;
+			this.description = description;
+			this.protocols = ImmutableMap.copyOf(protocols);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.encode;
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockHeartbeat;
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCMDataInputStream;
+
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theisenp.harbor.Harbor;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.timing.TimingWheel;
+import com.theisenp.harbor.utils.LcmConstants;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * Measures taking a snapshot of the known peers while other threads handle
+ * heartbeats from those peers, and the cost of those heartbeats in turn.
+ * {@link Harbor#getPeers()} returns the snapshot of its {@link Subscriber}
+ * directly, so the subscriber is driven here without a transport.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PeersBenchmark {
+	@Param({ "1000", "10000" })
+	public int peers;
+
+	private ScheduledExecutorService executor;
+	private Subscriber subscriber;
+	private byte[][] heartbeats;
+
+	@Setup
+	public void setUp() throws IOException {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		TimingWheel wheel = new TimingWheel(executor, Duration.millis(10));
+		subscriber = new Subscriber(wheel, Duration.standardHours(1), mockPeer(-1));
+
+		// Make every peer known, and encode one heartbeat per peer
+		heartbeats = new byte[peers][];
+		for(int i = 0; i < peers; i++) {
+			byte[] payload = encode(PeerUtils.toMessage(mockPeer(i)));
+			subscriber.messageReceived(null, LcmConstants.PEER_CHANNEL,
+					new LCMDataInputStream(payload));
+			heartbeats[i] = encode(mockHeartbeat(i));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return A snapshot of the known peers
+	 */
+	@Benchmark
+	@Group("heartbeats")
+	@GroupThreads(1)
+	public Set<Peer> getPeers() {
+		return subscriber.getPeers();
+	}
+
+	/**
+	 * Handles a heartbeat from the next known peer
+	 * 
+	 * @param cursor
+	 */
+	@Benchmark
+	@Group("heartbeats")
+	@GroupThreads(3)
+	public void heartbeat(Cursor cursor) {
+		byte[] heartbeat = heartbeats[cursor.next];
+		cursor.next = (cursor.next + 1) % peers;
+		subscriber.messageReceived(null, LcmConstants.HEARTBEAT_CHANNEL,
+				new LCMDataInputStream(heartbeat));
+	}
+
+	/**
+	 * The position of a heartbeat thread in the heartbeats
+	 * 
+	 * @author patrick.theisen
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		private int next;
+	}
+}
@@ -0,0 +1,80 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCM;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theisenp.harbor.Harbor;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.lcm.Publish;
+import com.theisenp.harbor.utils.HarborUtils;
+import com.theisenp.harbor.utils.LcmConstants;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * Measures the publish thread cost of advertising a peer over a real LCM
+ * transport. The publish benchmark sends the buffer that {@link Publish}
+ * encoded once, while the message benchmark builds and encodes the message
+ * on every run, as publishing used to.
+ * <p>
+ * The transport uses a port one above the default, with a TTL of 0, so that
+ * the simulated peer is not discovered by other harbors on the host.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PublishBenchmark {
+	private static final int PORT = Harbor.DEFAULT_PORT + 1;
+
+	private LCM lcm;
+	private Peer peer;
+	private Publish publish;
+
+	@Setup
+	public void setUp() throws IOException {
+		lcm = new LCM(HarborUtils.toLcmAddress(Harbor.DEFAULT_ADDRESS, PORT, 0));
+		peer = mockPeer(0);
+		publish = new Publish(lcm, peer);
+	}
+
+	@TearDown
+	public void tearDown() {
+		lcm.close();
+	}
+
+	/**
+	 * Publishes the pre-encoded advertisement
+	 */
+	@Benchmark
+	public void publish() {
+		publish.run();
+	}
+
+	/**
+	 * Builds, encodes and publishes the advertisement
+	 */
+	@Benchmark
+	public void publishMessage() {
+		lcm.publish(LcmConstants.PEER_CHANNEL, PeerUtils.toMessage(peer));
+	}
+}
@@ -0,0 +1,131 @@
+package com.theisenp.harbor.benchmarks;
+
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.encode;
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockHeartbeat;
+import static com.theisenp.harbor.benchmarks.BenchmarkPeers.mockPeer;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCMDataInputStream;
+
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.metrics.FlightRecorder;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.TimingWheel;
+import com.theisenp.harbor.utils.LcmConstants;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * Measures the receive thread cost of a steady state heartbeat from a known
+ * peer. The decode benchmark is the work that every heartbeat used to cost,
+ * while the receive benchmark goes through the subscriber's fingerprint fast
+ * path. The compact benchmark reads a {@link HeartbeatMessage}, whose sequence
+ * number defeats the fingerprint, directly from its bytes. Each receive is
+ * measured with and without a {@link FlightRecorder} attached.
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReceiveBenchmark {
+	@Param({ "10000", "50000" })
+	public int peers;
+
+	@Param({ "false", "true" })
+	public boolean recorded;
+
+	private ScheduledExecutorService executor;
+	private Subscriber subscriber;
+	private byte[][] payloads;
+	private byte[][] heartbeats;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		executor = Executors.newSingleThreadScheduledExecutor();
+		TimingWheel wheel = new TimingWheel(executor, Duration.millis(10));
+		subscriber = new Subscriber(wheel, Duration.standardHours(1), mockPeer(-1));
+		if(recorded) {
+			subscriber.setRecorder(new FlightRecorder(Clock.SYSTEM));
+		}
+
+		// Encode one heartbeat per peer and make every peer known
+		payloads = new byte[peers][];
+		heartbeats = new byte[peers][];
+		for(int i = 0; i < peers; i++) {
+			payloads[i] = encode(PeerUtils.toMessage(mockPeer(i)));
+			heartbeats[i] = encode(mockHeartbeat(i));
+			receive();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Handles a repeated heartbeat through the subscriber
+	 */
+	@Benchmark
+	public void receive() {
+		byte[] payload = payloads[next];
+		next = (next + 1) % peers;
+		subscriber.messageReceived(null, LcmConstants.PEER_CHANNEL,
+				new LCMDataInputStream(payload));
+	}
+
+	/**
+	 * Handles a {@link HeartbeatMessage} from a known peer through the
+	 * subscriber
+	 */
+	@Benchmark
+	public void receiveCompact() {
+		byte[] heartbeat = heartbeats[next];
+		next = (next + 1) % peers;
+		subscriber.messageReceived(null, LcmConstants.HEARTBEAT_CHANNEL,
+				new LCMDataInputStream(heartbeat));
+	}
+
+	/**
+	 * Decodes a heartbeat into a {@link Peer}, which every heartbeat used to
+	 * cost before the fast path
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	@Benchmark
+	public Peer decode() throws IOException {
+		byte[] payload = payloads[next];
+		next = (next + 1) % peers;
+		PeerMessage message = new PeerMessage(new LCMDataInputStream(payload));
+		return PeerUtils.fromMessage(message, Status.ACTIVE);
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.theisenp.harbor.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.joda.time.Duration;
+
+import com.theisenp.harbor.timing.JitteredSchedule;
+
+/**
+ * Shows how evenly heartbeats arrive at a receiver when many publishers start
+ * at the same moment, as they do after a network partition heals or a rack
+ * powers up. Each publisher is simulated by a task that counts its arrival in
+ * a millisecond bucket, first on a fixed rate schedule and then on a
+ * {@link JitteredSchedule}. The peak bucket is the burst that a receiver has
+ * to absorb, and the standard deviation across buckets shows how flat the load
+ * is overall, since a single stall of the scheduling threads can also produce
+ * a peak.
+ * <p>
+ * This is a simulation rather than a JMH benchmark, since the quantity of
+ * interest is the shape of the arrivals rather than the cost of an operation.
+ * Run it from the benchmarks jar:
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.theisenp.harbor.benchmarks.ReceiveLoad [publishers]
+ * </pre>
+ * 
+ * @author patrick.theisen
+ */
+public class ReceiveLoad {
+	private static final long PERIOD = 100;
+	private static final int PERIODS = 20;
+	private static final int THREADS = 4;
+
+	/**
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int publishers = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		System.out.println(publishers + " publishers, " + PERIOD + " ms period");
+		report("fixed", run(publishers, false));
+		report("jittered", run(publishers, true));
+	}
+
+	/**
+	 * @param publishers
+	 * @param jittered
+	 * @return The number of arrivals in each millisecond of the simulation
+	 * @throws InterruptedException
+	 */
+	private static AtomicIntegerArray run(int publishers, boolean jittered)
+			throws InterruptedException {
+		ScheduledExecutorService executor = Executors.newScheduledThreadPool(THREADS);
+		AtomicIntegerArray buckets = new AtomicIntegerArray((int) (PERIOD * PERIODS));
+		long start = System.nanoTime();
+		Runnable arrival = new Arrival(buckets, start);
+
+		List<Future<?>> tasks = new ArrayList<>();
+		for(int i = 0; i < publishers; i++) {
+			if(jittered) {
+				JitteredSchedule schedule = new JitteredSchedule(executor, arrival,
+						Duration.millis(PERIOD));
+				tasks.add(schedule.start());
+			}
+			else {
+				tasks.add(executor.scheduleAtFixedRate(arrival, 0, PERIOD, MILLISECONDS));
+			}
+		}
+
+		Thread.sleep(PERIOD * PERIODS);
+		for(Future<?> task : tasks) {
+			task.cancel(false);
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, SECONDS);
+		return buckets;
+	}
+
+	/**
+	 * Prints the peak, mean and standard deviation of the arrivals per
+	 * millisecond, skipping the first period, in which the jittered
+	 * publishers are still spreading out
+	 * 
+	 * @param name
+	 * @param buckets
+	 */
+	private static void report(String name, AtomicIntegerArray buckets) {
+		int peak = 0;
+		long total = 0;
+		int count = 0;
+		for(int i = (int) PERIOD; i < buckets.length(); i++) {
+			peak = Math.max(peak, buckets.get(i));
+			total += buckets.get(i);
+			count++;
+		}
+
+		double mean = (double) total / count;
+		double variance = 0;
+		for(int i = (int) PERIOD; i < buckets.length(); i++) {
+			variance += Math.pow(buckets.get(i) - mean, 2) / count;
+		}
+
+		String format = "%-9s peak %5d/ms  mean %8.2f/ms  stddev %8.2f/ms%n";
+		System.out.printf(format, name, peak, mean, Math.sqrt(variance));
+	}
+
+	/**
+	 * A {@link Runnable} that counts each of its runs in the bucket for the
+	 * current millisecond
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Arrival implements Runnable {
+		private final AtomicIntegerArray buckets;
+		private final long start;
+
+		/**
+		 * @param buckets
+		 * @param start
+		 */
+		public Arrival(AtomicIntegerArray buckets, long start) {
+			this.buckets = buckets;
+			this.start = start;
+		}
+
+		@Override
+		public void run() {
+			long bucket = MILLISECONDS.convert(System.nanoTime() - start, NANOSECONDS);
+			if(bucket < buckets.length()) {
+				buckets.incrementAndGet((int) bucket);
+			}
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Duration;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.capture.CaptureReader;
+import com.theisenp.harbor.capture.CaptureWriter;
+import com.theisenp.harbor.capture.Replay;
+import com.theisenp.harbor.detection.FixedTimeoutDetector;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.TimeoutScheduler;
+import com.theisenp.harbor.timing.TimingWheel;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Replays a capture of real discovery traffic into a fresh {@link Subscriber},
+ * so that the receive path can be profiled offline and changes to it can be
+ * compared against the same traffic
+ * <p>
+ * Captures are written by a {@link CaptureWriter} set as the tap of a Harbor,
+ * or by the {@link LoadGenerator}. The replay reports the rate at which the
+ * datagrams were handled, the CPU time and allocation of the replay thread
+ * per datagram, and the peer events that the subscriber produced. In virtual
+ * time, the subscriber's timeouts run on a {@link VirtualScheduler} that
+ * follows the capture, so the events match the captured run however fast it
+ * is replayed.
+ * <p>
+ * This is a simulation rather than a JMH benchmark. Run it from the
+ * benchmarks jar, with any of the options below given as name=value:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.theisenp.harbor.benchmarks.ReplayLoad file=peers.cap
+ * </pre>
+ *
+ * <ul>
+ * <li>file: The capture to replay</li>
+ * <li>speed: The factor by which the capture is sped up, or max to replay it
+ * as fast as possible</li>
+ * <li>virtual: Whether to replay in virtual time, as fast as possible</li>
+ * <li>timeout: The timeout of the subscriber, in milliseconds</li>
+ * <li>tick: The tick of a timing wheel, in milliseconds, or 0 for a timer
+ * task per peer</li>
+ * </ul>
+ *
+ * @author patrick.theisen
+ */
+public class ReplayLoad {
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parse(args);
+		String file = options.get("file");
+		if(file == null) {
+			String message = "A capture must be given as file=<path>";
+			throw new IllegalArgumentException(message);
+		}
+		String speed = option(options, "speed", "max");
+		boolean virtual = Boolean.parseBoolean(option(options, "virtual", "false"));
+		long timeout = Long.parseLong(option(options, "timeout", "5000"));
+		long tick = Long.parseLong(option(options, "tick", "0"));
+
+		// Set up the subscriber as a Harbor would, on a virtual clock if asked
+		VirtualScheduler clock = new VirtualScheduler();
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+		TimeoutScheduler scheduler;
+		if(virtual && tick > 0) {
+			scheduler = new TimingWheel(clock, clock, Duration.millis(tick));
+		}
+		else if(virtual) {
+			scheduler = new ExecutorTimeoutScheduler(clock);
+		}
+		else if(tick > 0) {
+			scheduler = new TimingWheel(executor, Duration.millis(tick));
+		}
+		else {
+			scheduler = new ExecutorTimeoutScheduler(executor);
+		}
+		Subscriber subscriber = new Subscriber(scheduler, new Dispatcher(),
+				new FixedTimeoutDetector(Duration.millis(timeout)),
+				virtual ? clock : Clock.SYSTEM, BenchmarkPeers.mockPeer(-1));
+		Events events = new Events();
+		subscriber.addListener(events, MoreExecutors.directExecutor());
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		long cpu = bean.getCurrentThreadCpuTime();
+		long allocated = allocatedBytes(bean);
+		long start = System.nanoTime();
+
+		long count;
+		try(CaptureReader reader = new CaptureReader(new File(file))) {
+			Replay replay = new Replay(reader, subscriber);
+			if(virtual) {
+				count = replay.run(clock);
+			}
+			else if(speed.equals("max")) {
+				count = replay.run(Replay.FASTEST);
+			}
+			else {
+				count = replay.run(Double.parseDouble(speed));
+			}
+			if(reader.isTruncated()) {
+				System.out.println("the capture ends part way through a record");
+			}
+		}
+
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		cpu = bean.getCurrentThreadCpuTime() - cpu;
+		String allocation = "n/a";
+		if(allocated >= 0) {
+			long bytes = allocatedBytes(bean) - allocated;
+			allocation = String.format(Locale.ROOT, "%.1f", bytes / (double) Math.max(1, count));
+		}
+		executor.shutdownNow();
+
+		System.out.printf(Locale.ROOT, "datagrams: %d in %.2f s, %.0f/s%n", count, elapsed,
+				count / elapsed);
+		System.out.printf(Locale.ROOT, "replay thread: %.0f ns cpu, %s bytes per datagram%n",
+				(double) cpu / Math.max(1, count), allocation);
+		System.out.printf(Locale.ROOT, "known peers: %d%n", subscriber.getPeerCount());
+		System.out.printf(Locale.ROOT, "connected %d, inactive %d, active again %d, "
+				+ "disconnected %d, updated %d%n", events.connected.get(),
+				events.inactive.get(), events.active.get() - events.connected.get(),
+				events.disconnected.get(), events.updated.get());
+	}
+
+	/**
+	 * @param bean
+	 * @return The bytes allocated by the current thread so far, or -1 if that
+	 * cannot be measured on this JVM
+	 */
+	private static long allocatedBytes(ThreadMXBean bean) {
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+		if(!hotspot.isThreadAllocatedMemorySupported()) {
+			return -1;
+		}
+		return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @param args
+	 * @return The options given as name=value
+	 */
+	private static Map<String, String> parse(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for(String arg : args) {
+			int split = arg.indexOf('=');
+			if(split <= 0) {
+				String message = "Options must be given as name=value: " + arg;
+				throw new IllegalArgumentException(message);
+			}
+			options.put(arg.substring(0, split), arg.substring(split + 1));
+		}
+		return options;
+	}
+
+	/**
+	 * @param options
+	 * @param name
+	 * @param fallback
+	 * @return The value of the given option, or the fallback if it was not
+	 * given
+	 */
+	private static String option(Map<String, String> options, String name, String fallback) {
+		String value = options.get(name);
+		return (value == null) ? fallback : value;
+	}
+
+	/**
+	 * A {@link Listener} that counts the events produced by the replay
+	 *
+	 * @author patrick.theisen
+	 */
+	private static class Events extends Listener.Adapter {
+		private final AtomicLong connected = new AtomicLong();
+		private final AtomicLong active = new AtomicLong();
+		private final AtomicLong inactive = new AtomicLong();
+		private final AtomicLong disconnected = new AtomicLong();
+		private final AtomicLong updated = new AtomicLong();
+
+		@Override
+		public void onConnected(Peer peer) {
+			connected.incrementAndGet();
+		}
+
+		@Override
+		public void onActive(Peer peer) {
+			active.incrementAndGet();
+		}
+
+		@Override
+		public void onInactive(Peer peer) {
+			inactive.incrementAndGet();
+		}
+
+		@Override
+		public void onUpdated(Peer previous, Peer peer) {
+			updated.incrementAndGet();
+		}
+
+		@Override
+		public void onDisconnected(Peer peer) {
+			disconnected.incrementAndGet();
+		}
+	}
+}
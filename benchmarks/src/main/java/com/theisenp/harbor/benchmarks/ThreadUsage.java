@@ -0,0 +1,84 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ThreadFactory} that remembers the threads it creates, so that the
+ * CPU time they use and the memory they allocate can be measured apart from
+ * the rest of the process
+ * <p>
+ * Allocation is only measured on JVMs that expose it through the HotSpot
+ * extension of {@link ThreadMXBean}. Elsewhere, it is reported as -1.
+ *
+ * @author patrick.theisen
+ */
+final class ThreadUsage implements ThreadFactory {
+	private final String prefix;
+	private final AtomicInteger count = new AtomicInteger();
+	private final List<Thread> threads = new CopyOnWriteArrayList<>();
+	private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+	/**
+	 * @param prefix The prefix of the names of the threads
+	 */
+	public ThreadUsage(String prefix) {
+		this.prefix = prefix;
+		if(bean.isThreadCpuTimeSupported()) {
+			bean.setThreadCpuTimeEnabled(true);
+		}
+		if(bean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+			if(hotspot.isThreadAllocatedMemorySupported()) {
+				hotspot.setThreadAllocatedMemoryEnabled(true);
+			}
+		}
+	}
+
+	@Override
+	public Thread newThread(Runnable task) {
+		Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		threads.add(thread);
+		return thread;
+	}
+
+	/**
+	 * @return The CPU time used by the threads so far, in nanoseconds. The time
+	 * of threads that have finished is not counted.
+	 */
+	public long getCpuTime() {
+		long total = 0;
+		for(Thread thread : threads) {
+			long time = bean.getThreadCpuTime(thread.getId());
+			if(time > 0) {
+				total += time;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * @return The bytes allocated by the threads so far, or -1 if that cannot
+	 * be measured on this JVM
+	 */
+	public long getAllocatedBytes() {
+		if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+		long total = 0;
+		for(Thread thread : threads) {
+			long bytes = hotspot.getThreadAllocatedBytes(thread.getId());
+			if(bytes > 0) {
+				total += bytes;
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,94 @@
+package com.theisenp.harbor.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.Timeout;
+import com.theisenp.harbor.timing.TimeoutScheduler;
+import com.theisenp.harbor.timing.TimingWheel;
+
+/**
+ * Compares the cost of refreshing peer timeouts on every heartbeat when each
+ * timeout is its own executor task against a {@link TimingWheel}
+ * 
+ * @author patrick.theisen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimeoutsBenchmark {
+	private static final long TIMEOUT = 5000;
+
+	@Param({ "1000", "20000" })
+	public int peers;
+
+	@Param({ "executor", "wheel" })
+	public String scheduler;
+
+	private ScheduledExecutorService executor;
+	private Timeout[] timeouts;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+
+		TimeoutScheduler timeoutScheduler;
+		if(scheduler.equals("wheel")) {
+			timeoutScheduler = new TimingWheel(executor, Duration.millis(10));
+		}
+		else {
+			timeoutScheduler = new ExecutorTimeoutScheduler(executor);
+		}
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+		timeouts = new Timeout[peers];
+		for(int i = 0; i < peers; i++) {
+			timeouts[i] = timeoutScheduler.schedule(task, TIMEOUT, MILLISECONDS);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Refreshes the timeout of the next peer in round robin order, just as the
+	 * subscriber does for each received heartbeat
+	 * 
+	 * @return
+	 */
+	@Benchmark
+	public boolean heartbeat() {
+		Timeout timeout = timeouts[next];
+		next = (next + 1) % peers;
+		return timeout.reset(TIMEOUT, MILLISECONDS);
+	}
+}
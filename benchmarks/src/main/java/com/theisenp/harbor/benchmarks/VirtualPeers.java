@@ -0,0 +1,261 @@
+package com.theisenp.harbor.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.lcm.Advertisement;
+import com.theisenp.harbor.lcm.EncodedMessage;
+import com.theisenp.harbor.lcm.Network;
+import com.theisenp.harbor.utils.LcmConstants;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * A population of simulated peers, which advertise themselves on a
+ * {@link Network} from a single thread
+ * <p>
+ * Each peer publishes its pre-encoded advertisement once per period, offset by
+ * a random jitter, and each advertisement is lost with a fixed probability.
+ * Churn replaces randomly chosen peers with new ones at a fixed rate, so that
+ * the population stays the same size. The first advertisement of each peer and
+ * the moment it leaves are recorded, so that receivers can measure how long
+ * they took to notice.
+ *
+ * @author patrick.theisen
+ */
+final class VirtualPeers implements Runnable {
+	private final Network network;
+	private final int size;
+	private final long period;
+	private final double jitter;
+	private final double loss;
+	private final long churnInterval;
+	private final Random random = new Random();
+	private final ConcurrentMap<String, VirtualPeer> peers = new ConcurrentHashMap<>();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong lost = new AtomicLong();
+	private final AtomicLong maxLag = new AtomicLong();
+
+	// Only accessed from the publish thread
+	private final PriorityQueue<VirtualPeer> schedule = new PriorityQueue<>();
+	private final List<VirtualPeer> live = new ArrayList<>();
+	private int seed;
+
+	private volatile boolean stopped;
+
+	/**
+	 * @param network
+	 * @param size The number of peers
+	 * @param period The period of each peer, in nanoseconds
+	 * @param jitter The largest offset of an advertisement, as a fraction of
+	 * the period
+	 * @param loss The probability that an advertisement is lost
+	 * @param churn The number of peers replaced per second
+	 */
+	public VirtualPeers(Network network, int size, long period, double jitter, double loss,
+			double churn) {
+		this.network = network;
+		this.size = size;
+		this.period = period;
+		this.jitter = jitter;
+		this.loss = loss;
+		this.churnInterval = (churn > 0) ? (long) (TimeUnit.SECONDS.toNanos(1) / churn)
+				: Long.MAX_VALUE;
+	}
+
+	/**
+	 * @param id
+	 * @return The simulated peer with the given id, including one that has
+	 * left, or null if there is none
+	 */
+	public VirtualPeer get(String id) {
+		return peers.get(id);
+	}
+
+	/**
+	 * @return The number of advertisements published
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * @return The number of advertisements lost on purpose
+	 */
+	public long getLost() {
+		return lost.get();
+	}
+
+	/**
+	 * @return The furthest behind schedule that an advertisement was published
+	 * since the last call, in nanoseconds, which shows whether the generator
+	 * itself is keeping up
+	 */
+	public long takeMaxLag() {
+		return maxLag.getAndSet(0);
+	}
+
+	/**
+	 * Stops publishing
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	@Override
+	public void run() {
+		// Spread the first advertisements evenly across one period
+		long start = System.nanoTime();
+		for(int i = 0; i < size; i++) {
+			join(start + (long) (random.nextDouble() * period));
+		}
+
+		long nextChurn = (churnInterval == Long.MAX_VALUE) ? Long.MAX_VALUE
+				: start + churnInterval;
+		while(!stopped) {
+			long now = System.nanoTime();
+			if(now >= nextChurn) {
+				churn(now);
+				nextChurn += churnInterval;
+				continue;
+			}
+
+			VirtualPeer peer = schedule.peek();
+			if(peer == null || peer.next > now) {
+				long wake = (peer == null) ? nextChurn : Math.min(peer.next, nextChurn);
+				LockSupport.parkNanos(Math.min(wake - now, TimeUnit.MILLISECONDS.toNanos(10)));
+				continue;
+			}
+
+			schedule.poll();
+			if(!peer.alive) {
+				continue;
+			}
+			publish(peer, now);
+			long offset = (long) ((2 * random.nextDouble() - 1) * jitter * period);
+			peer.next += period + offset;
+			schedule.add(peer);
+		}
+	}
+
+	/**
+	 * Publishes the advertisement of the given peer, unless it is lost
+	 *
+	 * @param peer
+	 * @param now
+	 */
+	private void publish(VirtualPeer peer, long now) {
+		long lag = now - peer.next;
+		if(lag > maxLag.get()) {
+			maxLag.set(lag);
+		}
+
+		if(random.nextDouble() < loss) {
+			lost.incrementAndGet();
+			return;
+		}
+
+		// Receivers may see the first advertisement before publish returns
+		if(peer.joined == 0) {
+			peer.joined = System.nanoTime();
+		}
+		EncodedMessage encoded = peer.encoded;
+		try {
+			network.publish(LcmConstants.PEER_CHANNEL, encoded.getBuffer(), 0,
+					encoded.getLength());
+		}
+		catch(IOException exception) {
+			stopped = true;
+			return;
+		}
+		sent.incrementAndGet();
+	}
+
+	/**
+	 * Adds a new peer, whose first advertisement is due at the given time
+	 *
+	 * @param next
+	 */
+	private void join(long next) {
+		VirtualPeer peer = new VirtualPeer(BenchmarkPeers.mockPeer(seed++), next);
+		peers.put(peer.id, peer);
+		live.add(peer);
+		schedule.add(peer);
+	}
+
+	/**
+	 * Replaces a randomly chosen peer with a new one
+	 *
+	 * @param now
+	 */
+	private void churn(long now) {
+		if(!live.isEmpty()) {
+			int index = random.nextInt(live.size());
+			VirtualPeer leaving = live.get(index);
+			live.set(index, live.get(live.size() - 1));
+			live.remove(live.size() - 1);
+			leaving.left = now;
+			leaving.alive = false;
+		}
+		join(now);
+	}
+
+	/**
+	 * A simulated peer, ordered by the time of its next advertisement
+	 *
+	 * @author patrick.theisen
+	 */
+	static final class VirtualPeer implements Comparable<VirtualPeer> {
+		private final String id;
+		private final EncodedMessage encoded;
+		private long next;
+		private volatile boolean alive = true;
+		private volatile long joined;
+		private volatile long left;
+
+		/**
+		 * @param peer
+		 * @param next
+		 */
+		private VirtualPeer(Peer peer, long next) {
+			this.id = peer.getId();
+			this.encoded = new EncodedMessage(PeerUtils.toMessage(new Advertisement(peer)));
+			this.next = next;
+		}
+
+		/**
+		 * @return True if the peer has not left
+		 */
+		public boolean isAlive() {
+			return alive;
+		}
+
+		/**
+		 * @return When the first advertisement of the peer was published, or 0
+		 * if none has been
+		 */
+		public long getJoined() {
+			return joined;
+		}
+
+		/**
+		 * @return When the peer left, or 0 if it has not
+		 */
+		public long getLeft() {
+			return left;
+		}
+
+		@Override
+		public int compareTo(VirtualPeer other) {
+			return Long.compare(next, other.next);
+		}
+	}
+}
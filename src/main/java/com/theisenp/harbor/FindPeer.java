@@ -1,32 +1,88 @@
 package com.theisenp.harbor;
 
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.joda.time.Duration;
+
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
 import com.theisenp.harbor.filters.Filter;
 
 /**
  * An {@link AsyncFunction} that returns the first {@link Peer} that passes the
  * given {@link Filter}
+ * <p>
+ * The search registers its listener with the filter, so it is only woken by
+ * events for peers that could pass. The listener is removed as soon as the
+ * result completes, whether it was found, cancelled or timed out.
  * 
  * @author patrick.theisen
  */
 public class FindPeer implements AsyncFunction<Harbor, Peer> {
 	private final Filter filter;
+	private final Duration timeout;
+	private final ScheduledExecutorService scheduler;
 
 	/**
+	 * Waits indefinitely
+	 * 
 	 * @param filter
 	 */
 	public FindPeer(Filter filter) {
 		this.filter = filter;
+		this.timeout = null;
+		this.scheduler = null;
+	}
+
+	/**
+	 * @param filter
+	 * @param timeout How long to wait before failing the result with a
+	 * {@link TimeoutException}
+	 * @param scheduler The executor on which the timeout is scheduled
+	 */
+	public FindPeer(Filter filter, Duration timeout, ScheduledExecutorService scheduler) {
+		if(timeout.getMillis() < 0) {
+			String message = "The timeout must be >= 0";
+			throw new IllegalArgumentException(message);
+		}
+		this.filter = filter;
+		this.timeout = timeout;
+		this.scheduler = scheduler;
 	}
 
 	@Override
-	public ListenableFuture<Peer> apply(Harbor harbor) throws Exception {
+	public ListenableFuture<Peer> apply(final Harbor harbor) throws Exception {
 		SettableFuture<Peer> result = SettableFuture.create();
-		Listener listener = new FilteredListener(harbor, result);
-		harbor.addListener(listener);
+		final Listener listener = new Waiter(result);
+		// The check is cheap, so run it on the notifying thread rather than
+		// giving each search a thread of its own
+		harbor.addListener(listener, filter, MoreExecutors.directExecutor());
+
+		// However the result completes, stop listening
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				harbor.removeListener(listener);
+			}
+		}, MoreExecutors.directExecutor());
+
+		if(timeout != null) {
+			final ScheduledFuture<?> expiration = scheduler.schedule(new Expire(result),
+					timeout.getMillis(), TimeUnit.MILLISECONDS);
+			result.addListener(new Runnable() {
+				@Override
+				public void run() {
+					expiration.cancel(false);
+				}
+			}, MoreExecutors.directExecutor());
+		}
 
 		synchronized(result) {
 			// Check for a result already set by the listener,
@@ -35,10 +91,9 @@ public class FindPeer implements AsyncFunction<Harbor, Peer> {
 			}
 
 			// Look for results among the existing peers
-			for(Peer peer : harbor.getPeers()) {
+			for(Peer peer : harbor.query(filter)) {
 				if(!result.isDone() && filter.filter(peer)) {
 					result.set(peer);
-					harbor.removeListener(listener);
 					break;
 				}
 			}
@@ -48,20 +103,41 @@ public class FindPeer implements AsyncFunction<Harbor, Peer> {
 	}
 
 	/**
-	 * A {@link Listener} that waits for a Peer that
+	 * Fails the result with a {@link TimeoutException} if it is still pending
 	 * 
 	 * @author patrick.theisen
 	 */
-	private class FilteredListener implements Listener {
-		private final Harbor harbor;
+	private class Expire implements Runnable {
 		private final SettableFuture<Peer> result;
 
 		/**
-		 * @param harbor
 		 * @param result
 		 */
-		public FilteredListener(Harbor harbor, SettableFuture<Peer> result) {
-			this.harbor = harbor;
+		public Expire(SettableFuture<Peer> result) {
+			this.result = result;
+		}
+
+		@Override
+		public void run() {
+			synchronized(result) {
+				String message = "No peer passed the filter within " + timeout;
+				result.setException(new TimeoutException(message));
+			}
+		}
+	}
+
+	/**
+	 * A {@link UpdateListener} that waits for a Peer that passes the {@link Filter}
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class Waiter implements UpdateListener {
+		private final SettableFuture<Peer> result;
+
+		/**
+		 * @param result
+		 */
+		public Waiter(SettableFuture<Peer> result) {
 			this.result = result;
 		}
 
@@ -80,14 +156,18 @@ public class FindPeer implements AsyncFunction<Harbor, Peer> {
 			checkPeer(peer);
 		}
 
+		@Override
+		public void onUpdated(Peer previous, Peer peer) {
+			checkPeer(peer);
+		}
+
 		@Override
 		public void onDisconnected(Peer peer) {
 			checkPeer(peer);
 		}
 
 		/**
-		 * Sets the result and removes the listener if the given {@link Peer}
-		 * passes the {@link Filter}
+		 * Sets the result if the given {@link Peer} passes the {@link Filter}
 		 * 
 		 * @param peer
 		 */
@@ -95,7 +175,6 @@ public class FindPeer implements AsyncFunction<Harbor, Peer> {
 			synchronized(result) {
 				if(!result.isDone() && filter.filter(peer)) {
 					result.set(peer);
-					harbor.removeListener(this);
 				}
 			}
 		}
@@ -3,25 +3,48 @@ package com.theisenp.harbor;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
+import java.util.Map;
 import java.util.Set;
-
-import lcm.lcm.LCM;
+import java.util.concurrent.Executor;
 
 import org.joda.time.Duration;
 
+import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import com.theisenp.harbor.capture.CaptureWriter;
+import com.theisenp.harbor.detection.FailureDetector;
+import com.theisenp.harbor.detection.FixedTimeoutDetector;
+import com.theisenp.harbor.detection.PhiAccrualDetector;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.dispatch.ListenerStats;
 import com.theisenp.harbor.filters.Filter;
-import com.theisenp.harbor.lcm.Initialize;
+import com.theisenp.harbor.lcm.Acquire;
+import com.theisenp.harbor.lcm.LcmNetwork;
+import com.theisenp.harbor.lcm.MemoryNetwork;
+import com.theisenp.harbor.lcm.Network;
 import com.theisenp.harbor.lcm.Publisher;
+import com.theisenp.harbor.lcm.Receiver;
+import com.theisenp.harbor.lcm.Release;
+import com.theisenp.harbor.lcm.SharedTransport;
 import com.theisenp.harbor.lcm.Subscribe;
 import com.theisenp.harbor.lcm.Subscriber;
 import com.theisenp.harbor.lcm.Unsubscribe;
+import com.theisenp.harbor.lcm.WireFormat;
+import com.theisenp.harbor.metrics.FlightRecorder;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.metrics.PrometheusExporter;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.TimeoutScheduler;
+import com.theisenp.harbor.timing.TimingWheel;
+import com.theisenp.harbor.timing.VirtualScheduler;
 import com.theisenp.harbor.utils.HarborUtils;
 
 /**
- * An LCM based peer discovery utility
+ * A peer discovery utility, which runs over LCM unless it is given another
+ * {@link Network}
  * 
  * @author patrick.theisen
  */
@@ -35,43 +58,95 @@ public class Harbor {
 	private final String address;
 	private final int port;
 	private final int ttl;
+	private final Network.Factory network;
 	private final Duration period;
+	private final Duration maxPeriod;
+	private final long bandwidth;
 	private final Duration timeout;
-	private final Peer self;
+	private final FailureDetector failureDetector;
+	private final Duration tick;
+	private final int listenerCapacity;
+	private final WireFormat format;
+	private final ListeningScheduledExecutorService sharedExecutor;
+	private final Clock clock;
+	private volatile Peer self;
 
 	private final ListeningScheduledExecutorService executor;
-	private final ListenableFuture<LCM> lcm;
+	private final HarborMetrics metrics;
+	private final FlightRecorder recorder;
+	private final TimeoutScheduler scheduler;
+	private final Dispatcher dispatcher;
 	private final Publisher publisher;
 	private final Subscriber subscriber;
+	private ListenableFuture<SharedTransport> transport;
 	private ListenableFuture<Object> publishTask;
 
 	/**
 	 * @param address
 	 * @param port
 	 * @param ttl
-	 * @param periodMillis
-	 * @param timeoutMillis
+	 * @param period
+	 * @param timeout
+	 * @param self
 	 */
 	public Harbor(String address, int port, int ttl, Duration period, Duration timeout, Peer self) {
-		this.address = address;
-		this.port = port;
-		this.ttl = ttl;
-		this.period = period;
-		this.timeout = timeout;
-		this.self = self;
+		this(new Builder().address(address).port(port).ttl(ttl).period(period).timeout(timeout)
+				.self(self));
+	}
 
-		// Validate the parameters
-		HarborUtils.validateAddress(address);
-		HarborUtils.validatePort(port);
-		HarborUtils.validateTtl(ttl);
-		HarborUtils.validatePeriod(period);
-		HarborUtils.validateTimeout(timeout);
+	/**
+	 * @param builder
+	 */
+	private Harbor(Builder builder) {
+		this.address = builder.address;
+		this.port = builder.port;
+		this.ttl = builder.ttl;
+		this.network = builder.network;
+		this.period = builder.period;
+		this.maxPeriod = builder.maxPeriod;
+		this.bandwidth = builder.bandwidth;
+		this.timeout = builder.timeout;
+		this.failureDetector = builder.failureDetector;
+		this.tick = builder.tick;
+		this.listenerCapacity = builder.listenerCapacity;
+		this.format = builder.format;
+		this.sharedExecutor = builder.executor;
+		this.clock = builder.clock;
+		this.self = builder.self;
+
+		if(sharedExecutor != null) {
+			executor = sharedExecutor;
+		}
+		else {
+			executor = listeningDecorator(newSingleThreadScheduledExecutor());
+		}
+		metrics = builder.metrics ? new HarborMetrics(self.getId(), clock) : null;
+		recorder = new FlightRecorder(builder.recorderCapacity, clock);
+		Duration ceiling = (maxPeriod == null) ? period : maxPeriod;
+		publisher = new Publisher(executor, clock, period, ceiling, self, format);
+		publisher.instrument(metrics);
+		if(bandwidth != Publisher.UNLIMITED) {
+			publisher.capBandwidth(bandwidth, new GroupSize());
+		}
 
-		// Initialize the LCM instance on a background thread
-		executor = listeningDecorator(newSingleThreadScheduledExecutor());
-		lcm = executor.submit(new Initialize(address, port, ttl));
-		publisher = new Publisher(executor, period, self);
-		subscriber = new Subscriber(executor, timeout, self);
+		// Drive the peer timeouts from a timing wheel if a tick was provided
+		if(tick != null) {
+			scheduler = new TimingWheel(executor, clock, tick);
+		}
+		else {
+			scheduler = new ExecutorTimeoutScheduler(executor);
+		}
+		FailureDetector detector = failureDetector;
+		if(detector == null) {
+			detector = new FixedTimeoutDetector(timeout);
+		}
+		dispatcher = new Dispatcher(listenerCapacity, metrics, recorder, clock);
+		subscriber = new Subscriber(scheduler, dispatcher, detector, clock, self);
+		subscriber.instrument(metrics);
+		subscriber.setRecorder(recorder);
+		if(metrics != null) {
+			metrics.setSource(new Gauges());
+		}
 	}
 
 	/**
@@ -84,6 +159,43 @@ public class Harbor {
 		subscriber.addListener(listener);
 	}
 
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * when peers change status. Notifications are delivered in order on the
+	 * given {@link Executor}.
+	 * 
+	 * @param listener
+	 * @param executor
+	 */
+	public void addListener(Listener listener, Executor executor) {
+		subscriber.addListener(listener, executor);
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * when peers that pass the given {@link Filter} change status. Events for
+	 * other peers never reach the listener.
+	 * 
+	 * @param listener
+	 * @param filter
+	 */
+	public void addListener(Listener listener, Filter filter) {
+		subscriber.addListener(listener, filter);
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * when peers that pass the given {@link Filter} change status.
+	 * Notifications are delivered in order on the given {@link Executor}.
+	 * 
+	 * @param listener
+	 * @param filter
+	 * @param executor
+	 */
+	public void addListener(Listener listener, Filter filter, Executor executor) {
+		subscriber.addListener(listener, filter, executor);
+	}
+
 	/**
 	 * Removes the given {@link Listener} from the set of those that will be
 	 * notified when peers change status
@@ -94,6 +206,13 @@ public class Harbor {
 		subscriber.removeListener(listener);
 	}
 
+	/**
+	 * @return A snapshot of the queue feeding each queued {@link Listener}
+	 */
+	public Map<Listener, ListenerStats> getListenerStats() {
+		return subscriber.getListenerStats();
+	}
+
 	/**
 	 * @return
 	 */
@@ -115,6 +234,13 @@ public class Harbor {
 		return ttl;
 	}
 
+	/**
+	 * @return The factory of the network on which the harbor discovers peers
+	 */
+	public Network.Factory getNetwork() {
+		return network;
+	}
+
 	/**
 	 * @return
 	 */
@@ -122,6 +248,22 @@ public class Harbor {
 		return period;
 	}
 
+	/**
+	 * @return The longest interval between publications on the adaptive
+	 * schedule, or null if the self peer is published at a fixed rate
+	 */
+	public Duration getMaxPeriod() {
+		return maxPeriod;
+	}
+
+	/**
+	 * @return The bandwidth budget for the advertisements of the whole group,
+	 * in bytes per second, or {@link Publisher#UNLIMITED} if it is not capped
+	 */
+	public long getBandwidth() {
+		return bandwidth;
+	}
+
 	/**
 	 * @return
 	 */
@@ -129,6 +271,78 @@ public class Harbor {
 		return timeout;
 	}
 
+	/**
+	 * @return The detector that decides when peers become inactive and
+	 * disconnected, or null if they time out after the fixed timeout
+	 */
+	public FailureDetector getFailureDetector() {
+		return failureDetector;
+	}
+
+	/**
+	 * @return The resolution of the timing wheel that drives peer timeouts, or
+	 * null if each timeout is scheduled individually
+	 */
+	public Duration getTick() {
+		return tick;
+	}
+
+	/**
+	 * @return The size of each listener's queue, or {@link Dispatcher#INLINE}
+	 * if listeners are invoked inline
+	 */
+	public int getListenerCapacity() {
+		return listenerCapacity;
+	}
+
+	/**
+	 * @return The format in which the self peer is advertised
+	 */
+	public WireFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The executor on which the harbor's tasks run, or null if it
+	 * runs them on its own thread
+	 */
+	public ListeningScheduledExecutorService getExecutor() {
+		return sharedExecutor;
+	}
+
+	/**
+	 * @return The clock from which the harbor reads the time
+	 */
+	public Clock getClock() {
+		return clock;
+	}
+
+	/**
+	 * @return The registry of the harbor's metrics, or null if metrics are
+	 * disabled
+	 */
+	public HarborMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Hands each datagram that the harbor receives to the given
+	 * {@link Receiver}, such as a {@link CaptureWriter}, before handling it
+	 * 
+	 * @param tap The receiver, or null to stop handing it datagrams
+	 */
+	public void setTap(Receiver tap) {
+		subscriber.setTap(tap);
+	}
+
+	/**
+	 * @return The recorder of the most recent peer events seen by the harbor,
+	 * which can be dumped at any time
+	 */
+	public FlightRecorder getRecorder() {
+		return recorder;
+	}
+
 	/**
 	 * @return
 	 */
@@ -136,6 +350,60 @@ public class Harbor {
 		return self;
 	}
 
+	/**
+	 * Starts advertising an additional local {@link Peer} alongside the self
+	 * peer. All local peers share the same {@link SharedTransport} and publish
+	 * task. Adding a peer with the id of one that is already advertised
+	 * replaces it with a new version.
+	 * 
+	 * @param peer
+	 */
+	public void addSelf(Peer peer) {
+		// Ignore the peer before it starts advertising, so that it is never
+		// discovered by its own harbor
+		subscriber.addSelf(peer);
+		publisher.addSelf(peer);
+	}
+
+	/**
+	 * Replaces the self peer with the given {@link Peer}, which must have the
+	 * same id. Its new advertisement is encoded once and swapped in whole, and
+	 * is published immediately rather than at the next period.
+	 * 
+	 * @param peer
+	 */
+	public synchronized void updateSelf(Peer peer) {
+		if(!peer.getId().equals(self.getId())) {
+			String message = "The self peer must keep the id: " + self.getId();
+			throw new IllegalArgumentException(message);
+		}
+		subscriber.addSelf(peer);
+		publisher.updateSelf(peer);
+		self = peer;
+	}
+
+	/**
+	 * Stops advertising the additional local {@link Peer} with the given id
+	 * 
+	 * @param id
+	 */
+	public void removeSelf(String id) {
+		if(id.equals(self.getId())) {
+			String message = "The self peer cannot be removed";
+			throw new IllegalArgumentException(message);
+		}
+		publisher.removeSelf(id);
+		subscriber.removeSelf(id);
+	}
+
+	/**
+	 * @return The current set of advertised local peers, including the self
+	 * peer
+	 */
+	public Set<Peer> getSelves() {
+		return publisher.getSelves();
+	}
+
 	/**
 	 * @return The current set of known peers
 	 */
@@ -144,20 +412,52 @@ public class Harbor {
 	}
 
 	/**
-	 * Starts the publish and subscribe tasks
+	 * Type, protocol and status filters, and any conjunction or disjunction of
+	 * them, are answered from indexes rather than by checking every peer
+	 * 
+	 * @param filter
+	 * @return The current set of known peers that pass the given {@link Filter}
+	 */
+	public Set<Peer> query(Filter filter) {
+		return subscriber.query(filter);
+	}
+
+	/**
+	 * Starts the publish and subscribe tasks. Every open Harbor in the process
+	 * that uses the same multicast group and network factory shares a single
+	 * {@link SharedTransport}, through which they also discover each other
+	 * directly. The transport's {@link Network} is opened by the first of them.
+	 * If metrics are enabled, they are registered with the platform MBean
+	 * server.
 	 */
 	public void open() {
-		Futures.transform(lcm, new Subscribe(subscriber));
-		publishTask = Futures.transform(lcm, publisher);
+		if(metrics != null) {
+			metrics.register();
+		}
+
+		// Acquire the transport on a background thread
+		transport = executor.submit(new Acquire(network, clock, address, port, ttl));
+		Futures.transform(transport, new Subscribe(subscriber, format));
+		publishTask = Futures.transform(transport, publisher);
 	}
 
 	/**
-	 * Stops the publish and subscribe tasks
+	 * Stops the publish and subscribe tasks, and the delivery threads of any
+	 * queued listeners once they have caught up. The listeners stay
+	 * registered if the harbor is opened again.
 	 */
 	public void close() {
-		Futures.transform(lcm, new Unsubscribe(subscriber));
+		Futures.transform(transport, new Unsubscribe(subscriber, format));
 		subscriber.clear();
 		publishTask.cancel(true);
+		Futures.transform(transport, new Release());
+		if(scheduler instanceof TimingWheel) {
+			((TimingWheel) scheduler).stop();
+		}
+		dispatcher.stop();
+		if(metrics != null) {
+			metrics.unregister();
+		}
 	}
 
 	/**
@@ -174,6 +474,56 @@ public class Harbor {
 		}
 	}
 
+	/**
+	 * @param filter
+	 * @param timeout
+	 * @return A {@link ListenableFuture} completed by the first {@link Peer}
+	 * that passes the given {@link Filter}, or failed with a
+	 * {@link java.util.concurrent.TimeoutException} if none does within the
+	 * given timeout. Cancelling it stops the search.
+	 */
+	public ListenableFuture<Peer> find(Filter filter, Duration timeout) {
+		try {
+			return new FindPeer(filter, timeout, executor).apply(this);
+		}
+		catch(Exception exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * A {@link Supplier} of the number of peers known to this instance, from
+	 * which the publisher estimates the size of the group
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class GroupSize implements Supplier<Integer> {
+
+		@Override
+		public Integer get() {
+			return subscriber.getPeerCount();
+		}
+	}
+
+	/**
+	 * A {@link HarborMetrics.Source} that reads the peer counts and pending
+	 * timeouts of this instance
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class Gauges implements HarborMetrics.Source {
+
+		@Override
+		public int getPeerCount(Peer.Status status) {
+			return subscriber.getPeerCount(status);
+		}
+
+		@Override
+		public int getPendingTimeouts() {
+			return scheduler.getPendingCount();
+		}
+	}
+
 	/**
 	 * A fluent builder for {@link Harbor}
 	 * 
@@ -183,8 +533,19 @@ public class Harbor {
 		private String address = DEFAULT_ADDRESS;
 		private int port = DEFAULT_PORT;
 		private int ttl = DEFAULT_TTL;
+		private Network.Factory network = LcmNetwork.FACTORY;
 		private Duration period = DEFAULT_PERIOD;
+		private Duration maxPeriod;
+		private long bandwidth = Publisher.UNLIMITED;
 		private Duration timeout = DEFAULT_TIMEOUT;
+		private FailureDetector failureDetector;
+		private Duration tick;
+		private int listenerCapacity = Dispatcher.INLINE;
+		private WireFormat format = WireFormat.FULL;
+		private ListeningScheduledExecutorService executor;
+		private Clock clock = Clock.SYSTEM;
+		private boolean metrics;
+		private int recorderCapacity = FlightRecorder.DEFAULT_CAPACITY;
 		private Peer self;
 
 		/**
@@ -200,8 +561,19 @@ public class Harbor {
 			this.address = other.address;
 			this.port = other.port;
 			this.ttl = other.ttl;
+			this.network = other.network;
 			this.period = other.period;
+			this.maxPeriod = other.maxPeriod;
+			this.bandwidth = other.bandwidth;
 			this.timeout = other.timeout;
+			this.failureDetector = other.failureDetector;
+			this.tick = other.tick;
+			this.listenerCapacity = other.listenerCapacity;
+			this.format = other.format;
+			this.executor = other.sharedExecutor;
+			this.clock = other.clock;
+			this.metrics = other.metrics != null;
+			this.recorderCapacity = other.recorder.getCapacity();
 			this.self = other.self;
 		}
 
@@ -235,6 +607,20 @@ public class Harbor {
 			return this;
 		}
 
+		/**
+		 * Discovers peers on a {@link Network} opened by the given factory,
+		 * rather than over LCM. The harbors in the process for which the
+		 * factory gives the same url share one network. A
+		 * {@link MemoryNetwork} is a factory of in-process networks.
+		 * 
+		 * @param network
+		 * @return This instance
+		 */
+		public Builder network(Network.Factory network) {
+			this.network = network;
+			return this;
+		}
+
 		/**
 		 * @param period
 		 * @return This instance
@@ -245,6 +631,35 @@ public class Harbor {
 			return this;
 		}
 
+		/**
+		 * Publishes on an adaptive schedule, rather than at a fixed rate. The
+		 * interval between publications starts at the period and doubles up to
+		 * the given maximum while the local peers are unchanged. Subscribers
+		 * stretch their timeouts to match.
+		 * 
+		 * @param maxPeriod
+		 * @return This instance
+		 */
+		public Builder maxPeriod(Duration maxPeriod) {
+			HarborUtils.validateMaxPeriod(maxPeriod);
+			this.maxPeriod = maxPeriod;
+			return this;
+		}
+
+		/**
+		 * Caps the bandwidth that the advertisements of every peer on the
+		 * segment use together. The period stretches as the number of known
+		 * peers grows, and subscribers stretch their timeouts to match.
+		 * 
+		 * @param bandwidth The budget, in bytes per second
+		 * @return This instance
+		 */
+		public Builder bandwidth(long bandwidth) {
+			HarborUtils.validateBandwidth(bandwidth);
+			this.bandwidth = bandwidth;
+			return this;
+		}
+
 		/**
 		 * @param timeout
 		 * @return This instance
@@ -255,6 +670,108 @@ public class Harbor {
 			return this;
 		}
 
+		/**
+		 * Decides when peers become inactive and disconnected with the given
+		 * {@link FailureDetector}, such as a {@link PhiAccrualDetector},
+		 * rather than after the fixed timeout
+		 * 
+		 * @param failureDetector
+		 * @return This instance
+		 */
+		public Builder failureDetector(FailureDetector failureDetector) {
+			this.failureDetector = failureDetector;
+			return this;
+		}
+
+		/**
+		 * Drives peer timeouts from a timing wheel with the given resolution,
+		 * rather than scheduling each timeout individually
+		 * 
+		 * @param tick
+		 * @return This instance
+		 */
+		public Builder tick(Duration tick) {
+			HarborUtils.validateTick(tick);
+			this.tick = tick;
+			return this;
+		}
+
+		/**
+		 * Gives each listener its own bounded queue of the given size and its
+		 * own delivery thread, rather than invoking listeners inline. Once a
+		 * listener's queue is full, connections and disconnections are still
+		 * queued, and its other events are merged per peer until it catches
+		 * up.
+		 * 
+		 * @param listenerCapacity
+		 * @return This instance
+		 */
+		public Builder listenerCapacity(int listenerCapacity) {
+			HarborUtils.validateListenerCapacity(listenerCapacity);
+			this.listenerCapacity = listenerCapacity;
+			return this;
+		}
+
+		/**
+		 * Sets the format in which the self peer is advertised. Peers are
+		 * discovered in either format, but only peers using the
+		 * {@link WireFormat#COMPACT} format answer descriptor requests.
+		 * 
+		 * @param format
+		 * @return This instance
+		 */
+		public Builder format(WireFormat format) {
+			this.format = format;
+			return this;
+		}
+
+		/**
+		 * Runs the harbor's publish, timeout and search tasks on the given
+		 * executor and reads the time from the given {@link Clock}, rather
+		 * than using a thread of its own and the system clock. A
+		 * {@link VirtualScheduler} is both, so that any number of harbors
+		 * can be run together in virtual time. Their tasks, including the
+		 * one that acquires the transport when a harbor opens, then only run
+		 * as the virtual clock advances.
+		 * 
+		 * @param executor
+		 * @param clock The clock of the executor
+		 * @return This instance
+		 */
+		public Builder executor(ListeningScheduledExecutorService executor, Clock clock) {
+			this.executor = executor;
+			this.clock = clock;
+			return this;
+		}
+
+		/**
+		 * Records the harbor's traffic, peer transitions and listener
+		 * callbacks in a {@link HarborMetrics} registry, which is exposed
+		 * over JMX while the harbor is open and can be served to Prometheus
+		 * by a {@link PrometheusExporter}. Disabled by default, in which case
+		 * nothing is recorded or timed.
+		 * 
+		 * @param metrics
+		 * @return This instance
+		 */
+		public Builder metrics(boolean metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+
+		/**
+		 * Sets the number of recent peer events that are kept by the harbor's
+		 * {@link FlightRecorder}, which is rounded up to a power of two
+		 * 
+		 * @param recorderCapacity
+		 * @return This instance
+		 */
+		public Builder recorderCapacity(int recorderCapacity) {
+			HarborUtils.validateRecorderCapacity(recorderCapacity);
+			this.recorderCapacity = recorderCapacity;
+			return this;
+		}
+
 		/**
 		 * @param self
 		 * @return This instance
@@ -273,8 +790,19 @@ public class Harbor {
 			address = DEFAULT_ADDRESS;
 			port = DEFAULT_PORT;
 			ttl = DEFAULT_TTL;
+			network = LcmNetwork.FACTORY;
 			period = DEFAULT_PERIOD;
+			maxPeriod = null;
+			bandwidth = Publisher.UNLIMITED;
 			timeout = DEFAULT_TIMEOUT;
+			failureDetector = null;
+			tick = null;
+			listenerCapacity = Dispatcher.INLINE;
+			format = WireFormat.FULL;
+			executor = null;
+			clock = Clock.SYSTEM;
+			metrics = false;
+			recorderCapacity = FlightRecorder.DEFAULT_CAPACITY;
 			self = null;
 			return this;
 		}
@@ -286,7 +814,7 @@ public class Harbor {
 		 */
 		public Harbor build() {
 			validate();
-			return new Harbor(address, port, ttl, period, timeout, self);
+			return new Harbor(this);
 		}
 
 		/**
@@ -299,11 +827,42 @@ public class Harbor {
 				String message = "You must provide a self peer";
 				throw new IllegalStateException(message);
 			}
+
+			// Check the network
+			if(network == null) {
+				String message = "You must provide a network";
+				throw new IllegalStateException(message);
+			}
+
+			// Check the wire format
+			if(format == null) {
+				String message = "You must provide a wire format";
+				throw new IllegalStateException(message);
+			}
+
+			// Check the clock
+			if(clock == null) {
+				String message = "You must provide a clock";
+				throw new IllegalStateException(message);
+			}
+
+			// Check the adaptive schedule
+			if(maxPeriod != null && maxPeriod.isShorterThan(period)) {
+				String message = "The maximum period must be >= the period";
+				throw new IllegalStateException(message);
+			}
+
+			// Check the bandwidth cap
+			if(maxPeriod != null && bandwidth != Publisher.UNLIMITED) {
+				String message = "The bandwidth of an adaptive schedule cannot be capped";
+				throw new IllegalStateException(message);
+			}
 		}
 	}
 
 	/**
-	 * A collection of {@link Harbor} related callbacks
+	 * A collection of {@link Harbor} related callbacks. Listeners that also
+	 * implement {@link UpdateListener} are notified of descriptor updates.
 	 * 
 	 * @author patrick.theisen
 	 */
@@ -339,12 +898,13 @@ public class Harbor {
 		public void onDisconnected(Peer peer);
 
 		/**
-		 * An empty implementation of {@link Listener} provided as a convenience
-		 * for clients that only need to handle a subset of the event types
+		 * An empty implementation of {@link UpdateListener} provided as a
+		 * convenience for clients that only need to handle a subset of the
+		 * event types
 		 * 
 		 * @author patrick.theisen
 		 */
-		public static abstract class Adapter implements Listener {
+		public static abstract class Adapter implements UpdateListener {
 
 			@Override
 			public void onConnected(Peer peer) {
@@ -358,9 +918,31 @@ public class Harbor {
 			public void onInactive(Peer peer) {
 			}
 
+			@Override
+			public void onUpdated(Peer previous, Peer peer) {
+			}
+
 			@Override
 			public void onDisconnected(Peer peer) {
 			}
 		}
 	}
+
+	/**
+	 * A {@link Listener} that is also notified when a known peer changes its
+	 * descriptor
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static interface UpdateListener extends Listener {
+
+		/**
+		 * Called when a known peer advertises a new version of its descriptor.
+		 * Both peers have the status that the peer had at the time.
+		 * 
+		 * @param previous
+		 * @param peer
+		 */
+		public void onUpdated(Peer previous, Peer peer);
+	}
 }
@@ -1,27 +1,48 @@
 package com.theisenp.harbor;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.Objects;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /**
  * An immutable description of a service and the protocols that it supports
+ * <p>
+ * A large group holds many peers that differ only in their ids and addresses,
+ * so peers are laid out compactly. Types, descriptions and protocol names are
+ * interned in a process wide dictionary, and each distinct set of protocol
+ * names is stored once and shared by every peer that supports it. Each peer
+ * then only keeps its own addresses, in an array parallel to the sorted
+ * names. {@link #getProtocols()} is a view that is built on demand.
+ * <p>
+ * A status transition with {@link #withStatus(Status)} shares everything but
+ * the status with the original. The hash code is computed once, the first time
+ * it is needed, so that peers are cheap to keep in hashed collections.
  * 
  * @author patrick.theisen
  */
 public class Peer {
 	private static final String PATTERN = "%s, %s, %s, %s: {%s}";
+	private static final Interner<String> STRINGS = Interners.newWeakInterner();
+	private static final Interner<ProtocolNames> PROTOCOLS = Interners.newWeakInterner();
+	private static final ProtocolNames NO_PROTOCOLS = PROTOCOLS.intern(new ProtocolNames(
+			new String[0]));
 
 	private final String id;
 	private final String type;
 	private final Status status;
 	private final String description;
-	private final ImmutableMap<String, String> protocols;
+	private final ProtocolNames names;
+	private final String[] addresses;
+
+	// Zero until it is first computed, as for String
+	private int hash;
 
 	/**
 	 * @param id
@@ -33,10 +54,38 @@ public class Peer {
 	public Peer(String id, String type, Status status, String description,
 			Map<String, String> protocols) {
 		this.id = id;
-		this.type = type;
-		this.description = description;
+		this.type = intern(type);
+		this.description = intern(description);
+		this.status = status;
+
+		// Sort the names, so that every peer with the same set shares them
+		String[] keys = protocols.keySet().toArray(new String[protocols.size()]);
+		Arrays.sort(keys);
+		this.addresses = new String[keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			addresses[i] = protocols.get(keys[i]);
+			if(addresses[i] == null) {
+				String message = "The address of " + keys[i] + " cannot be null";
+				throw new NullPointerException(message);
+			}
+			keys[i] = STRINGS.intern(keys[i]);
+		}
+		this.names = (keys.length == 0) ? NO_PROTOCOLS : PROTOCOLS.intern(new ProtocolNames(keys));
+	}
+
+	/**
+	 * Copies the given {@link Peer} with a new status, sharing everything else
+	 * 
+	 * @param other
+	 * @param status
+	 */
+	private Peer(Peer other, Status status) {
+		this.id = other.id;
+		this.type = other.type;
+		this.description = other.description;
 		this.status = status;
-		this.protocols = ImmutableMap.copyOf(protocols);
+		this.names = other.names;
+		this.addresses = other.addresses;
 	}
 
 	/**
@@ -68,56 +117,123 @@ public class Peer {
 	}
 
 	/**
-	 * @return
+	 * @return A map from each supported protocol to its address, which is
+	 * built on every call. Prefer {@link #hasProtocol(String)},
+	 * {@link #getAddress(String)} and {@link #getProtocolNames()} where they
+	 * will do.
 	 */
 	public ImmutableMap<String, String> getProtocols() {
-		return protocols;
+		ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+		for(int i = 0; i < addresses.length; i++) {
+			builder.put(names.names[i], addresses[i]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return The names of the supported protocols, in sorted order. Every
+	 * peer that supports the same set of protocols shares the same instance.
+	 */
+	public List<String> getProtocolNames() {
+		return names.list;
+	}
+
+	/**
+	 * @param protocol
+	 * @return True if this peer supports the given protocol. Else, false.
+	 */
+	public boolean hasProtocol(String protocol) {
+		return names.indexOf(protocol) >= 0;
+	}
+
+	/**
+	 * @param protocol
+	 * @return The address for the given protocol, or null if this peer does
+	 * not support it
+	 */
+	public String getAddress(String protocol) {
+		int index = names.indexOf(protocol);
+		return (index < 0) ? null : addresses[index];
+	}
+
+	/**
+	 * @param status
+	 * @return A {@link Peer} that is identical to this one, but for the given
+	 * status. It shares this peer's descriptor rather than copying it.
+	 */
+	public Peer withStatus(Status status) {
+		if(status == this.status) {
+			return this;
+		}
+		if(status == null) {
+			String message = "You must provide a status";
+			throw new IllegalArgumentException(message);
+		}
+		return new Peer(this, status);
 	}
 
 	@Override
 	public boolean equals(Object obj) {
+		if(obj == this) {
+			return true;
+		}
 		if(obj == null || !(obj instanceof Peer)) {
 			return false;
 		}
 
+		// Peers that share a descriptor only need their statuses compared
 		Peer other = (Peer) obj;
-		EqualsBuilder builder = new EqualsBuilder();
-		builder.append(id, other.id);
-		builder.append(type, other.type);
-		builder.append(status, other.status);
-		builder.append(description, other.description);
-		builder.append(protocols, other.protocols);
-		return builder.isEquals();
+		if(status != other.status) {
+			return false;
+		}
+		if(addresses == other.addresses) {
+			return true;
+		}
+		if(hashCode() != other.hashCode()) {
+			return false;
+		}
+		return Objects.equals(id, other.id) && Objects.equals(type, other.type)
+				&& Objects.equals(description, other.description) && names.equals(other.names)
+				&& Arrays.equals(addresses, other.addresses);
 	}
 
 	@Override
 	public int hashCode() {
-		HashCodeBuilder builder = new HashCodeBuilder();
-		builder.append(id);
-		builder.append(type);
-		builder.append(status);
-		builder.append(description);
-		builder.append(protocols);
-		return builder.toHashCode();
+		int result = hash;
+		if(result == 0) {
+			result = Objects.hashCode(id);
+			result = 31 * result + Objects.hashCode(type);
+			result = 31 * result + Objects.hashCode(status);
+			result = 31 * result + Objects.hashCode(description);
+			result = 31 * result + names.hashCode();
+			result = 31 * result + Arrays.hashCode(addresses);
+			hash = result;
+		}
+		return result;
 	}
 
 	@Override
 	public String toString() {
-		int count = 0;
 		StringBuilder builder = new StringBuilder();
-		for(Entry<String, String> entry : protocols.entrySet()) {
+		for(int i = 0; i < addresses.length; i++) {
 			builder.append("(");
-			builder.append(entry.getKey());
+			builder.append(names.names[i]);
 			builder.append(", ");
-			builder.append(entry.getValue());
+			builder.append(addresses[i]);
 			builder.append(")");
-			if(count++ < protocols.size()) {
-				builder.append(", ");
-			}
+			builder.append(", ");
 		}
 		return String.format(PATTERN, id, type, status, description, builder.toString());
 	}
 
+	/**
+	 * @param value
+	 * @return The canonical copy of the given string, or null if it is null
+	 */
+	private static String intern(String value) {
+		return (value == null) ? null : STRINGS.intern(value);
+	}
+
 	/**
 	 * A fluent builder for {@link Peer}
 	 * 
@@ -144,7 +260,9 @@ public class Peer {
 			this.type = other.type;
 			this.status = other.status;
 			this.description = other.description;
-			this.protocols.putAll(other.protocols);
+			for(int i = 0; i < other.addresses.length; i++) {
+				this.protocols.put(other.names.names[i], other.addresses[i]);
+			}
 		}
 
 		/**
@@ -273,4 +391,53 @@ public class Peer {
 	public static enum Status {
 		CONNECTED, ACTIVE, INACTIVE, DISCONNECTED;
 	}
+
+	/**
+	 * A sorted set of protocol names, which is interned so that every peer
+	 * that supports the same protocols shares one instance
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static final class ProtocolNames {
+		private final String[] names;
+		private final ImmutableList<String> list;
+		private final int hash;
+
+		/**
+		 * @param names The sorted names
+		 */
+		private ProtocolNames(String[] names) {
+			this.names = names;
+			this.list = ImmutableList.copyOf(names);
+			this.hash = Arrays.hashCode(names);
+		}
+
+		/**
+		 * @param name
+		 * @return The index of the given name, or a negative number if it is
+		 * not in the set
+		 */
+		private int indexOf(String name) {
+			if(name == null) {
+				return -1;
+			}
+			return Arrays.binarySearch(names, name);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this) {
+				return true;
+			}
+			if(!(obj instanceof ProtocolNames)) {
+				return false;
+			}
+			return Arrays.equals(names, ((ProtocolNames) obj).names);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
 }
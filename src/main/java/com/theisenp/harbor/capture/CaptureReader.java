@@ -0,0 +1,212 @@
+package com.theisenp.harbor.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.theisenp.harbor.lcm.Datagram;
+
+/**
+ * Reads back the records of a capture written by a {@link CaptureWriter}, one
+ * at a time
+ * <p>
+ * The raw bytes of each record are read into a buffer that is reused for the
+ * next one, so reading a capture does not allocate once the buffer has grown
+ * to fit the largest datagram. A capture whose last record was cut short, as
+ * happens when the capturing process is killed, ends at the last complete
+ * record.
+ * 
+ * @author patrick.theisen
+ */
+public class CaptureReader implements Closeable {
+	private static final int INITIAL_CAPACITY = 1 << 16;
+	private static final int MAX_LENGTH = 1 << 24;
+
+	private final DataInputStream input;
+	private final long origin;
+	private final List<String> channels = new ArrayList<>();
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	private boolean truncated;
+	private long time;
+	private String channel;
+	private int length;
+
+	/**
+	 * @param file
+	 * @throws IOException If the file could not be opened or is not a capture
+	 */
+	public CaptureReader(File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	/**
+	 * @param input
+	 * @throws IOException If the header could not be read or is not that of a
+	 * capture
+	 */
+	public CaptureReader(InputStream input) throws IOException {
+		this.input = new DataInputStream(new BufferedInputStream(input));
+		if(this.input.readInt() != CaptureWriter.MAGIC) {
+			String message = "The stream is not a capture";
+			throw new IOException(message);
+		}
+
+		int version = this.input.readUnsignedByte();
+		if(version != CaptureWriter.VERSION) {
+			String message = "Unsupported capture version: " + version;
+			throw new IOException(message);
+		}
+		this.origin = this.input.readLong();
+		this.time = origin;
+	}
+
+	/**
+	 * Reads the next record
+	 * 
+	 * @return True if a record was read. False at the end of the capture.
+	 * @throws IOException If the capture could not be read, or is corrupt
+	 */
+	public boolean next() throws IOException {
+		if(truncated) {
+			return false;
+		}
+
+		// A capture ends cleanly between records
+		int first = input.read();
+		if(first < 0) {
+			return false;
+		}
+
+		try {
+			long delta = readVarLong(first);
+			long index = readVarLong(input.readUnsignedByte());
+			if(index == channels.size()) {
+				byte[] name = new byte[readLength()];
+				input.readFully(name);
+				channels.add(new String(name, StandardCharsets.UTF_8));
+			}
+			else if(index > channels.size()) {
+				String message = "Unknown channel index in capture: " + index;
+				throw new IOException(message);
+			}
+
+			int size = readLength();
+			if(size > buffer.length) {
+				buffer = new byte[Math.max(size, 2 * buffer.length)];
+			}
+			input.readFully(buffer, 0, size);
+
+			time += delta;
+			channel = channels.get((int) index);
+			length = size;
+			return true;
+		}
+		catch(EOFException exception) {
+			truncated = true;
+			return false;
+		}
+	}
+
+	/**
+	 * @return The time at which the capture started, as read from the clock of
+	 * the writer
+	 */
+	public long getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * @return True if the capture ended part way through a record
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return The time at which the current record was received, as read from
+	 * the clock of the writer
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return The channel of the current record
+	 */
+	public String getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return The buffer holding the raw bytes of the current record, from
+	 * offset 0. It is reused by the next record.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The number of raw bytes in the current record
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return A new {@link Datagram} over the raw bytes of the current record,
+	 * which is only valid until the next record is read
+	 */
+	public Datagram getDatagram() {
+		return new Datagram(channel, buffer, 0, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * @return The next length in the capture
+	 * @throws IOException If the length is too large to be that of a datagram
+	 */
+	private int readLength() throws IOException {
+		long length = readVarLong(input.readUnsignedByte());
+		if(length < 0 || length > MAX_LENGTH) {
+			String message = "Record length out of range in capture: " + length;
+			throw new IOException(message);
+		}
+		return (int) length;
+	}
+
+	/**
+	 * Reads the rest of a variable length integer, written seven bits at a
+	 * time from the lowest
+	 * 
+	 * @param first The first byte of the value
+	 * @return
+	 * @throws IOException
+	 */
+	private long readVarLong(int first) throws IOException {
+		long value = first & 0x7F;
+		int shift = 7;
+		int next = first;
+		while((next & 0x80) != 0) {
+			if(shift > 63) {
+				String message = "Malformed variable length integer in capture";
+				throw new IOException(message);
+			}
+			next = input.readUnsignedByte();
+			value |= (long) (next & 0x7F) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,184 @@
+package com.theisenp.harbor.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.theisenp.harbor.lcm.Datagram;
+import com.theisenp.harbor.lcm.Receiver;
+import com.theisenp.harbor.lcm.SharedTransport;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A {@link Receiver} that appends each datagram it is handed to a capture, along
+ * with the time at which it was received, so that the traffic can later be
+ * read back by a {@link CaptureReader} and fed to a subscriber by a
+ * {@link Replay}
+ * <p>
+ * A capture starts with a header holding {@link #MAGIC}, {@link #VERSION} and
+ * the time at which the capture started. Each record then holds the time since
+ * the previous record, the channel, the length and the raw bytes. Times and
+ * lengths are written as variable length integers, and each channel name is
+ * written once, the first time it is used, and referred to by its index after
+ * that. A steady stream of heartbeats costs little more than the datagrams
+ * themselves.
+ * <p>
+ * Records are only ever appended, through a buffer, so a capture that is cut
+ * short loses at most its last few records. If a write fails, the writer stops
+ * capturing rather than failing the subscriber that handed it the datagram,
+ * and the failure is thrown by {@link #close()}.
+ * 
+ * @author patrick.theisen
+ */
+public class CaptureWriter implements Receiver, Closeable {
+	public static final int MAGIC = 0x48435054;
+	public static final int VERSION = 1;
+
+	private final DataOutputStream output;
+	private final Clock clock;
+
+	// Guarded by this
+	private final Map<String, Integer> channels = new HashMap<>();
+	private long previous;
+	private long count;
+	private IOException failure;
+
+	/**
+	 * Creates or replaces the given file
+	 * 
+	 * @param file
+	 * @param clock The clock against which datagrams are timestamped
+	 * @throws IOException If the file could not be opened or the header could
+	 * not be written
+	 */
+	public CaptureWriter(File file, Clock clock) throws IOException {
+		this(new FileOutputStream(file), clock);
+	}
+
+	/**
+	 * @param output
+	 * @param clock The clock against which datagrams are timestamped
+	 * @throws IOException If the header could not be written
+	 */
+	public CaptureWriter(OutputStream output, Clock clock) throws IOException {
+		this.output = new DataOutputStream(new BufferedOutputStream(output));
+		this.clock = clock;
+		this.previous = clock.nanoTime();
+
+		this.output.writeInt(MAGIC);
+		this.output.writeByte(VERSION);
+		this.output.writeLong(previous);
+	}
+
+	@Override
+	public void receive(SharedTransport transport, Datagram datagram) {
+		try {
+			write(datagram.getChannel(), datagram.getBuffer(), datagram.getOffset(),
+					datagram.getLength());
+		}
+		catch(IOException exception) {
+			// Remembered by write, and thrown on close
+		}
+	}
+
+	/**
+	 * Appends a record of the given datagram, timestamped with the current
+	 * time
+	 * 
+	 * @param channel
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @throws IOException If the record could not be written, or an earlier one
+	 * failed
+	 */
+	public synchronized void write(String channel, byte[] buffer, int offset, int length)
+			throws IOException {
+		if(failure != null) {
+			throw failure;
+		}
+
+		try {
+			// Reading the time under the lock keeps the records in order
+			long time = clock.nanoTime();
+			writeVarLong(Math.max(0, time - previous));
+			previous = Math.max(previous, time);
+
+			Integer index = channels.get(channel);
+			if(index == null) {
+				byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+				writeVarLong(channels.size());
+				writeVarLong(name.length);
+				output.write(name);
+				channels.put(channel, channels.size());
+			}
+			else {
+				writeVarLong(index);
+			}
+
+			writeVarLong(length);
+			output.write(buffer, offset, length);
+			count++;
+		}
+		catch(IOException exception) {
+			failure = exception;
+			throw exception;
+		}
+	}
+
+	/**
+	 * @return The number of records written so far
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+
+	/**
+	 * Writes any buffered records through to the underlying stream
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		output.flush();
+	}
+
+	/**
+	 * Flushes and closes the capture
+	 * 
+	 * @throws IOException If the capture could not be closed, or if an earlier
+	 * write failed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			output.close();
+		}
+		finally {
+			if(failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Writes the given non-negative value seven bits at a time, from the
+	 * lowest, with the high bit of each byte set if more bytes follow
+	 * 
+	 * @param value
+	 * @throws IOException
+	 */
+	private void writeVarLong(long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			output.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+}
@@ -0,0 +1,107 @@
+package com.theisenp.harbor.capture;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+
+import com.theisenp.harbor.lcm.Receiver;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Feeds the records of a capture to a {@link Receiver}, usually a
+ * {@link Subscriber}, as though they were arriving again
+ * <p>
+ * In real time, records are delivered with the gaps between them that they
+ * were captured with, divided by a speed factor, or back to back at
+ * {@link #FASTEST}. A replay that falls behind delivers the late records
+ * immediately, rather than skipping them. In virtual time, a
+ * {@link VirtualScheduler} is advanced to the offset of each record before it
+ * is delivered, so a subscriber scheduled on it sees the captured traffic
+ * with its original timing, including the timeouts between records, as fast
+ * as it can be handled.
+ * <p>
+ * Records are delivered without a transport, so the subscriber does not
+ * publish descriptor requests in response to them. Each replay reads its
+ * {@link CaptureReader} to the end.
+ * 
+ * @author patrick.theisen
+ */
+public class Replay {
+	public static final double ORIGINAL = 1;
+	public static final double FASTEST = Double.POSITIVE_INFINITY;
+
+	private final CaptureReader reader;
+	private final Receiver receiver;
+
+	/**
+	 * @param reader
+	 * @param receiver
+	 */
+	public Replay(CaptureReader reader, Receiver receiver) {
+		this.reader = reader;
+		this.receiver = receiver;
+	}
+
+	/**
+	 * Delivers every remaining record in real time, on the calling thread
+	 * 
+	 * @param speed The factor by which the capture is sped up. See
+	 * {@link #ORIGINAL} and {@link #FASTEST}.
+	 * @return The number of records delivered
+	 * @throws IOException If the capture could not be read
+	 * @throws InterruptedException If the thread is interrupted while waiting
+	 * for a record to come due
+	 */
+	public long run(double speed) throws IOException, InterruptedException {
+		if(!(speed > 0)) {
+			String message = "The speed must be positive";
+			throw new IllegalArgumentException(message);
+		}
+
+		long count = 0;
+		long start = System.nanoTime();
+		long first = 0;
+		while(reader.next()) {
+			if(count == 0) {
+				first = reader.getTime();
+			}
+			if(speed != FASTEST) {
+				long due = start + (long) ((reader.getTime() - first) / speed);
+				long wait = due - System.nanoTime();
+				if(wait > 0) {
+					NANOSECONDS.sleep(wait);
+				}
+			}
+			receiver.receive(null, reader.getDatagram());
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Delivers every remaining record in the virtual time of the given
+	 * {@link VirtualScheduler}, on the calling thread. The first record is
+	 * delivered at the current virtual time.
+	 * 
+	 * @param scheduler
+	 * @return The number of records delivered
+	 * @throws IOException If the capture could not be read
+	 */
+	public long run(VirtualScheduler scheduler) throws IOException {
+		long count = 0;
+		long offset = 0;
+		while(reader.next()) {
+			if(count == 0) {
+				offset = scheduler.nanoTime() - reader.getTime();
+			}
+			long wait = reader.getTime() + offset - scheduler.nanoTime();
+			if(wait > 0) {
+				scheduler.advance(wait, NANOSECONDS);
+			}
+			receiver.receive(null, reader.getDatagram());
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,49 @@
+package com.theisenp.harbor.detection;
+
+/**
+ * Decides when a peer that has stopped advertising should be considered
+ * inactive, and then disconnected
+ * <p>
+ * A detector hands out a {@link Monitor} for each known peer, which records the
+ * peer's heartbeats and turns them into the delays after which its status
+ * changes. A single detector may be shared by any number of subscribers.
+ * 
+ * @author patrick.theisen
+ */
+public interface FailureDetector {
+
+	/**
+	 * @return A new {@link Monitor} for a single peer, which has not yet
+	 * received a heartbeat
+	 */
+	public Monitor newMonitor();
+
+	/**
+	 * Tracks the heartbeats of a single peer
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static interface Monitor {
+
+		/**
+		 * Records a heartbeat from the peer
+		 * 
+		 * @param now The time of the heartbeat, in nanoseconds
+		 * @param interval The interval that the peer announced until its next
+		 * heartbeat, in nanoseconds, or 0 if it did not announce one
+		 */
+		public void heartbeat(long now, long interval);
+
+		/**
+		 * @return The delay after the last heartbeat at which the peer becomes
+		 * inactive, in nanoseconds
+		 */
+		public long getInactiveDelay();
+
+		/**
+		 * @return The delay after the peer becomes inactive at which it is
+		 * disconnected, in nanoseconds
+		 */
+		public long getDisconnectDelay();
+	}
+}
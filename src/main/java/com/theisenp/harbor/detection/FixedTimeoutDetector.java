@@ -0,0 +1,68 @@
+package com.theisenp.harbor.detection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+
+/**
+ * A {@link FailureDetector} that considers a peer inactive after a fixed
+ * timeout without a heartbeat, and disconnected after another
+ * <p>
+ * The timeout is stretched to {@link #TIMEOUT_INTERVALS} of the interval that
+ * the peer last announced, if that is longer, so that peers that publish on an
+ * adaptive schedule are not timed out between their heartbeats.
+ * 
+ * @author patrick.theisen
+ */
+public class FixedTimeoutDetector implements FailureDetector {
+	public static final int TIMEOUT_INTERVALS = 3;
+
+	private final long timeout;
+
+	/**
+	 * @param timeout
+	 */
+	public FixedTimeoutDetector(Duration timeout) {
+		if(timeout.getMillis() <= 0) {
+			String message = "The timeout must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout.getMillis());
+	}
+
+	/**
+	 * @return
+	 */
+	public Duration getTimeout() {
+		return Duration.millis(TimeUnit.NANOSECONDS.toMillis(timeout));
+	}
+
+	@Override
+	public Monitor newMonitor() {
+		return new FixedMonitor();
+	}
+
+	/**
+	 * A {@link Monitor} that only remembers the last announced interval
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class FixedMonitor implements Monitor {
+		private volatile long interval;
+
+		@Override
+		public void heartbeat(long now, long interval) {
+			this.interval = interval;
+		}
+
+		@Override
+		public long getInactiveDelay() {
+			return Math.max(timeout, TIMEOUT_INTERVALS * interval);
+		}
+
+		@Override
+		public long getDisconnectDelay() {
+			return getInactiveDelay();
+		}
+	}
+}
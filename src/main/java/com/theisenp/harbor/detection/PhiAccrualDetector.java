@@ -0,0 +1,300 @@
+package com.theisenp.harbor.detection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+
+/**
+ * A {@link FailureDetector} that learns the distribution of each peer's
+ * heartbeat inter-arrival times, and expresses its suspicion that the peer
+ * has failed as a level phi, following Hayashibara et al., "The Phi Accrual
+ * Failure Detector"
+ * <p>
+ * Phi is the negative base ten logarithm of the probability that a heartbeat
+ * would arrive later than now, given the mean and standard deviation of the
+ * most recent inter-arrival times, so a phi of 8 means that the chance of a
+ * mistake is about one in a hundred million. A peer becomes inactive once phi
+ * reaches the inactive threshold, and is disconnected once it reaches the
+ * disconnect threshold. Peers on a steady network are suspected soon after a
+ * missed heartbeat, while peers on a lossy one are given as long as their
+ * history says they need.
+ * <p>
+ * The normal distribution is approximated with a logistic function, as in
+ * Akka, so each threshold corresponds to a fixed number of standard
+ * deviations, computed once. Turning a threshold into a delay after the last
+ * heartbeat is then constant time.
+ * <p>
+ * The inter-arrival times of a peer on a quiet network vary so little that a
+ * single lost heartbeat would push phi past any threshold. The acceptable
+ * pause, which is added to the mean, allows for that. By default, it covers
+ * one lost heartbeat at the default period.
+ * <p>
+ * The history is cleared whenever a peer announces a new interval, since the
+ * old inter-arrival times no longer describe it. Until a sample has been
+ * recorded, the mean is taken to be the announced interval, or the first
+ * heartbeat estimate if none was announced, with a standard deviation of a
+ * quarter of it.
+ * 
+ * @author patrick.theisen
+ */
+public class PhiAccrualDetector implements FailureDetector {
+	public static final double DEFAULT_INACTIVE_THRESHOLD = 8;
+	public static final double DEFAULT_DISCONNECT_THRESHOLD = 16;
+	public static final int DEFAULT_WINDOW = 100;
+	public static final Duration DEFAULT_MIN_DEVIATION = Duration.millis(100);
+	public static final Duration DEFAULT_ACCEPTABLE_PAUSE = Duration.standardSeconds(1);
+	public static final Duration DEFAULT_FIRST_ESTIMATE = Duration.standardSeconds(1);
+
+	private static final int INVERSE_ITERATIONS = 100;
+	private static final double INVERSE_BOUND = 50;
+
+	private final double inactiveThreshold;
+	private final double disconnectThreshold;
+	private final int window;
+	private final long minDeviation;
+	private final long acceptablePause;
+	private final long firstEstimate;
+	private final double inactiveDeviations;
+	private final double disconnectDeviations;
+
+	/**
+	 * 
+	 */
+	public PhiAccrualDetector() {
+		this(DEFAULT_INACTIVE_THRESHOLD, DEFAULT_DISCONNECT_THRESHOLD);
+	}
+
+	/**
+	 * @param inactiveThreshold
+	 * @param disconnectThreshold
+	 */
+	public PhiAccrualDetector(double inactiveThreshold, double disconnectThreshold) {
+		this(inactiveThreshold, disconnectThreshold, DEFAULT_WINDOW, DEFAULT_MIN_DEVIATION,
+				DEFAULT_ACCEPTABLE_PAUSE, DEFAULT_FIRST_ESTIMATE);
+	}
+
+	/**
+	 * @param inactiveThreshold The level of phi at which a peer becomes
+	 * inactive
+	 * @param disconnectThreshold The level of phi at which a peer is
+	 * disconnected
+	 * @param window The number of inter-arrival times remembered for each peer
+	 * @param minDeviation The smallest standard deviation assumed, which keeps
+	 * a very regular peer from being suspected after the slightest delay
+	 * @param acceptablePause A margin added to the mean inter-arrival time,
+	 * which tolerates pauses that the history does not show
+	 * @param firstEstimate The mean inter-arrival time assumed for a peer that
+	 * has not announced an interval, until a sample has been recorded
+	 */
+	public PhiAccrualDetector(double inactiveThreshold, double disconnectThreshold, int window,
+			Duration minDeviation, Duration acceptablePause, Duration firstEstimate) {
+		if(inactiveThreshold <= 0) {
+			String message = "The inactive threshold must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		if(disconnectThreshold <= inactiveThreshold) {
+			String message = "The disconnect threshold must be > the inactive threshold";
+			throw new IllegalArgumentException(message);
+		}
+		if(window < 1) {
+			String message = "The window must be >= 1";
+			throw new IllegalArgumentException(message);
+		}
+		if(minDeviation.getMillis() <= 0) {
+			String message = "The minimum deviation must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		if(acceptablePause.getMillis() < 0) {
+			String message = "The acceptable pause must be >= 0";
+			throw new IllegalArgumentException(message);
+		}
+		if(firstEstimate.getMillis() <= 0) {
+			String message = "The first heartbeat estimate must be positive";
+			throw new IllegalArgumentException(message);
+		}
+
+		this.inactiveThreshold = inactiveThreshold;
+		this.disconnectThreshold = disconnectThreshold;
+		this.window = window;
+		this.minDeviation = TimeUnit.MILLISECONDS.toNanos(minDeviation.getMillis());
+		this.acceptablePause = TimeUnit.MILLISECONDS.toNanos(acceptablePause.getMillis());
+		this.firstEstimate = TimeUnit.MILLISECONDS.toNanos(firstEstimate.getMillis());
+		this.inactiveDeviations = deviationsFor(inactiveThreshold);
+		this.disconnectDeviations = deviationsFor(disconnectThreshold);
+	}
+
+	/**
+	 * @return The level of phi at which a peer becomes inactive
+	 */
+	public double getInactiveThreshold() {
+		return inactiveThreshold;
+	}
+
+	/**
+	 * @return The level of phi at which a peer is disconnected
+	 */
+	public double getDisconnectThreshold() {
+		return disconnectThreshold;
+	}
+
+	@Override
+	public PhiMonitor newMonitor() {
+		return new PhiMonitor();
+	}
+
+	/**
+	 * @param deviations The number of standard deviations by which a
+	 * heartbeat is overdue
+	 * @return The level of phi at that point
+	 */
+	static double phi(double deviations) {
+		double e = Math.exp(-deviations * (1.5976 + 0.070566 * deviations * deviations));
+		if(deviations > 0) {
+			return -Math.log10(e / (1 + e));
+		}
+		else {
+			return -Math.log10(1 - 1 / (1 + e));
+		}
+	}
+
+	/**
+	 * @param threshold
+	 * @return The number of standard deviations by which a heartbeat must be
+	 * overdue for phi to reach the given threshold
+	 */
+	static double deviationsFor(double threshold) {
+		// Phi only grows with the deviation, so bisect
+		double low = -INVERSE_BOUND;
+		double high = INVERSE_BOUND;
+		for(int i = 0; i < INVERSE_ITERATIONS; i++) {
+			double middle = (low + high) / 2;
+			if(phi(middle) < threshold) {
+				low = middle;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * A {@link Monitor} that keeps a sliding window of inter-arrival times
+	 * 
+	 * @author patrick.theisen
+	 */
+	public class PhiMonitor implements Monitor {
+		// Guarded by this
+		private final long[] samples = new long[window];
+		private int count;
+		private int next;
+		private long sum;
+		private double squares;
+		private long interval;
+		private boolean started;
+		private long last;
+
+		@Override
+		public synchronized void heartbeat(long now, long interval) {
+			// The old inter-arrival times no longer describe the peer
+			if(interval != this.interval) {
+				this.interval = interval;
+				clear();
+			}
+			else if(started) {
+				add(now - last);
+			}
+			started = true;
+			last = now;
+		}
+
+		@Override
+		public synchronized long getInactiveDelay() {
+			return delayFor(inactiveDeviations);
+		}
+
+		@Override
+		public synchronized long getDisconnectDelay() {
+			return delayFor(disconnectDeviations) - delayFor(inactiveDeviations);
+		}
+
+		/**
+		 * @param now
+		 * @return The current level of suspicion that the peer has failed, or
+		 * 0 if it has not sent a heartbeat
+		 */
+		public synchronized double phi(long now) {
+			if(!started) {
+				return 0;
+			}
+			double mean = getMean() + acceptablePause;
+			return PhiAccrualDetector.phi((now - last - mean) / getDeviation());
+		}
+
+		/**
+		 * @return The mean inter-arrival time, in nanoseconds
+		 */
+		public synchronized double getMean() {
+			if(count == 0) {
+				return (interval > 0) ? interval : firstEstimate;
+			}
+			return (double) sum / count;
+		}
+
+		/**
+		 * @return The standard deviation of the inter-arrival times, but no
+		 * less than the minimum, in nanoseconds
+		 */
+		public synchronized double getDeviation() {
+			double mean = getMean();
+			double deviation;
+			if(count == 0) {
+				deviation = mean / 4;
+			}
+			else {
+				deviation = Math.sqrt(Math.max(0, squares / count - mean * mean));
+			}
+			return Math.max(minDeviation, deviation);
+		}
+
+		/**
+		 * @param deviations
+		 * @return The delay after the last heartbeat at which a heartbeat is
+		 * overdue by the given number of standard deviations, in nanoseconds
+		 */
+		private long delayFor(double deviations) {
+			return (long) (getMean() + acceptablePause + deviations * getDeviation());
+		}
+
+		/**
+		 * Adds the given inter-arrival time to the window, dropping the oldest
+		 * one if it is full
+		 * 
+		 * @param sample
+		 */
+		private void add(long sample) {
+			if(count == samples.length) {
+				long oldest = samples[next];
+				sum -= oldest;
+				squares -= (double) oldest * oldest;
+			}
+			else {
+				count++;
+			}
+			samples[next] = sample;
+			next = (next + 1) % samples.length;
+			sum += sample;
+			squares += (double) sample * sample;
+		}
+
+		/**
+		 * Forgets every inter-arrival time
+		 */
+		private void clear() {
+			count = 0;
+			next = 0;
+			sum = 0;
+			squares = 0;
+		}
+	}
+}
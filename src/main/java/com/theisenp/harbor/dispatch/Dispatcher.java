@@ -0,0 +1,395 @@
+package com.theisenp.harbor.dispatch;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.ImmutableMap;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.metrics.FlightRecorder;
+import com.theisenp.harbor.metrics.FlightRecorder.Kind;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A {@link Listener} that forwards each event to a registry of listeners
+ * <p>
+ * By default, listeners are invoked inline on the thread that produced the
+ * event. If a queue capacity is set, each listener is instead given its own
+ * bounded queue and delivery thread, so that a slow listener only delays its
+ * own events. Listeners registered with an explicit {@link Executor} are
+ * always queued and delivered on that executor.
+ * <p>
+ * The registry is copy-on-write, so dispatching an event never locks or copies
+ * it.
+ * <p>
+ * Listeners registered with a {@link Filter} are kept apart, in an index keyed
+ * on the types, protocols and statuses that their filters require, so each
+ * event is only offered to the listeners that could accept it.
+ * <p>
+ * If a {@link HarborMetrics} registry is given, the time that each listener
+ * spends in each callback is recorded in it. If a {@link FlightRecorder} is
+ * given, each event is recorded in it before it is dispatched.
+ * <p>
+ * Updates are only delivered to listeners that implement
+ * {@link UpdateListener}.
+ * 
+ * @author patrick.theisen
+ */
+public class Dispatcher implements UpdateListener {
+	public static final int INLINE = 0;
+
+	private final int capacity;
+	private final HarborMetrics metrics;
+	private final FlightRecorder recorder;
+	private final Clock clock;
+	private volatile ImmutableMap<Listener, Listener> registry = ImmutableMap.of();
+	private final ListenerIndex index = new ListenerIndex();
+
+	// Guarded by this
+	private final Map<Listener, FilteredListener> filtered = new HashMap<>();
+
+	/**
+	 * Invokes all listeners inline
+	 */
+	public Dispatcher() {
+		this(INLINE);
+	}
+
+	/**
+	 * @param capacity The size of each listener's queue, or {@link #INLINE} to
+	 * invoke listeners on the thread that produced the event
+	 */
+	public Dispatcher(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * @param capacity The size of each listener's queue, or {@link #INLINE} to
+	 * invoke listeners on the thread that produced the event
+	 * @param metrics The registry in which to record callback durations, or
+	 * null to record nothing
+	 */
+	public Dispatcher(int capacity, HarborMetrics metrics) {
+		this(capacity, metrics, null);
+	}
+
+	/**
+	 * @param capacity The size of each listener's queue, or {@link #INLINE} to
+	 * invoke listeners on the thread that produced the event
+	 * @param metrics The registry in which to record callback durations, or
+	 * null to record nothing
+	 * @param recorder The recorder in which to record each dispatched event, or
+	 * null to record nothing
+	 */
+	public Dispatcher(int capacity, HarborMetrics metrics, FlightRecorder recorder) {
+		this(capacity, metrics, recorder, Clock.SYSTEM);
+	}
+
+	/**
+	 * @param capacity The size of each listener's queue, or {@link #INLINE} to
+	 * invoke listeners on the thread that produced the event
+	 * @param metrics The registry in which to record callback durations, or
+	 * null to record nothing
+	 * @param recorder The recorder in which to record each dispatched event, or
+	 * null to record nothing
+	 * @param clock The clock against which the lag of queued events is measured
+	 */
+	public Dispatcher(int capacity, HarborMetrics metrics, FlightRecorder recorder,
+			Clock clock) {
+		if(capacity < 0) {
+			String message = "The capacity must be >= 0";
+			throw new IllegalArgumentException(message);
+		}
+		this.capacity = capacity;
+		this.metrics = metrics;
+		this.recorder = recorder;
+		this.clock = clock;
+	}
+
+	/**
+	 * @return The size of each listener's queue, or {@link #INLINE}
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * of events
+	 * 
+	 * @param listener
+	 */
+	public synchronized void addListener(Listener listener) {
+		if(isRegistered(listener)) {
+			return;
+		}
+
+		if(capacity == INLINE) {
+			register(listener, timed(listener));
+		}
+		else {
+			register(listener, new QueuedListener(timed(listener), capacity, null, clock));
+		}
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * of events, which will be delivered in order on the given {@link Executor}
+	 * 
+	 * @param listener
+	 * @param executor
+	 */
+	public synchronized void addListener(Listener listener, Executor executor) {
+		if(isRegistered(listener)) {
+			return;
+		}
+
+		int size = (capacity == INLINE) ? Integer.MAX_VALUE : capacity;
+		register(listener, new QueuedListener(timed(listener), size, executor, clock));
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * of events for peers that pass the given {@link Filter}
+	 * 
+	 * @param listener
+	 * @param filter
+	 */
+	public synchronized void addListener(Listener listener, Filter filter) {
+		if(isRegistered(listener)) {
+			return;
+		}
+
+		if(capacity == INLINE) {
+			register(listener, filter, timed(listener));
+		}
+		else {
+			register(listener, filter, new QueuedListener(timed(listener), capacity, null, clock));
+		}
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * of events for peers that pass the given {@link Filter}, which will be
+	 * delivered in order on the given {@link Executor}
+	 * 
+	 * @param listener
+	 * @param filter
+	 * @param executor
+	 */
+	public synchronized void addListener(Listener listener, Filter filter, Executor executor) {
+		if(isRegistered(listener)) {
+			return;
+		}
+
+		int size = (capacity == INLINE) ? Integer.MAX_VALUE : capacity;
+		register(listener, filter, new QueuedListener(timed(listener), size, executor, clock));
+	}
+
+	/**
+	 * Removes the given {@link Listener} from the set of those that will be
+	 * notified of events
+	 * 
+	 * @param listener
+	 */
+	public synchronized void removeListener(Listener listener) {
+		FilteredListener removed = filtered.remove(listener);
+		if(removed != null) {
+			index.remove(removed);
+			shutdown(removed.getDelivery());
+			return;
+		}
+		if(!registry.containsKey(listener)) {
+			return;
+		}
+
+		Map<Listener, Listener> copy = new LinkedHashMap<>(registry);
+		shutdown(copy.remove(listener));
+		registry = ImmutableMap.copyOf(copy);
+	}
+
+	/**
+	 * Stops the delivery threads of the queued listeners, once they have
+	 * delivered the events that are already queued. The listeners stay
+	 * registered, and each starts a new thread for its next event.
+	 */
+	public synchronized void stop() {
+		for(Listener delivery : registry.values()) {
+			stop(delivery);
+		}
+		for(FilteredListener listener : filtered.values()) {
+			stop(listener.getDelivery());
+		}
+	}
+
+	/**
+	 * @return A snapshot of the queue feeding each queued {@link Listener}
+	 */
+	public Map<Listener, ListenerStats> getStats() {
+		ImmutableMap.Builder<Listener, ListenerStats> builder = ImmutableMap.builder();
+		for(Entry<Listener, Listener> entry : registry.entrySet()) {
+			if(entry.getValue() instanceof QueuedListener) {
+				builder.put(entry.getKey(), ((QueuedListener) entry.getValue()).getStats());
+			}
+		}
+		synchronized(this) {
+			for(Entry<Listener, FilteredListener> entry : filtered.entrySet()) {
+				Listener delivery = entry.getValue().getDelivery();
+				if(delivery instanceof QueuedListener) {
+					builder.put(entry.getKey(), ((QueuedListener) delivery).getStats());
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	@Override
+	public void onConnected(Peer peer) {
+		record(peer.getId(), null, Status.CONNECTED);
+		for(Listener listener : registry.values()) {
+			listener.onConnected(peer);
+		}
+		index.onConnected(peer);
+	}
+
+	@Override
+	public void onActive(Peer peer) {
+		record(peer.getId(), null, Status.ACTIVE);
+		for(Listener listener : registry.values()) {
+			listener.onActive(peer);
+		}
+		index.onActive(peer);
+	}
+
+	@Override
+	public void onInactive(Peer peer) {
+		record(peer.getId(), null, Status.INACTIVE);
+		for(Listener listener : registry.values()) {
+			listener.onInactive(peer);
+		}
+		index.onInactive(peer);
+	}
+
+	@Override
+	public void onUpdated(Peer previous, Peer peer) {
+		record(peer.getId(), previous.getStatus(), peer.getStatus());
+		for(Entry<Listener, Listener> entry : registry.entrySet()) {
+			if(entry.getKey() instanceof UpdateListener) {
+				update(entry.getValue(), previous, peer);
+			}
+		}
+		index.onUpdated(previous, peer);
+	}
+
+	@Override
+	public void onDisconnected(Peer peer) {
+		record(peer.getId(), null, Status.DISCONNECTED);
+		for(Listener listener : registry.values()) {
+			listener.onDisconnected(peer);
+		}
+		index.onDisconnected(peer);
+	}
+
+	/**
+	 * Adds the given delivering {@link Listener} to the registry under the
+	 * given key
+	 * 
+	 * @param key
+	 * @param delivery
+	 */
+	private void register(Listener key, Listener delivery) {
+		Map<Listener, Listener> copy = new LinkedHashMap<>(registry);
+		copy.put(key, delivery);
+		registry = ImmutableMap.copyOf(copy);
+	}
+
+	/**
+	 * Adds the given delivering {@link Listener} to the index under the given
+	 * key and {@link Filter}
+	 * 
+	 * @param key
+	 * @param filter
+	 * @param delivery
+	 */
+	private void register(Listener key, Filter filter, Listener delivery) {
+		boolean updates = key instanceof UpdateListener;
+		FilteredListener listener = new FilteredListener(filter, delivery, updates);
+		filtered.put(key, listener);
+		index.add(listener);
+	}
+
+	/**
+	 * Forwards an update to the given {@link Listener}, if it is an
+	 * {@link UpdateListener}
+	 * 
+	 * @param listener
+	 * @param previous
+	 * @param peer
+	 */
+	static void update(Listener listener, Peer previous, Peer peer) {
+		if(listener instanceof UpdateListener) {
+			((UpdateListener) listener).onUpdated(previous, peer);
+		}
+	}
+
+	/**
+	 * Records a dispatched event, if there is a recorder to record it in
+	 * 
+	 * @param id
+	 * @param previous
+	 * @param status
+	 */
+	private void record(String id, Status previous, Status status) {
+		if(recorder != null) {
+			recorder.record(Kind.DISPATCHED, id, previous, status);
+		}
+	}
+
+	/**
+	 * @param listener
+	 * @return The given {@link Listener}, wrapped so that its callbacks are
+	 * timed if there is a registry to record them in
+	 */
+	private Listener timed(Listener listener) {
+		return (metrics == null) ? listener : new TimedListener(listener, metrics);
+	}
+
+	/**
+	 * @param listener
+	 * @return True if the given {@link Listener} is already registered, with or
+	 * without a {@link Filter}
+	 */
+	private boolean isRegistered(Listener listener) {
+		return registry.containsKey(listener) || filtered.containsKey(listener);
+	}
+
+	/**
+	 * Stops the delivery thread of the given {@link Listener}, if it has one
+	 * 
+	 * @param delivery
+	 */
+	private static void stop(Listener delivery) {
+		if(delivery instanceof QueuedListener) {
+			((QueuedListener) delivery).stop();
+		}
+	}
+
+	/**
+	 * Stops the delivery thread of the given {@link Listener}, if it has one,
+	 * for good
+	 * 
+	 * @param delivery
+	 */
+	private static void shutdown(Listener delivery) {
+		if(delivery instanceof QueuedListener) {
+			((QueuedListener) delivery).shutdown();
+		}
+	}
+}
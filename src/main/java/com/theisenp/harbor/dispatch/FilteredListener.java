@@ -0,0 +1,101 @@
+package com.theisenp.harbor.dispatch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.filters.Filter;
+
+/**
+ * A {@link Listener} that only forwards events for peers that pass a
+ * {@link Filter}. An update is forwarded if the peer passes the filter either
+ * before or after it, and the registered listener accepts updates.
+ * 
+ * @author patrick.theisen
+ */
+class FilteredListener implements UpdateListener {
+	private final Filter filter;
+	private final Listener delivery;
+	private final boolean updates;
+
+	// Guarded by the ListenerIndex
+	private List<Set<FilteredListener>> filed = Collections.emptyList();
+
+	/**
+	 * @param filter
+	 * @param delivery
+	 * @param updates True if updates are forwarded to the delivery
+	 */
+	public FilteredListener(Filter filter, Listener delivery, boolean updates) {
+		this.filter = filter;
+		this.delivery = delivery;
+		this.updates = updates;
+	}
+
+	/**
+	 * @return
+	 */
+	public Filter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @return The {@link Listener} that receives the events that pass
+	 */
+	public Listener getDelivery() {
+		return delivery;
+	}
+
+	@Override
+	public void onConnected(Peer peer) {
+		if(filter.filter(peer)) {
+			delivery.onConnected(peer);
+		}
+	}
+
+	@Override
+	public void onActive(Peer peer) {
+		if(filter.filter(peer)) {
+			delivery.onActive(peer);
+		}
+	}
+
+	@Override
+	public void onInactive(Peer peer) {
+		if(filter.filter(peer)) {
+			delivery.onInactive(peer);
+		}
+	}
+
+	@Override
+	public void onUpdated(Peer previous, Peer peer) {
+		if(updates && (filter.filter(previous) || filter.filter(peer))) {
+			Dispatcher.update(delivery, previous, peer);
+		}
+	}
+
+	@Override
+	public void onDisconnected(Peer peer) {
+		if(filter.filter(peer)) {
+			delivery.onDisconnected(peer);
+		}
+	}
+
+	/**
+	 * @return The sets of the {@link ListenerIndex} that this listener is
+	 * filed in
+	 */
+	List<Set<FilteredListener>> getFiled() {
+		return filed;
+	}
+
+	/**
+	 * @param filed
+	 */
+	void setFiled(List<Set<FilteredListener>> filed) {
+		this.filed = filed;
+	}
+}
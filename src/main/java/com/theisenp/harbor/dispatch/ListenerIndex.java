@@ -0,0 +1,307 @@
+package com.theisenp.harbor.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.DisjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+
+/**
+ * A {@link Listener} that routes each event to the {@link FilteredListener}s
+ * that could pass its peer, rather than offering it to all of them
+ * <p>
+ * Each filtered listener is filed under the type, protocol name or status that
+ * its {@link Filter} requires. A conjunction is filed under one of its children,
+ * preferring types, then protocols, then statuses. A disjunction of types or
+ * of statuses is filed under each of them. Since a peer has exactly one type
+ * and one status, and each listener is filed under a single protocol at most,
+ * an event reaches each listener at most once. Any other filter is checked
+ * against every event.
+ * 
+ * @author patrick.theisen
+ */
+final class ListenerIndex implements UpdateListener {
+	private static final int CONNECTED = 0;
+	private static final int ACTIVE = 1;
+	private static final int INACTIVE = 2;
+	private static final int DISCONNECTED = 3;
+
+	// The kinds of route, in order of preference
+	private static final int TYPE = 0;
+	private static final int PROTOCOL = 1;
+	private static final int STATUS = 2;
+	private static final int NONE = 3;
+
+	private final ConcurrentMap<String, Set<FilteredListener>> types = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<FilteredListener>> protocols =
+			new ConcurrentHashMap<>();
+	private final Map<Status, Set<FilteredListener>> statuses = new EnumMap<>(Status.class);
+	private final Set<FilteredListener> unindexed = newSet();
+
+	// Guarded by this
+	private int size;
+
+	/**
+	 * 
+	 */
+	public ListenerIndex() {
+		for(Status status : Status.values()) {
+			statuses.put(status, newSet());
+		}
+	}
+
+	/**
+	 * Files the given {@link FilteredListener} according to its {@link Filter}
+	 * 
+	 * @param listener
+	 */
+	public synchronized void add(FilteredListener listener) {
+		Route route = route(listener.getFilter());
+		List<Set<FilteredListener>> filed = (route == null) ? Collections.singletonList(unindexed)
+				: route.sets;
+		for(Set<FilteredListener> set : filed) {
+			set.add(listener);
+		}
+		listener.setFiled(filed);
+		size++;
+	}
+
+	/**
+	 * Removes the given {@link FilteredListener}
+	 * 
+	 * @param listener
+	 */
+	public synchronized void remove(FilteredListener listener) {
+		for(Set<FilteredListener> set : listener.getFiled()) {
+			set.remove(listener);
+		}
+		listener.setFiled(Collections.<Set<FilteredListener>> emptyList());
+		size--;
+	}
+
+	/**
+	 * @return The number of filed listeners
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public void onConnected(Peer peer) {
+		dispatch(CONNECTED, peer);
+	}
+
+	@Override
+	public void onActive(Peer peer) {
+		dispatch(ACTIVE, peer);
+	}
+
+	@Override
+	public void onInactive(Peer peer) {
+		dispatch(INACTIVE, peer);
+	}
+
+	@Override
+	public void onUpdated(Peer previous, Peer peer) {
+		// Updates are rare, and both versions of the peer may reach the same
+		// listener, so they are collected first
+		Set<FilteredListener> candidates = new LinkedHashSet<>();
+		collect(previous, candidates);
+		collect(peer, candidates);
+		for(FilteredListener listener : candidates) {
+			listener.onUpdated(previous, peer);
+		}
+	}
+
+	@Override
+	public void onDisconnected(Peer peer) {
+		dispatch(DISCONNECTED, peer);
+	}
+
+	/**
+	 * Delivers the given event to every listener that is filed under the given
+	 * {@link Peer}
+	 * 
+	 * @param event
+	 * @param peer
+	 */
+	private void dispatch(int event, Peer peer) {
+		deliver(types.get(peer.getType()), event, peer);
+		for(String protocol : peer.getProtocolNames()) {
+			deliver(protocols.get(protocol), event, peer);
+		}
+		deliver(statuses.get(peer.getStatus()), event, peer);
+		deliver(unindexed, event, peer);
+	}
+
+	/**
+	 * @param peer
+	 * @param candidates Receives every listener filed under the given peer
+	 */
+	private void collect(Peer peer, Set<FilteredListener> candidates) {
+		Set<FilteredListener> set = types.get(peer.getType());
+		if(set != null) {
+			candidates.addAll(set);
+		}
+		for(String protocol : peer.getProtocolNames()) {
+			set = protocols.get(protocol);
+			if(set != null) {
+				candidates.addAll(set);
+			}
+		}
+		candidates.addAll(statuses.get(peer.getStatus()));
+		candidates.addAll(unindexed);
+	}
+
+	/**
+	 * @param filter
+	 * @return The sets that a listener with the given {@link Filter} must be
+	 * filed in, or null if it must be checked against every event
+	 */
+	private Route route(Filter filter) {
+		if(filter instanceof TypeFilter) {
+			return new Route(TYPE, get(types, ((TypeFilter) filter).getType()));
+		}
+		else if(filter instanceof ProtocolFilter) {
+			return new Route(PROTOCOL, get(protocols, ((ProtocolFilter) filter).getProtocol()));
+		}
+		else if(filter instanceof StatusFilter) {
+			return new Route(STATUS, statuses.get(((StatusFilter) filter).getStatus()));
+		}
+		else if(filter instanceof ConjunctiveFilter) {
+			// Any child will do, so take the most selective kind
+			Route best = null;
+			for(Filter child : ((ConjunctiveFilter) filter).getFilters()) {
+				Route route = route(child);
+				if(route != null && (best == null || route.kind < best.kind)) {
+					best = route;
+				}
+			}
+			return best;
+		}
+		else if(filter instanceof DisjunctiveFilter) {
+			// Only kinds that a peer has exactly one of can be combined
+			List<Set<FilteredListener>> sets = new ArrayList<>();
+			int kind = NONE;
+			for(Filter child : ((DisjunctiveFilter) filter).getFilters()) {
+				Route route = route(child);
+				if(route == null || route.kind == PROTOCOL || route.sets.isEmpty()
+						|| (kind != NONE && route.kind != kind)) {
+					return null;
+				}
+				kind = route.kind;
+				for(Set<FilteredListener> set : route.sets) {
+					if(!sets.contains(set)) {
+						sets.add(set);
+					}
+				}
+			}
+			return new Route(kind, sets);
+		}
+		else if(filter == Filter.FAIL) {
+			return new Route(NONE, Collections.<Set<FilteredListener>> emptyList());
+		}
+		else {
+			return null;
+		}
+	}
+
+	/**
+	 * @param set
+	 * @param event
+	 * @param peer
+	 */
+	private static void deliver(Set<FilteredListener> set, int event, Peer peer) {
+		if(set == null) {
+			return;
+		}
+
+		for(FilteredListener listener : set) {
+			switch(event) {
+				case CONNECTED:
+					listener.onConnected(peer);
+					break;
+				case ACTIVE:
+					listener.onActive(peer);
+					break;
+				case INACTIVE:
+					listener.onInactive(peer);
+					break;
+				case DISCONNECTED:
+					listener.onDisconnected(peer);
+					break;
+				default:
+					String error = "Unexpected event type: " + event;
+					throw new IllegalStateException(error);
+			}
+		}
+	}
+
+	/**
+	 * @param index
+	 * @param key
+	 * @return The set filed under the given key, created if necessary
+	 */
+	private static Set<FilteredListener> get(ConcurrentMap<String, Set<FilteredListener>> index,
+			String key) {
+		Set<FilteredListener> set = index.get(key);
+		if(set == null) {
+			Set<FilteredListener> created = newSet();
+			set = index.putIfAbsent(key, created);
+			if(set == null) {
+				set = created;
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * @return A new concurrent set
+	 */
+	private static Set<FilteredListener> newSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<FilteredListener, Boolean>());
+	}
+
+	/**
+	 * The sets that a {@link FilteredListener} is filed in, and the kind of
+	 * key that they are filed under
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Route {
+		private final int kind;
+		private final List<Set<FilteredListener>> sets;
+
+		/**
+		 * @param kind
+		 * @param set
+		 */
+		public Route(int kind, Set<FilteredListener> set) {
+			this(kind, Collections.singletonList(set));
+		}
+
+		/**
+		 * @param kind
+		 * @param sets
+		 */
+		public Route(int kind, List<Set<FilteredListener>> sets) {
+			this.kind = kind;
+			this.sets = sets;
+		}
+	}
+}
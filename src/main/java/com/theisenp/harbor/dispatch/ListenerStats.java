@@ -0,0 +1,87 @@
+package com.theisenp.harbor.dispatch;
+
+import org.joda.time.Duration;
+
+import com.theisenp.harbor.Harbor.Listener;
+
+/**
+ * An immutable snapshot of the queue that feeds a {@link Listener}
+ * 
+ * @author patrick.theisen
+ */
+public class ListenerStats {
+	private static final String PATTERN =
+			"depth: %d, lag: %s, delivered: %d, dropped: %d, failed: %d";
+
+	private final int depth;
+	private final Duration lag;
+	private final long delivered;
+	private final long dropped;
+	private final long failed;
+
+	/**
+	 * @param depth
+	 * @param lag
+	 * @param delivered
+	 * @param dropped
+	 */
+	public ListenerStats(int depth, Duration lag, long delivered, long dropped) {
+		this(depth, lag, delivered, dropped, 0);
+	}
+
+	/**
+	 * @param depth
+	 * @param lag
+	 * @param delivered
+	 * @param dropped
+	 * @param failed
+	 */
+	public ListenerStats(int depth, Duration lag, long delivered, long dropped, long failed) {
+		this.depth = depth;
+		this.lag = lag;
+		this.delivered = delivered;
+		this.dropped = dropped;
+		this.failed = failed;
+	}
+
+	/**
+	 * @return The number of events waiting to be delivered
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @return The age of the oldest event waiting to be delivered
+	 */
+	public Duration getLag() {
+		return lag;
+	}
+
+	/**
+	 * @return The number of events delivered so far
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * @return The number of events that were superseded by a later event for
+	 * the same peer because the queue was full
+	 */
+	public long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return The number of delivered events whose callback threw
+	 */
+	public long getFailed() {
+		return failed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(PATTERN, depth, lag, delivered, dropped, failed);
+	}
+}
@@ -0,0 +1,440 @@
+package com.theisenp.harbor.dispatch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.Duration;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A {@link Listener} that queues each event and delivers it to a wrapped
+ * listener on an {@link Executor}. Events are delivered one at a time and in
+ * the order in which they were queued.
+ * <p>
+ * Connections and disconnections are always queued, so that a listener that
+ * falls behind never loses track of which peers exist. Once the queue is
+ * full, the other events are held back per peer instead: the latest
+ * activation or deactivation, and every update merged into one, replace any
+ * that were already held. Held events are delivered once the queue has
+ * drained, or discarded if the peer disconnects first, so each peer's events
+ * stay in order and the listener always ends up with its latest state.
+ * Events that are replaced or discarded this way are counted as dropped.
+ * <p>
+ * A callback that throws does not stop the events behind it, and is counted
+ * as failed.
+ * <p>
+ * A dedicated delivery thread is started by the first event, and runs until
+ * the listener is stopped or shut down. A stopped listener starts a new
+ * thread for its next event, while a shut down one delivers no more events.
+ * 
+ * @author patrick.theisen
+ */
+class QueuedListener implements UpdateListener, Runnable {
+	private static final ThreadFactory THREADS = new ThreadFactoryBuilder()
+			.setNameFormat("harbor-listener-%d").setDaemon(true).build();
+
+	private final Listener listener;
+	private final int capacity;
+	private final Executor executor;
+	private final Clock clock;
+	private final BlockingQueue<Event> queue = new LinkedBlockingQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	// Guarded by this
+	private final Map<String, Held> held = new LinkedHashMap<>();
+	private ExecutorService owned;
+	private boolean shutdown;
+
+	/**
+	 * Delivers events on a thread dedicated to the given {@link Listener}
+	 * 
+	 * @param listener
+	 * @param capacity
+	 */
+	public QueuedListener(Listener listener, int capacity) {
+		this(listener, capacity, null);
+	}
+
+	/**
+	 * Delivers events on the given {@link Executor}, or on a dedicated thread
+	 * if it is null
+	 * 
+	 * @param listener
+	 * @param capacity
+	 * @param executor
+	 */
+	public QueuedListener(Listener listener, int capacity, Executor executor) {
+		this(listener, capacity, executor, Clock.SYSTEM);
+	}
+
+	/**
+	 * Delivers events on the given {@link Executor}, or on a dedicated thread
+	 * if it is null
+	 * 
+	 * @param listener
+	 * @param capacity
+	 * @param executor
+	 * @param clock The clock against which the lag of queued events is measured
+	 */
+	public QueuedListener(Listener listener, int capacity, Executor executor, Clock clock) {
+		this.listener = listener;
+		this.capacity = capacity;
+		this.executor = executor;
+		this.clock = clock;
+	}
+
+	@Override
+	public void onConnected(Peer peer) {
+		offer(new Event(Event.CONNECTED, peer, clock.nanoTime()));
+	}
+
+	@Override
+	public void onActive(Peer peer) {
+		offer(new Event(Event.ACTIVE, peer, clock.nanoTime()));
+	}
+
+	@Override
+	public void onInactive(Peer peer) {
+		offer(new Event(Event.INACTIVE, peer, clock.nanoTime()));
+	}
+
+	@Override
+	public void onUpdated(Peer previous, Peer peer) {
+		offer(new Event(Event.UPDATED, previous, peer, clock.nanoTime()));
+	}
+
+	@Override
+	public void onDisconnected(Peer peer) {
+		offer(new Event(Event.DISCONNECTED, peer, clock.nanoTime()));
+	}
+
+	/**
+	 * Delivers queued events until the queue is empty
+	 */
+	@Override
+	public void run() {
+		Event event;
+		while((event = next()) != null) {
+			// A failing callback should not block the events behind it
+			try {
+				event.deliver(listener);
+			}
+			catch(RuntimeException exception) {
+				failed.incrementAndGet();
+			}
+			delivered.incrementAndGet();
+		}
+
+		// Pick up any events that were queued or held after the final poll
+		scheduled.set(false);
+		if(!queue.isEmpty() || isHolding()) {
+			schedule();
+		}
+	}
+
+	/**
+	 * @return A snapshot of the current queue state
+	 */
+	public ListenerStats getStats() {
+		Event head = queue.peek();
+		long lag = (head == null) ? 0 : clock.nanoTime() - head.queued;
+		Duration duration = Duration.millis(TimeUnit.NANOSECONDS.toMillis(lag));
+		return new ListenerStats(queue.size() + getHeldCount(), duration, delivered.get(),
+				dropped.get(), failed.get());
+	}
+
+	/**
+	 * Stops the dedicated delivery thread, if there is one, once it has
+	 * delivered the events that are already queued
+	 */
+	public synchronized void stop() {
+		if(owned != null) {
+			owned.shutdown();
+			owned = null;
+		}
+	}
+
+	/**
+	 * Stops the dedicated delivery thread, if there is one, once it has
+	 * delivered the events that are already queued, and ignores any later
+	 * events
+	 */
+	public synchronized void shutdown() {
+		stop();
+		shutdown = true;
+	}
+
+	/**
+	 * Queues the given {@link Event} and makes sure that a delivery is pending
+	 * 
+	 * @param event
+	 */
+	private void offer(Event event) {
+		synchronized(this) {
+			if(shutdown) {
+				return;
+			}
+			String id = event.peer.getId();
+			if(event.type == Event.CONNECTED || event.type == Event.DISCONNECTED) {
+				// Anything held for the peer is older, and superseded
+				Held previous = held.remove(id);
+				if(previous != null) {
+					dropped.addAndGet(previous.getCount());
+				}
+				queue.add(event);
+			}
+			else if(!held.containsKey(id) && queue.size() < capacity) {
+				queue.add(event);
+			}
+			else {
+				hold(id, event);
+			}
+		}
+		schedule();
+	}
+
+	/**
+	 * Holds the given {@link Event} back until the queue has drained. Must be
+	 * called while holding this listener's lock.
+	 * 
+	 * @param id
+	 * @param event
+	 */
+	private void hold(String id, Event event) {
+		Held current = held.get(id);
+		if(current == null) {
+			current = new Held();
+			held.put(id, current);
+		}
+		if(current.merge(event)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The next queued {@link Event}, releasing the held events once the
+	 * queue has drained, or null if there are none
+	 */
+	private Event next() {
+		Event event = queue.poll();
+		if(event == null && release()) {
+			event = queue.poll();
+		}
+		return event;
+	}
+
+	/**
+	 * Queues every held event, once the queue has drained
+	 * 
+	 * @return True if any events were queued
+	 */
+	private synchronized boolean release() {
+		if(held.isEmpty() || !queue.isEmpty()) {
+			return false;
+		}
+		for(Held current : held.values()) {
+			current.drainTo(queue);
+		}
+		held.clear();
+		return true;
+	}
+
+	/**
+	 * @return True if any events are being held
+	 */
+	private synchronized boolean isHolding() {
+		return !held.isEmpty();
+	}
+
+	/**
+	 * @return The number of events being held
+	 */
+	private synchronized int getHeldCount() {
+		int count = 0;
+		for(Held current : held.values()) {
+			count += current.getCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Submits a delivery run, unless one is already pending
+	 */
+	private void schedule() {
+		if(scheduled.compareAndSet(false, true)) {
+			Executor current = getExecutor();
+			if(current == null) {
+				scheduled.set(false);
+				return;
+			}
+			try {
+				current.execute(this);
+			}
+			catch(RejectedExecutionException exception) {
+				scheduled.set(false);
+			}
+		}
+	}
+
+	/**
+	 * @return The {@link Executor} on which to deliver events, starting a
+	 * dedicated thread if one is needed, or null if the listener has been shut
+	 * down
+	 */
+	private synchronized Executor getExecutor() {
+		if(executor != null) {
+			return executor;
+		}
+		if(shutdown) {
+			return null;
+		}
+		if(owned == null) {
+			owned = Executors.newSingleThreadExecutor(THREADS);
+		}
+		return owned;
+	}
+
+	/**
+	 * The events held back for a single peer while the queue is full
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Held {
+		private Event update;
+		private Event status;
+
+		/**
+		 * Merges the given activation, deactivation or update into the held
+		 * events
+		 * 
+		 * @param event
+		 * @return True if an event that was already held was replaced
+		 */
+		public boolean merge(Event event) {
+			if(event.type != Event.UPDATED) {
+				boolean replaced = (status != null);
+				status = event;
+				return replaced;
+			}
+
+			// A held status is delivered after the update, with its descriptor
+			if(status != null) {
+				Peer peer = event.peer.withStatus(status.peer.getStatus());
+				status = new Event(status.type, peer, status.queued);
+			}
+			if(update == null) {
+				update = event;
+				return false;
+			}
+			update = new Event(Event.UPDATED, update.previous, event.peer, update.queued);
+			return true;
+		}
+
+		/**
+		 * @return The number of events held
+		 */
+		public int getCount() {
+			return ((update == null) ? 0 : 1) + ((status == null) ? 0 : 1);
+		}
+
+		/**
+		 * Queues the held events, the update first
+		 * 
+		 * @param queue
+		 */
+		public void drainTo(BlockingQueue<Event> queue) {
+			if(update != null) {
+				queue.add(update);
+			}
+			if(status != null) {
+				queue.add(status);
+			}
+		}
+	}
+
+	/**
+	 * A queued {@link Listener} callback
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Event {
+		private static final int CONNECTED = 0;
+		private static final int ACTIVE = 1;
+		private static final int INACTIVE = 2;
+		private static final int DISCONNECTED = 3;
+		private static final int UPDATED = 4;
+
+		private final int type;
+		private final Peer previous;
+		private final Peer peer;
+		private final long queued;
+
+		/**
+		 * @param type
+		 * @param peer
+		 * @param queued The time at which the event was queued, in nanoseconds
+		 */
+		public Event(int type, Peer peer, long queued) {
+			this(type, null, peer, queued);
+		}
+
+		/**
+		 * @param type
+		 * @param previous
+		 * @param peer
+		 * @param queued The time at which the event was queued, in nanoseconds
+		 */
+		public Event(int type, Peer previous, Peer peer, long queued) {
+			this.type = type;
+			this.previous = previous;
+			this.peer = peer;
+			this.queued = queued;
+		}
+
+		/**
+		 * Invokes the matching callback on the given {@link Listener}
+		 * 
+		 * @param listener
+		 */
+		public void deliver(Listener listener) {
+			switch(type) {
+				case CONNECTED:
+					listener.onConnected(peer);
+					break;
+				case ACTIVE:
+					listener.onActive(peer);
+					break;
+				case INACTIVE:
+					listener.onInactive(peer);
+					break;
+				case DISCONNECTED:
+					listener.onDisconnected(peer);
+					break;
+				case UPDATED:
+					Dispatcher.update(listener, previous, peer);
+					break;
+				default:
+					String error = "Unexpected event type: " + type;
+					throw new IllegalStateException(error);
+			}
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.theisenp.harbor.dispatch;
+
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.metrics.HarborMetrics.Callback;
+
+/**
+ * A {@link Listener} that forwards each event to a wrapped listener and
+ * records how long the listener took to handle it
+ * <p>
+ * Callback durations are CPU time spent on the calling thread, so they are
+ * measured with {@link System#nanoTime()} rather than the Harbor's clock,
+ * which may be virtual.
+ * 
+ * @author patrick.theisen
+ */
+class TimedListener implements UpdateListener {
+	private final Listener listener;
+	private final HarborMetrics metrics;
+
+	/**
+	 * @param listener
+	 * @param metrics
+	 */
+	public TimedListener(Listener listener, HarborMetrics metrics) {
+		this.listener = listener;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void onConnected(Peer peer) {
+		long start = System.nanoTime();
+		try {
+			listener.onConnected(peer);
+		}
+		finally {
+			metrics.callback(Callback.CONNECTED, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void onActive(Peer peer) {
+		long start = System.nanoTime();
+		try {
+			listener.onActive(peer);
+		}
+		finally {
+			metrics.callback(Callback.ACTIVE, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void onInactive(Peer peer) {
+		long start = System.nanoTime();
+		try {
+			listener.onInactive(peer);
+		}
+		finally {
+			metrics.callback(Callback.INACTIVE, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void onUpdated(Peer previous, Peer peer) {
+		long start = System.nanoTime();
+		try {
+			Dispatcher.update(listener, previous, peer);
+		}
+		finally {
+			metrics.callback(Callback.UPDATED, System.nanoTime() - start);
+		}
+	}
+
+	@Override
+	public void onDisconnected(Peer peer) {
+		long start = System.nanoTime();
+		try {
+			listener.onDisconnected(peer);
+		}
+		finally {
+			metrics.callback(Callback.DISCONNECTED, System.nanoTime() - start);
+		}
+	}
+}
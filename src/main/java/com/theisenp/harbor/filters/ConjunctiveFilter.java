@@ -3,6 +3,7 @@ package com.theisenp.harbor.filters;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import com.theisenp.harbor.Peer;
@@ -34,6 +35,13 @@ public class ConjunctiveFilter implements Filter {
 		}
 	}
 
+	/**
+	 * @return An unmodifiable view of the child filters
+	 */
+	public List<Filter> getFilters() {
+		return Collections.unmodifiableList(filters);
+	}
+
 	@Override
 	public boolean filter(Peer peer) {
 		for(Filter filter : filters) {
@@ -18,8 +18,15 @@ public class ProtocolFilter implements Filter {
 		this.protocol = protocol;
 	}
 
+	/**
+	 * @return
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+
 	@Override
 	public boolean filter(Peer peer) {
-		return peer.getProtocols().containsKey(protocol);
+		return peer.hasProtocol(protocol);
 	}
 }
@@ -19,6 +19,13 @@ public class StatusFilter implements Filter {
 		this.status = status;
 	}
 
+	/**
+	 * @return
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
 	@Override
 	public boolean filter(Peer peer) {
 		return peer.getStatus().equals(status);
@@ -17,6 +17,13 @@ public class TypeFilter implements Filter {
 		this.type = type;
 	}
 
+	/**
+	 * @return
+	 */
+	public String getType() {
+		return type;
+	}
+
 	@Override
 	public boolean filter(Peer peer) {
 		return peer.getType().equals(type);
@@ -0,0 +1,60 @@
+package com.theisenp.harbor.lcm;
+
+import java.util.concurrent.Callable;
+
+import com.theisenp.harbor.lcm.Network.Factory;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A {@link Callable} that acquires the {@link SharedTransport} for the given
+ * multicast group, initializing it if necessary
+ * 
+ * @author patrick.theisen
+ */
+public class Acquire implements Callable<SharedTransport> {
+	private final Factory factory;
+	private final Clock clock;
+	private final String address;
+	private final int port;
+	private final int ttl;
+
+	/**
+	 * @param address
+	 * @param port
+	 * @param ttl
+	 */
+	public Acquire(String address, int port, int ttl) {
+		this(LcmNetwork.FACTORY, address, port, ttl);
+	}
+
+	/**
+	 * @param factory The factory of the network, if it must be opened
+	 * @param address
+	 * @param port
+	 * @param ttl
+	 */
+	public Acquire(Factory factory, String address, int port, int ttl) {
+		this(factory, Clock.SYSTEM, address, port, ttl);
+	}
+
+	/**
+	 * @param factory The factory of the network, if it must be opened
+	 * @param clock The clock of the transport, if it must be created
+	 * @param address
+	 * @param port
+	 * @param ttl
+	 */
+	public Acquire(Factory factory, Clock clock, String address, int port, int ttl) {
+		this.factory = factory;
+		this.clock = clock;
+		this.address = address;
+		this.port = port;
+		this.ttl = ttl;
+	}
+
+	@Override
+	public SharedTransport call() throws Exception {
+		String url = factory.getUrl(address, port, ttl);
+		return SharedTransport.acquire(factory, url, clock);
+	}
+}
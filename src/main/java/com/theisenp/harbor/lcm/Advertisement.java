@@ -0,0 +1,112 @@
+package com.theisenp.harbor.lcm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.theisenp.harbor.Peer;
+
+/**
+ * An immutable snapshot of the {@link Peer} that a publisher advertises,
+ * stamped with an incarnation and a descriptor version
+ * <p>
+ * The incarnation identifies a single run of the publisher, so that a peer that
+ * restarts with a different descriptor is not mistaken for the old one. The
+ * version increases every time the descriptor changes within an incarnation.
+ * Subscribers compare these two integers to detect changes, rather than
+ * comparing the descriptors themselves.
+ * <p>
+ * Incarnations are read from the wall clock, so that they can be compared
+ * across runs, but never repeat or decrease within a process. Since the wall
+ * clock can still step backwards between runs, subscribers also accept a
+ * lower incarnation from a peer that has gone inactive as a restart.
+ * 
+ * @author patrick.theisen
+ */
+public final class Advertisement {
+	public static final long INITIAL_VERSION = 1;
+
+	private static final AtomicLong lastIncarnation = new AtomicLong();
+
+	private final Peer peer;
+	private final long incarnation;
+	private final long version;
+
+	/**
+	 * Starts a new incarnation of the given {@link Peer}
+	 * 
+	 * @param peer
+	 */
+	public Advertisement(Peer peer) {
+		this(peer, nextIncarnation(), INITIAL_VERSION);
+	}
+
+	/**
+	 * @param peer
+	 * @param incarnation
+	 * @param version
+	 */
+	public Advertisement(Peer peer, long incarnation, long version) {
+		this.peer = peer;
+		this.incarnation = incarnation;
+		this.version = version;
+	}
+
+	/**
+	 * @return
+	 */
+	public Peer getPeer() {
+		return peer;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getIncarnation() {
+		return incarnation;
+	}
+
+	/**
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param peer
+	 * @return The next version of this advertisement, describing the given
+	 * {@link Peer}
+	 */
+	public Advertisement update(Peer peer) {
+		return new Advertisement(peer, incarnation, version + 1);
+	}
+
+	/**
+	 * @return The current wall clock time, in milliseconds, or one more than
+	 * the last incarnation if the clock has not moved past it
+	 */
+	private static long nextIncarnation() {
+		while(true) {
+			long last = lastIncarnation.get();
+			long next = Math.max(System.currentTimeMillis(), last + 1);
+			if(lastIncarnation.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * @param incarnation
+	 * @param version
+	 * @param otherIncarnation
+	 * @param otherVersion
+	 * @return True if the first incarnation and version describe a later
+	 * descriptor than the second. Else, false.
+	 */
+	public static boolean isNewer(long incarnation, long version, long otherIncarnation,
+			long otherVersion) {
+		if(incarnation != otherIncarnation) {
+			return incarnation > otherIncarnation;
+		}
+		return version > otherVersion;
+	}
+}
@@ -0,0 +1,235 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCMEncodable;
+
+import org.joda.time.Duration;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.utils.LcmConstants;
+import com.theisenp.harbor.utils.PeerUtils;
+
+/**
+ * Advertises a single {@link Peer} in the given {@link WireFormat}. Each run
+ * publishes either a full {@link PeerMessage} or a {@link HeartbeatMessage}.
+ * In the {@link WireFormat#COMPACT} format, the full {@link DescriptorMessage}
+ * is published when the advertisement starts and whenever a subscriber
+ * requests it.
+ * <p>
+ * The periodic message is encoded once, and only its interval and sequence
+ * number are patched into the encoded buffer before each run.
+ * <p>
+ * Requests from many subscribers tend to arrive together, so the descriptor is
+ * published at most once per {@link #MIN_DESCRIPTOR_INTERVAL}. A subscriber
+ * that misses it will request it again.
+ *
+ * @author patrick.theisen
+ */
+public class Advertiser implements Runnable, Receiver {
+	public static final Duration MIN_DESCRIPTOR_INTERVAL = Duration.millis(250);
+
+	private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(MIN_DESCRIPTOR_INTERVAL
+			.getMillis());
+
+	// The positions of the fields that change between runs
+	private static final int PEER_INTERVAL = 2;
+	private static final int HEARTBEAT_SEQUENCE = 2;
+	private static final int HEARTBEAT_INTERVAL = 3;
+
+	private final SharedTransport transport;
+	private final Clock clock;
+	private final HarborMetrics metrics;
+	private final WireFormat format;
+	private final Advertisement advertisement;
+	private final PeerMessage message;
+	private final HeartbeatMessage heartbeat;
+	private final DescriptorMessage descriptor;
+	private final EncodedMessage encoded;
+
+	private volatile long interval;
+
+	// Guarded by this. The messages are shared with the encoded buffer, which
+	// is patched in place.
+	private boolean announced;
+	private long lastDescriptor;
+
+	/**
+	 * @param transport
+	 * @param advertisement
+	 * @param format
+	 */
+	public Advertiser(SharedTransport transport, Advertisement advertisement, WireFormat format) {
+		this(transport, Clock.SYSTEM, advertisement, format);
+	}
+
+	/**
+	 * @param transport
+	 * @param clock The clock against which the descriptor is rate limited
+	 * @param advertisement
+	 * @param format
+	 */
+	public Advertiser(SharedTransport transport, Clock clock, Advertisement advertisement,
+			WireFormat format) {
+		this(transport, clock, null, advertisement, format);
+	}
+
+	/**
+	 * @param transport
+	 * @param clock The clock against which the descriptor is rate limited
+	 * @param metrics The registry in which to count published datagrams, or
+	 * null to count nothing
+	 * @param advertisement
+	 * @param format
+	 */
+	public Advertiser(SharedTransport transport, Clock clock, HarborMetrics metrics,
+			Advertisement advertisement, WireFormat format) {
+		this.transport = transport;
+		this.clock = clock;
+		this.metrics = metrics;
+		this.format = format;
+		this.advertisement = advertisement;
+		if(format == WireFormat.FULL) {
+			this.message = PeerUtils.toMessage(advertisement);
+			this.heartbeat = null;
+			this.descriptor = null;
+			this.encoded = new EncodedMessage(message);
+		}
+		else {
+			this.message = null;
+			this.descriptor = PeerUtils.toDescriptor(advertisement);
+			this.heartbeat = new HeartbeatMessage();
+			this.heartbeat.id = descriptor.id;
+			this.heartbeat.incarnation = advertisement.getIncarnation();
+			this.heartbeat.version = advertisement.getVersion();
+			this.encoded = new EncodedMessage(heartbeat);
+		}
+	}
+
+	/**
+	 * @return
+	 */
+	public Advertisement getAdvertisement() {
+		return advertisement;
+	}
+
+	/**
+	 * @return The sequence number of the last published heartbeat
+	 */
+	public synchronized long getSequence() {
+		return (heartbeat == null) ? 0 : heartbeat.sequence;
+	}
+
+	/**
+	 * @return The interval until the next periodic message, in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Sets the interval until the next periodic message, which each message
+	 * carries so that subscribers can scale their timeouts to match
+	 * 
+	 * @param interval The interval, in milliseconds
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @return The size of the periodic message when it is nested in a bundle,
+	 * in bytes
+	 */
+	public int getSize() {
+		return encoded.getNestedLength();
+	}
+
+	/**
+	 * Publishes the full descriptor, unless it was published too recently or
+	 * the format does not use descriptors
+	 */
+	public synchronized void announce() {
+		if(descriptor == null) {
+			return;
+		}
+
+		long now = clock.nanoTime();
+		if(announced && now - lastDescriptor < INTERVAL) {
+			return;
+		}
+		announced = true;
+		lastDescriptor = now;
+		transport.publish(LcmConstants.DESCRIPTOR_CHANNEL, descriptor);
+		if(metrics != null) {
+			metrics.published();
+		}
+	}
+
+	/**
+	 * @return The message to publish for the current period. For heartbeats,
+	 * this advances the sequence number.
+	 */
+	public synchronized LCMEncodable next() {
+		if(heartbeat == null) {
+			message.interval = interval;
+			return message;
+		}
+		heartbeat.sequence++;
+		heartbeat.interval = interval;
+		return heartbeat;
+	}
+
+	@Override
+	public synchronized void run() {
+		next();
+		if(format == WireFormat.FULL) {
+			encoded.setLong(PEER_INTERVAL, message.interval);
+			publish(LcmConstants.PEER_CHANNEL);
+		}
+		else {
+			encoded.setLong(HEARTBEAT_SEQUENCE, heartbeat.sequence);
+			encoded.setLong(HEARTBEAT_INTERVAL, heartbeat.interval);
+			publish(LcmConstants.HEARTBEAT_CHANNEL);
+		}
+	}
+
+	@Override
+	public void receive(SharedTransport transport, Datagram datagram) {
+		// Check the channel
+		if(!datagram.getChannel().equals(LcmConstants.REQUEST_CHANNEL)) {
+			String message = "Received message on unexpected channel: " + datagram.getChannel();
+			throw new RuntimeException(message);
+		}
+
+		// Only answer requests for this peer
+		try {
+			DescriptorRequestMessage request = (DescriptorRequestMessage) datagram.getMessage();
+			if(request.id.equals(advertisement.getPeer().getId())) {
+				announce();
+			}
+		}
+		catch(IOException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * Publishes the encoded periodic message on the given channel
+	 * 
+	 * @param channel
+	 */
+	private void publish(String channel) {
+		transport.publish(channel, encoded.getBuffer(), 0, encoded.getLength());
+		if(metrics != null) {
+			metrics.published();
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package com.theisenp.harbor.lcm;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.joda.time.Duration;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.JitteredSchedule;
+
+/**
+ * Runs a {@link Broadcast} on a {@link JitteredSchedule} whose period
+ * stretches with the size of the group, so that the advertisements of every
+ * peer on the segment together stay within a bandwidth budget, in the manner
+ * of RTCP (RFC 3550)
+ * <p>
+ * Each instance estimates the size of the group from the number of peers that
+ * it knows of, and assumes that each of them advertises about as much as its
+ * own local peers do. The period is the time that one round of every peer's
+ * advertisements takes within the budget, but never shorter than the
+ * configured period. It is recomputed before every run, and every
+ * advertisement carries it, so that subscribers stretch their timeouts to
+ * match.
+ * 
+ * @author patrick.theisen
+ */
+public class BandwidthCap implements Runnable {
+	private final Broadcast broadcast;
+	private final long period;
+	private final long bandwidth;
+	private final Supplier<Integer> groupSize;
+	private final JitteredSchedule schedule;
+
+	/**
+	 * @param executor
+	 * @param broadcast
+	 * @param period The shortest interval between publications, in
+	 * milliseconds
+	 * @param bandwidth The budget for the whole group, in bytes per second
+	 * @param groupSize Supplies the number of remote peers in the group
+	 */
+	public BandwidthCap(ScheduledExecutorService executor, Broadcast broadcast, long period,
+			long bandwidth, Supplier<Integer> groupSize) {
+		this(executor, Clock.SYSTEM, broadcast, period, bandwidth, groupSize);
+	}
+
+	/**
+	 * @param executor
+	 * @param clock The clock of the executor
+	 * @param broadcast
+	 * @param period The shortest interval between publications, in
+	 * milliseconds
+	 * @param bandwidth The budget for the whole group, in bytes per second
+	 * @param groupSize Supplies the number of remote peers in the group
+	 */
+	public BandwidthCap(ScheduledExecutorService executor, Clock clock, Broadcast broadcast,
+			long period, long bandwidth, Supplier<Integer> groupSize) {
+		if(period <= 0) {
+			String message = "The period must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		if(bandwidth <= 0) {
+			String message = "The bandwidth must be positive";
+			throw new IllegalArgumentException(message);
+		}
+
+		this.broadcast = broadcast;
+		this.period = period;
+		this.bandwidth = bandwidth;
+		this.groupSize = groupSize;
+		this.schedule = new JitteredSchedule(executor, clock, this, Duration.millis(period));
+	}
+
+	/**
+	 * Publishes on the capped schedule until the returned
+	 * {@link ListenableFuture} is cancelled
+	 * 
+	 * @return
+	 */
+	public ListenableFuture<Object> start() {
+		return schedule.start();
+	}
+
+	/**
+	 * @return The interval that keeps the current group within the budget, in
+	 * milliseconds
+	 */
+	public long getInterval() {
+		int local = broadcast.size();
+		if(local == 0) {
+			return period;
+		}
+
+		// Scale the local round up to the whole group
+		long members = local + groupSize.get();
+		long bytes = broadcast.getSize() * members / local;
+		long interval = (bytes * 1000 + bandwidth - 1) / bandwidth;
+		return Math.max(period, interval);
+	}
+
+	@Override
+	public void run() {
+		long interval = getInterval();
+		schedule.setPeriod(Duration.millis(interval));
+		broadcast.setInterval(interval);
+		broadcast.run();
+	}
+}
@@ -0,0 +1,254 @@
+package com.theisenp.harbor.lcm;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatBundleMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerBundleMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * Publishes the periodic advertisements of any number of local peers over a
+ * single {@link SharedTransport}, and answers descriptor requests for all of them
+ * <p>
+ * A single peer is advertised exactly as an {@link Advertiser} would. With
+ * several peers, the periodic messages are packed into bundles of at most
+ * {@link #MAX_BUNDLE_SIZE} bytes, so that one datagram carries as many
+ * advertisements as fit without being fragmented.
+ * <p>
+ * If a {@link HarborMetrics} registry is given, every published datagram is
+ * counted in it, along with the lateness of each run against the interval
+ * that the previous run announced.
+ * 
+ * @author patrick.theisen
+ */
+public class Broadcast implements Runnable, Receiver {
+	public static final int MAX_BUNDLE_SIZE = 1400;
+
+	// The fingerprint and count that precede the nested messages
+	private static final int BUNDLE_OVERHEAD = 8 + 4;
+
+	private final SharedTransport transport;
+	private final Clock clock;
+	private final HarborMetrics metrics;
+	private final WireFormat format;
+	private final ConcurrentMap<String, Advertiser> advertisers = new ConcurrentHashMap<>();
+	private volatile long interval;
+
+	// Only accessed from the publish thread
+	private final List<Advertiser> bundle = new ArrayList<>();
+	private boolean started;
+	private long lastRun;
+	private long lastInterval;
+
+	/**
+	 * @param transport
+	 * @param format
+	 */
+	public Broadcast(SharedTransport transport, WireFormat format) {
+		this(transport, Clock.SYSTEM, format);
+	}
+
+	/**
+	 * @param transport
+	 * @param clock The clock against which each descriptor is rate limited
+	 * @param format
+	 */
+	public Broadcast(SharedTransport transport, Clock clock, WireFormat format) {
+		this(transport, clock, null, format);
+	}
+
+	/**
+	 * @param transport
+	 * @param clock The clock against which each descriptor is rate limited,
+	 * and each run is timed
+	 * @param metrics The registry in which to record the runs, or null to
+	 * record nothing
+	 * @param format
+	 */
+	public Broadcast(SharedTransport transport, Clock clock, HarborMetrics metrics,
+			WireFormat format) {
+		this.transport = transport;
+		this.clock = clock;
+		this.metrics = metrics;
+		this.format = format;
+	}
+
+	/**
+	 * Starts advertising the given {@link Advertisement}, replacing any
+	 * previous advertisement of the same {@link Peer}
+	 * 
+	 * @param advertisement
+	 */
+	public void add(Advertisement advertisement) {
+		Advertiser advertiser = new Advertiser(transport, clock, metrics, advertisement, format);
+		advertiser.setInterval(interval);
+		advertisers.put(advertisement.getPeer().getId(), advertiser);
+		advertiser.announce();
+	}
+
+	/**
+	 * Publishes the periodic message of the {@link Peer} with the given id
+	 * immediately, rather than waiting for the next run
+	 * 
+	 * @param id
+	 */
+	public void publish(String id) {
+		Advertiser advertiser = advertisers.get(id);
+		if(advertiser != null) {
+			advertiser.run();
+		}
+	}
+
+	/**
+	 * Stops advertising the {@link Peer} with the given id
+	 * 
+	 * @param id
+	 */
+	public void remove(String id) {
+		advertisers.remove(id);
+	}
+
+	/**
+	 * Sets the interval until the next run, which every advertisement carries
+	 * 
+	 * @param interval The interval, in milliseconds
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+		for(Advertiser advertiser : advertisers.values()) {
+			advertiser.setInterval(interval);
+		}
+	}
+
+	/**
+	 * @return The number of advertised peers
+	 */
+	public int size() {
+		return advertisers.size();
+	}
+
+	/**
+	 * @return The approximate number of bytes published by each run
+	 */
+	public long getSize() {
+		long size = (advertisers.size() > 1) ? BUNDLE_OVERHEAD : 0;
+		for(Advertiser advertiser : advertisers.values()) {
+			size += advertiser.getSize();
+		}
+		return size;
+	}
+
+	@Override
+	public void run() {
+		if(metrics != null) {
+			recordLateness();
+		}
+		if(advertisers.size() <= 1) {
+			for(Advertiser advertiser : advertisers.values()) {
+				advertiser.run();
+			}
+			return;
+		}
+
+		int size = BUNDLE_OVERHEAD;
+		for(Advertiser advertiser : advertisers.values()) {
+			// Messages too large to share a datagram go on their own
+			if(BUNDLE_OVERHEAD + advertiser.getSize() > MAX_BUNDLE_SIZE) {
+				advertiser.run();
+				continue;
+			}
+
+			if(size + advertiser.getSize() > MAX_BUNDLE_SIZE) {
+				flush();
+				size = BUNDLE_OVERHEAD;
+			}
+			bundle.add(advertiser);
+			size += advertiser.getSize();
+		}
+		flush();
+	}
+
+	@Override
+	public void receive(SharedTransport transport, Datagram datagram) {
+		// Check the channel
+		if(!datagram.getChannel().equals(LcmConstants.REQUEST_CHANNEL)) {
+			String message = "Received message on unexpected channel: " + datagram.getChannel();
+			throw new RuntimeException(message);
+		}
+
+		// Only answer requests for local peers
+		try {
+			DescriptorRequestMessage request = (DescriptorRequestMessage) datagram.getMessage();
+			Advertiser advertiser = advertisers.get(request.id);
+			if(advertiser != null) {
+				advertiser.announce();
+			}
+		}
+		catch(IOException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * Publishes the pending bundle, if there is one
+	 */
+	private void flush() {
+		if(bundle.isEmpty()) {
+			return;
+		}
+		if(bundle.size() == 1) {
+			bundle.get(0).run();
+			bundle.clear();
+			return;
+		}
+
+		if(format == WireFormat.FULL) {
+			PeerBundleMessage message = new PeerBundleMessage();
+			message.count = bundle.size();
+			message.peers = new PeerMessage[message.count];
+			for(int i = 0; i < message.count; i++) {
+				message.peers[i] = (PeerMessage) bundle.get(i).next();
+			}
+			transport.publish(LcmConstants.PEER_BUNDLE_CHANNEL, message);
+		}
+		else {
+			HeartbeatBundleMessage message = new HeartbeatBundleMessage();
+			message.count = bundle.size();
+			message.heartbeats = new HeartbeatMessage[message.count];
+			for(int i = 0; i < message.count; i++) {
+				message.heartbeats[i] = (HeartbeatMessage) bundle.get(i).next();
+			}
+			transport.publish(LcmConstants.HEARTBEAT_BUNDLE_CHANNEL, message);
+		}
+		if(metrics != null) {
+			metrics.published();
+		}
+		bundle.clear();
+	}
+
+	/**
+	 * Records how much later than the interval announced by the previous run
+	 * this run started
+	 */
+	private void recordLateness() {
+		long now = clock.nanoTime();
+		if(started) {
+			metrics.lateness(now - lastRun - MILLISECONDS.toNanos(lastInterval));
+		}
+		started = true;
+		lastRun = now;
+		lastInterval = interval;
+	}
+}
@@ -0,0 +1,159 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import lcm.lcm.LCMDataInputStream;
+import lcm.lcm.LCMEncodable;
+
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatBundleMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerBundleMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * A single raw message received on one of the Harbor channels
+ * <p>
+ * The fingerprint, the copied payload and the decoded message are each
+ * computed the first time they are asked for, and then shared by every
+ * {@link Receiver} that the datagram is delivered to. Receivers must treat the
+ * decoded message as read only. A datagram is delivered to its receivers one
+ * at a time on a single thread, so it is not thread safe.
+ *
+ * @author patrick.theisen
+ */
+public final class Datagram {
+	private final String channel;
+	private final byte[] buffer;
+	private final int offset;
+	private final int length;
+
+	private boolean hasFingerprint;
+	private long fingerprint;
+	private byte[] payload;
+	private LCMEncodable message;
+
+	/**
+	 * @param channel
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public Datagram(String channel, byte[] buffer, int offset, int length) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	/**
+	 * @param channel
+	 * @param stream
+	 */
+	public Datagram(String channel, LCMDataInputStream stream) {
+		this(channel, stream.getBuffer(), stream.getBufferOffset(), stream.available());
+	}
+
+	/**
+	 * @return
+	 */
+	public String getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return The buffer holding the raw bytes. It is shared, and must not be
+	 * modified.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return The fingerprint of the raw bytes. See
+	 * {@link FingerprintCache#fingerprint(byte[], int, int)}.
+	 */
+	public long getFingerprint() {
+		if(!hasFingerprint) {
+			fingerprint = FingerprintCache.fingerprint(buffer, offset, length);
+			hasFingerprint = true;
+		}
+		return fingerprint;
+	}
+
+	/**
+	 * @return A copy of the raw bytes that outlives the receive buffer
+	 */
+	public byte[] getPayload() {
+		if(payload == null) {
+			payload = Arrays.copyOfRange(buffer, offset, offset + length);
+		}
+		return payload;
+	}
+
+	/**
+	 * @return A new stream over the raw bytes
+	 */
+	public LCMDataInputStream getStream() {
+		return new LCMDataInputStream(buffer, offset, length);
+	}
+
+	/**
+	 * @return The message decoded from the raw bytes, according to the type
+	 * that is published on the channel
+	 * @throws IOException
+	 */
+	public LCMEncodable getMessage() throws IOException {
+		if(message == null) {
+			message = decode();
+		}
+		return message;
+	}
+
+	/**
+	 * @return
+	 * @throws IOException
+	 */
+	private LCMEncodable decode() throws IOException {
+		LCMDataInputStream stream = getStream();
+		if(channel.equals(LcmConstants.PEER_CHANNEL)) {
+			return new PeerMessage(stream);
+		}
+		else if(channel.equals(LcmConstants.PEER_BUNDLE_CHANNEL)) {
+			return new PeerBundleMessage(stream);
+		}
+		else if(channel.equals(LcmConstants.HEARTBEAT_CHANNEL)) {
+			return new HeartbeatMessage(stream);
+		}
+		else if(channel.equals(LcmConstants.HEARTBEAT_BUNDLE_CHANNEL)) {
+			return new HeartbeatBundleMessage(stream);
+		}
+		else if(channel.equals(LcmConstants.DESCRIPTOR_CHANNEL)) {
+			return new DescriptorMessage(stream);
+		}
+		else if(channel.equals(LcmConstants.REQUEST_CHANNEL)) {
+			return new DescriptorRequestMessage(stream);
+		}
+		else {
+			String message = "Received message on unexpected channel: " + channel;
+			throw new RuntimeException(message);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+
+import lcm.lcm.LCMDataOutputStream;
+import lcm.lcm.LCMEncodable;
+
+/**
+ * A message that is encoded once, and then published from the same buffer
+ * every time, rather than being encoded again on every period
+ * <p>
+ * Every periodic message begins with the id of its peer, followed by a run of
+ * 64 bit integers. The integers that change between publications, like the
+ * interval and the sequence number, are patched into the buffer in place. They
+ * are addressed by their position in that run, since the length of the id
+ * fixes their offsets.
+ * 
+ * @author patrick.theisen
+ */
+public final class EncodedMessage {
+	// The fingerprint, and the length that precedes the id
+	private static final int ID_OFFSET = 8 + 4;
+
+	private final byte[] buffer;
+	private final int start;
+
+	/**
+	 * @param message A message whose first field is a string
+	 */
+	public EncodedMessage(LCMEncodable message) {
+		try {
+			LCMDataOutputStream output = new LCMDataOutputStream();
+			message.encode(output);
+			this.buffer = output.toByteArray();
+		}
+		catch(IOException exception) {
+			throw new RuntimeException(exception);
+		}
+
+		// The length of the id includes its terminating null
+		this.start = ID_OFFSET + getInt(buffer, 8);
+	}
+
+	/**
+	 * @return The buffer holding the encoded message. It is shared, and must
+	 * not be modified.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return The length of the encoded message, in bytes
+	 */
+	public int getLength() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return The length of the encoded message without its fingerprint, as it
+	 * appears when nested in another message, in bytes
+	 */
+	public int getNestedLength() {
+		return buffer.length - 8;
+	}
+
+	/**
+	 * Overwrites one of the 64 bit integers that follow the id
+	 * 
+	 * @param index The position of the integer, starting from 0 for the one
+	 * immediately after the id
+	 * @param value
+	 */
+	public void setLong(int index, long value) {
+		int offset = start + 8 * index;
+		for(int i = 7; i >= 0; i--) {
+			buffer[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * @param buffer
+	 * @param offset
+	 * @return The big endian 32 bit integer at the given offset
+	 */
+	private static int getInt(byte[] buffer, int offset) {
+		int value = 0;
+		for(int i = 0; i < 4; i++) {
+			value = (value << 8) | (buffer[offset + i] & 0xff);
+		}
+		return value;
+	}
+}
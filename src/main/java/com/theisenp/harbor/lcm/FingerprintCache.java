@@ -0,0 +1,221 @@
+package com.theisenp.harbor.lcm;
+
+/**
+ * An open addressing table from the fingerprint of a raw datagram to the
+ * {@link PeerEntry} that last sent it. Each entry is filed under at most one
+ * fingerprint, and the payload is kept alongside it so that a hit can be
+ * verified byte for byte. Lookups never allocate.
+ *
+ * @author patrick.theisen
+ */
+final class FingerprintCache {
+	private static final int INITIAL_CAPACITY = 64;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long[] fingerprints = new long[INITIAL_CAPACITY];
+	private byte[][] payloads = new byte[INITIAL_CAPACITY][];
+	private PeerEntry[] entries = new PeerEntry[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return A 64 bit FNV-1a hash of the given bytes
+	 */
+	public static long fingerprint(byte[] buffer, int offset, int length) {
+		long hash = FNV_OFFSET;
+		for(int i = offset; i < offset + length; i++) {
+			hash ^= buffer[i] & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * @param fingerprint
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return The {@link PeerEntry} that last sent exactly the given bytes, or
+	 * null if there is none
+	 */
+	public synchronized PeerEntry get(long fingerprint, byte[] buffer, int offset, int length) {
+		int index = find(fingerprint, buffer, offset, length);
+		return (index < 0) ? null : entries[index];
+	}
+
+	/**
+	 * Files the given {@link PeerEntry} under the given fingerprint, replacing
+	 * the fingerprint it was previously filed under
+	 *
+	 * @param fingerprint
+	 * @param payload
+	 * @param entry
+	 */
+	public synchronized void put(long fingerprint, byte[] payload, PeerEntry entry) {
+		if(entry.hasFingerprint()) {
+			if(entry.getFingerprint() == fingerprint) {
+				return;
+			}
+			remove(entry);
+		}
+
+		// Another sender may have sent identical bytes
+		int existing = find(fingerprint, payload, 0, payload.length);
+		if(existing >= 0) {
+			entries[existing].clearFingerprint();
+			entries[existing] = entry;
+			entry.setFingerprint(fingerprint);
+			return;
+		}
+
+		if((size + 1) * 2 > entries.length) {
+			resize(entries.length * 2);
+		}
+
+		int index = slot(fingerprint, entries.length);
+		while(entries[index] != null) {
+			index = (index + 1) & (entries.length - 1);
+		}
+		fingerprints[index] = fingerprint;
+		payloads[index] = payload;
+		entries[index] = entry;
+		entry.setFingerprint(fingerprint);
+		size++;
+	}
+
+	/**
+	 * Removes the fingerprint that the given {@link PeerEntry} is filed under,
+	 * if there is one
+	 *
+	 * @param entry
+	 */
+	public synchronized void remove(PeerEntry entry) {
+		if(!entry.hasFingerprint()) {
+			return;
+		}
+
+		int mask = entries.length - 1;
+		int index = slot(entry.getFingerprint(), entries.length);
+		while(entries[index] != null && entries[index] != entry) {
+			index = (index + 1) & mask;
+		}
+		entry.clearFingerprint();
+		if(entries[index] == null) {
+			return;
+		}
+
+		// Shift later members of the probe sequence back into the gap
+		int gap = index;
+		int next = (gap + 1) & mask;
+		while(entries[next] != null) {
+			int home = slot(fingerprints[next], entries.length);
+			if(((next - home) & mask) >= ((next - gap) & mask)) {
+				fingerprints[gap] = fingerprints[next];
+				payloads[gap] = payloads[next];
+				entries[gap] = entries[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		payloads[gap] = null;
+		entries[gap] = null;
+		size--;
+	}
+
+	/**
+	 * @return The number of fingerprints in the table
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all fingerprints
+	 */
+	public synchronized void clear() {
+		for(int i = 0; i < entries.length; i++) {
+			if(entries[i] != null) {
+				entries[i].clearFingerprint();
+				entries[i] = null;
+				payloads[i] = null;
+			}
+		}
+		size = 0;
+	}
+
+	/**
+	 * @param fingerprint
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return The index of the given payload, or -1 if it is not in the table
+	 */
+	private int find(long fingerprint, byte[] buffer, int offset, int length) {
+		int mask = entries.length - 1;
+		int index = slot(fingerprint, entries.length);
+		while(entries[index] != null) {
+			if(fingerprints[index] == fingerprint && matches(payloads[index], buffer, offset, length)) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Rehashes every fingerprint into a table of the given capacity
+	 *
+	 * @param capacity
+	 */
+	private void resize(int capacity) {
+		long[] oldFingerprints = fingerprints;
+		byte[][] oldPayloads = payloads;
+		PeerEntry[] oldEntries = entries;
+
+		fingerprints = new long[capacity];
+		payloads = new byte[capacity][];
+		entries = new PeerEntry[capacity];
+		for(int i = 0; i < oldEntries.length; i++) {
+			if(oldEntries[i] != null) {
+				int index = slot(oldFingerprints[i], capacity);
+				while(entries[index] != null) {
+					index = (index + 1) & (capacity - 1);
+				}
+				fingerprints[index] = oldFingerprints[i];
+				payloads[index] = oldPayloads[i];
+				entries[index] = oldEntries[i];
+			}
+		}
+	}
+
+	/**
+	 * @param fingerprint
+	 * @param capacity
+	 * @return The home slot of the given fingerprint
+	 */
+	private static int slot(long fingerprint, int capacity) {
+		return (int) (fingerprint ^ (fingerprint >>> 32)) & (capacity - 1);
+	}
+
+	/**
+	 * @param payload
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return True if the given payload equals the given range of bytes
+	 */
+	private static boolean matches(byte[] payload, byte[] buffer, int offset, int length) {
+		if(payload.length != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(payload[i] != buffer[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -2,19 +2,18 @@ package com.theisenp.harbor.lcm;
 
 import java.util.concurrent.Callable;
 
-import lcm.lcm.LCM;
-
+import com.theisenp.harbor.lcm.Network.Factory;
 import com.theisenp.harbor.utils.HarborUtils;
 
 /**
- * A {@link Callable} that produces an {@link LCM} instance
+ * A {@link Callable} that opens a {@link Network} on the given group, using an
+ * {@link LcmNetwork} unless another {@link Factory} is given
  * 
  * @author patrick.theisen
  */
-public class Initialize implements Callable<LCM> {
-	private final String address;
-	private final int port;
-	private final int ttl;
+public class Initialize implements Callable<Network> {
+	private final Factory factory;
+	private final String url;
 
 	/**
 	 * @param address
@@ -22,13 +21,20 @@ public class Initialize implements Callable<LCM> {
 	 * @param ttl
 	 */
 	public Initialize(String address, int port, int ttl) {
-		this.address = address;
-		this.port = port;
-		this.ttl = ttl;
+		this(LcmNetwork.FACTORY, HarborUtils.toLcmAddress(address, port, ttl));
+	}
+
+	/**
+	 * @param factory
+	 * @param url
+	 */
+	public Initialize(Factory factory, String url) {
+		this.factory = factory;
+		this.url = url;
 	}
 
 	@Override
-	public LCM call() throws Exception {
-		return new LCM(HarborUtils.toLcmAddress(address, port, ttl));
+	public Network call() throws Exception {
+		return factory.open(url);
 	}
 }
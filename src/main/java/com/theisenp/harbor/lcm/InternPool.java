@@ -0,0 +1,144 @@
+package com.theisenp.harbor.lcm;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded pool of canonical strings, keyed by their UTF-8 bytes, so that a
+ * string that has been seen before can be looked up from the raw bytes of a
+ * datagram without being decoded again. Lookups of known strings never
+ * allocate.
+ * <p>
+ * Lookups wrap the raw bytes in a reusable key on each thread, rather than
+ * copying them. Once the pool is full, it starts over, so that strings that
+ * are no longer in use cannot accumulate without bound.
+ *
+ * @author patrick.theisen
+ */
+final class InternPool {
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private final int capacity;
+	private final ConcurrentMap<Key, String> strings = new ConcurrentHashMap<>();
+	private final ThreadLocal<Key> probes = new ThreadLocal<Key>() {
+		@Override
+		protected Key initialValue() {
+			return new Key();
+		}
+	};
+
+	/**
+	 *
+	 */
+	public InternPool() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The number of strings kept before the pool starts over
+	 */
+	public InternPool(int capacity) {
+		if(capacity < 1) {
+			String message = "The capacity must be >= 1";
+			throw new IllegalArgumentException(message);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return The canonical string whose UTF-8 encoding is the given range of
+	 * bytes
+	 */
+	public String intern(byte[] buffer, int offset, int length) {
+		Key probe = probes.get();
+		probe.set(buffer, offset, length);
+		String value = strings.get(probe);
+		probe.set(null, 0, 0);
+		if(value != null) {
+			return value;
+		}
+
+		// Only new strings are decoded and copied
+		if(strings.size() >= capacity) {
+			strings.clear();
+		}
+		Key key = new Key();
+		key.set(Arrays.copyOfRange(buffer, offset, offset + length), 0, length);
+		value = new String(buffer, offset, length, StandardCharsets.UTF_8);
+		String previous = strings.putIfAbsent(key, value);
+		return (previous == null) ? value : previous;
+	}
+
+	/**
+	 * Removes the given string from the pool, if it is there
+	 *
+	 * @param value
+	 */
+	public void remove(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		Key key = new Key();
+		key.set(bytes, 0, bytes.length);
+		strings.remove(key);
+	}
+
+	/**
+	 * @return The number of strings in the pool
+	 */
+	public int size() {
+		return strings.size();
+	}
+
+	/**
+	 * A range of bytes, compared by content
+	 */
+	private static final class Key {
+		private byte[] buffer;
+		private int offset;
+		private int length;
+		private int hash;
+
+		/**
+		 * @param buffer
+		 * @param offset
+		 * @param length
+		 */
+		private void set(byte[] buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+
+			int hash = 1;
+			for(int i = offset; i < offset + length; i++) {
+				hash = 31 * hash + buffer[i];
+			}
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			if(other.hash != hash || other.length != length) {
+				return false;
+			}
+			for(int i = 0; i < length; i++) {
+				if(buffer[offset + i] != other.buffer[other.offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
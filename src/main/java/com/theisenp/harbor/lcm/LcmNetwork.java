@@ -0,0 +1,113 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import lcm.lcm.LCM;
+import lcm.lcm.LCMDataInputStream;
+import lcm.lcm.LCMEncodable;
+import lcm.lcm.LCMSubscriber;
+
+import com.theisenp.harbor.utils.HarborUtils;
+
+/**
+ * A {@link Network} that sends and receives messages through an {@link LCM}
+ * instance, which is the network every Harbor uses by default
+ *
+ * @author patrick.theisen
+ */
+public class LcmNetwork implements Network, Sender {
+
+	/**
+	 * The {@link Network.Factory} that every Harbor uses by default, which
+	 * opens an {@link LCM} instance on the multicast group
+	 */
+	public static final Factory FACTORY = new Factory() {
+		@Override
+		public String getUrl(String address, int port, int ttl) {
+			return HarborUtils.toLcmAddress(address, port, ttl);
+		}
+
+		@Override
+		public Network open(String url) throws Exception {
+			return new LcmNetwork(new LCM(url));
+		}
+	};
+
+	private final LCM lcm;
+
+	// Guarded by this
+	private final Map<Handler, LCMSubscriber> subscribers = new HashMap<>();
+
+	/**
+	 * @param lcm
+	 */
+	public LcmNetwork(LCM lcm) {
+		this.lcm = lcm;
+	}
+
+	/**
+	 * @return
+	 */
+	public LCM getLcm() {
+		return lcm;
+	}
+
+	@Override
+	public synchronized void subscribe(String channel, Handler handler) {
+		LCMSubscriber subscriber = subscribers.get(handler);
+		if(subscriber == null) {
+			subscriber = new Adapter(handler);
+			subscribers.put(handler, subscriber);
+		}
+		lcm.subscribe(channel, subscriber);
+	}
+
+	@Override
+	public synchronized void unsubscribe(String channel, Handler handler) {
+		LCMSubscriber subscriber = subscribers.get(handler);
+		if(subscriber != null) {
+			lcm.unsubscribe(channel, subscriber);
+		}
+	}
+
+	@Override
+	public void publish(String channel, byte[] buffer, int offset, int length)
+			throws IOException {
+		lcm.publish(channel, buffer, offset, length);
+	}
+
+	@Override
+	public void publish(String channel, LCMEncodable message) {
+		lcm.publish(channel, message);
+	}
+
+	@Override
+	public void close() {
+		lcm.close();
+	}
+
+	/**
+	 * An {@link LCMSubscriber} that passes the raw bytes of each message to a
+	 * {@link Handler}
+	 *
+	 * @author patrick.theisen
+	 */
+	private static class Adapter implements LCMSubscriber {
+		private final Handler handler;
+
+		/**
+		 * @param handler
+		 */
+		public Adapter(Handler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void messageReceived(LCM lcm, String channel, LCMDataInputStream stream) {
+			handler.handle(channel, stream.getBuffer(), stream.getBufferOffset(),
+					stream.available());
+		}
+	}
+}
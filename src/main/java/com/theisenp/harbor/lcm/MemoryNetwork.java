@@ -0,0 +1,241 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for a multicast group, which lets many Harbor
+ * components exchange messages without opening a socket
+ * <p>
+ * Each {@link Network} connected to the group is an endpoint with a receive
+ * thread of its own. A published message is copied once, and queued for every
+ * other endpoint that is subscribed to its channel, but not for its publisher.
+ * Each endpoint holds a bounded number of messages, and drops any that arrive
+ * while it is full, so a receiver that cannot keep up loses messages as it
+ * would on a real network.
+ * <p>
+ * The group is also a {@link Network.Factory}, so that Harbors built with it
+ * discover each other without LCM. It ignores their addresses, ports and ttls,
+ * and the Harbors in the process built with the same group share one
+ * endpoint, just as Harbors on the same multicast group share one socket.
+ *
+ * @author patrick.theisen
+ */
+public class MemoryNetwork implements Network.Factory {
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private static final AtomicLong groups = new AtomicLong();
+
+	private final long group = groups.incrementAndGet();
+	private final int capacity;
+	private final ThreadFactory threadFactory;
+	private final List<Endpoint> endpoints = new CopyOnWriteArrayList<>();
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 *
+	 */
+	public MemoryNetwork() {
+		this(DEFAULT_CAPACITY, Executors.defaultThreadFactory());
+	}
+
+	/**
+	 * @param capacity The number of messages each endpoint holds before it
+	 * starts dropping them
+	 * @param threadFactory The factory of the receive threads
+	 */
+	public MemoryNetwork(int capacity, ThreadFactory threadFactory) {
+		if(capacity < 1) {
+			String message = "The capacity must be >= 1";
+			throw new IllegalArgumentException(message);
+		}
+		this.capacity = capacity;
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * @return A new endpoint of the group, whose receive thread is already
+	 * running
+	 */
+	public Network connect() {
+		Endpoint endpoint = new Endpoint();
+		endpoints.add(endpoint);
+		endpoint.thread.start();
+		return endpoint;
+	}
+
+	@Override
+	public String getUrl(String address, int port, int ttl) {
+		return "memory://" + group;
+	}
+
+	@Override
+	public Network open(String url) {
+		return connect();
+	}
+
+	/**
+	 * @return The number of messages published on the group
+	 */
+	public long getPublished() {
+		return published.get();
+	}
+
+	/**
+	 * @return The number of messages delivered to endpoints
+	 */
+	public long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return The number of messages dropped because an endpoint was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return The number of messages waiting to be delivered, across all of
+	 * the endpoints
+	 */
+	public int getBacklog() {
+		int backlog = 0;
+		for(Endpoint endpoint : endpoints) {
+			backlog += endpoint.queue.size();
+		}
+		return backlog;
+	}
+
+	/**
+	 * A message in flight
+	 */
+	private static final class Message {
+		private final String channel;
+		private final byte[] buffer;
+
+		/**
+		 * @param channel
+		 * @param buffer
+		 */
+		private Message(String channel, byte[] buffer) {
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * A {@link Network} connected to the group, which delivers its messages on
+	 * its own thread
+	 *
+	 * @author patrick.theisen
+	 */
+	private class Endpoint implements Network, Runnable {
+		private final ConcurrentMap<String, List<Handler>> handlers = new ConcurrentHashMap<>();
+		private final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(capacity);
+		private final Thread thread = threadFactory.newThread(this);
+		private volatile boolean closed;
+
+		@Override
+		public synchronized void subscribe(String channel, Handler handler) {
+			List<Handler> list = handlers.get(channel);
+			if(list == null) {
+				list = new CopyOnWriteArrayList<>();
+				handlers.put(channel, list);
+			}
+			list.add(handler);
+		}
+
+		@Override
+		public synchronized void unsubscribe(String channel, Handler handler) {
+			List<Handler> list = handlers.get(channel);
+			if(list != null && list.remove(handler) && list.isEmpty()) {
+				handlers.remove(channel);
+			}
+		}
+
+		@Override
+		public void publish(String channel, byte[] buffer, int offset, int length)
+				throws IOException {
+			if(closed) {
+				String message = "The endpoint has been closed";
+				throw new IOException(message);
+			}
+
+			published.incrementAndGet();
+			Message message = new Message(channel,
+					Arrays.copyOfRange(buffer, offset, offset + length));
+			for(Endpoint endpoint : endpoints) {
+				if(endpoint != this) {
+					endpoint.offer(message);
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			endpoints.remove(this);
+			thread.interrupt();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(!closed) {
+					deliver(queue.take());
+				}
+			}
+			catch(InterruptedException exception) {
+				// The endpoint was closed
+			}
+		}
+
+		/**
+		 * Queues the given message, if this endpoint is subscribed to its
+		 * channel and has room for it
+		 *
+		 * @param message
+		 */
+		private void offer(Message message) {
+			if(!handlers.containsKey(message.channel)) {
+				return;
+			}
+			if(!queue.offer(message)) {
+				dropped.incrementAndGet();
+			}
+		}
+
+		/**
+		 * @param message
+		 */
+		private void deliver(Message message) {
+			List<Handler> list = handlers.get(message.channel);
+			if(list == null) {
+				return;
+			}
+
+			delivered.incrementAndGet();
+			for(Handler handler : list) {
+				// As on a real network, a failing handler should not stop
+				// delivery to the others
+				try {
+					handler.handle(message.channel, message.buffer, 0, message.buffer.length);
+				}
+				catch(RuntimeException exception) {
+				}
+			}
+		}
+	}
+}
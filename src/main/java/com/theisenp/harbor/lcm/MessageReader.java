@@ -0,0 +1,173 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields of an LCM message in order, directly from the raw bytes of
+ * a datagram, rather than decoding the whole message into a new object
+ * <p>
+ * Strings can be resolved against an {@link InternPool}, so that strings that
+ * have been seen before are found without being decoded, and fields that are
+ * not needed can be skipped. A reader is reused from one datagram to the next,
+ * and is not thread safe.
+ *
+ * @author patrick.theisen
+ */
+final class MessageReader {
+	private byte[] buffer;
+	private int position;
+	private int end;
+	private boolean open;
+
+	/**
+	 * Starts reading the given range of bytes
+	 *
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void open(byte[] buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.position = offset;
+		this.end = offset + length;
+		this.open = true;
+	}
+
+	/**
+	 * Releases the current buffer, so that the reader can be reused
+	 */
+	public void close() {
+		buffer = null;
+		open = false;
+	}
+
+	/**
+	 * @return True if the reader is in the middle of a datagram. Else, false.
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Reads a fingerprint, and checks that it is the expected one
+	 *
+	 * @param fingerprint
+	 * @throws IOException If the fingerprint does not match
+	 */
+	public void readFingerprint(long fingerprint) throws IOException {
+		if(readLong() != fingerprint) {
+			String message = "LCM decode error: bad fingerprint";
+			throw new IOException(message);
+		}
+	}
+
+	/**
+	 * @return The next 32 bit integer
+	 * @throws IOException
+	 */
+	public int readInt() throws IOException {
+		require(4);
+		int value = 0;
+		for(int i = 0; i < 4; i++) {
+			value = (value << 8) | (buffer[position++] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * @return The next 32 bit integer, which counts the elements of an array
+	 * @throws IOException If it is negative
+	 */
+	public int readCount() throws IOException {
+		int count = readInt();
+		if(count < 0) {
+			String message = "LCM decode error: negative count";
+			throw new IOException(message);
+		}
+		return count;
+	}
+
+	/**
+	 * @return The next 64 bit integer
+	 * @throws IOException
+	 */
+	public long readLong() throws IOException {
+		require(8);
+		long value = 0;
+		for(int i = 0; i < 8; i++) {
+			value = (value << 8) | (buffer[position++] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * @return The next string, newly decoded
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		int length = readStringLength();
+		String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+		position += length + 1;
+		return value;
+	}
+
+	/**
+	 * @param pool
+	 * @return The canonical copy of the next string in the given
+	 * {@link InternPool}
+	 * @throws IOException
+	 */
+	public String readString(InternPool pool) throws IOException {
+		int length = readStringLength();
+		String value = pool.intern(buffer, position, length);
+		position += length + 1;
+		return value;
+	}
+
+	/**
+	 * Skips the next string
+	 *
+	 * @throws IOException
+	 */
+	public void skipString() throws IOException {
+		// Reading the length moves the position, so it must be read first
+		int length = readStringLength();
+		position += length + 1;
+	}
+
+	/**
+	 * @return The number of bytes that remain to be read
+	 */
+	public int remaining() {
+		return end - position;
+	}
+
+	/**
+	 * Reads the length that precedes a string, and checks that the string and
+	 * its terminating null fit in the datagram
+	 *
+	 * @return The length of the string, without its terminating null
+	 * @throws IOException
+	 */
+	private int readStringLength() throws IOException {
+		int length = readInt();
+		if(length < 1) {
+			String message = "LCM decode error: invalid string length";
+			throw new IOException(message);
+		}
+		require(length);
+		return length - 1;
+	}
+
+	/**
+	 * @param bytes
+	 * @throws IOException If fewer than the given number of bytes remain
+	 */
+	private void require(int bytes) throws IOException {
+		if(end - position < bytes) {
+			String message = "LCM decode error: truncated message";
+			throw new IOException(message);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+
+/**
+ * The medium beneath a {@link SharedTransport}, which carries the raw bytes of
+ * each message between processes on named channels
+ * <p>
+ * A network does not need to deliver a process's own messages back to it,
+ * since the transport delivers those locally, and any copy that does come
+ * back is dropped as an echo.
+ * <p>
+ * Networks are opened by a {@link Factory}. Every Harbor uses
+ * {@link LcmNetwork#FACTORY} unless it is built with another, so a different
+ * datagram path or an in-process group such as a {@link MemoryNetwork} can be
+ * plugged in without changing the rest of the library.
+ *
+ * @author patrick.theisen
+ */
+public interface Network {
+
+	/**
+	 * Delivers each message on the given channel to the given {@link Handler}
+	 *
+	 * @param channel
+	 * @param handler
+	 */
+	public void subscribe(String channel, Handler handler);
+
+	/**
+	 * Stops delivering messages on the given channel to the given
+	 * {@link Handler}
+	 *
+	 * @param channel
+	 * @param handler
+	 */
+	public void unsubscribe(String channel, Handler handler);
+
+	/**
+	 * Sends the given bytes on the given channel
+	 *
+	 * @param channel
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @throws IOException If the message could not be sent
+	 */
+	public void publish(String channel, byte[] buffer, int offset, int length)
+			throws IOException;
+
+	/**
+	 * Stops delivering messages and releases the underlying resources
+	 */
+	public void close();
+
+	/**
+	 * A callback for the messages delivered by a {@link Network}
+	 *
+	 * @author patrick.theisen
+	 */
+	public interface Handler {
+
+		/**
+		 * Called for each message on a channel that the handler is subscribed
+		 * to. The bytes are shared, and must not be modified.
+		 *
+		 * @param channel
+		 * @param buffer
+		 * @param offset
+		 * @param length
+		 */
+		public void handle(String channel, byte[] buffer, int offset, int length);
+	}
+
+	/**
+	 * Opens the {@link Network}s on which Harbors discover each other
+	 *
+	 * @author patrick.theisen
+	 */
+	public interface Factory {
+
+		/**
+		 * @param address
+		 * @param port
+		 * @param ttl
+		 * @return The url of the given multicast group. Harbors in the process
+		 * whose groups have the same url share a single network.
+		 */
+		public String getUrl(String address, int port, int ttl);
+
+		/**
+		 * @param url
+		 * @return A new network joined to the group with the given url
+		 * @throws Exception If the network could not be opened
+		 */
+		public Network open(String url) throws Exception;
+	}
+}
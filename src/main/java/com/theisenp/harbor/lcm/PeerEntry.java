@@ -0,0 +1,232 @@
+package com.theisenp.harbor.lcm;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.detection.FailureDetector.Monitor;
+import com.theisenp.harbor.timing.Timeout;
+
+/**
+ * The mutable record that a {@link Subscriber} keeps for each known
+ * {@link Peer}. The current peer (and with it, the status) is swapped with
+ * compare-and-set, while the liveness fields are plain volatile writes.
+ * 
+ * @author patrick.theisen
+ */
+final class PeerEntry {
+	private static final AtomicReferenceFieldUpdater<PeerEntry, Peer> PEER_UPDATER =
+			AtomicReferenceFieldUpdater.newUpdater(PeerEntry.class, Peer.class, "peer");
+
+	private final String id;
+	private volatile Peer peer;
+	private volatile long incarnation;
+	private volatile long version;
+	private volatile long sequence;
+	private volatile long interval;
+	private volatile long lastSeen;
+	private volatile long deadline;
+	private volatile Monitor monitor;
+	private volatile Timeout timeout;
+
+	// Guarded by the FingerprintCache
+	private boolean hasFingerprint;
+	private long fingerprint;
+
+	/**
+	 * @param peer
+	 */
+	public PeerEntry(Peer peer) {
+		this(peer, 0, 0);
+	}
+
+	/**
+	 * @param peer
+	 * @param incarnation
+	 * @param version
+	 */
+	public PeerEntry(Peer peer, long incarnation, long version) {
+		this.id = peer.getId();
+		this.peer = peer;
+		this.incarnation = incarnation;
+		this.version = version;
+	}
+
+	/**
+	 * @return
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return
+	 */
+	public Peer getPeer() {
+		return peer;
+	}
+
+	/**
+	 * @return
+	 */
+	public Status getStatus() {
+		return peer.getStatus();
+	}
+
+	/**
+	 * Replaces the current {@link Peer} if it is still the expected one
+	 * 
+	 * @param expected
+	 * @param update
+	 * @return True if the peer was replaced. Else, false.
+	 */
+	public boolean transition(Peer expected, Peer update) {
+		return PEER_UPDATER.compareAndSet(this, expected, update);
+	}
+
+	/**
+	 * @return The incarnation of the advertisement that the current peer was
+	 * built from
+	 */
+	public long getIncarnation() {
+		return incarnation;
+	}
+
+	/**
+	 * @return The version of the advertisement that the current peer was built
+	 * from
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param incarnation
+	 * @param version
+	 */
+	public void setVersion(long incarnation, long version) {
+		this.incarnation = incarnation;
+		this.version = version;
+	}
+
+	/**
+	 * @param incarnation
+	 * @param version
+	 * @return True if the given incarnation and version describe a later
+	 * advertisement than the current peer was built from
+	 */
+	public boolean isOlderThan(long incarnation, long version) {
+		return Advertisement.isNewer(incarnation, version, this.incarnation, this.version);
+	}
+
+	/**
+	 * @return The sequence number of the last heartbeat
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @param sequence
+	 */
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @return The interval that the peer last announced until its next
+	 * advertisement, in nanoseconds, or 0 if it has not announced one
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @param interval
+	 */
+	public void setInterval(long interval) {
+		this.interval = interval;
+	}
+
+	/**
+	 * @return The time of the last update, in nanoseconds
+	 */
+	public long getLastSeen() {
+		return lastSeen;
+	}
+
+	/**
+	 * @return The time at which the entry should next time out, in nanoseconds
+	 */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Records an update at the given time
+	 * 
+	 * @param now
+	 * @param delay
+	 */
+	public void touch(long now, long delay) {
+		lastSeen = now;
+		deadline = now + delay;
+	}
+
+	/**
+	 * @return The {@link Monitor} that tracks the peer's heartbeats
+	 */
+	public Monitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * @param monitor
+	 */
+	public void setMonitor(Monitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	 * @return
+	 */
+	public Timeout getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout
+	 */
+	public void setTimeout(Timeout timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return True if the entry is filed in a {@link FingerprintCache}
+	 */
+	boolean hasFingerprint() {
+		return hasFingerprint;
+	}
+
+	/**
+	 * @return The fingerprint of the last payload received from the peer
+	 */
+	long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @param fingerprint
+	 */
+	void setFingerprint(long fingerprint) {
+		this.fingerprint = fingerprint;
+		this.hasFingerprint = true;
+	}
+
+	/**
+	 * Marks the entry as no longer filed in a {@link FingerprintCache}
+	 */
+	void clearFingerprint() {
+		this.hasFingerprint = false;
+	}
+}
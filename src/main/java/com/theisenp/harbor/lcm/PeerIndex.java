@@ -0,0 +1,249 @@
+package com.theisenp.harbor.lcm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.DisjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+
+/**
+ * Secondary indexes of the {@link PeerEntry} records that a {@link Subscriber}
+ * keeps, by type, by protocol name and by status
+ * <p>
+ * Each entry is filed under its current {@link Peer}, and refiled whenever the
+ * peer is replaced. Changes to a single entry are made while holding the
+ * entry's lock, so they are applied in order. Readers see each index as a
+ * weakly consistent set, so a candidate must always be checked against the
+ * filter that selected it.
+ * <p>
+ * Empty sets are kept, since the number of distinct types and protocol names
+ * is small.
+ *
+ * @author patrick.theisen
+ */
+final class PeerIndex {
+	private final ConcurrentMap<String, Set<PeerEntry>> types = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Set<PeerEntry>> protocols = new ConcurrentHashMap<>();
+	private final Map<Status, Set<PeerEntry>> statuses = new EnumMap<>(Status.class);
+
+	/**
+	 *
+	 */
+	public PeerIndex() {
+		for(Status status : Status.values()) {
+			statuses.put(status, newSet());
+		}
+	}
+
+	/**
+	 * Files the given {@link PeerEntry} under the given {@link Peer}
+	 *
+	 * @param entry
+	 * @param peer
+	 */
+	public void add(PeerEntry entry, Peer peer) {
+		get(types, peer.getType()).add(entry);
+		for(String protocol : peer.getProtocolNames()) {
+			get(protocols, protocol).add(entry);
+		}
+		statuses.get(peer.getStatus()).add(entry);
+	}
+
+	/**
+	 * Removes the given {@link PeerEntry}, which is filed under the given
+	 * {@link Peer}
+	 *
+	 * @param entry
+	 * @param peer
+	 */
+	public void remove(PeerEntry entry, Peer peer) {
+		get(types, peer.getType()).remove(entry);
+		for(String protocol : peer.getProtocolNames()) {
+			get(protocols, protocol).remove(entry);
+		}
+		statuses.get(peer.getStatus()).remove(entry);
+	}
+
+	/**
+	 * Refiles the given {@link PeerEntry} from the previous {@link Peer} to
+	 * the given one, touching only the indexes that changed
+	 *
+	 * @param entry
+	 * @param previous
+	 * @param peer
+	 */
+	public void update(PeerEntry entry, Peer previous, Peer peer) {
+		if(!previous.getType().equals(peer.getType())) {
+			get(types, previous.getType()).remove(entry);
+			get(types, peer.getType()).add(entry);
+		}
+		// Peers that support the same protocols share the same names
+		if(previous.getProtocolNames() != peer.getProtocolNames()) {
+			List<String> before = previous.getProtocolNames();
+			List<String> after = peer.getProtocolNames();
+			for(String protocol : before) {
+				if(!after.contains(protocol)) {
+					get(protocols, protocol).remove(entry);
+				}
+			}
+			for(String protocol : after) {
+				if(!before.contains(protocol)) {
+					get(protocols, protocol).add(entry);
+				}
+			}
+		}
+		if(previous.getStatus() != peer.getStatus()) {
+			statuses.get(previous.getStatus()).remove(entry);
+			statuses.get(peer.getStatus()).add(entry);
+		}
+	}
+
+	/**
+	 * Removes every entry from every index
+	 */
+	public void clear() {
+		types.clear();
+		protocols.clear();
+		for(Set<PeerEntry> set : statuses.values()) {
+			set.clear();
+		}
+	}
+
+	/**
+	 * @param status
+	 * @return The number of entries with the given status
+	 */
+	public int count(Status status) {
+		return statuses.get(status).size();
+	}
+
+	/**
+	 * @param filter
+	 * @return The entries that could pass the given {@link Filter}, or null if
+	 * the filter cannot be answered from the indexes, and every entry must be
+	 * scanned
+	 */
+	public Collection<PeerEntry> select(Filter filter) {
+		if(filter instanceof TypeFilter) {
+			return find(types, ((TypeFilter) filter).getType());
+		}
+		else if(filter instanceof ProtocolFilter) {
+			return find(protocols, ((ProtocolFilter) filter).getProtocol());
+		}
+		else if(filter instanceof StatusFilter) {
+			return statuses.get(((StatusFilter) filter).getStatus());
+		}
+		else if(filter instanceof ConjunctiveFilter) {
+			return intersect(((ConjunctiveFilter) filter).getFilters());
+		}
+		else if(filter instanceof DisjunctiveFilter) {
+			return union(((DisjunctiveFilter) filter).getFilters());
+		}
+		else if(filter == Filter.FAIL) {
+			return Collections.emptySet();
+		}
+		else {
+			return null;
+		}
+	}
+
+	/**
+	 * @param filters
+	 * @return The entries that could pass all of the given filters, or null if
+	 * none of them can be answered from the indexes
+	 */
+	private Collection<PeerEntry> intersect(Collection<Filter> filters) {
+		List<Collection<PeerEntry>> sets = new ArrayList<>();
+		Collection<PeerEntry> smallest = null;
+		for(Filter filter : filters) {
+			Collection<PeerEntry> selected = select(filter);
+			if(selected == null) {
+				continue;
+			}
+			sets.add(selected);
+			if(smallest == null || selected.size() < smallest.size()) {
+				smallest = selected;
+			}
+		}
+		if(smallest == null) {
+			return null;
+		}
+
+		// Walk the smallest set and probe the others
+		Set<PeerEntry> result = new HashSet<>();
+		outer: for(PeerEntry entry : smallest) {
+			for(Collection<PeerEntry> set : sets) {
+				if(set != smallest && !set.contains(entry)) {
+					continue outer;
+				}
+			}
+			result.add(entry);
+		}
+		return result;
+	}
+
+	/**
+	 * @param filters
+	 * @return The entries that could pass any of the given filters, or null if
+	 * any of them cannot be answered from the indexes
+	 */
+	private Collection<PeerEntry> union(Collection<Filter> filters) {
+		Set<PeerEntry> result = new HashSet<>();
+		for(Filter filter : filters) {
+			Collection<PeerEntry> selected = select(filter);
+			if(selected == null) {
+				return null;
+			}
+			result.addAll(selected);
+		}
+		return result;
+	}
+
+	/**
+	 * @param index
+	 * @param key
+	 * @return The set filed under the given key, created if necessary
+	 */
+	private static Set<PeerEntry> get(ConcurrentMap<String, Set<PeerEntry>> index, String key) {
+		Set<PeerEntry> set = index.get(key);
+		if(set == null) {
+			Set<PeerEntry> created = newSet();
+			set = index.putIfAbsent(key, created);
+			if(set == null) {
+				set = created;
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * @param index
+	 * @param key
+	 * @return The set filed under the given key, or an empty set
+	 */
+	private static Set<PeerEntry> find(ConcurrentMap<String, Set<PeerEntry>> index, String key) {
+		Set<PeerEntry> set = index.get(key);
+		return (set == null) ? Collections.<PeerEntry> emptySet() : set;
+	}
+
+	/**
+	 * @return A new concurrent set
+	 */
+	private static Set<PeerEntry> newSet() {
+		return Collections.newSetFromMap(new ConcurrentHashMap<PeerEntry, Boolean>());
+	}
+}
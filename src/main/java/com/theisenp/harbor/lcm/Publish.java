@@ -1,5 +1,7 @@
 package com.theisenp.harbor.lcm;
 
+import java.io.IOException;
+
 import lcm.lcm.LCM;
 
 import com.theisenp.harbor.Peer;
@@ -8,25 +10,57 @@ import com.theisenp.harbor.utils.LcmConstants;
 import com.theisenp.harbor.utils.PeerUtils;
 
 /**
- * A {@link Runnable} that publishes a {@link PeerMessage}
+ * A {@link Runnable} that publishes a {@link PeerMessage} on a
+ * {@link Network}, which is encoded once rather than on every run
  * 
  * @author patrick.theisen
  */
 public class Publish implements Runnable {
-	private final LCM lcm;
-	private final PeerMessage message;
+	private final Network network;
+	private final EncodedMessage encoded;
 
 	/**
 	 * @param lcm
 	 * @param peer
 	 */
 	public Publish(LCM lcm, Peer peer) {
-		this.lcm = lcm;
-		this.message = PeerUtils.toMessage(peer);
+		this(new LcmNetwork(lcm), new Advertisement(peer));
+	}
+
+	/**
+	 * @param lcm
+	 * @param advertisement
+	 */
+	public Publish(LCM lcm, Advertisement advertisement) {
+		this(new LcmNetwork(lcm), advertisement);
+	}
+
+	/**
+	 * @param network
+	 * @param peer
+	 */
+	public Publish(Network network, Peer peer) {
+		this(network, new Advertisement(peer));
+	}
+
+	/**
+	 * @param network
+	 * @param advertisement
+	 */
+	public Publish(Network network, Advertisement advertisement) {
+		this.network = network;
+		this.encoded = new EncodedMessage(PeerUtils.toMessage(advertisement));
 	}
 
 	@Override
 	public void run() {
-		lcm.publish(LcmConstants.PEER_CHANNEL, message);
+		try {
+			network.publish(LcmConstants.PEER_CHANNEL, encoded.getBuffer(), 0,
+					encoded.getLength());
+		}
+		catch(IOException exception) {
+			// As with LCM#publish(String, LCMEncodable), a failed send is
+			// dropped, and the next period tries again
+		}
 	}
 }
@@ -1,26 +1,68 @@
 package com.theisenp.harbor.lcm;
 
-import java.util.concurrent.TimeUnit;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
-import lcm.lcm.LCM;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.joda.time.Duration;
 
+import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
 import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.JitteredSchedule;
+import com.theisenp.harbor.utils.LcmConstants;
 
 /**
- * An {@link AsyncFunction} that publishes a {@link PeerMessage} at a fixed rate
+ * An {@link AsyncFunction} that publishes a {@link PeerMessage} at a fixed
+ * rate, or in the {@link WireFormat#COMPACT} format, a heartbeat at a fixed
+ * rate and the full descriptor on demand
+ * <p>
+ * The fixed rate is kept by a {@link JitteredSchedule}, so that publishers
+ * that start together do not stay in phase, and runs delayed by a pause are
+ * skipped rather than published in a burst.
+ * <p>
+ * Any number of local peers can be advertised. They are all published from
+ * the same periodic task, and bundled together where they fit. See
+ * {@link Broadcast}.
+ * <p>
+ * If the maximum period is longer than the period, the advertisements are
+ * published on an adaptive {@link Trickle} schedule instead. The interval
+ * doubles while nothing changes, and drops back to the period whenever a
+ * local peer is added, updated or removed, or a subscriber requests one of
+ * their descriptors.
+ * <p>
+ * Alternatively, the fixed rate can be capped by a bandwidth budget for the
+ * whole group, which stretches the period as the group grows. See
+ * {@link BandwidthCap}.
  * 
  * @author patrick.theisen
  */
-public class Publisher implements AsyncFunction<LCM, Object> {
+public class Publisher implements AsyncFunction<SharedTransport, Object> {
+	public static final long UNLIMITED = 0;
+
 	private final ListeningScheduledExecutorService executor;
+	private final Clock clock;
 	private final long period;
-	private final Peer peer;
+	private final long maxPeriod;
+	private final WireFormat format;
+	private final ConcurrentMap<String, Advertisement> selves = new ConcurrentHashMap<>();
+
+	// Guarded by this
+	private long bandwidth = UNLIMITED;
+	private Supplier<Integer> groupSize;
+	private HarborMetrics metrics;
+	private Broadcast broadcast;
+	private Trickle trickle;
 
 	/**
 	 * @param executor
@@ -28,16 +70,316 @@ public class Publisher implements AsyncFunction<LCM, Object> {
 	 * @param peer
 	 */
 	public Publisher(ListeningScheduledExecutorService executor, Duration period, Peer peer) {
+		this(executor, period, peer, WireFormat.FULL);
+	}
+
+	/**
+	 * @param executor
+	 * @param period
+	 * @param peer
+	 * @param format
+	 */
+	public Publisher(ListeningScheduledExecutorService executor, Duration period, Peer peer,
+			WireFormat format) {
+		this(executor, period, period, peer, format);
+	}
+
+	/**
+	 * @param executor
+	 * @param period
+	 * @param maxPeriod
+	 * @param peer
+	 * @param format
+	 */
+	public Publisher(ListeningScheduledExecutorService executor, Duration period,
+			Duration maxPeriod, Peer peer, WireFormat format) {
+		this(executor, Clock.SYSTEM, period, maxPeriod, peer, format);
+	}
+
+	/**
+	 * @param executor
+	 * @param clock The clock of the executor
+	 * @param period
+	 * @param maxPeriod
+	 * @param peer
+	 * @param format
+	 */
+	public Publisher(ListeningScheduledExecutorService executor, Clock clock, Duration period,
+			Duration maxPeriod, Peer peer, WireFormat format) {
+		this(executor, clock, period, maxPeriod, format);
+		addSelf(peer);
+	}
+
+	/**
+	 * @param executor
+	 * @param period
+	 * @param format
+	 */
+	public Publisher(ListeningScheduledExecutorService executor, Duration period,
+			WireFormat format) {
+		this(executor, period, period, format);
+	}
+
+	/**
+	 * @param executor
+	 * @param period The interval between publications, or the minimum interval
+	 * if it is shorter than the maximum period
+	 * @param maxPeriod The maximum interval between publications
+	 * @param format
+	 */
+	public Publisher(ListeningScheduledExecutorService executor, Duration period,
+			Duration maxPeriod, WireFormat format) {
+		this(executor, Clock.SYSTEM, period, maxPeriod, format);
+	}
+
+	/**
+	 * @param executor
+	 * @param clock The clock of the executor
+	 * @param period The interval between publications, or the minimum interval
+	 * if it is shorter than the maximum period
+	 * @param maxPeriod The maximum interval between publications
+	 * @param format
+	 */
+	public Publisher(ListeningScheduledExecutorService executor, Clock clock, Duration period,
+			Duration maxPeriod, WireFormat format) {
+		if(maxPeriod.isShorterThan(period)) {
+			String message = "The maximum period must be >= the period";
+			throw new IllegalArgumentException(message);
+		}
 		this.executor = executor;
+		this.clock = clock;
 		this.period = period.getMillis();
-		this.peer = peer;
+		this.maxPeriod = maxPeriod.getMillis();
+		this.format = format;
+	}
+
+	/**
+	 * Starts advertising the given {@link Peer}. If a peer with the same id is
+	 * already advertised, it is replaced by the next version of its
+	 * advertisement.
+	 * 
+	 * @param peer
+	 */
+	public synchronized void addSelf(Peer peer) {
+		Advertisement previous = selves.get(peer.getId());
+		Advertisement advertisement;
+		if(previous == null) {
+			advertisement = new Advertisement(peer);
+		}
+		else {
+			advertisement = previous.update(peer);
+		}
+
+		selves.put(peer.getId(), advertisement);
+		if(broadcast != null) {
+			broadcast.add(advertisement);
+		}
+		reset();
+	}
+
+	/**
+	 * Replaces the advertisement of the local {@link Peer} with the same id as
+	 * the given one by its next version, and publishes it immediately rather
+	 * than at the next period
+	 * 
+	 * @param peer
+	 */
+	public synchronized void updateSelf(Peer peer) {
+		if(!selves.containsKey(peer.getId())) {
+			String message = "No local peer has the id: " + peer.getId();
+			throw new IllegalArgumentException(message);
+		}
+		addSelf(peer);
+		if(broadcast != null) {
+			broadcast.publish(peer.getId());
+		}
+	}
+
+	/**
+	 * Stops advertising the {@link Peer} with the given id
+	 * 
+	 * @param id
+	 */
+	public synchronized void removeSelf(String id) {
+		selves.remove(id);
+		if(broadcast != null) {
+			broadcast.remove(id);
+		}
+		reset();
+	}
+
+	/**
+	 * Drops an adaptive schedule back to the minimum interval. Has no effect on
+	 * a fixed rate schedule.
+	 */
+	public synchronized void reset() {
+		if(trickle != null) {
+			trickle.reset();
+		}
+	}
+
+	/**
+	 * Caps the bandwidth that the advertisements of every peer in the group
+	 * use together, by stretching the period as the group grows. Takes effect
+	 * the next time this function is applied.
+	 * 
+	 * @param bandwidth The budget for the whole group, in bytes per second
+	 * @param groupSize Supplies the number of remote peers in the group
+	 */
+	public synchronized void capBandwidth(long bandwidth, Supplier<Integer> groupSize) {
+		if(bandwidth <= 0) {
+			String message = "The bandwidth must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		if(isAdaptive()) {
+			String message = "The bandwidth of an adaptive schedule cannot be capped";
+			throw new IllegalStateException(message);
+		}
+		this.bandwidth = bandwidth;
+		this.groupSize = groupSize;
+	}
+
+	/**
+	 * Records the published datagrams and the lateness of each run in the
+	 * given registry. Takes effect the next time this function is applied.
+	 * 
+	 * @param metrics The registry, or null to stop recording
+	 */
+	public synchronized void instrument(HarborMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return The budget for the whole group, in bytes per second, or
+	 * {@link #UNLIMITED} if the bandwidth is not capped
+	 */
+	public synchronized long getBandwidth() {
+		return bandwidth;
+	}
+
+	/**
+	 * @return True if the advertisements are published on an adaptive
+	 * schedule. Else, false.
+	 */
+	public boolean isAdaptive() {
+		return maxPeriod > period;
+	}
+
+	/**
+	 * @param id
+	 * @return The current advertisement of the local {@link Peer} with the
+	 * given id, or null if there is none
+	 */
+	public Advertisement getAdvertisement(String id) {
+		return selves.get(id);
+	}
+
+	/**
+	 * @return The current set of advertised peers
+	 */
+	public Set<Peer> getSelves() {
+		Set<Peer> result = new HashSet<>();
+		for(Advertisement advertisement : selves.values()) {
+			result.add(advertisement.getPeer());
+		}
+		return result;
 	}
 
 	@Override
 	@SuppressWarnings("unchecked")
-	public ListenableFuture<Object> apply(LCM lcm) throws Exception {
-		Runnable publish = new Publish(lcm, peer);
-		TimeUnit unit = TimeUnit.MILLISECONDS;
-		return (ListenableFuture<Object>) executor.scheduleAtFixedRate(publish, 0, period, unit);
+	public synchronized ListenableFuture<Object> apply(SharedTransport transport) throws Exception {
+		broadcast = new Broadcast(transport, clock, metrics, format);
+		broadcast.setInterval(period);
+		for(Advertisement advertisement : selves.values()) {
+			broadcast.add(advertisement);
+		}
+
+		// Answer descriptor requests for as long as the advertisements run
+		if(format == WireFormat.COMPACT) {
+			transport.subscribe(LcmConstants.REQUEST_CHANNEL, broadcast);
+		}
+
+		ListenableFuture<?> task;
+		Receiver inconsistency = null;
+		if(isAdaptive()) {
+			// A request means that a subscriber is missing a descriptor
+			trickle = new Trickle(executor, broadcast, period, maxPeriod);
+			if(format == WireFormat.COMPACT) {
+				inconsistency = new Inconsistency();
+				transport.subscribe(LcmConstants.REQUEST_CHANNEL, inconsistency);
+			}
+			task = trickle.start();
+		}
+		else if(bandwidth != UNLIMITED) {
+			task = new BandwidthCap(executor, clock, broadcast, period, bandwidth, groupSize)
+					.start();
+		}
+		else {
+			task = new JitteredSchedule(executor, clock, broadcast, Duration.millis(period))
+					.start();
+		}
+		task.addListener(new Stop(transport, broadcast, inconsistency), directExecutor());
+		return (ListenableFuture<Object>) task;
+	}
+
+	/**
+	 * A {@link Receiver} that resets the adaptive schedule when a subscriber
+	 * requests the descriptor of one of the local peers
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class Inconsistency implements Receiver {
+
+		@Override
+		public void receive(SharedTransport transport, Datagram datagram) {
+			try {
+				DescriptorRequestMessage request = (DescriptorRequestMessage) datagram.getMessage();
+				if(selves.containsKey(request.id)) {
+					reset();
+				}
+			}
+			catch(IOException exception) {
+				throw new RuntimeException(exception);
+			}
+		}
+	}
+
+	/**
+	 * A {@link Runnable} that detaches a stopped {@link Broadcast}
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class Stop implements Runnable {
+		private final SharedTransport transport;
+		private final Broadcast stopped;
+		private final Receiver inconsistency;
+
+		/**
+		 * @param transport
+		 * @param stopped
+		 * @param inconsistency The receiver that resets the adaptive schedule,
+		 * or null if there is none
+		 */
+		public Stop(SharedTransport transport, Broadcast stopped, Receiver inconsistency) {
+			this.transport = transport;
+			this.stopped = stopped;
+			this.inconsistency = inconsistency;
+		}
+
+		@Override
+		public void run() {
+			if(format == WireFormat.COMPACT) {
+				transport.unsubscribe(LcmConstants.REQUEST_CHANNEL, stopped);
+			}
+			if(inconsistency != null) {
+				transport.unsubscribe(LcmConstants.REQUEST_CHANNEL, inconsistency);
+			}
+			synchronized(Publisher.this) {
+				if(broadcast == stopped) {
+					broadcast = null;
+					trickle = null;
+				}
+			}
+		}
 	}
 }
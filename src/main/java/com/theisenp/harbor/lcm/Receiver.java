@@ -0,0 +1,19 @@
+package com.theisenp.harbor.lcm;
+
+/**
+ * A callback for the {@link Datagram}s delivered on a {@link SharedTransport}
+ *
+ * @author patrick.theisen
+ */
+public interface Receiver {
+
+	/**
+	 * Called for each datagram on a channel that the receiver is subscribed to,
+	 * whether it arrived from the network or was published by a local
+	 * {@link SharedTransport} user
+	 *
+	 * @param transport
+	 * @param datagram
+	 */
+	public void receive(SharedTransport transport, Datagram datagram);
+}
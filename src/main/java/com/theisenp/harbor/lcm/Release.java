@@ -0,0 +1,18 @@
+package com.theisenp.harbor.lcm;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An {@link AsyncFunction} that releases a {@link SharedTransport}
+ * 
+ * @author patrick.theisen
+ */
+public class Release implements AsyncFunction<SharedTransport, Void> {
+
+	@Override
+	public ListenableFuture<Void> apply(SharedTransport transport) throws Exception {
+		transport.release();
+		return null;
+	}
+}
@@ -0,0 +1,24 @@
+package com.theisenp.harbor.lcm;
+
+import lcm.lcm.LCMEncodable;
+
+/**
+ * Publishes encoded messages on named channels. A {@link Subscriber} answers
+ * heartbeats from unknown peers through the sender that the heartbeats
+ * arrived on, which is either a {@link SharedTransport} or, for a subscriber
+ * attached directly to an {@link lcm.lcm.LCM} instance, an
+ * {@link LcmNetwork}.
+ *
+ * @author patrick.theisen
+ */
+public interface Sender {
+
+	/**
+	 * Publishes the given message on the given channel. A message that cannot
+	 * be sent is dropped.
+	 *
+	 * @param channel
+	 * @param message
+	 */
+	public void publish(String channel, LCMEncodable message);
+}
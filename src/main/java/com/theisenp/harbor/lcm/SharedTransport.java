@@ -0,0 +1,309 @@
+package com.theisenp.harbor.lcm;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import lcm.lcm.LCMDataOutputStream;
+import lcm.lcm.LCMEncodable;
+
+import com.theisenp.harbor.lcm.Network.Factory;
+import com.theisenp.harbor.lcm.Network.Handler;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A reference counted {@link Network} that is shared by every Harbor in the
+ * process that uses the same url and the same {@link Factory}. By default, the
+ * network is an {@link LcmNetwork}.
+ * <p>
+ * The transport subscribes to each channel once, no matter how many
+ * {@link Receiver}s are attached to it, so each datagram is read from a single
+ * socket and delivered to every receiver as the same {@link Datagram}. The
+ * datagram is fingerprinted and decoded at most once.
+ * <p>
+ * Everything published through the transport is also delivered directly to
+ * the local receivers, so Harbors in the same process discover each other
+ * without going through the network stack. The copy that multicast loopback
+ * then delivers from the network is recognized by its fingerprint and dropped.
+ * The echo window is measured against the clock of the Harbor that opened the
+ * transport.
+ *
+ * @author patrick.theisen
+ */
+public class SharedTransport implements Handler, Sender {
+	private static final long ECHO_WINDOW = TimeUnit.SECONDS.toNanos(1);
+	private static final int MAX_ECHOES = 1024;
+
+	// Guarded by itself
+	private static final Map<Key, SharedTransport> transports = new HashMap<>();
+
+	private final Key key;
+	private final String url;
+	private final Network network;
+	private final Clock clock;
+	private final ConcurrentMap<String, List<Receiver>> receivers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, Long> echoes = new ConcurrentHashMap<>();
+
+	// Guarded by transports
+	private int references;
+
+	/**
+	 * @param key
+	 * @param network
+	 * @param clock
+	 */
+	private SharedTransport(Key key, Network network, Clock clock) {
+		this.key = key;
+		this.url = key.url;
+		this.network = network;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the transport for the given url, opening its network with the
+	 * given {@link Factory} if no other Harbor in the process is using it. Each
+	 * call must be balanced by a call to {@link #release()}.
+	 *
+	 * @param factory
+	 * @param url
+	 * @return
+	 * @throws Exception If the network could not be opened
+	 */
+	public static SharedTransport acquire(Factory factory, String url) throws Exception {
+		return acquire(factory, url, Clock.SYSTEM);
+	}
+
+	/**
+	 * Returns the transport for the given url, opening its network with the
+	 * given {@link Factory} if no other Harbor in the process is using it. A
+	 * Harbor that uses a different factory for the same url gets a transport
+	 * of its own. Each call must be balanced by a call to {@link #release()}.
+	 *
+	 * @param factory
+	 * @param url
+	 * @param clock The clock of the transport, if it must be created
+	 * @return
+	 * @throws Exception If the network could not be opened
+	 */
+	public static SharedTransport acquire(Factory factory, String url, Clock clock)
+			throws Exception {
+		Key key = new Key(factory, url);
+		synchronized(transports) {
+			SharedTransport transport = transports.get(key);
+			if(transport == null) {
+				transport = new SharedTransport(key, factory.open(url), clock);
+				transports.put(key, transport);
+			}
+			transport.references++;
+			return transport;
+		}
+	}
+
+	/**
+	 * Gives up one reference to this transport. The underlying {@link Network}
+	 * is closed when the last reference is released.
+	 */
+	public void release() {
+		synchronized(transports) {
+			if(references == 0) {
+				String message = "The transport has already been released";
+				throw new IllegalStateException(message);
+			}
+
+			references--;
+			if(references == 0) {
+				transports.remove(key);
+				network.close();
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return
+	 */
+	public Network getNetwork() {
+		return network;
+	}
+
+	/**
+	 * @return The number of unreleased references to this transport
+	 */
+	public int getReferences() {
+		synchronized(transports) {
+			return references;
+		}
+	}
+
+	/**
+	 * Delivers each datagram on the given channel to the given
+	 * {@link Receiver}
+	 *
+	 * @param channel
+	 * @param receiver
+	 */
+	public synchronized void subscribe(String channel, Receiver receiver) {
+		List<Receiver> list = receivers.get(channel);
+		if(list == null) {
+			list = new CopyOnWriteArrayList<>();
+			receivers.put(channel, list);
+			network.subscribe(channel, this);
+		}
+		list.add(receiver);
+	}
+
+	/**
+	 * Stops delivering datagrams on the given channel to the given
+	 * {@link Receiver}
+	 *
+	 * @param channel
+	 * @param receiver
+	 */
+	public synchronized void unsubscribe(String channel, Receiver receiver) {
+		List<Receiver> list = receivers.get(channel);
+		if(list == null || !list.remove(receiver)) {
+			return;
+		}
+		if(list.isEmpty()) {
+			receivers.remove(channel);
+			network.unsubscribe(channel, this);
+		}
+	}
+
+	@Override
+	public void publish(String channel, LCMEncodable message) {
+		try {
+			LCMDataOutputStream output = new LCMDataOutputStream();
+			message.encode(output);
+			publish(channel, output.getBuffer(), 0, output.size());
+		}
+		catch(IOException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * Publishes the given bytes on the given channel, and delivers them to the
+	 * local receivers
+	 *
+	 * @param channel
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void publish(String channel, byte[] buffer, int offset, int length) {
+		Datagram datagram = new Datagram(channel, buffer, offset, length);
+		remember(datagram.getFingerprint());
+		try {
+			network.publish(channel, buffer, offset, length);
+		}
+		catch(IOException exception) {
+			// As with LCM#publish(String, LCMEncodable), a failed send is
+			// dropped, and the next period tries again
+		}
+		deliver(datagram);
+	}
+
+	@Override
+	public void handle(String channel, byte[] buffer, int offset, int length) {
+		Datagram datagram = new Datagram(channel, buffer, offset, length);
+		if(isEcho(datagram.getFingerprint())) {
+			return;
+		}
+		deliver(datagram);
+	}
+
+	/**
+	 * @param datagram
+	 */
+	private void deliver(Datagram datagram) {
+		List<Receiver> list = receivers.get(datagram.getChannel());
+		if(list == null) {
+			return;
+		}
+		for(Receiver receiver : list) {
+			receiver.receive(this, datagram);
+		}
+	}
+
+	/**
+	 * Records that a datagram with the given fingerprint was just published, so
+	 * that its echo can be recognized
+	 *
+	 * @param fingerprint
+	 */
+	private void remember(long fingerprint) {
+		long now = clock.nanoTime();
+		echoes.put(fingerprint, now);
+		if(echoes.size() <= MAX_ECHOES) {
+			return;
+		}
+
+		// Periodic payloads keep their own entries fresh
+		Iterator<Long> iterator = echoes.values().iterator();
+		while(iterator.hasNext()) {
+			if(now - iterator.next() >= ECHO_WINDOW) {
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param fingerprint
+	 * @return True if a datagram with the given fingerprint was published
+	 * through this transport recently enough that this is its echo
+	 */
+	private boolean isEcho(long fingerprint) {
+		Long published = echoes.get(fingerprint);
+		return published != null && clock.nanoTime() - published < ECHO_WINDOW;
+	}
+
+	/**
+	 * The identity of a shared transport: the factory that opens its network,
+	 * and the url of the group
+	 *
+	 * @author patrick.theisen
+	 */
+	private static final class Key {
+		private final Factory factory;
+		private final String url;
+
+		/**
+		 * @param factory
+		 * @param url
+		 */
+		public Key(Factory factory, String url) {
+			this.factory = factory;
+			this.url = url;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj == this) {
+				return true;
+			}
+			if(!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return factory.equals(other.factory) && url.equals(other.url);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * factory.hashCode() + url.hashCode();
+		}
+	}
+}
@@ -1,13 +1,18 @@
 package com.theisenp.harbor.lcm;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import lcm.lcm.LCM;
 import lcm.lcm.LCMDataInputStream;
@@ -20,22 +25,144 @@ import com.theisenp.harbor.Harbor.Listener;
 import com.theisenp.harbor.Peer;
 import com.theisenp.harbor.Peer.Builder;
 import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.detection.FailureDetector;
+import com.theisenp.harbor.detection.FailureDetector.Monitor;
+import com.theisenp.harbor.detection.FixedTimeoutDetector;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.dispatch.ListenerStats;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.DisjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatBundleMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerBundleMessage;
 import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.metrics.FlightRecorder;
+import com.theisenp.harbor.metrics.FlightRecorder.Kind;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.TimeoutScheduler;
 import com.theisenp.harbor.utils.LcmConstants;
-import com.theisenp.harbor.utils.PeerUtils;
 
 /**
  * An {@link LCMSubscriber} that tracks the states of know peers on the network
+ * <p>
+ * Known peers are kept in a concurrent table of {@link PeerEntry} records.
+ * Updates from an active peer only refresh its deadline, and status changes
+ * swap the entry's peer with compare-and-set, so neither takes a lock that is
+ * shared between peers. Listener notifications for a single peer are
+ * serialized on its entry, so that they are delivered in order. The
+ * {@link Dispatcher} decides whether listeners run inline or on their own
+ * threads.
+ * <p>
+ * Most updates repeat the previous payload byte for byte. Each raw payload is
+ * fingerprinted and checked against the last payload from each known peer, so
+ * that a repeated update only refreshes the peer's deadline, without being
+ * decoded.
+ * <p>
+ * Every other message is read directly from the raw bytes, without decoding
+ * it into a new object. Peer ids are resolved against a pool of known ids by
+ * their raw bytes, and a descriptor is only decoded when it is new, so that
+ * the steady state receive path does not allocate. Types and protocol names
+ * are resolved against a pool of known names as well.
+ * <p>
+ * Peers that advertise in the {@link WireFormat#COMPACT} format send small
+ * heartbeats that carry a descriptor version. A heartbeat only refreshes the
+ * peer's deadline while the version matches the known descriptor. When the
+ * version moves, or the peer is unknown, the full descriptor is requested
+ * from the peer. At most {@link #MAX_REQUESTS} requests are outstanding within
+ * each request interval, so heartbeats from ids that never answer cannot grow
+ * the subscriber without bound.
+ * A descriptor moves the peer's deadline as well, but is not recorded as a
+ * heartbeat, since it follows the heartbeat that requested it by moments.
+ * <p>
+ * In either format, every advertisement carries the incarnation and version
+ * of the sender's descriptor. A known peer's descriptor is only replaced, and
+ * listeners only notified of the update, when those integers move forward.
+ * <p>
+ * Each periodic advertisement also announces the interval until the sender's
+ * next one, which grows while the sender publishes on an adaptive schedule.
+ * A {@link FailureDetector} turns each peer's heartbeats and announced
+ * intervals into the delays after which it becomes inactive, and then
+ * disconnected. By default, a {@link FixedTimeoutDetector} times a peer out
+ * after the configured timeout or {@link #TIMEOUT_INTERVALS} of its announced
+ * intervals, whichever is longer.
+ * <p>
+ * Arrivals and deadlines are measured against a {@link Clock}, so that a
+ * subscriber scheduled on a {@link com.theisenp.harbor.timing.VirtualScheduler}
+ * runs in virtual time.
+ * <p>
+ * Advertisements may also arrive in bundles, each of which is handled as
+ * though its messages had arrived separately. Advertisements from any of the
+ * local peers are ignored.
+ * <p>
+ * The subscriber is attached as a {@link Receiver} to a
+ * {@link SharedTransport}, over whichever {@link Network} the Harbor uses, and
+ * shares the fingerprint of each datagram with the other Harbors in the
+ * process. It can also be attached directly to an {@link LCM} instance, in
+ * which case it answers through an {@link LcmNetwork} wrapped around it. Past
+ * that point, it only sees raw datagrams and the {@link Sender} that they
+ * arrived on.
+ * <p>
+ * Known peers are also indexed by type, protocol name and status, so that
+ * most filters can be answered without scanning every peer. See
+ * {@link #query(Filter)}.
+ * <p>
+ * Once a {@link HarborMetrics} registry is given to
+ * {@link #instrument(HarborMetrics)}, the subscriber records each datagram it
+ * handles, each status transition, and each dropped advertisement from a
+ * local peer.
+ * <p>
+ * Once a {@link FlightRecorder} is given to
+ * {@link #setRecorder(FlightRecorder)}, the subscriber also records each
+ * advertisement or heartbeat it receives from another peer and each status
+ * transition, and reports an anomaly to the recorder whenever an inactive
+ * peer becomes active again.
+ * <p>
+ * A tap given to {@link #setTap(Receiver)} is handed each datagram before
+ * the subscriber handles it, so that the traffic can be captured with a
+ * {@link com.theisenp.harbor.capture.CaptureWriter} and replayed later.
  * 
  * @author patrick.theisen
  */
-public class Subscriber implements LCMSubscriber {
-	private final ListeningScheduledExecutorService executor;
-	private final Map<String, Peer> peers = new HashMap<>();
-	private final Map<String, Future<?>> timeouts = new HashMap<>();
-	private final Set<Listener> listeners = new HashSet<>();
-	private final long delay;
-	private final String self;
+public class Subscriber implements LCMSubscriber, Receiver {
+	public static final int TIMEOUT_INTERVALS = FixedTimeoutDetector.TIMEOUT_INTERVALS;
+	public static final int MAX_REQUESTS = 1024;
+
+	private static final long REQUEST_INTERVAL = TimeUnit.MILLISECONDS
+			.toNanos(Advertiser.MIN_DESCRIPTOR_INTERVAL.getMillis());
+
+	// Ids are dropped from their pool as their peers disconnect, so it only
+	// starts over if an extraordinary number of peers are known at once
+	private static final int ID_CAPACITY = 1 << 16;
+
+	private final TimeoutScheduler scheduler;
+	private final Clock clock;
+	private final ConcurrentMap<String, PeerEntry> peers = new ConcurrentHashMap<>();
+	private final PeerIndex index = new PeerIndex();
+	private final Dispatcher dispatcher;
+	private final FailureDetector detector;
+	private final ConcurrentMap<String, PeerEntry> selves = new ConcurrentHashMap<>();
+	private final FingerprintCache fingerprints = new FingerprintCache();
+	private final ConcurrentMap<String, Long> requests = new ConcurrentHashMap<>();
+	private final InternPool ids = new InternPool(ID_CAPACITY);
+	private final InternPool names = new InternPool();
+	private volatile HarborMetrics metrics;
+	private volatile FlightRecorder recorder;
+	private volatile Receiver tap;
+	private volatile LcmNetwork direct;
+	private final ThreadLocal<MessageReader> readers = new ThreadLocal<MessageReader>() {
+		@Override
+		protected MessageReader initialValue() {
+			return new MessageReader();
+		}
+	};
 
 	/**
 	 * @param executor
@@ -43,9 +170,106 @@ public class Subscriber implements LCMSubscriber {
 	 * @param self
 	 */
 	public Subscriber(ListeningScheduledExecutorService executor, Duration timeout, Peer self) {
-		this.executor = executor;
-		this.delay = timeout.getMillis();
-		this.self = self.getId();
+		this(new ExecutorTimeoutScheduler(executor), timeout, self);
+	}
+
+	/**
+	 * @param scheduler
+	 * @param timeout
+	 * @param self
+	 */
+	public Subscriber(TimeoutScheduler scheduler, Duration timeout, Peer self) {
+		this(scheduler, new Dispatcher(), timeout, self);
+	}
+
+	/**
+	 * @param scheduler
+	 * @param dispatcher
+	 * @param timeout
+	 * @param self
+	 */
+	public Subscriber(TimeoutScheduler scheduler, Dispatcher dispatcher, Duration timeout,
+			Peer self) {
+		this(scheduler, dispatcher, new FixedTimeoutDetector(timeout), self);
+	}
+
+	/**
+	 * @param scheduler
+	 * @param dispatcher
+	 * @param detector
+	 * @param self
+	 */
+	public Subscriber(TimeoutScheduler scheduler, Dispatcher dispatcher,
+			FailureDetector detector, Peer self) {
+		this(scheduler, dispatcher, detector, Clock.SYSTEM, self);
+	}
+
+	/**
+	 * @param scheduler
+	 * @param dispatcher
+	 * @param detector
+	 * @param clock The clock against which arrivals and deadlines are
+	 * measured, which should be the clock of the scheduler
+	 * @param self
+	 */
+	public Subscriber(TimeoutScheduler scheduler, Dispatcher dispatcher,
+			FailureDetector detector, Clock clock, Peer self) {
+		this.scheduler = scheduler;
+		this.clock = clock;
+		this.dispatcher = dispatcher;
+		this.detector = detector;
+		addSelf(self);
+	}
+
+	/**
+	 * Records the activity of the subscriber in the given registry
+	 * 
+	 * @param metrics The registry, or null to stop recording
+	 */
+	public void instrument(HarborMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Records the peer events seen by the subscriber in the given
+	 * {@link FlightRecorder}
+	 * 
+	 * @param recorder The recorder, or null to stop recording
+	 */
+	public void setRecorder(FlightRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Hands each datagram that the subscriber receives to the given
+	 * {@link Receiver}, on the receive thread, before handling it
+	 * 
+	 * @param tap The receiver, or null to stop handing it datagrams
+	 */
+	public void setTap(Receiver tap) {
+		this.tap = tap;
+	}
+
+	/**
+	 * Ignores advertisements from the given local {@link Peer}
+	 * 
+	 * @param self
+	 */
+	public void addSelf(Peer self) {
+		selves.put(self.getId(), new PeerEntry(self));
+	}
+
+	/**
+	 * Stops ignoring advertisements from the local {@link Peer} with the given
+	 * id
+	 * 
+	 * @param id
+	 */
+	public void removeSelf(String id) {
+		PeerEntry entry = selves.remove(id);
+		if(entry != null) {
+			fingerprints.remove(entry);
+		}
 	}
 
 	/**
@@ -54,8 +278,44 @@ public class Subscriber implements LCMSubscriber {
 	 * 
 	 * @param listener
 	 */
-	public synchronized void addListener(Listener listener) {
-		listeners.add(listener);
+	public void addListener(Listener listener) {
+		dispatcher.addListener(listener);
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * when peers change status. Notifications are delivered in order on the
+	 * given {@link Executor}.
+	 * 
+	 * @param listener
+	 * @param executor
+	 */
+	public void addListener(Listener listener, Executor executor) {
+		dispatcher.addListener(listener, executor);
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * when peers that pass the given {@link Filter} change status
+	 * 
+	 * @param listener
+	 * @param filter
+	 */
+	public void addListener(Listener listener, Filter filter) {
+		dispatcher.addListener(listener, filter);
+	}
+
+	/**
+	 * Adds the given {@link Listener} to the set of those that will be notified
+	 * when peers that pass the given {@link Filter} change status.
+	 * Notifications are delivered in order on the given {@link Executor}.
+	 * 
+	 * @param listener
+	 * @param filter
+	 * @param executor
+	 */
+	public void addListener(Listener listener, Filter filter, Executor executor) {
+		dispatcher.addListener(listener, filter, executor);
 	}
 
 	/**
@@ -64,136 +324,616 @@ public class Subscriber implements LCMSubscriber {
 	 * 
 	 * @param listener
 	 */
-	public synchronized void removeListener(Listener listener) {
-		listeners.remove(listener);
+	public void removeListener(Listener listener) {
+		dispatcher.removeListener(listener);
+	}
+
+	/**
+	 * @return A snapshot of the queue feeding each queued {@link Listener}
+	 */
+	public Map<Listener, ListenerStats> getListenerStats() {
+		return dispatcher.getStats();
 	}
 
 	/**
 	 * Clear all known peers
 	 */
-	public synchronized void clear() {
-		peers.clear();
-		for(Future<?> timeout : timeouts.values()) {
-			timeout.cancel(true);
+	public void clear() {
+		for(PeerEntry entry : peers.values()) {
+			synchronized(entry) {
+				if(peers.remove(entry.getId(), entry)) {
+					entry.getTimeout().cancel();
+					index.remove(entry, entry.getPeer());
+					ids.remove(entry.getId());
+				}
+			}
 		}
-		timeouts.clear();
+		fingerprints.clear();
+		requests.clear();
+	}
+
+	/**
+	 * @param status
+	 * @return The number of currently known peers with the given status
+	 */
+	public int getPeerCount(Status status) {
+		return index.count(status);
 	}
 
 	/**
 	 * @return The current set of known peers
 	 */
-	public synchronized Set<Peer> getPeers() {
-		return new HashSet<>(peers.values());
+	public Set<Peer> getPeers() {
+		Set<Peer> result = new HashSet<>();
+		for(PeerEntry entry : peers.values()) {
+			result.add(entry.getPeer());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The number of currently known peers
+	 */
+	public int getPeerCount() {
+		return peers.size();
+	}
+
+	/**
+	 * Trees of {@link TypeFilter}, {@link ProtocolFilter} and
+	 * {@link StatusFilter} instances, combined with {@link ConjunctiveFilter}
+	 * and {@link DisjunctiveFilter}, are answered from the indexes. Any other
+	 * {@link Filter} is checked against every known peer.
+	 * 
+	 * @param filter
+	 * @return The current set of known peers that pass the given filter
+	 */
+	public Set<Peer> query(Filter filter) {
+		Collection<PeerEntry> candidates = index.select(filter);
+		if(candidates == null) {
+			candidates = peers.values();
+		}
+
+		Set<Peer> result = new HashSet<>();
+		for(PeerEntry entry : candidates) {
+			Peer peer = entry.getPeer();
+			if(filter.filter(peer)) {
+				result.add(peer);
+			}
+		}
+		return result;
 	}
 
 	@Override
 	public void messageReceived(LCM lcm, String channel, LCMDataInputStream stream) {
-		// Check the channel
-		if(!channel.equals(LcmConstants.PEER_CHANNEL)) {
-			String message = "Received message on unexpected channel: " + channel;
-			throw new RuntimeException(message);
+		handle(wrap(lcm), null, new Datagram(channel, stream));
+	}
+
+	@Override
+	public void receive(SharedTransport transport, Datagram datagram) {
+		handle(transport, transport, datagram);
+	}
+
+	/**
+	 * @param lcm
+	 * @return An {@link LcmNetwork} around the given {@link LCM} instance,
+	 * which is reused for as long as messages keep arriving from it, or null
+	 * if there is no instance
+	 */
+	private Sender wrap(LCM lcm) {
+		if(lcm == null) {
+			return null;
+		}
+
+		LcmNetwork current = direct;
+		if(current == null || current.getLcm() != lcm) {
+			current = new LcmNetwork(lcm);
+			direct = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Hands the given {@link Datagram} to the tap, if there is one, then
+	 * handles it, and records how long it took if the subscriber is
+	 * instrumented
+	 * 
+	 * @param sender The sender through which to answer, or null
+	 * @param transport The transport the datagram arrived on, or null
+	 * @param datagram
+	 */
+	private void handle(Sender sender, SharedTransport transport, Datagram datagram) {
+		Receiver receiver = tap;
+		if(receiver != null) {
+			receiver.receive(transport, datagram);
+		}
+
+		HarborMetrics current = metrics;
+		if(current == null) {
+			route(sender, datagram);
+			return;
+		}
+
+		// The decoding cost is real time, even when the clock is virtual
+		long start = System.nanoTime();
+		try {
+			route(sender, datagram);
+		}
+		finally {
+			current.received(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Routes the given {@link Datagram} by its channel. Descriptor requests
+	 * are published through the given {@link Sender}, if there is one.
+	 * 
+	 * @param sender
+	 * @param datagram
+	 */
+	private void route(Sender sender, Datagram datagram) {
+		String channel = datagram.getChannel();
+		if(channel.equals(LcmConstants.PEER_CHANNEL)) {
+			handleAdvertisement(datagram, false);
+			return;
+		}
+		else if(channel.equals(LcmConstants.DESCRIPTOR_CHANNEL)) {
+			handleAdvertisement(datagram, true);
+			return;
 		}
 
-		// Handle the message
+		MessageReader reader = open(datagram);
 		try {
-			handlePeerMessage(new PeerMessage(stream));
+			if(channel.equals(LcmConstants.HEARTBEAT_CHANNEL)) {
+				reader.readFingerprint(HeartbeatMessage.LCM_FINGERPRINT);
+				handleHeartbeatMessage(sender, reader);
+			}
+			else if(channel.equals(LcmConstants.PEER_BUNDLE_CHANNEL)) {
+				reader.readFingerprint(PeerBundleMessage.LCM_FINGERPRINT);
+				int count = reader.readCount();
+				for(int i = 0; i < count; i++) {
+					handlePeerMessage(reader, false);
+				}
+			}
+			else if(channel.equals(LcmConstants.HEARTBEAT_BUNDLE_CHANNEL)) {
+				reader.readFingerprint(HeartbeatBundleMessage.LCM_FINGERPRINT);
+				int count = reader.readCount();
+				for(int i = 0; i < count; i++) {
+					handleHeartbeatMessage(sender, reader);
+				}
+			}
+			else {
+				String message = "Received message on unexpected channel: " + channel;
+				throw new RuntimeException(message);
+			}
 		}
 		catch(IOException exception) {
 			throw new RuntimeException(exception);
 		}
+		finally {
+			reader.close();
+		}
 	}
 
 	/**
-	 * Handles the given {@link PeerMessage} by either adding a new {@link Peer}
-	 * or updating an existing one
+	 * Handles a {@link PeerMessage} or {@link DescriptorMessage}, skipping the
+	 * decode if it repeats the last payload from a known peer
 	 * 
-	 * @param message
+	 * @param datagram
+	 * @param descriptor
 	 */
-	private void handlePeerMessage(PeerMessage message) {
-		// Ignore our own updates
-		Peer peer = PeerUtils.fromMessage(message, Status.ACTIVE);
-		if(peer.getId().equals(self)) {
+	private void handleAdvertisement(Datagram datagram, boolean descriptor) {
+		byte[] buffer = datagram.getBuffer();
+		int offset = datagram.getOffset();
+		int length = datagram.getLength();
+		long fingerprint = datagram.getFingerprint();
+		if(refresh(fingerprint, buffer, offset, length, descriptor)) {
 			return;
 		}
 
-		// Add or update the peer
-		synchronized(this) {
-			if(!peers.containsKey(peer.getId())) {
-				add(peer);
+		MessageReader reader = open(datagram);
+		PeerEntry entry;
+		try {
+			if(descriptor) {
+				reader.readFingerprint(DescriptorMessage.LCM_FINGERPRINT);
 			}
 			else {
-				update(peer);
+				reader.readFingerprint(PeerMessage.LCM_FINGERPRINT);
 			}
+			entry = handlePeerMessage(reader, descriptor);
+		}
+		catch(IOException exception) {
+			throw new RuntimeException(exception);
+		}
+		finally {
+			reader.close();
+		}
+		// A stale payload is decoded every time, so that it is never mistaken
+		// for a current one
+		if(entry != null) {
+			fingerprints.put(fingerprint, datagram.getPayload(), entry);
 		}
 	}
 
 	/**
-	 * Adds the given {@link Peer} as newly and actively connected
+	 * @param datagram
+	 * @return A {@link MessageReader} over the raw bytes of the given
+	 * {@link Datagram}, which must be closed once it has been read
+	 */
+	private MessageReader open(Datagram datagram) {
+		MessageReader reader = readers.get();
+		if(reader.isOpen()) {
+			// A datagram that is published while handling another one is
+			// delivered on the same thread
+			reader = new MessageReader();
+		}
+		reader.open(datagram.getBuffer(), datagram.getOffset(), datagram.getLength());
+		return reader;
+	}
+
+	/**
+	 * Refreshes the deadline of the active peer that last sent the given
+	 * payload, if there is one
 	 * 
-	 * @param peer
+	 * @param fingerprint
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @param descriptor True if the payload is a {@link DescriptorMessage}
+	 * @return True if the payload was handled. False if it must be decoded.
 	 */
-	private void add(Peer peer) {
-		String id = peer.getId();
-		peers.put(id, peer);
-		timeouts.put(id, executor.schedule(new Deactivate(id), delay, MILLISECONDS));
-		notifyConnected(new Builder(peer).status(Status.CONNECTED).build());
-		notifyActive(peer);
+	private boolean refresh(long fingerprint, byte[] buffer, int offset, int length,
+			boolean descriptor) {
+		PeerEntry entry = fingerprints.get(fingerprint, buffer, offset, length);
+		if(entry == null) {
+			return false;
+		}
+		if(selves.get(entry.getId()) == entry) {
+			selfDropped();
+			return true;
+		}
+
+		// Anything but an active peer is left to the decoded update, which
+		// records the arrival itself. A repeated payload repeats the interval.
+		if(entry.getStatus() != Status.ACTIVE || !isCurrent(entry)) {
+			return false;
+		}
+		long now = clock.nanoTime();
+		received(entry.getId(), entry, now);
+		renew(entry, descriptor ? extend(entry, now) : arrive(entry, now));
+		return true;
 	}
 
 	/**
-	 * Notifies all registered listeners of the connected peer
+	 * Handles the {@link PeerMessage} or {@link DescriptorMessage} at the
+	 * position of the given {@link MessageReader} by either adding a new
+	 * {@link Peer} or updating an existing one. The descriptor itself is only
+	 * decoded when it is new, and is otherwise skipped.
+	 * 
+	 * @param reader
+	 * @param descriptor True if the message is a {@link DescriptorMessage},
+	 * which does not announce an interval
+	 * @return The {@link PeerEntry} of the sender, or null if the message was
+	 * stale
+	 * @throws IOException
 	 */
-	private void notifyConnected(Peer peer) {
-		for(Listener listener : new HashSet<>(listeners)) {
-			listener.onConnected(peer);
+	private PeerEntry handlePeerMessage(MessageReader reader, boolean descriptor)
+			throws IOException {
+		String id = reader.readString(ids);
+		long incarnation = reader.readLong();
+		long version = reader.readLong();
+		long interval = descriptor ? 0 : MILLISECONDS.toNanos(reader.readLong());
+
+		// Ignore our own updates
+		PeerEntry own = selves.get(id);
+		if(own != null) {
+			selfDropped();
+			skipDescriptor(reader);
+			return own;
+		}
+		if(descriptor) {
+			requests.remove(id);
+		}
+
+		// Add or update the peer. The interval is only announced by full
+		// messages and heartbeats.
+		long now = clock.nanoTime();
+		PeerEntry entry = peers.get(id);
+		received(id, entry, now);
+		if(entry == null) {
+			return add(readDescriptor(reader, id), incarnation, version, interval, now);
+		}
+		if(isStale(entry, incarnation)) {
+			skipDescriptor(reader);
+			return null;
+		}
+		if(entry.isOlderThan(incarnation, version)) {
+			replace(entry, readDescriptor(reader, id), incarnation, version);
+		}
+		else {
+			skipDescriptor(reader);
 		}
+		if(descriptor) {
+			renew(entry, extend(entry, now));
+		}
+		else {
+			entry.setInterval(interval);
+			update(entry, now);
+		}
+		return entry;
 	}
 
 	/**
-	 * Notifies all registered listeners of the active peer
+	 * Handles the {@link HeartbeatMessage} at the position of the given
+	 * {@link MessageReader} by either updating a known {@link Peer} or
+	 * requesting the descriptor of an unknown one
+	 * 
+	 * @param sender
+	 * @param reader
+	 * @throws IOException
 	 */
-	private void notifyActive(Peer peer) {
-		for(Listener listener : new HashSet<>(listeners)) {
-			listener.onActive(peer);
+	private void handleHeartbeatMessage(Sender sender, MessageReader reader) throws IOException {
+		String id = reader.readString(ids);
+		long incarnation = reader.readLong();
+		long version = reader.readLong();
+		long sequence = reader.readLong();
+		long interval = reader.readLong();
+
+		// Ignore our own heartbeats
+		if(selves.containsKey(id)) {
+			selfDropped();
+			return;
+		}
+
+		// A heartbeat is only enough to update a peer whose descriptor is known
+		long now = clock.nanoTime();
+		PeerEntry entry = peers.get(id);
+		received(id, entry, now);
+		if(entry != null && isStale(entry, incarnation)) {
+			return;
+		}
+		if(entry != null) {
+			entry.setSequence(sequence);
+			entry.setInterval(MILLISECONDS.toNanos(interval));
+			update(entry, now);
+		}
+		if(entry == null || entry.isOlderThan(incarnation, version)) {
+			request(sender, id, incarnation, version);
 		}
 	}
 
 	/**
-	 * Notifies all registered listeners of the inactive peer
+	 * Checks the given incarnation against that of the given
+	 * {@link PeerEntry}. A lower incarnation is ignored while the peer is
+	 * active, as a late datagram from its previous run. Once the peer has gone
+	 * quiet, it is taken as a restart whose wall clock stepped backwards, and
+	 * any later version from it replaces the current descriptor.
+	 * 
+	 * @param entry
+	 * @param incarnation
+	 * @return True if the message must be ignored. Else, false.
 	 */
-	private void notifyInactive(Peer peer) {
-		for(Listener listener : new HashSet<>(listeners)) {
-			listener.onInactive(peer);
+	private boolean isStale(PeerEntry entry, long incarnation) {
+		if(incarnation >= entry.getIncarnation()) {
+			return false;
+		}
+		synchronized(entry) {
+			if(incarnation >= entry.getIncarnation()) {
+				return false;
+			}
+			if(entry.getStatus() == Status.ACTIVE) {
+				return true;
+			}
+			entry.setVersion(incarnation, 0);
+			return false;
 		}
 	}
 
 	/**
-	 * Notifies all registered listeners of the disconnected peer
+	 * Decodes the descriptor fields that follow the header of a
+	 * {@link PeerMessage} or {@link DescriptorMessage}. Types and protocol
+	 * names are resolved against the pool of known names.
+	 * 
+	 * @param reader
+	 * @param id
+	 * @return The described {@link Peer}
+	 * @throws IOException
 	 */
-	private void notifyDisconnected(Peer peer) {
-		for(Listener listener : new HashSet<>(listeners)) {
-			listener.onDisconnected(peer);
+	private Peer readDescriptor(MessageReader reader, String id) throws IOException {
+		Builder builder = new Builder();
+		builder.id(id);
+		builder.type(reader.readString(names));
+		builder.status(Status.ACTIVE);
+		builder.description(reader.readString());
+
+		int count = reader.readCount();
+		String[] protocols = new String[count];
+		for(int i = 0; i < count; i++) {
+			protocols[i] = reader.readString(names);
 		}
+		for(int i = 0; i < count; i++) {
+			builder.protocol(protocols[i], reader.readString());
+		}
+		return builder.build();
 	}
 
 	/**
-	 * Updates the given {@link Peer} to reflect its renewed activity
+	 * Skips the descriptor fields that follow the header of a
+	 * {@link PeerMessage} or {@link DescriptorMessage}
 	 * 
+	 * @param reader
+	 * @throws IOException
+	 */
+	private static void skipDescriptor(MessageReader reader) throws IOException {
+		reader.skipString();
+		reader.skipString();
+		int count = reader.readCount();
+		for(int i = 0; i < 2 * count; i++) {
+			reader.skipString();
+		}
+	}
+
+	/**
+	 * Publishes a request for the descriptor of the given peer, unless one was
+	 * published too recently, or too many requests are outstanding
+	 * 
+	 * @param sender
+	 * @param id
+	 * @param incarnation
+	 * @param version
+	 */
+	private void request(Sender sender, String id, long incarnation, long version) {
+		if(sender == null) {
+			return;
+		}
+
+		long now = clock.nanoTime();
+		Long previous = requests.get(id);
+		if(previous != null && now - previous < REQUEST_INTERVAL) {
+			return;
+		}
+		if(previous == null && requests.size() >= MAX_REQUESTS && !expireRequests(now)) {
+			return;
+		}
+		requests.put(id, now);
+
+		DescriptorRequestMessage message = new DescriptorRequestMessage();
+		message.id = id;
+		message.incarnation = incarnation;
+		message.version = version;
+		sender.publish(LcmConstants.REQUEST_CHANNEL, message);
+
+		HarborMetrics current = metrics;
+		if(current != null) {
+			current.published();
+		}
+	}
+
+	/**
+	 * Forgets the descriptor requests that no longer throttle anything, since
+	 * requests that are never answered would otherwise be kept forever
+	 * 
+	 * @param now
+	 * @return True if there is room for another request. False if too many
+	 * were published within the request interval, in which case no more are
+	 * published until they expire.
+	 */
+	private boolean expireRequests(long now) {
+		Iterator<Long> iterator = requests.values().iterator();
+		while(iterator.hasNext()) {
+			if(now - iterator.next() >= REQUEST_INTERVAL) {
+				iterator.remove();
+			}
+		}
+		return requests.size() < MAX_REQUESTS;
+	}
+
+	/**
+	 * Replaces the descriptor of the given {@link PeerEntry}, keeping its
+	 * current status, and notifies listeners of the change
+	 * 
+	 * @param entry
 	 * @param peer
+	 * @param incarnation
+	 * @param version
 	 */
-	private void update(Peer peer) {
-		String id = peer.getId();
-		Peer previous = peers.get(id);
+	private void replace(PeerEntry entry, Peer peer, long incarnation, long version) {
+		synchronized(entry) {
+			// Another thread may have applied this or a later version first
+			Peer previous = entry.getPeer();
+			if(previous.getStatus() == Status.DISCONNECTED
+					|| !entry.isOlderThan(incarnation, version)) {
+				return;
+			}
+
+			Peer replacement = peer.withStatus(previous.getStatus());
+			if(entry.transition(previous, replacement)) {
+				entry.setVersion(incarnation, version);
+				reindex(entry, previous, replacement);
+				dispatcher.onUpdated(previous, replacement);
+			}
+		}
+	}
+
+	/**
+	 * Adds the given {@link Peer} as newly and actively connected
+	 * 
+	 * @param peer
+	 * @param incarnation
+	 * @param version
+	 * @param interval The announced interval, in nanoseconds, or 0 if none was
+	 * announced
+	 * @param now
+	 * @return The {@link PeerEntry} of the peer
+	 */
+	private PeerEntry add(Peer peer, long incarnation, long version, long interval, long now) {
+		PeerEntry entry = new PeerEntry(peer, incarnation, version);
+		synchronized(entry) {
+			entry.setInterval(interval);
+			entry.setMonitor(detector.newMonitor());
+			long timeout = arrive(entry, now);
+			entry.setTimeout(scheduler.schedule(new Deactivate(entry), timeout, NANOSECONDS));
+
+			// Another thread may have added the peer first
+			PeerEntry existing = peers.putIfAbsent(peer.getId(), entry);
+			if(existing != null) {
+				entry.getTimeout().cancel();
+				if(existing.isOlderThan(incarnation, version)) {
+					replace(existing, peer, incarnation, version);
+				}
+				if(interval > 0) {
+					existing.setInterval(interval);
+					update(existing, now);
+				}
+				else {
+					renew(existing, extend(existing, now));
+				}
+				return existing;
+			}
+
+			index.add(entry, peer);
+			transitioned(entry, null, Status.ACTIVE);
+			dispatcher.onConnected(peer.withStatus(Status.CONNECTED));
+			dispatcher.onActive(peer);
+			return entry;
+		}
+	}
+
+	/**
+	 * Updates the given {@link PeerEntry} to reflect its renewed activity
+	 * 
+	 * @param entry
+	 * @param now
+	 */
+	private void update(PeerEntry entry, long now) {
+		// Record the update before checking the status, so that a deactivation
+		// racing with this update sees the new deadline
+		renew(entry, arrive(entry, now));
+	}
+
+	/**
+	 * Moves the deadline of the given {@link PeerEntry}, whose arrival has
+	 * just been recorded, or makes it active again if it has become inactive
+	 * 
+	 * @param entry
+	 * @param timeout The delay after which the peer becomes inactive, in
+	 * nanoseconds
+	 */
+	private void renew(PeerEntry entry, long timeout) {
+		Peer previous = entry.getPeer();
 		switch(previous.getStatus()) {
 			case ACTIVE:
-				timeouts.get(id).cancel(true);
-				timeouts.put(id, executor.schedule(new Deactivate(id), delay, MILLISECONDS));
+				// If the deactivation has already fired, it will notice the new
+				// deadline and reschedule itself
+				entry.getTimeout().reset(timeout, NANOSECONDS);
 				break;
 			case INACTIVE:
-				peers.put(peer.getId(), peer);
-				timeouts.get(id).cancel(true);
-				timeouts.put(id, executor.schedule(new Deactivate(id), delay, MILLISECONDS));
-				notifyActive(peer);
+				if(reactivate(entry, previous, timeout)) {
+					recovered(entry);
+				}
+				break;
+			case DISCONNECTED:
+				// The entry is being removed, so the next update will reconnect
+				// the peer
 				break;
 			default:
 				String error = "Unexpected peer status: " + previous.getStatus();
@@ -201,28 +941,183 @@ public class Subscriber implements LCMSubscriber {
 		}
 	}
 
+	/**
+	 * Makes the given inactive {@link PeerEntry} active again
+	 * 
+	 * @param entry
+	 * @param previous The inactive peer
+	 * @param timeout The delay after which the peer becomes inactive again, in
+	 * nanoseconds
+	 * @return True if the peer was made active. False if its disconnection has
+	 * already won, in which case the next update will reconnect it.
+	 */
+	private boolean reactivate(PeerEntry entry, Peer previous, long timeout) {
+		synchronized(entry) {
+			Peer peer = previous.withStatus(Status.ACTIVE);
+			if(!entry.transition(previous, peer)) {
+				return false;
+			}
+			reindex(entry, previous, peer);
+			entry.getTimeout().cancel();
+			entry.setTimeout(scheduler.schedule(new Deactivate(entry), timeout, NANOSECONDS));
+			transitioned(entry, Status.INACTIVE, Status.ACTIVE);
+			dispatcher.onActive(peer);
+			return true;
+		}
+	}
+
+	/**
+	 * Refiles the given {@link PeerEntry} in the indexes, unless it has already
+	 * been removed from the table. Must be called while holding the entry's
+	 * lock.
+	 * 
+	 * @param entry
+	 * @param previous
+	 * @param peer
+	 */
+	private void reindex(PeerEntry entry, Peer previous, Peer peer) {
+		if(isCurrent(entry)) {
+			index.update(entry, previous, peer);
+		}
+	}
+
+	/**
+	 * Records a heartbeat from the given {@link PeerEntry} at the given time
+	 * 
+	 * @param entry
+	 * @param now
+	 * @return The delay after which the peer becomes inactive, in nanoseconds
+	 */
+	private long arrive(PeerEntry entry, long now) {
+		Monitor monitor = entry.getMonitor();
+		monitor.heartbeat(now, entry.getInterval());
+		long timeout = monitor.getInactiveDelay();
+		entry.touch(now, timeout);
+		return timeout;
+	}
+
+	/**
+	 * Moves the deadline of the given {@link PeerEntry} for a descriptor,
+	 * without recording it as a heartbeat
+	 * 
+	 * @param entry
+	 * @param now
+	 * @return The delay after which the peer becomes inactive, in nanoseconds
+	 */
+	private long extend(PeerEntry entry, long now) {
+		long timeout = entry.getMonitor().getInactiveDelay();
+		entry.touch(now, timeout);
+		return timeout;
+	}
+
+	/**
+	 * Records a received advertisement or heartbeat, if the subscriber has a
+	 * recorder
+	 * 
+	 * @param id
+	 * @param entry The {@link PeerEntry} of the sender, or null if it is unknown
+	 * @param now
+	 */
+	private void received(String id, PeerEntry entry, long now) {
+		FlightRecorder current = recorder;
+		if(current != null) {
+			Status status = (entry == null) ? null : entry.getStatus();
+			current.record(Kind.RECEIVED, id, status, status, now);
+		}
+	}
+
+	/**
+	 * Records a dropped advertisement from a local peer, if the subscriber is
+	 * instrumented
+	 */
+	private void selfDropped() {
+		HarborMetrics current = metrics;
+		if(current != null) {
+			current.selfDropped();
+		}
+	}
+
+	/**
+	 * Records a status transition of the given {@link PeerEntry}, if the
+	 * subscriber is instrumented or has a recorder
+	 * 
+	 * @param entry
+	 * @param previous The status before the transition, or null if the peer
+	 * was just added
+	 * @param status
+	 */
+	private void transitioned(PeerEntry entry, Status previous, Status status) {
+		HarborMetrics current = metrics;
+		if(current != null) {
+			current.transition();
+		}
+		FlightRecorder events = recorder;
+		if(events != null) {
+			events.record(Kind.TRANSITIONED, entry.getId(), previous, status);
+		}
+	}
+
+	/**
+	 * Reports the recovery of the given inactive {@link PeerEntry} as an
+	 * anomaly, if the subscriber has a recorder. A peer that recovers missed
+	 * enough heartbeats to time out, so it may be flapping.
+	 * 
+	 * @param entry
+	 */
+	private void recovered(PeerEntry entry) {
+		FlightRecorder current = recorder;
+		if(current != null) {
+			current.anomaly("Peer " + entry.getId() + " recovered after becoming inactive");
+		}
+	}
+
+	/**
+	 * @param entry
+	 * @return True if the given {@link PeerEntry} is still in the table
+	 */
+	private boolean isCurrent(PeerEntry entry) {
+		return peers.get(entry.getId()) == entry;
+	}
+
 	/**
 	 * A {@link Runnable} that deactivates a {@link Peer}
 	 * 
 	 * @author patrick.theisen
 	 */
 	private class Deactivate implements Runnable {
-		private final String id;
+		private final PeerEntry entry;
 
 		/**
-		 * @param id
+		 * @param entry
 		 */
-		public Deactivate(String id) {
-			this.id = id;
+		public Deactivate(PeerEntry entry) {
+			this.entry = entry;
 		}
 
 		@Override
 		public void run() {
-			synchronized(Subscriber.this) {
-				Peer peer = new Builder(peers.get(id)).status(Status.INACTIVE).build();
-				peers.put(id, peer);
-				timeouts.put(id, executor.schedule(new Disconnect(id), delay, MILLISECONDS));
-				notifyInactive(peer);
+			synchronized(entry) {
+				Peer previous = entry.getPeer();
+				if(previous.getStatus() != Status.ACTIVE || !isCurrent(entry)) {
+					return;
+				}
+
+				// Updates that arrived after this fired only moved the deadline
+				long remaining = entry.getDeadline() - clock.nanoTime();
+				if(remaining > 0) {
+					entry.setTimeout(scheduler.schedule(this, remaining, NANOSECONDS));
+					return;
+				}
+
+				Peer peer = previous.withStatus(Status.INACTIVE);
+				if(!entry.transition(previous, peer)) {
+					return;
+				}
+				index.update(entry, previous, peer);
+				long timeout = entry.getMonitor().getDisconnectDelay();
+				entry.setTimeout(scheduler.schedule(new Disconnect(entry), timeout, NANOSECONDS));
+				transitioned(entry, Status.ACTIVE, Status.INACTIVE);
+				dispatcher.onInactive(peer);
 			}
 		}
 	}
@@ -233,22 +1128,34 @@ public class Subscriber implements LCMSubscriber {
 	 * @author patrick.theisen
 	 */
 	private class Disconnect implements Runnable {
-		private final String id;
+		private final PeerEntry entry;
 
 		/**
-		 * @param id
+		 * @param entry
 		 */
-		public Disconnect(String id) {
-			this.id = id;
+		public Disconnect(PeerEntry entry) {
+			this.entry = entry;
 		}
 
 		@Override
 		public void run() {
-			synchronized(Subscriber.this) {
-				Peer peer = new Builder(peers.get(id)).status(Status.DISCONNECTED).build();
-				peers.remove(id);
-				timeouts.remove(id);
-				notifyDisconnected(peer);
+			synchronized(entry) {
+				Peer previous = entry.getPeer();
+				if(previous.getStatus() != Status.INACTIVE) {
+					return;
+				}
+
+				Peer peer = previous.withStatus(Status.DISCONNECTED);
+				if(!entry.transition(previous, peer)) {
+					return;
+				}
+				if(peers.remove(entry.getId(), entry)) {
+					index.remove(entry, previous);
+					fingerprints.remove(entry);
+					ids.remove(entry.getId());
+					transitioned(entry, Status.INACTIVE, Status.DISCONNECTED);
+					dispatcher.onDisconnected(peer);
+				}
 			}
 		}
 	}
@@ -0,0 +1,165 @@
+package com.theisenp.harbor.lcm;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.theisenp.harbor.timing.JitteredSchedule;
+
+/**
+ * Runs a {@link Broadcast} on an adaptive schedule, following the Trickle
+ * algorithm (RFC 6206)
+ * <p>
+ * The interval between publications starts at the minimum and doubles after
+ * each one, up to the maximum, for as long as nothing changes. A call to
+ * {@link #reset()}, made when the local descriptors change or a subscriber
+ * signals that it is missing one of them, drops the interval back to the
+ * minimum and publishes immediately.
+ * <p>
+ * Each publication carries the interval until the next one, so that
+ * subscribers can scale their timeouts to match. The next publication is
+ * brought forward by a random jitter of up to the given fraction of the
+ * interval, so that publishers that start together drift out of phase, while
+ * the announced interval remains an upper bound. Trickle's suppression of
+ * redundant messages is not used, since each publisher is the only source of
+ * its own advertisements.
+ * 
+ * @author patrick.theisen
+ */
+public class Trickle implements Runnable {
+	private final ScheduledExecutorService executor;
+	private final Broadcast broadcast;
+	private final long min;
+	private final long max;
+	private final double jitter;
+	private final Random random;
+	private final SettableFuture<Object> result = SettableFuture.create();
+
+	// Guarded by this
+	private long interval;
+	private long current;
+	private Future<?> pending;
+
+	/**
+	 * @param executor
+	 * @param broadcast
+	 * @param min The minimum interval, in milliseconds
+	 * @param max The maximum interval, in milliseconds
+	 */
+	public Trickle(ScheduledExecutorService executor, Broadcast broadcast, long min, long max) {
+		this(executor, broadcast, min, max, JitteredSchedule.DEFAULT_JITTER, new Random());
+	}
+
+	/**
+	 * @param executor
+	 * @param broadcast
+	 * @param min The minimum interval, in milliseconds
+	 * @param max The maximum interval, in milliseconds
+	 * @param jitter The largest fraction of each interval by which the next
+	 * publication is brought forward, in the range [0, 1]
+	 * @param random
+	 */
+	public Trickle(ScheduledExecutorService executor, Broadcast broadcast, long min, long max,
+			double jitter, Random random) {
+		if(min <= 0) {
+			String message = "The minimum interval must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		if(max < min) {
+			String message = "The maximum interval must be >= the minimum interval";
+			throw new IllegalArgumentException(message);
+		}
+		if(jitter < 0 || jitter > 1) {
+			String message = "The jitter must be in the range [0, 1]";
+			throw new IllegalArgumentException(message);
+		}
+
+		this.executor = executor;
+		this.broadcast = broadcast;
+		this.min = min;
+		this.max = max;
+		this.jitter = jitter;
+		this.random = random;
+		this.interval = min;
+	}
+
+	/**
+	 * Publishes immediately, and then on the adaptive schedule until the
+	 * returned {@link ListenableFuture} is cancelled
+	 * 
+	 * @return
+	 */
+	public synchronized ListenableFuture<Object> start() {
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				stop();
+			}
+		}, directExecutor());
+		pending = executor.submit(this);
+		return result;
+	}
+
+	/**
+	 * Drops the interval back to the minimum and publishes immediately, unless
+	 * the next publication is already due within the minimum interval
+	 */
+	public synchronized void reset() {
+		if(result.isDone() || pending == null || current <= min) {
+			return;
+		}
+
+		// Mark the publication as imminent, so that a burst of resets only
+		// publishes once
+		interval = min;
+		current = 0;
+		pending.cancel(false);
+		pending = executor.submit(this);
+	}
+
+	/**
+	 * @return The interval that the next publication will announce, in
+	 * milliseconds
+	 */
+	public synchronized long getInterval() {
+		return interval;
+	}
+
+	@Override
+	public void run() {
+		long announced;
+		synchronized(this) {
+			if(result.isDone()) {
+				return;
+			}
+			announced = interval;
+			current = interval;
+			interval = Math.min(2 * interval, max);
+			long delay = announced - (long) (random.nextDouble() * jitter * announced);
+			pending = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+
+		// As with a periodic task, a failure ends the schedule
+		try {
+			broadcast.setInterval(announced);
+			broadcast.run();
+		}
+		catch(RuntimeException exception) {
+			result.setException(exception);
+		}
+	}
+
+	/**
+	 * Cancels the pending publication
+	 */
+	private synchronized void stop() {
+		if(pending != null) {
+			pending.cancel(false);
+		}
+	}
+}
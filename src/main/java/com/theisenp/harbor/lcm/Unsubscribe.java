@@ -1,30 +1,39 @@
 package com.theisenp.harbor.lcm;
 
-import lcm.lcm.LCM;
-
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.theisenp.harbor.utils.LcmConstants;
 
 /**
- * An {@link AsyncFunction} that detaches a {@link Subscriber} from an
- * {@link LCM} instance
+ * An {@link AsyncFunction} that detaches a {@link Subscriber} from a
+ * {@link SharedTransport}
  * 
  * @author patrick.theisen
  */
-public class Unsubscribe implements AsyncFunction<LCM, Void> {
+public class Unsubscribe implements AsyncFunction<SharedTransport, Void> {
 	private final Subscriber subscriber;
+	private final WireFormat format;
 
 	/**
 	 * @param subscriber
 	 */
 	public Unsubscribe(Subscriber subscriber) {
+		this(subscriber, WireFormat.FULL);
+	}
+
+	/**
+	 * @param subscriber
+	 * @param format
+	 */
+	public Unsubscribe(Subscriber subscriber, WireFormat format) {
 		this.subscriber = subscriber;
+		this.format = format;
 	}
 
 	@Override
-	public ListenableFuture<Void> apply(LCM lcm) throws Exception {
-		lcm.unsubscribe(LcmConstants.PEER_CHANNEL, subscriber);
+	public ListenableFuture<Void> apply(SharedTransport transport) throws Exception {
+		for(String channel : format.getChannels()) {
+			transport.unsubscribe(channel, subscriber);
+		}
 		return null;
 	}
 }
@@ -0,0 +1,52 @@
+package com.theisenp.harbor.lcm;
+
+import static com.theisenp.harbor.utils.LcmConstants.DESCRIPTOR_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.HEARTBEAT_BUNDLE_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.HEARTBEAT_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.PEER_BUNDLE_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.PEER_CHANNEL;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+
+/**
+ * The supported ways of advertising peers on the network
+ * 
+ * @author patrick.theisen
+ */
+public enum WireFormat {
+
+	/**
+	 * Every period, each peer publishes a {@link PeerMessage} containing its
+	 * full description
+	 */
+	FULL(PEER_CHANNEL, PEER_BUNDLE_CHANNEL),
+
+	/**
+	 * Every period, each peer publishes a small {@link HeartbeatMessage}. The
+	 * full {@link DescriptorMessage} is only published when it changes or when
+	 * a subscriber requests a version that it does not have.
+	 */
+	COMPACT(HEARTBEAT_CHANNEL, HEARTBEAT_BUNDLE_CHANNEL, DESCRIPTOR_CHANNEL);
+
+	private final List<String> channels;
+
+	/**
+	 * @param channels
+	 */
+	private WireFormat(String... channels) {
+		this.channels = Collections.unmodifiableList(Arrays.asList(channels));
+	}
+
+	/**
+	 * @return The channels that subscribers listen on
+	 */
+	public List<String> getChannels() {
+		return channels;
+	}
+}
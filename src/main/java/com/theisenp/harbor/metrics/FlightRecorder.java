@@ -0,0 +1,396 @@
+package com.theisenp.harbor.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.joda.time.Duration;
+
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A lock free ring of the most recent peer events seen by one Harbor, kept
+ * so that the events leading up to a problem can be reconstructed afterwards
+ * <p>
+ * Every record is written into a fixed number of preallocated slots, so that
+ * recording never allocates or locks. Each slot holds the sequence number of
+ * its record, the time and thread it was recorded on, and the kind and
+ * statuses of the event packed into a single long. The peer id is kept by
+ * reference to the canonical string that the caller already holds.
+ * <p>
+ * Writers claim a sequence number from a shared cursor and mark their slot
+ * as being written until the record is complete. Readers skip any slot whose
+ * sequence number moves while they copy it, so a snapshot never contains a
+ * torn record, but a record that is overwritten while it is being read is
+ * left out.
+ * <p>
+ * The records can be dumped at any time. If a {@link Sink} is set, they are
+ * also handed to it whenever an anomaly is reported, at most once every
+ * {@link #MIN_ANOMALY_INTERVAL}.
+ * 
+ * @author patrick.theisen
+ */
+public final class FlightRecorder {
+	public static final int DEFAULT_CAPACITY = 4096;
+	public static final int MAX_CAPACITY = 1 << 24;
+	public static final Duration MIN_ANOMALY_INTERVAL = Duration.standardSeconds(1);
+
+	private static final int STRIDE = 4;
+	private static final int SEQUENCE = 0;
+	private static final int TIME = 1;
+	private static final int THREAD = 2;
+	private static final int EVENT = 3;
+	private static final long WRITING = -1;
+	private static final long NEVER = Long.MIN_VALUE;
+	private static final Kind[] KINDS = Kind.values();
+	private static final Status[] STATUSES = Status.values();
+
+	private final Clock clock;
+	private final int capacity;
+	private final int mask;
+	private final AtomicLong cursor = new AtomicLong();
+	private final AtomicLongArray records;
+	private final AtomicReferenceArray<String> ids;
+	private final AtomicLong lastAnomaly = new AtomicLong(NEVER);
+	private volatile Sink sink;
+
+	/**
+	 * @param clock
+	 */
+	public FlightRecorder(Clock clock) {
+		this(DEFAULT_CAPACITY, clock);
+	}
+
+	/**
+	 * @param capacity The minimum number of records kept, which is rounded up
+	 * to a power of two
+	 * @param clock The clock against which records are timestamped
+	 */
+	public FlightRecorder(int capacity, Clock clock) {
+		if(capacity < 1) {
+			String message = "The capacity must be >= 1";
+			throw new IllegalArgumentException(message);
+		}
+		if(capacity > MAX_CAPACITY) {
+			String message = "The capacity must be <= " + MAX_CAPACITY;
+			throw new IllegalArgumentException(message);
+		}
+
+		int rounded = Integer.highestOneBit(capacity);
+		if(rounded < capacity) {
+			rounded <<= 1;
+		}
+		this.clock = clock;
+		this.capacity = rounded;
+		this.mask = rounded - 1;
+		this.records = new AtomicLongArray(rounded * STRIDE);
+		this.ids = new AtomicReferenceArray<>(rounded);
+		for(int i = 0; i < rounded; i++) {
+			records.set(i * STRIDE + SEQUENCE, WRITING);
+		}
+	}
+
+	/**
+	 * @return The number of records kept
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of records written so far, including those that have
+	 * since been overwritten
+	 */
+	public long getCount() {
+		return cursor.get();
+	}
+
+	/**
+	 * Sets the {@link Sink} to which the records are handed when an anomaly is
+	 * reported
+	 * 
+	 * @param sink The sink, or null to hand the records to nothing
+	 */
+	public void setSink(Sink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Records an event, timestamped with the current time
+	 * 
+	 * @param kind
+	 * @param id The id of the peer
+	 * @param previous The status of the peer before the event, or null if it
+	 * had none or the event does not say
+	 * @param status The status of the peer after the event
+	 */
+	public void record(Kind kind, String id, Status previous, Status status) {
+		record(kind, id, previous, status, clock.nanoTime());
+	}
+
+	/**
+	 * Records an event that happened at the given time
+	 * 
+	 * @param kind
+	 * @param id The id of the peer
+	 * @param previous The status of the peer before the event, or null if it
+	 * had none or the event does not say
+	 * @param status The status of the peer after the event
+	 * @param time The time of the event, as read from the clock
+	 */
+	public void record(Kind kind, String id, Status previous, Status status, long time) {
+		long sequence = cursor.getAndIncrement();
+		int slot = (int) (sequence & mask);
+		int base = slot * STRIDE;
+
+		// Readers skip the slot until its sequence number is published again
+		records.set(base + SEQUENCE, WRITING);
+		records.lazySet(base + TIME, time);
+		records.lazySet(base + THREAD, Thread.currentThread().getId());
+		records.lazySet(base + EVENT, pack(kind, previous, status));
+		ids.lazySet(slot, id);
+		records.lazySet(base + SEQUENCE, sequence);
+	}
+
+	/**
+	 * Hands the current records to the {@link Sink}, if there is one and it
+	 * has not been handed any in the last {@link #MIN_ANOMALY_INTERVAL}
+	 * 
+	 * @param reason A description of the anomaly
+	 * @return True if the records were handed to the sink
+	 */
+	public boolean anomaly(String reason) {
+		Sink current = sink;
+		if(current == null) {
+			return false;
+		}
+
+		long now = clock.nanoTime();
+		long last = lastAnomaly.get();
+		long interval = TimeUnit.MILLISECONDS.toNanos(MIN_ANOMALY_INTERVAL.getMillis());
+		if(last != NEVER && now - last < interval) {
+			return false;
+		}
+		if(!lastAnomaly.compareAndSet(last, now)) {
+			return false;
+		}
+		current.onAnomaly(reason, snapshot());
+		return true;
+	}
+
+	/**
+	 * @return A copy of the records that are currently kept, from the oldest
+	 * to the most recent
+	 */
+	public List<Event> snapshot() {
+		long end = cursor.get();
+		long start = Math.max(0, end - capacity);
+		List<Event> events = new ArrayList<>((int) (end - start));
+		for(long sequence = start; sequence < end; sequence++) {
+			int slot = (int) (sequence & mask);
+			int base = slot * STRIDE;
+			if(records.get(base + SEQUENCE) != sequence) {
+				continue;
+			}
+
+			long time = records.get(base + TIME);
+			long thread = records.get(base + THREAD);
+			long event = records.get(base + EVENT);
+			String id = ids.get(slot);
+			if(records.get(base + SEQUENCE) != sequence) {
+				continue;
+			}
+			events.add(new Event(sequence, time, thread, KINDS[kind(event)], id,
+					status(event >>> 8), status(event >>> 16)));
+		}
+		return events;
+	}
+
+	/**
+	 * Writes the records that are currently kept to the given
+	 * {@link Appendable}, one per line, from the oldest to the most recent
+	 * 
+	 * @param output
+	 * @throws IOException
+	 */
+	public void dump(Appendable output) throws IOException {
+		dump(snapshot(), output);
+	}
+
+	/**
+	 * Writes the given events to the given {@link Appendable}, one per line
+	 * 
+	 * @param events
+	 * @param output
+	 * @throws IOException
+	 */
+	public static void dump(List<Event> events, Appendable output) throws IOException {
+		for(Event event : events) {
+			output.append(event.toString()).append('\n');
+		}
+	}
+
+	/**
+	 * @param kind
+	 * @param previous
+	 * @param status
+	 * @return The given kind and statuses packed into the low three bytes of a
+	 * long. Statuses are stored as one more than their ordinals, so that zero
+	 * stands for none.
+	 */
+	private static long pack(Kind kind, Status previous, Status status) {
+		return kind.ordinal() | ordinal(previous) << 8 | ordinal(status) << 16;
+	}
+
+	/**
+	 * @param status
+	 * @return One more than the ordinal of the given status, or zero if it is
+	 * null
+	 */
+	private static long ordinal(Status status) {
+		return (status == null) ? 0 : status.ordinal() + 1;
+	}
+
+	/**
+	 * @param event
+	 * @return The ordinal of the kind packed into the given event
+	 */
+	private static int kind(long event) {
+		return (int) (event & 0xFF);
+	}
+
+	/**
+	 * @param bits
+	 * @return The status whose packed ordinal is in the low byte of the given
+	 * bits, or null if there is none
+	 */
+	private static Status status(long bits) {
+		int ordinal = (int) (bits & 0xFF);
+		return (ordinal == 0) ? null : STATUSES[ordinal - 1];
+	}
+
+	/**
+	 * The kinds of recorded events. A peer's advertisements and heartbeats
+	 * are {@link #RECEIVED}, it is {@link #TRANSITIONED} between statuses by
+	 * the subscriber, and each transition and update is then
+	 * {@link #DISPATCHED} to listeners.
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static enum Kind {
+		RECEIVED, TRANSITIONED, DISPATCHED;
+	}
+
+	/**
+	 * Receives the records that led up to each reported anomaly
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static interface Sink {
+
+		/**
+		 * Invoked on the thread that reported the anomaly
+		 * 
+		 * @param reason
+		 * @param events The records that are kept, from the oldest to the most
+		 * recent
+		 */
+		public void onAnomaly(String reason, List<Event> events);
+	}
+
+	/**
+	 * A single record, copied out of the ring
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static final class Event {
+		private final long sequence;
+		private final long time;
+		private final long thread;
+		private final Kind kind;
+		private final String id;
+		private final Status previous;
+		private final Status status;
+
+		/**
+		 * @param sequence
+		 * @param time
+		 * @param thread
+		 * @param kind
+		 * @param id
+		 * @param previous
+		 * @param status
+		 */
+		public Event(long sequence, long time, long thread, Kind kind, String id,
+				Status previous, Status status) {
+			this.sequence = sequence;
+			this.time = time;
+			this.thread = thread;
+			this.kind = kind;
+			this.id = id;
+			this.previous = previous;
+			this.status = status;
+		}
+
+		/**
+		 * @return The position of the record among all those written
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * @return The time of the event, as read from the recorder's clock
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return The id of the thread that recorded the event
+		 */
+		public long getThread() {
+			return thread;
+		}
+
+		/**
+		 * @return
+		 */
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return The id of the peer
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return The status of the peer before the event, or null if it had
+		 * none or the event does not say
+		 */
+		public Status getPrevious() {
+			return previous;
+		}
+
+		/**
+		 * @return The status of the peer after the event
+		 */
+		public Status getStatus() {
+			return status;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + sequence + " " + time + " thread-" + thread + " " + kind + " " + id + " "
+					+ previous + " -> " + status;
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.theisenp.harbor.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * The registry of the metrics of one Harbor
+ * <p>
+ * Components that are instrumented call the recording methods as events
+ * happen, and the peer counts are read from a {@link Source} when the metrics
+ * are read. Components hold a null registry when metrics are disabled, and
+ * skip both the recording and the timing that feeds it, so that disabled
+ * metrics cost a single null check.
+ * <p>
+ * Rates are measured against the {@link Clock} of the Harbor, and so is
+ * publish lateness. Decode and listener durations are work done in real time,
+ * so they are always measured against the system clock.
+ * <p>
+ * The metrics can be read over JMX once the registry is registered, and
+ * scraped in the Prometheus text format from a {@link PrometheusExporter}.
+ * 
+ * @author patrick.theisen
+ */
+public class HarborMetrics implements HarborMetricsMXBean {
+	public static final String DOMAIN = "com.theisenp.harbor";
+
+	private final String name;
+	private final Meter received;
+	private final Meter published;
+	private final Meter transitions;
+	private final Meter selfDropped;
+	private final Histogram decode = new Histogram();
+	private final Histogram lateness = new Histogram();
+	private final Histogram[] callbacks = new Histogram[Callback.values().length];
+	private volatile Source source;
+
+	/**
+	 * @param name The id of the self peer of the instrumented Harbor
+	 * @param clock
+	 */
+	public HarborMetrics(String name, Clock clock) {
+		this.name = name;
+		this.received = new Meter(clock);
+		this.published = new Meter(clock);
+		this.transitions = new Meter(clock);
+		this.selfDropped = new Meter(clock);
+		for(int i = 0; i < callbacks.length; i++) {
+			callbacks[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * Sets the {@link Source} from which the peer counts are read
+	 * 
+	 * @param source
+	 */
+	public void setSource(Source source) {
+		this.source = source;
+	}
+
+	/**
+	 * Records a received datagram
+	 * 
+	 * @param nanos The time it took to decode and apply
+	 */
+	public void received(long nanos) {
+		received.mark();
+		decode.record(nanos);
+	}
+
+	/**
+	 * Records a published datagram
+	 */
+	public void published() {
+		published.mark();
+	}
+
+	/**
+	 * Records a dropped advertisement from a local peer
+	 */
+	public void selfDropped() {
+		selfDropped.mark();
+	}
+
+	/**
+	 * Records a peer status transition
+	 */
+	public void transition() {
+		transitions.mark();
+	}
+
+	/**
+	 * Records a listener callback
+	 * 
+	 * @param callback
+	 * @param nanos The time it took
+	 */
+	public void callback(Callback callback, long nanos) {
+		callbacks[callback.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records how late a periodic publication was
+	 * 
+	 * @param nanos The time since the previous publication, less the interval
+	 * that it announced
+	 */
+	public void lateness(long nanos) {
+		lateness.record(nanos);
+	}
+
+	/**
+	 * Registers the registry with the platform MBean server
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(this, getObjectName());
+		}
+		catch(JMException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * Unregisters the registry from the platform MBean server, if it is
+	 * registered
+	 */
+	public void unregister() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName();
+			if(server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		}
+		catch(JMException exception) {
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * @return The name under which the registry is registered
+	 * @throws JMException
+	 */
+	public ObjectName getObjectName() throws JMException {
+		return new ObjectName(DOMAIN + ":type=Harbor,name=" + ObjectName.quote(name));
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getReceived() {
+		return received.getCount();
+	}
+
+	@Override
+	public double getReceivedPerSecond() {
+		return received.getRate();
+	}
+
+	@Override
+	public long getPublished() {
+		return published.getCount();
+	}
+
+	@Override
+	public double getPublishedPerSecond() {
+		return published.getRate();
+	}
+
+	@Override
+	public long getSelfDropped() {
+		return selfDropped.getCount();
+	}
+
+	@Override
+	public long getTransitions() {
+		return transitions.getCount();
+	}
+
+	@Override
+	public double getTransitionsPerSecond() {
+		return transitions.getRate();
+	}
+
+	@Override
+	public Map<String, Integer> getPeers() {
+		Map<String, Integer> result = new LinkedHashMap<>();
+		for(Status status : Status.values()) {
+			result.put(status.name(), getPeerCount(status));
+		}
+		return result;
+	}
+
+	@Override
+	public int getPendingTimeouts() {
+		Source current = source;
+		return (current == null) ? 0 : current.getPendingTimeouts();
+	}
+
+	@Override
+	public double getDecodeMeanMicros() {
+		return decode.getMean();
+	}
+
+	@Override
+	public double getDecodeP99Micros() {
+		return decode.getPercentile(99);
+	}
+
+	@Override
+	public Map<String, Double> getListenerP99Micros() {
+		Map<String, Double> result = new LinkedHashMap<>();
+		for(Callback callback : Callback.values()) {
+			result.put(callback.name(), getCallbacks(callback).getPercentile(99));
+		}
+		return result;
+	}
+
+	@Override
+	public double getPublishLatenessMeanMicros() {
+		return lateness.getMean();
+	}
+
+	@Override
+	public double getPublishLatenessP99Micros() {
+		return lateness.getPercentile(99);
+	}
+
+	/**
+	 * @param status
+	 * @return The number of known peers with the given status
+	 */
+	public int getPeerCount(Status status) {
+		Source current = source;
+		return (current == null) ? 0 : current.getPeerCount(status);
+	}
+
+	/**
+	 * @return The durations of the received datagrams
+	 */
+	Histogram getDecode() {
+		return decode;
+	}
+
+	/**
+	 * @return The lateness of the periodic publications
+	 */
+	Histogram getLateness() {
+		return lateness;
+	}
+
+	/**
+	 * @param callback
+	 * @return The durations of the given listener callback
+	 */
+	Histogram getCallbacks(Callback callback) {
+		return callbacks[callback.ordinal()];
+	}
+
+	/**
+	 * The listener callbacks whose durations are recorded
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static enum Callback {
+		CONNECTED, ACTIVE, INACTIVE, UPDATED, DISCONNECTED;
+	}
+
+	/**
+	 * Supplies the metrics that are read from the state of a Harbor, rather
+	 * than recorded as events happen
+	 * 
+	 * @author patrick.theisen
+	 */
+	public static interface Source {
+
+		/**
+		 * @param status
+		 * @return The number of known peers with the given status
+		 */
+		public int getPeerCount(Status status);
+
+		/**
+		 * @return The number of pending peer timeouts
+		 */
+		public int getPendingTimeouts();
+	}
+}
@@ -0,0 +1,92 @@
+package com.theisenp.harbor.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the {@link HarborMetrics} of one Harbor. Durations are
+ * reported from bucketed histograms, so percentiles are the upper bounds of
+ * their buckets.
+ * 
+ * @author patrick.theisen
+ */
+public interface HarborMetricsMXBean {
+
+	/**
+	 * @return The id of the self peer of the instrumented Harbor
+	 */
+	public String getName();
+
+	/**
+	 * @return The number of datagrams received
+	 */
+	public long getReceived();
+
+	/**
+	 * @return The recent number of datagrams received per second
+	 */
+	public double getReceivedPerSecond();
+
+	/**
+	 * @return The number of datagrams published
+	 */
+	public long getPublished();
+
+	/**
+	 * @return The recent number of datagrams published per second
+	 */
+	public double getPublishedPerSecond();
+
+	/**
+	 * @return The number of advertisements from local peers that were dropped
+	 */
+	public long getSelfDropped();
+
+	/**
+	 * @return The number of peer status transitions
+	 */
+	public long getTransitions();
+
+	/**
+	 * @return The recent number of peer status transitions per second
+	 */
+	public double getTransitionsPerSecond();
+
+	/**
+	 * @return The number of known peers with each status
+	 */
+	public Map<String, Integer> getPeers();
+
+	/**
+	 * @return The number of pending peer timeouts
+	 */
+	public int getPendingTimeouts();
+
+	/**
+	 * @return The mean time to decode and apply a datagram, in microseconds
+	 */
+	public double getDecodeMeanMicros();
+
+	/**
+	 * @return The 99th percentile of the time to decode and apply a datagram,
+	 * in microseconds
+	 */
+	public double getDecodeP99Micros();
+
+	/**
+	 * @return The 99th percentile of the time that each listener callback
+	 * took, by callback, in microseconds
+	 */
+	public Map<String, Double> getListenerP99Micros();
+
+	/**
+	 * @return The mean lateness of each publication against the interval
+	 * announced by the one before it, in microseconds
+	 */
+	public double getPublishLatenessMeanMicros();
+
+	/**
+	 * @return The 99th percentile of the lateness of each publication against
+	 * the interval announced by the one before it, in microseconds
+	 */
+	public double getPublishLatenessP99Micros();
+}
@@ -0,0 +1,106 @@
+package com.theisenp.harbor.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations, with buckets whose upper bounds double
+ * from one microsecond up to about eight seconds, followed by an unbounded
+ * bucket. Recording a value costs two atomic increments.
+ * 
+ * @author patrick.theisen
+ */
+final class Histogram {
+	public static final int BUCKETS = 25;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+
+	/**
+	 * @param nanos A duration in nanoseconds. Negative durations are recorded
+	 * as zero.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(indexOf(TimeUnit.NANOSECONDS.toMicros(value)));
+		sum.addAndGet(value);
+	}
+
+	/**
+	 * @param index
+	 * @return The number of values recorded in the bucket with the given index
+	 */
+	public long getCount(int index) {
+		return counts.get(index);
+	}
+
+	/**
+	 * @return The number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return The sum of the recorded values, in nanoseconds
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return The mean of the recorded values, in microseconds, or 0 if none
+	 * have been recorded
+	 */
+	public double getMean() {
+		long count = getCount();
+		return (count == 0) ? 0 : getSum() / 1000.0 / count;
+	}
+
+	/**
+	 * @param percentile Between 0 and 100
+	 * @return The upper bound of the bucket that holds the given percentile of
+	 * the recorded values, in microseconds, or 0 if none have been recorded
+	 */
+	public double getPercentile(double percentile) {
+		long count = getCount();
+		if(count == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= rank) {
+				return getUpperBound(i);
+			}
+		}
+		return getUpperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * @param index
+	 * @return The largest value that falls in the bucket with the given index,
+	 * in microseconds
+	 */
+	public static double getUpperBound(int index) {
+		return (index < BUCKETS - 1) ? 1L << index : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @param micros
+	 * @return The index of the bucket of the given value
+	 */
+	private static int indexOf(long micros) {
+		if(micros <= 1) {
+			return 0;
+		}
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+	}
+}
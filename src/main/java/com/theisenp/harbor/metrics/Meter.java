@@ -0,0 +1,74 @@
+package com.theisenp.harbor.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * A lock free count of events, which also keeps the counts of the last few
+ * seconds so that it can report a recent rate
+ * <p>
+ * Each second of the {@link Clock} is counted in one slot of a small ring.
+ * The first event of a new second claims its slot and clears the count that
+ * the slot held a full turn earlier. An event that races with the claim may
+ * be missed by the rate, but never by the total.
+ * 
+ * @author patrick.theisen
+ */
+final class Meter {
+	private static final int WINDOW = 8;
+	private static final int MASK = WINDOW - 1;
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final Clock clock;
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLongArray counts = new AtomicLongArray(WINDOW);
+	private final AtomicLongArray seconds = new AtomicLongArray(WINDOW);
+
+	/**
+	 * @param clock
+	 */
+	public Meter(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Counts a single event
+	 */
+	public void mark() {
+		total.incrementAndGet();
+		long second = clock.nanoTime() / SECOND;
+		int slot = (int) (second & MASK);
+		long claimed = seconds.get(slot);
+		if(claimed != second && seconds.compareAndSet(slot, claimed, second)) {
+			counts.set(slot, 0);
+		}
+		counts.incrementAndGet(slot);
+	}
+
+	/**
+	 * @return The number of events counted so far
+	 */
+	public long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * @return The mean number of events per second over the last few complete
+	 * seconds
+	 */
+	public double getRate() {
+		long now = clock.nanoTime() / SECOND;
+		long count = 0;
+		for(int i = 1; i < WINDOW; i++) {
+			long second = now - i;
+			int slot = (int) (second & MASK);
+			if(seconds.get(slot) == second) {
+				count += counts.get(slot);
+			}
+		}
+		return (double) count / (WINDOW - 1);
+	}
+}
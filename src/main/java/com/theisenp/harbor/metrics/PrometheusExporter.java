@@ -0,0 +1,280 @@
+package com.theisenp.harbor.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.metrics.HarborMetrics.Callback;
+
+/**
+ * Serves the metrics of any number of Harbors in the Prometheus text format,
+ * from the HTTP server that is built into the JDK
+ * <p>
+ * Counts are exported as counters, from which Prometheus computes rates, and
+ * durations as histograms in seconds. Every sample is labelled with the name
+ * of the Harbor that it came from.
+ * 
+ * @author patrick.theisen
+ */
+public class PrometheusExporter {
+	public static final String PATH = "/metrics";
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final InetSocketAddress address;
+	private final List<HarborMetrics> registries = new CopyOnWriteArrayList<>();
+	private HttpServer server;
+
+	/**
+	 * @param port The port on which to listen, or 0 for any free port
+	 */
+	public PrometheusExporter(int port) {
+		this(new InetSocketAddress(port));
+	}
+
+	/**
+	 * @param address
+	 */
+	public PrometheusExporter(InetSocketAddress address) {
+		this.address = address;
+	}
+
+	/**
+	 * Starts exporting the given metrics
+	 * 
+	 * @param metrics
+	 */
+	public void add(HarborMetrics metrics) {
+		registries.add(metrics);
+	}
+
+	/**
+	 * Stops exporting the given metrics
+	 * 
+	 * @param metrics
+	 */
+	public void remove(HarborMetrics metrics) {
+		registries.remove(metrics);
+	}
+
+	/**
+	 * Starts serving the metrics
+	 * 
+	 * @throws IOException If the server could not be bound
+	 */
+	public synchronized void start() throws IOException {
+		if(server != null) {
+			String message = "The exporter has already been started";
+			throw new IllegalStateException(message);
+		}
+
+		server = HttpServer.create(address, 0);
+		server.createContext(PATH, new Handler());
+		server.start();
+	}
+
+	/**
+	 * Stops serving the metrics
+	 */
+	public synchronized void stop() {
+		if(server != null) {
+			server.stop(0);
+			server = null;
+		}
+	}
+
+	/**
+	 * @return The port on which the exporter is listening
+	 */
+	public synchronized int getPort() {
+		if(server == null) {
+			String message = "The exporter has not been started";
+			throw new IllegalStateException(message);
+		}
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return The current metrics, in the Prometheus text format
+	 */
+	public String scrape() {
+		StringBuilder builder = new StringBuilder();
+
+		header(builder, "harbor_datagrams_received_total", "counter",
+				"Datagrams received by the subscriber");
+		for(HarborMetrics metrics : registries) {
+			sample(builder, "harbor_datagrams_received_total", metrics, null, null,
+					metrics.getReceived());
+		}
+
+		header(builder, "harbor_datagrams_published_total", "counter",
+				"Datagrams published by the harbor");
+		for(HarborMetrics metrics : registries) {
+			sample(builder, "harbor_datagrams_published_total", metrics, null, null,
+					metrics.getPublished());
+		}
+
+		header(builder, "harbor_self_dropped_total", "counter",
+				"Advertisements from local peers that were dropped");
+		for(HarborMetrics metrics : registries) {
+			sample(builder, "harbor_self_dropped_total", metrics, null, null,
+					metrics.getSelfDropped());
+		}
+
+		header(builder, "harbor_transitions_total", "counter", "Peer status transitions");
+		for(HarborMetrics metrics : registries) {
+			sample(builder, "harbor_transitions_total", metrics, null, null,
+					metrics.getTransitions());
+		}
+
+		header(builder, "harbor_peers", "gauge", "Known peers by status");
+		for(HarborMetrics metrics : registries) {
+			for(Status status : Status.values()) {
+				sample(builder, "harbor_peers", metrics, "status", status.name(),
+						metrics.getPeerCount(status));
+			}
+		}
+
+		header(builder, "harbor_pending_timeouts", "gauge", "Pending peer timeouts");
+		for(HarborMetrics metrics : registries) {
+			sample(builder, "harbor_pending_timeouts", metrics, null, null,
+					metrics.getPendingTimeouts());
+		}
+
+		header(builder, "harbor_decode_seconds", "histogram",
+				"Time to decode and apply a received datagram");
+		for(HarborMetrics metrics : registries) {
+			histogram(builder, "harbor_decode_seconds", metrics, null, null,
+					metrics.getDecode());
+		}
+
+		header(builder, "harbor_publish_lateness_seconds", "histogram",
+				"Lateness of each publication against the interval announced before it");
+		for(HarborMetrics metrics : registries) {
+			histogram(builder, "harbor_publish_lateness_seconds", metrics, null, null,
+					metrics.getLateness());
+		}
+
+		header(builder, "harbor_listener_seconds", "histogram",
+				"Time spent in listener callbacks");
+		for(HarborMetrics metrics : registries) {
+			for(Callback callback : Callback.values()) {
+				histogram(builder, "harbor_listener_seconds", metrics, "callback",
+						callback.name(), metrics.getCallbacks(callback));
+			}
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the help and type lines of a metric family
+	 * 
+	 * @param builder
+	 * @param name
+	 * @param type
+	 * @param help
+	 */
+	private static void header(StringBuilder builder, String name, String type, String help) {
+		builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/**
+	 * Appends the buckets, sum, and count of a histogram
+	 * 
+	 * @param builder
+	 * @param name
+	 * @param metrics
+	 * @param label An extra label, or null
+	 * @param value The value of the extra label, or null
+	 * @param histogram
+	 */
+	private static void histogram(StringBuilder builder, String name, HarborMetrics metrics,
+			String label, String value, Histogram histogram) {
+		long cumulative = 0;
+		for(int i = 0; i < Histogram.BUCKETS; i++) {
+			cumulative += histogram.getCount(i);
+			double bound = Histogram.getUpperBound(i);
+			String le = Double.isInfinite(bound) ? "+Inf" : String.valueOf(bound / 1e6);
+
+			builder.append(name).append("_bucket");
+			labels(builder, metrics, label, value);
+			builder.append(",le=\"").append(le).append("\"}");
+			builder.append(' ').append(cumulative).append('\n');
+		}
+		sample(builder, name + "_sum", metrics, label, value, histogram.getSum() / 1e9);
+		sample(builder, name + "_count", metrics, label, value, cumulative);
+	}
+
+	/**
+	 * Appends a single sample
+	 * 
+	 * @param builder
+	 * @param name
+	 * @param metrics
+	 * @param label An extra label, or null
+	 * @param value The value of the extra label, or null
+	 * @param sample
+	 */
+	private static void sample(StringBuilder builder, String name, HarborMetrics metrics,
+			String label, String value, Number sample) {
+		builder.append(name);
+		labels(builder, metrics, label, value);
+		builder.append("} ").append(sample).append('\n');
+	}
+
+	/**
+	 * Appends the labels of a sample, leaving the label set open so that more
+	 * labels can follow
+	 * 
+	 * @param builder
+	 * @param metrics
+	 * @param label An extra label, or null
+	 * @param value The value of the extra label, or null
+	 */
+	private static void labels(StringBuilder builder, HarborMetrics metrics, String label,
+			String value) {
+		builder.append("{harbor=\"").append(escape(metrics.getName())).append('"');
+		if(label != null) {
+			builder.append(',').append(label).append("=\"").append(escape(value)).append('"');
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return The given label value, escaped for the text format
+	 */
+	static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Responds to each request with the current metrics
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class Handler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+				exchange.sendResponseHeaders(200, body.length);
+				try(OutputStream output = exchange.getResponseBody()) {
+					output.write(body);
+				}
+			}
+			finally {
+				exchange.close();
+			}
+		}
+	}
+}
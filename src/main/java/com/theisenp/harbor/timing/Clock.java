@@ -0,0 +1,26 @@
+package com.theisenp.harbor.timing;
+
+/**
+ * A source of monotonic time, against which deadlines and intervals are
+ * measured. {@link #SYSTEM} reads {@link System#nanoTime()}, and a
+ * {@link VirtualScheduler} reads its own virtual time.
+ * 
+ * @author patrick.theisen
+ */
+public interface Clock {
+
+	/**
+	 * The {@link Clock} of the running JVM
+	 */
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	/**
+	 * @return The current time, in nanoseconds since an arbitrary origin
+	 */
+	public long nanoTime();
+}
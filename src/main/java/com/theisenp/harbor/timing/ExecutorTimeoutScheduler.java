@@ -0,0 +1,80 @@
+package com.theisenp.harbor.timing;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link TimeoutScheduler} that schedules every {@link Timeout} as its own
+ * task on a {@link ScheduledExecutorService}. Each reset cancels the pending
+ * task and schedules a new one.
+ * 
+ * @author patrick.theisen
+ */
+public class ExecutorTimeoutScheduler implements TimeoutScheduler {
+	private final ScheduledExecutorService executor;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * @param executor
+	 */
+	public ExecutorTimeoutScheduler(ScheduledExecutorService executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		pending.incrementAndGet();
+		return new ExecutorTimeout(task, delay, unit);
+	}
+
+	@Override
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * A {@link Timeout} backed by a scheduled {@link Future}
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class ExecutorTimeout implements Timeout, Runnable {
+		private final Runnable task;
+		private Future<?> future;
+
+		/**
+		 * @param task
+		 * @param delay
+		 * @param unit
+		 */
+		public ExecutorTimeout(Runnable task, long delay, TimeUnit unit) {
+			this.task = task;
+			this.future = executor.schedule(this, delay, unit);
+		}
+
+		@Override
+		public void run() {
+			pending.decrementAndGet();
+			task.run();
+		}
+
+		@Override
+		public synchronized boolean reset(long delay, TimeUnit unit) {
+			if(!future.cancel(false)) {
+				return false;
+			}
+			future = executor.schedule(this, delay, unit);
+			return true;
+		}
+
+		@Override
+		public synchronized boolean cancel() {
+			if(!future.cancel(false)) {
+				return false;
+			}
+			pending.decrementAndGet();
+			return true;
+		}
+	}
+}
@@ -0,0 +1,254 @@
+package com.theisenp.harbor.timing;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Runs a task once per period, like
+ * {@link ScheduledExecutorService#scheduleAtFixedRate}, but without keeping
+ * every instance that started at the same moment in lockstep
+ * <p>
+ * The first run falls at a random phase within the first period, and each run
+ * after it is displaced from its slot by a random jitter of up to half the
+ * given fraction of the period in either direction. The slots themselves are
+ * fixed multiples of the period from the origin, so the jitter never
+ * accumulates into drift.
+ * <p>
+ * If a run is delayed past one or more later slots, by a GC pause for
+ * example, those slots are skipped rather than run back to back. The number
+ * of skipped runs is available from {@link #getSkipped()}.
+ * <p>
+ * The period can be changed while the schedule runs. The slots are then
+ * anchored at the most recent run, so the next run falls one new period after
+ * it.
+ * <p>
+ * Slots are measured against a {@link Clock}, which should be the clock of
+ * the executor.
+ * 
+ * @author patrick.theisen
+ */
+public class JitteredSchedule implements Runnable {
+	public static final double DEFAULT_JITTER = 0.1;
+
+	private final ScheduledExecutorService executor;
+	private final Clock clock;
+	private final Runnable task;
+	private final double jitter;
+	private final Random random;
+	private final SettableFuture<Object> result = SettableFuture.create();
+
+	// Guarded by this
+	private long period;
+	private long origin;
+	private long tick;
+	private long skipped;
+	private Future<?> pending;
+
+	/**
+	 * @param executor
+	 * @param task
+	 * @param period
+	 */
+	public JitteredSchedule(ScheduledExecutorService executor, Runnable task, Duration period) {
+		this(executor, task, period, DEFAULT_JITTER, new Random());
+	}
+
+	/**
+	 * @param executor
+	 * @param task
+	 * @param period
+	 * @param jitter The width of the window around each slot in which its run
+	 * falls, as a fraction of the period in the range [0, 1]
+	 * @param random
+	 */
+	public JitteredSchedule(ScheduledExecutorService executor, Runnable task, Duration period,
+			double jitter, Random random) {
+		this(executor, Clock.SYSTEM, task, period, jitter, random);
+	}
+
+	/**
+	 * @param executor
+	 * @param clock
+	 * @param task
+	 * @param period
+	 */
+	public JitteredSchedule(ScheduledExecutorService executor, Clock clock, Runnable task,
+			Duration period) {
+		this(executor, clock, task, period, DEFAULT_JITTER, new Random());
+	}
+
+	/**
+	 * @param executor
+	 * @param clock
+	 * @param task
+	 * @param period
+	 * @param jitter The width of the window around each slot in which its run
+	 * falls, as a fraction of the period in the range [0, 1]
+	 * @param random
+	 */
+	public JitteredSchedule(ScheduledExecutorService executor, Clock clock, Runnable task,
+			Duration period, double jitter, Random random) {
+		validatePeriod(period);
+		if(jitter < 0 || jitter > 1) {
+			String message = "The jitter must be in the range [0, 1]";
+			throw new IllegalArgumentException(message);
+		}
+
+		this.executor = executor;
+		this.clock = clock;
+		this.task = task;
+		this.period = TimeUnit.MILLISECONDS.toNanos(period.getMillis());
+		this.jitter = jitter;
+		this.random = random;
+	}
+
+	/**
+	 * Schedules the first run at a random phase within the first period. Runs
+	 * continue until the returned {@link ListenableFuture} is cancelled, or the
+	 * task throws an exception, which fails it.
+	 * 
+	 * @return
+	 */
+	public synchronized ListenableFuture<Object> start() {
+		result.addListener(new Runnable() {
+			@Override
+			public void run() {
+				stop();
+			}
+		}, directExecutor());
+
+		long phase = nextLong(period);
+		origin = clock.nanoTime() + phase;
+		pending = executor.schedule(this, phase, NANOSECONDS);
+		return result;
+	}
+
+	/**
+	 * Changes the period, starting with the run after the most recent one
+	 * 
+	 * @param period
+	 */
+	public synchronized void setPeriod(Duration period) {
+		validatePeriod(period);
+		long nanos = TimeUnit.MILLISECONDS.toNanos(period.getMillis());
+		if(nanos == this.period) {
+			return;
+		}
+
+		// Until the first run, only its successors are affected
+		if(tick == 0 || result.isDone()) {
+			this.period = nanos;
+			return;
+		}
+
+		// Re-anchor the slots at the most recent one, and replace the pending
+		// run with one a new period after it
+		origin += (tick - 1) * this.period;
+		tick = 1;
+		this.period = nanos;
+		pending.cancel(false);
+		long now = clock.nanoTime();
+		pending = executor.schedule(this, Math.max(0, origin + nanos + nextOffset() - now),
+				NANOSECONDS);
+	}
+
+	/**
+	 * @return The current period
+	 */
+	public synchronized Duration getPeriod() {
+		return Duration.millis(TimeUnit.NANOSECONDS.toMillis(period));
+	}
+
+	/**
+	 * @return The scheduled task
+	 */
+	public Runnable getTask() {
+		return task;
+	}
+
+	/**
+	 * @return The number of runs that were skipped because an earlier run was
+	 * late
+	 */
+	public synchronized long getSkipped() {
+		return skipped;
+	}
+
+	@Override
+	public void run() {
+		synchronized(this) {
+			if(result.isDone()) {
+				return;
+			}
+
+			// Skip the slots that have already passed, rather than catching up
+			long now = clock.nanoTime();
+			tick++;
+			long slot = origin + tick * period;
+			if(slot <= now) {
+				long missed = (now - slot) / period + 1;
+				tick += missed;
+				skipped += missed;
+				slot += missed * period;
+			}
+
+			pending = executor.schedule(this, Math.max(0, slot + nextOffset() - now), NANOSECONDS);
+		}
+
+		// As with a periodic task, a failure ends the schedule
+		try {
+			task.run();
+		}
+		catch(RuntimeException exception) {
+			result.setException(exception);
+		}
+	}
+
+	/**
+	 * Cancels the pending run
+	 */
+	private synchronized void stop() {
+		if(pending != null) {
+			pending.cancel(false);
+		}
+	}
+
+	/**
+	 * @return A random displacement of a run from its slot, within the jitter
+	 * window of the current period
+	 */
+	private long nextOffset() {
+		long window = (long) (period * jitter);
+		return (window == 0) ? 0 : nextLong(window) - window / 2;
+	}
+
+	/**
+	 * @param bound
+	 * @return A random value in the range [0, bound)
+	 */
+	private long nextLong(long bound) {
+		return (long) (random.nextDouble() * bound);
+	}
+
+	/**
+	 * Verifies that the given period is valid
+	 * 
+	 * @param period
+	 */
+	private static void validatePeriod(Duration period) {
+		if(period.getMillis() <= 0) {
+			String message = "The period must be positive";
+			throw new IllegalArgumentException(message);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.theisenp.harbor.timing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle to a task scheduled by a {@link TimeoutScheduler}
+ * 
+ * @author patrick.theisen
+ */
+public interface Timeout {
+
+	/**
+	 * Pushes the deadline of this timeout back to the given delay from now
+	 * 
+	 * @param delay
+	 * @param unit
+	 * @return True if the timeout was reset. False if it has already expired
+	 * or been cancelled.
+	 */
+	public boolean reset(long delay, TimeUnit unit);
+
+	/**
+	 * Prevents the task from running if it has not already done so
+	 * 
+	 * @return True if the timeout was cancelled. False if it has already
+	 * expired or been cancelled.
+	 */
+	public boolean cancel();
+}
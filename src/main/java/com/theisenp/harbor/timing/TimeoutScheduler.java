@@ -0,0 +1,27 @@
+package com.theisenp.harbor.timing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules tasks that run once a delay elapses, unless they are reset or
+ * cancelled first
+ * 
+ * @author patrick.theisen
+ */
+public interface TimeoutScheduler {
+
+	/**
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return A {@link Timeout} that runs the given task once the given delay
+	 * has elapsed
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit);
+
+	/**
+	 * @return The number of timeouts that have been scheduled, but have not
+	 * yet expired or been cancelled
+	 */
+	public int getPendingCount();
+}
@@ -0,0 +1,339 @@
+package com.theisenp.harbor.timing;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.Duration;
+
+/**
+ * A hashed timing wheel. Every {@link Timeout} is filed under the tick in
+ * which its deadline falls, and a single periodic tick task expires the
+ * timeouts in each slot as the wheel turns.
+ * <p>
+ * Resetting a timeout only records its new deadline, so it costs the same
+ * regardless of how many timeouts are pending. Timeouts whose deadlines have
+ * moved are refiled lazily when the wheel reaches their old slot. Expired
+ * tasks run on the tick thread, and timeouts fire up to one tick late. Any
+ * exception thrown by a task is passed to the failure handler.
+ * <p>
+ * Deadlines are measured against a {@link Clock}, which should be the clock
+ * of the executor that turns the wheel.
+ * 
+ * @author patrick.theisen
+ */
+public class TimingWheel implements TimeoutScheduler {
+	public static final int DEFAULT_SIZE = 512;
+
+	private static final int PENDING = 0;
+	private static final int EXPIRED = 1;
+	private static final int CANCELLED = 2;
+
+	private final ScheduledExecutorService executor;
+	private final Clock clock;
+	private final long tick;
+	private final int size;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private Wheel wheel;
+	private volatile UncaughtExceptionHandler failureHandler;
+
+	/**
+	 * @param executor
+	 * @param tick
+	 */
+	public TimingWheel(ScheduledExecutorService executor, Duration tick) {
+		this(executor, tick, DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param executor
+	 * @param tick
+	 * @param size
+	 */
+	public TimingWheel(ScheduledExecutorService executor, Duration tick, int size) {
+		this(executor, Clock.SYSTEM, tick, size);
+	}
+
+	/**
+	 * @param executor
+	 * @param clock
+	 * @param tick
+	 */
+	public TimingWheel(ScheduledExecutorService executor, Clock clock, Duration tick) {
+		this(executor, clock, tick, DEFAULT_SIZE);
+	}
+
+	/**
+	 * @param executor
+	 * @param clock
+	 * @param tick
+	 * @param size
+	 */
+	public TimingWheel(ScheduledExecutorService executor, Clock clock, Duration tick, int size) {
+		if(tick.getMillis() <= 0) {
+			String message = "The tick must be positive";
+			throw new IllegalArgumentException(message);
+		}
+		if(size <= 0 || Integer.bitCount(size) != 1) {
+			String message = "The size must be a positive power of two";
+			throw new IllegalArgumentException(message);
+		}
+
+		this.executor = executor;
+		this.clock = clock;
+		this.tick = TimeUnit.MILLISECONDS.toNanos(tick.getMillis());
+		this.size = size;
+	}
+
+	@Override
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		long deadline = clock.nanoTime() + unit.toNanos(delay);
+		pending.incrementAndGet();
+
+		// Filing under the lock keeps a concurrent stop from discarding the
+		// wheel before the timeout reaches it
+		synchronized(this) {
+			start();
+			WheelTimeout timeout = new WheelTimeout(wheel, task, deadline);
+			wheel.incoming.offer(timeout);
+			return timeout;
+		}
+	}
+
+	@Override
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Sets the handler that receives any exception thrown by an expired task.
+	 * By default, failures go to the uncaught exception handler of the tick
+	 * thread.
+	 * 
+	 * @param failureHandler
+	 */
+	public void setFailureHandler(UncaughtExceptionHandler failureHandler) {
+		this.failureHandler = failureHandler;
+	}
+
+	/**
+	 * Starts turning the wheel, if it is not already turning
+	 */
+	public synchronized void start() {
+		if(wheel == null) {
+			wheel = new Wheel();
+			wheel.tickTask = executor.scheduleAtFixedRate(wheel, tick, tick, NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Stops turning the wheel and discards all pending timeouts. Timeouts
+	 * scheduled afterwards start a new wheel, which is unaffected.
+	 */
+	public synchronized void stop() {
+		if(wheel != null) {
+			final Wheel stopped = wheel;
+			wheel = null;
+			stopped.tickTask.cancel(false);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					stopped.discard();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Passes the given failure of an expired task to the failure handler
+	 * 
+	 * @param exception
+	 */
+	private void fail(RuntimeException exception) {
+		Thread thread = Thread.currentThread();
+		UncaughtExceptionHandler handler = failureHandler;
+		if(handler == null) {
+			handler = thread.getUncaughtExceptionHandler();
+		}
+		handler.uncaughtException(thread, exception);
+	}
+
+	/**
+	 * One run of the wheel, from a call to {@link TimingWheel#start()} to the
+	 * matching call to {@link TimingWheel#stop()}. Apart from the incoming
+	 * queue, its state is only accessed while holding its lock.
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class Wheel implements Runnable {
+		private final int mask = size - 1;
+		private final long origin = clock.nanoTime();
+		private final List<List<WheelTimeout>> slots = new ArrayList<>();
+		private final Queue<WheelTimeout> incoming = new ConcurrentLinkedQueue<>();
+
+		private Future<?> tickTask;
+		private List<WheelTimeout> spare = new ArrayList<>();
+		private long ticks;
+
+		public Wheel() {
+			for(int i = 0; i < size; i++) {
+				slots.add(new ArrayList<WheelTimeout>());
+			}
+		}
+
+		/**
+		 * Advances the wheel to the current time
+		 */
+		@Override
+		public synchronized void run() {
+			transferIncoming();
+			long limit = (clock.nanoTime() - origin) / tick;
+			while(ticks < limit) {
+				process(ticks++);
+			}
+		}
+
+		/**
+		 * Files all newly scheduled or rescheduled timeouts under their slots
+		 */
+		private void transferIncoming() {
+			WheelTimeout timeout;
+			while((timeout = incoming.poll()) != null) {
+				if(timeout.state.get() == PENDING) {
+					file(timeout);
+				}
+			}
+		}
+
+		/**
+		 * Files the given {@link WheelTimeout} under the slot of its deadline,
+		 * or under the next slot to be processed if its deadline has already
+		 * passed
+		 * 
+		 * @param timeout
+		 */
+		private void file(WheelTimeout timeout) {
+			long due = Math.max((timeout.deadline - origin) / tick, ticks);
+			slots.get((int) (due & mask)).add(timeout);
+		}
+
+		/**
+		 * Expires or refiles every timeout in the slot of the given tick
+		 * 
+		 * @param index
+		 */
+		private void process(long index) {
+			int slot = (int) (index & mask);
+			List<WheelTimeout> current = slots.get(slot);
+			slots.set(slot, spare);
+
+			for(WheelTimeout timeout : current) {
+				if(timeout.state.get() != PENDING) {
+					continue;
+				}
+
+				long due = (timeout.deadline - origin) / tick;
+				if(due > index) {
+					file(timeout);
+				}
+				else {
+					timeout.expire();
+				}
+			}
+
+			current.clear();
+			spare = current;
+		}
+
+		/**
+		 * Cancels and drops every pending timeout
+		 */
+		private synchronized void discard() {
+			WheelTimeout timeout;
+			while((timeout = incoming.poll()) != null) {
+				timeout.cancel();
+			}
+			for(List<WheelTimeout> slot : slots) {
+				for(WheelTimeout pending : slot) {
+					pending.cancel();
+				}
+				slot.clear();
+			}
+		}
+	}
+
+	/**
+	 * A {@link Timeout} filed in the wheel
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class WheelTimeout implements Timeout {
+		private final Wheel wheel;
+		private final Runnable task;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private volatile long deadline;
+
+		/**
+		 * @param wheel
+		 * @param task
+		 * @param deadline
+		 */
+		public WheelTimeout(Wheel wheel, Runnable task, long deadline) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean reset(long delay, TimeUnit unit) {
+			if(state.get() != PENDING) {
+				return false;
+			}
+
+			// Later deadlines are picked up when the wheel reaches the old slot,
+			// but earlier ones need to be filed again
+			long previous = deadline;
+			deadline = clock.nanoTime() + unit.toNanos(delay);
+			if(deadline < previous) {
+				wheel.incoming.offer(this);
+			}
+			return state.get() == PENDING;
+		}
+
+		@Override
+		public boolean cancel() {
+			if(!state.compareAndSet(PENDING, CANCELLED)) {
+				return false;
+			}
+			pending.decrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Runs the task, unless the timeout was cancelled first
+		 */
+		private void expire() {
+			if(!state.compareAndSet(PENDING, EXPIRED)) {
+				return;
+			}
+			pending.decrementAndGet();
+
+			// A failing task should not take down the others
+			try {
+				task.run();
+			}
+			catch(RuntimeException exception) {
+				fail(exception);
+			}
+		}
+	}
+}
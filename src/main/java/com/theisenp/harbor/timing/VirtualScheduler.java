@@ -0,0 +1,328 @@
+package com.theisenp.harbor.timing;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ListenableScheduledFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+
+/**
+ * A {@link ListeningScheduledExecutorService} that runs on virtual time, and
+ * is also the {@link Clock} of that time
+ * <p>
+ * Time only moves when {@link #advance(long, TimeUnit)} is called. The tasks
+ * that fall due are then run on the calling thread, one at a time, in the
+ * order of their deadlines, and the clock reads the deadline of each task
+ * while it runs. Tasks with the same deadline run in the order in which they
+ * were scheduled. Given the same calls, a simulation driven by the scheduler
+ * therefore runs the same way every time, no matter how much virtual time it
+ * covers.
+ * <p>
+ * Tasks may be scheduled from any thread, but only one thread should advance
+ * the clock. Cancelled tasks are discarded when they fall due, so cancelling
+ * costs the same regardless of how many tasks are pending.
+ * 
+ * @author patrick.theisen
+ */
+public class VirtualScheduler extends AbstractListeningExecutorService implements
+		ListeningScheduledExecutorService, Clock {
+	private final AtomicInteger pending = new AtomicInteger();
+
+	// Guarded by this
+	private final PriorityQueue<VirtualTask<?>> queue = new PriorityQueue<>();
+	private long sequence;
+	private boolean shutdown;
+
+	private volatile long now;
+
+	/**
+	 * Starts the clock at zero
+	 */
+	public VirtualScheduler() {
+		this(0);
+	}
+
+	/**
+	 * @param origin The time at which the clock starts, in nanoseconds
+	 */
+	public VirtualScheduler(long origin) {
+		this.now = origin;
+	}
+
+	@Override
+	public long nanoTime() {
+		return now;
+	}
+
+	/**
+	 * @return The number of scheduled tasks that have been neither run nor
+	 * cancelled. Periodic tasks count as pending until they are cancelled.
+	 */
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Runs the tasks that are already due, without moving the clock
+	 */
+	public void runPending() {
+		advance(0, NANOSECONDS);
+	}
+
+	/**
+	 * Moves the clock forward by the given delay, running every task that
+	 * falls due along the way, including those scheduled by the tasks
+	 * themselves
+	 * 
+	 * @param delay
+	 * @param unit
+	 */
+	public void advance(long delay, TimeUnit unit) {
+		if(delay < 0) {
+			String message = "The delay must be >= 0";
+			throw new IllegalArgumentException(message);
+		}
+
+		long target = now + unit.toNanos(delay);
+		while(true) {
+			VirtualTask<?> task;
+			synchronized(this) {
+				task = queue.peek();
+				if(task == null || task.deadline - target > 0) {
+					// A task may itself have advanced the clock further
+					if(target - now > 0) {
+						now = target;
+					}
+					return;
+				}
+				queue.poll();
+				if(task.deadline - now > 0) {
+					now = task.deadline;
+				}
+			}
+			task.run();
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, NANOSECONDS);
+	}
+
+	@Override
+	public ListenableScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(Executors.callable(command), delay, unit);
+	}
+
+	@Override
+	public <V> ListenableScheduledFuture<V> schedule(Callable<V> callable, long delay,
+			TimeUnit unit) {
+		return enqueue(new VirtualTask<V>(callable, delay(delay, unit), 0));
+	}
+
+	@Override
+	public ListenableScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+			long period, TimeUnit unit) {
+		validatePeriod(period);
+		return enqueue(new VirtualTask<Object>(Executors.callable(command), delay(initialDelay,
+				unit), unit.toNanos(period)));
+	}
+
+	@Override
+	public ListenableScheduledFuture<?> scheduleWithFixedDelay(Runnable command,
+			long initialDelay, long delay, TimeUnit unit) {
+		validatePeriod(delay);
+		return enqueue(new VirtualTask<Object>(Executors.callable(command), delay(initialDelay,
+				unit), -unit.toNanos(delay)));
+	}
+
+	/**
+	 * Stops accepting tasks and discards the pending ones
+	 */
+	@Override
+	public void shutdown() {
+		shutdownNow();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<VirtualTask<?>> discarded;
+		synchronized(this) {
+			shutdown = true;
+			discarded = new ArrayList<VirtualTask<?>>(queue);
+			queue.clear();
+		}
+
+		List<Runnable> tasks = new ArrayList<>();
+		for(VirtualTask<?> task : discarded) {
+			if(task.cancel(false)) {
+				tasks.add(task);
+			}
+		}
+		return tasks;
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return shutdown;
+	}
+
+	/**
+	 * Virtual time never passes while waiting, so this returns immediately
+	 */
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return isTerminated();
+	}
+
+	/**
+	 * Adds the given {@link VirtualTask} to the queue
+	 * 
+	 * @param task
+	 * @return The given task
+	 */
+	private synchronized <V> VirtualTask<V> enqueue(VirtualTask<V> task) {
+		if(shutdown) {
+			String message = "The scheduler has been shut down";
+			throw new RejectedExecutionException(message);
+		}
+		task.sequence = sequence++;
+		queue.add(task);
+		pending.incrementAndGet();
+		return task;
+	}
+
+	/**
+	 * Returns the given {@link VirtualTask} to the queue for its next run,
+	 * unless the scheduler has been shut down
+	 * 
+	 * @param task
+	 * @return True if the task was queued
+	 */
+	private synchronized boolean requeue(VirtualTask<?> task) {
+		if(shutdown) {
+			return false;
+		}
+		task.sequence = sequence++;
+		queue.add(task);
+		return true;
+	}
+
+	/**
+	 * @param delay
+	 * @param unit
+	 * @return The deadline that falls the given delay from now
+	 */
+	private long delay(long delay, TimeUnit unit) {
+		return now + Math.max(0, unit.toNanos(delay));
+	}
+
+	/**
+	 * Verifies that the given period is valid
+	 * 
+	 * @param period
+	 */
+	private static void validatePeriod(long period) {
+		if(period <= 0) {
+			String message = "The period must be positive";
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+	/**
+	 * A task queued until its deadline
+	 * 
+	 * @author patrick.theisen
+	 */
+	private class VirtualTask<V> extends AbstractFuture<V> implements
+			ListenableScheduledFuture<V>, Runnable {
+		private final Callable<V> callable;
+		private final long period;
+		private long deadline;
+		private long sequence;
+
+		/**
+		 * @param callable
+		 * @param deadline
+		 * @param period Positive for a fixed rate, negative for a fixed delay,
+		 * or zero for a single run
+		 */
+		public VirtualTask(Callable<V> callable, long deadline, long period) {
+			this.callable = callable;
+			this.deadline = deadline;
+			this.period = period;
+		}
+
+		@Override
+		public void run() {
+			if(isDone()) {
+				return;
+			}
+
+			try {
+				V result = callable.call();
+				if(period == 0) {
+					if(set(result)) {
+						pending.decrementAndGet();
+					}
+					return;
+				}
+			}
+			catch(Exception exception) {
+				if(setException(exception)) {
+					pending.decrementAndGet();
+				}
+				return;
+			}
+
+			// Like an executor, a periodic task runs until it is cancelled
+			if(isDone()) {
+				return;
+			}
+			deadline = (period > 0) ? deadline + period : now - period;
+			if(!requeue(this)) {
+				cancel(false);
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if(!super.cancel(mayInterruptIfRunning)) {
+				return false;
+			}
+			pending.decrementAndGet();
+			return true;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(deadline - now, NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			if(other instanceof VirtualTask) {
+				VirtualTask<?> task = (VirtualTask<?>) other;
+				int result = Long.compare(deadline - task.deadline, 0);
+				return (result != 0) ? result : Long.compare(sequence, task.sequence);
+			}
+			return Long.compare(getDelay(NANOSECONDS), other.getDelay(NANOSECONDS));
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.util.regex.Pattern;
 import org.joda.time.Duration;
 
 import com.theisenp.harbor.Harbor;
+import com.theisenp.harbor.metrics.FlightRecorder;
 
 /**
  * A collection of {@link Harbor} related static utilities
@@ -96,6 +97,30 @@ public final class HarborUtils {
 		}
 	}
 
+	/**
+	 * Verifies that the given maximum period is valid
+	 * 
+	 * @param maxPeriod
+	 */
+	public static void validateMaxPeriod(Duration maxPeriod) {
+		if(maxPeriod.getMillis() <= 0) {
+			String message = "The maximum period must be positive";
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+	/**
+	 * Verifies that the given bandwidth is valid
+	 * 
+	 * @param bandwidth
+	 */
+	public static void validateBandwidth(long bandwidth) {
+		if(bandwidth <= 0) {
+			String message = "The bandwidth must be positive";
+			throw new IllegalArgumentException(message);
+		}
+	}
+
 	/**
 	 * Verifies that the given timeout is valid
 	 * 
@@ -107,4 +132,44 @@ public final class HarborUtils {
 			throw new IllegalArgumentException(message);
 		}
 	}
+
+	/**
+	 * Verifies that the given timing wheel tick is valid
+	 * 
+	 * @param tick
+	 */
+	public static void validateTick(Duration tick) {
+		if(tick.getMillis() <= 0) {
+			String message = "The tick must be positive";
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+	/**
+	 * Verifies that the given listener queue capacity is valid
+	 * 
+	 * @param capacity
+	 */
+	public static void validateListenerCapacity(int capacity) {
+		if(capacity < 0) {
+			String message = "The listener capacity must be >= 0";
+			throw new IllegalArgumentException(message);
+		}
+	}
+
+	/**
+	 * Verifies that the given flight recorder capacity is valid
+	 * 
+	 * @param capacity
+	 */
+	public static void validateRecorderCapacity(int capacity) {
+		if(capacity < 1) {
+			String message = "The recorder capacity must be >= 1";
+			throw new IllegalArgumentException(message);
+		}
+		if(capacity > FlightRecorder.MAX_CAPACITY) {
+			String message = "The recorder capacity must be <= " + FlightRecorder.MAX_CAPACITY;
+			throw new IllegalArgumentException(message);
+		}
+	}
 }
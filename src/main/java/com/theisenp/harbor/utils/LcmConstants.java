@@ -10,6 +10,11 @@ import lcm.lcm.LCM;
 public final class LcmConstants {
 	public static final String ADDRESS_FORMAT = "udpm://%s:%d?ttl=%d";
 	public static final String PEER_CHANNEL = "harbor-peers";
+	public static final String PEER_BUNDLE_CHANNEL = "harbor-peer-bundles";
+	public static final String HEARTBEAT_CHANNEL = "harbor-heartbeats";
+	public static final String HEARTBEAT_BUNDLE_CHANNEL = "harbor-heartbeat-bundles";
+	public static final String DESCRIPTOR_CHANNEL = "harbor-descriptors";
+	public static final String REQUEST_CHANNEL = "harbor-requests";
 
 	/**
 	 * Private constructor to prevent instantiations/extensions
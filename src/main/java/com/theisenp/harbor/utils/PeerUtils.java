@@ -1,11 +1,12 @@
 package com.theisenp.harbor.utils;
 
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
 
 import com.theisenp.harbor.Peer;
 import com.theisenp.harbor.Peer.Builder;
 import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcm.Advertisement;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
 import com.theisenp.harbor.lcmtypes.PeerMessage;
 
 /**
@@ -44,20 +45,73 @@ public final class PeerUtils {
 	 * @return A {@link PeerMessage} built from the given {@link Peer}
 	 */
 	public static PeerMessage toMessage(Peer peer) {
+		return toMessage(new Advertisement(peer, 0, 0));
+	}
+
+	/**
+	 * @param advertisement
+	 * @return A {@link PeerMessage} built from the given {@link Advertisement}
+	 */
+	public static PeerMessage toMessage(Advertisement advertisement) {
+		Peer peer = advertisement.getPeer();
 		PeerMessage message = new PeerMessage();
 		message.id = peer.getId();
+		message.incarnation = advertisement.getIncarnation();
+		message.version = advertisement.getVersion();
 		message.type = peer.getType();
 		message.description = peer.getDescription();
 
-		Map<String, String> protocols = peer.getProtocols();
+		List<String> protocols = peer.getProtocolNames();
 		message.count = protocols.size();
 		message.protocols = new String[message.count];
 		message.addresses = new String[message.count];
+		for(int i = 0; i < message.count; i++) {
+			message.protocols[i] = protocols.get(i);
+			message.addresses[i] = peer.getAddress(protocols.get(i));
+		}
+
+		return message;
+	}
 
-		int i = 0;
-		for(Entry<String, String> entry : protocols.entrySet()) {
-			message.protocols[i] = entry.getKey();
-			message.addresses[i++] = entry.getValue();
+	/**
+	 * @param message
+	 * @param status
+	 * @return A {@link Peer} built from the given {@link DescriptorMessage} and
+	 * {@link Status}
+	 */
+	public static Peer fromDescriptor(DescriptorMessage message, Status status) {
+		Builder builder = new Builder();
+		builder.id(message.id);
+		builder.type(message.type);
+		builder.status(status);
+		builder.description(message.description);
+		for(int i = 0; i < message.count; i++) {
+			builder.protocol(message.protocols[i], message.addresses[i]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @param advertisement
+	 * @return A {@link DescriptorMessage} built from the given
+	 * {@link Advertisement}
+	 */
+	public static DescriptorMessage toDescriptor(Advertisement advertisement) {
+		Peer peer = advertisement.getPeer();
+		DescriptorMessage message = new DescriptorMessage();
+		message.id = peer.getId();
+		message.incarnation = advertisement.getIncarnation();
+		message.version = advertisement.getVersion();
+		message.type = peer.getType();
+		message.description = peer.getDescription();
+
+		List<String> protocols = peer.getProtocolNames();
+		message.count = protocols.size();
+		message.protocols = new String[message.count];
+		message.addresses = new String[message.count];
+		for(int i = 0; i < message.count; i++) {
+			message.protocols[i] = protocols.get(i);
+			message.addresses[i] = peer.getAddress(protocols.get(i));
 		}
 
 		return message;
@@ -1,18 +1,30 @@
 package com.theisenp.harbor;
 
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import org.joda.time.Duration;
 
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
 import com.google.common.util.concurrent.ListenableFuture;
 import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.filters.Filter;
 import com.theisenp.harbor.filters.TypeFilter;
 
 /**
@@ -25,7 +37,7 @@ public class FindPeerTest {
 	@Test
 	public void testApplyNoInitialPeers() throws Exception {
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<Peer>());
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
 
 		assertThat(future.isDone()).isFalse();
@@ -35,7 +47,7 @@ public class FindPeerTest {
 	public void testApplySingleInitialPeers() throws Exception {
 		Peer peer = mockPeer(0);
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<>(Arrays.asList(peer)));
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<>(Arrays.asList(peer)));
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
 
 		assertThat(future.isDone()).isTrue();
@@ -48,7 +60,8 @@ public class FindPeerTest {
 		Peer second = mockPeer(1);
 		Peer third = mockPeer(2);
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<>(Arrays.asList(first, second, third)));
+		when(harbor.query(any(Filter.class))).thenReturn(
+				new HashSet<>(Arrays.asList(first, second, third)));
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(2)).apply(harbor);
 
 		assertThat(future.isDone()).isTrue();
@@ -58,14 +71,14 @@ public class FindPeerTest {
 	@Test
 	public void testApplyFoundByListenerOnConnected() throws Exception {
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<Peer>());
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
 
 		assertThat(future.isDone()).isFalse();
 
 		Peer peer = mockPeer(0);
 		ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
-		verify(harbor).addListener(captor.capture());
+		verify(harbor).addListener(captor.capture(), any(Filter.class), any(Executor.class));
 		captor.getValue().onConnected(peer);
 
 		assertThat(future.isDone()).isTrue();
@@ -75,14 +88,14 @@ public class FindPeerTest {
 	@Test
 	public void testApplyFoundByListenerOnActive() throws Exception {
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<Peer>());
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
 
 		assertThat(future.isDone()).isFalse();
 
 		Peer peer = mockPeer(0);
 		ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
-		verify(harbor).addListener(captor.capture());
+		verify(harbor).addListener(captor.capture(), any(Filter.class), any(Executor.class));
 		captor.getValue().onActive(peer);
 
 		assertThat(future.isDone()).isTrue();
@@ -92,14 +105,14 @@ public class FindPeerTest {
 	@Test
 	public void testApplyFoundByListenerOnInactive() throws Exception {
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<Peer>());
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
 
 		assertThat(future.isDone()).isFalse();
 
 		Peer peer = mockPeer(0);
 		ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
-		verify(harbor).addListener(captor.capture());
+		verify(harbor).addListener(captor.capture(), any(Filter.class), any(Executor.class));
 		captor.getValue().onInactive(peer);
 
 		assertThat(future.isDone()).isTrue();
@@ -109,20 +122,110 @@ public class FindPeerTest {
 	@Test
 	public void testApplyFoundByListenerOnDisconnected() throws Exception {
 		Harbor harbor = mock(Harbor.class);
-		when(harbor.getPeers()).thenReturn(new HashSet<Peer>());
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
 		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
 
 		assertThat(future.isDone()).isFalse();
 
 		Peer peer = mockPeer(0);
 		ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
-		verify(harbor).addListener(captor.capture());
+		verify(harbor).addListener(captor.capture(), any(Filter.class), any(Executor.class));
 		captor.getValue().onDisconnected(peer);
 
 		assertThat(future.isDone()).isTrue();
 		assertThat(future.get()).isEqualTo(peer);
 	}
 
+	@Test
+	public void testApplyRegistersFilter() throws Exception {
+		Filter filter = new MockFilter(0);
+		Harbor harbor = mock(Harbor.class);
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
+		new FindPeer(filter).apply(harbor);
+
+		verify(harbor).addListener(any(Listener.class), eq(filter), any(Executor.class));
+	}
+
+	@Test
+	public void testApplyRemovesListenerWhenFound() throws Exception {
+		Harbor harbor = mock(Harbor.class);
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
+		new FindPeer(new MockFilter(0)).apply(harbor);
+
+		ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
+		verify(harbor).addListener(captor.capture(), any(Filter.class), any(Executor.class));
+		captor.getValue().onConnected(mockPeer(0));
+
+		verify(harbor).removeListener(captor.getValue());
+	}
+
+	@Test
+	public void testApplyRemovesListenerWhenCancelled() throws Exception {
+		Harbor harbor = mock(Harbor.class);
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
+		ListenableFuture<Peer> future = new FindPeer(new MockFilter(0)).apply(harbor);
+
+		ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
+		verify(harbor).addListener(captor.capture(), any(Filter.class), any(Executor.class));
+		verify(harbor, never()).removeListener(any(Listener.class));
+		future.cancel(false);
+
+		verify(harbor).removeListener(captor.getValue());
+	}
+
+	@Test(timeout = 1000)
+	public void testApplyTimeout() throws Exception {
+		Harbor harbor = mock(Harbor.class);
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<Peer>());
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			Duration timeout = Duration.millis(50);
+			ListenableFuture<Peer> future =
+					new FindPeer(new MockFilter(0), timeout, scheduler).apply(harbor);
+
+			try {
+				future.get();
+				fail();
+			}
+			catch(ExecutionException exception) {
+				assertThat(exception.getCause()).isInstanceOf(TimeoutException.class);
+			}
+
+			ArgumentCaptor<Listener> captor = ArgumentCaptor.forClass(Listener.class);
+			verify(harbor).addListener(captor.capture(), any(Filter.class),
+					any(Executor.class));
+			verify(harbor).removeListener(captor.getValue());
+		}
+		finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testApplyFoundBeforeTimeout() throws Exception {
+		Peer peer = mockPeer(0);
+		Harbor harbor = mock(Harbor.class);
+		when(harbor.query(any(Filter.class))).thenReturn(new HashSet<>(Arrays.asList(peer)));
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			Duration timeout = Duration.millis(50);
+			ListenableFuture<Peer> future =
+					new FindPeer(new MockFilter(0), timeout, scheduler).apply(harbor);
+			Thread.sleep(100);
+
+			assertThat(future.get()).isEqualTo(peer);
+		}
+		finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeTimeout() {
+		ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+		new FindPeer(new MockFilter(0), Duration.millis(-1), scheduler);
+	}
+
 	/**
 	 * @param seed
 	 * @return A {@link Peer} generated from the given seed
@@ -1,7 +1,9 @@
 package com.theisenp.harbor;
 
 import static org.fest.assertions.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.joda.time.Duration;
 import org.junit.Rule;
@@ -9,6 +11,14 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import com.theisenp.harbor.Harbor.Builder;
+import com.theisenp.harbor.detection.FailureDetector;
+import com.theisenp.harbor.detection.PhiAccrualDetector;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.lcm.LcmNetwork;
+import com.theisenp.harbor.lcm.MemoryNetwork;
+import com.theisenp.harbor.lcm.Publisher;
+import com.theisenp.harbor.lcm.WireFormat;
+import com.theisenp.harbor.metrics.FlightRecorder;
 
 /**
  * Unit tests for {@link Harbor}
@@ -21,7 +31,15 @@ public class HarborTest {
 	private static final int TEST_TTL = 1;
 	private static final Duration TEST_PERIOD = Duration.standardSeconds(1);
 	private static final Duration TEST_TIMEOUT = Duration.standardSeconds(1);
-	private static final Peer TEST_SELF = mock(Peer.class);
+	private static final Duration TEST_TICK = Duration.millis(10);
+	private static final Peer TEST_SELF;
+	static {
+		Peer.Builder builder = new Peer.Builder();
+		builder.id("test-id");
+		builder.type("test-type");
+		builder.status(Peer.Status.ACTIVE);
+		TEST_SELF = builder.build();
+	}
 
 	@Rule
 	public final ExpectedException thrown = ExpectedException.none();
@@ -120,12 +138,218 @@ public class HarborTest {
 		new Builder().period(Duration.ZERO);
 	}
 
+	@Test
+	public void testBuildWithMaxPeriod() {
+		Duration maxPeriod = Duration.standardMinutes(1);
+		Harbor harbor = new Builder().maxPeriod(maxPeriod).self(TEST_SELF).build();
+		assertThat(harbor.getMaxPeriod()).isEqualTo(maxPeriod);
+		assertThat(new Builder(harbor).build().getMaxPeriod()).isEqualTo(maxPeriod);
+		assertThat(new Builder(harbor).reset().self(TEST_SELF).build().getMaxPeriod()).isNull();
+	}
+
+	@Test
+	public void testBuildWithInvalidMaxPeriod() {
+		thrown.expect(IllegalArgumentException.class);
+		new Builder().maxPeriod(Duration.ZERO);
+	}
+
+	@Test
+	public void testBuildWithMaxPeriodShorterThanPeriod() {
+		thrown.expect(IllegalStateException.class);
+		new Builder().period(TEST_PERIOD).maxPeriod(Duration.millis(10)).self(TEST_SELF).build();
+	}
+
+	@Test
+	public void testBuildWithBandwidth() {
+		Harbor harbor = new Builder().bandwidth(10000).self(TEST_SELF).build();
+		assertThat(harbor.getBandwidth()).isEqualTo(10000);
+		assertThat(new Builder(harbor).build().getBandwidth()).isEqualTo(10000);
+		assertThat(new Builder(harbor).reset().self(TEST_SELF).build().getBandwidth()).isEqualTo(
+				Publisher.UNLIMITED);
+	}
+
+	@Test
+	public void testBuildWithInvalidBandwidth() {
+		thrown.expect(IllegalArgumentException.class);
+		new Builder().bandwidth(0);
+	}
+
+	@Test
+	public void testBuildWithBandwidthAndMaxPeriod() {
+		thrown.expect(IllegalStateException.class);
+		new Builder().bandwidth(10000).maxPeriod(Duration.standardMinutes(1)).self(TEST_SELF)
+				.build();
+	}
+
 	@Test
 	public void testBuildWithInvalidTimeout() {
 		thrown.expect(IllegalArgumentException.class);
 		new Builder().timeout(Duration.ZERO);
 	}
 
+	@Test
+	public void testBuildWithFailureDetector() {
+		FailureDetector detector = new PhiAccrualDetector();
+		Harbor harbor = new Builder().failureDetector(detector).self(TEST_SELF).build();
+		assertThat(harbor.getFailureDetector()).isSameAs(detector);
+		assertThat(new Builder(harbor).build().getFailureDetector()).isSameAs(detector);
+		assertThat(new Builder(harbor).reset().self(TEST_SELF).build().getFailureDetector())
+				.isNull();
+	}
+
+	@Test
+	public void testBuildWithTick() {
+		Harbor harbor = new Builder().tick(TEST_TICK).self(TEST_SELF).build();
+		assertThat(harbor.getTick()).isEqualTo(TEST_TICK);
+		assertThat(new Builder(harbor).build().getTick()).isEqualTo(TEST_TICK);
+		assertThat(new Builder(harbor).reset().self(TEST_SELF).build().getTick()).isNull();
+	}
+
+	@Test
+	public void testBuildWithInvalidTick() {
+		thrown.expect(IllegalArgumentException.class);
+		new Builder().tick(Duration.ZERO);
+	}
+
+	@Test
+	public void testBuildWithListenerCapacity() {
+		Harbor harbor = new Builder().listenerCapacity(100).self(TEST_SELF).build();
+		assertThat(harbor.getListenerCapacity()).isEqualTo(100);
+		assertThat(new Builder(harbor).build().getListenerCapacity()).isEqualTo(100);
+	}
+
+	@Test
+	public void testBuildWithMetrics() {
+		assertThat(new Builder().self(TEST_SELF).build().getMetrics()).isNull();
+
+		Harbor harbor = new Builder().metrics(true).self(TEST_SELF).build();
+		assertThat(harbor.getMetrics().getName()).isEqualTo(TEST_SELF.getId());
+		assertThat(new Builder(harbor).build().getMetrics()).isNotNull();
+		assertThat(new Builder(harbor).reset().self(TEST_SELF).build().getMetrics()).isNull();
+	}
+
+	@Test
+	public void testBuildWithRecorderCapacity() {
+		Harbor harbor = new Builder().self(TEST_SELF).build();
+		assertThat(harbor.getRecorder().getCapacity()).isEqualTo(
+				FlightRecorder.DEFAULT_CAPACITY);
+
+		harbor = new Builder().recorderCapacity(100).self(TEST_SELF).build();
+		assertThat(harbor.getRecorder().getCapacity()).isEqualTo(128);
+		assertThat(new Builder(harbor).build().getRecorder().getCapacity()).isEqualTo(128);
+	}
+
+	@Test
+	public void testBuildWithRecorderCapacityInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		new Builder().recorderCapacity(0);
+	}
+
+	@Test
+	public void testBuildWithNetwork() {
+		MemoryNetwork network = new MemoryNetwork();
+		Harbor harbor = new Builder().network(network).self(TEST_SELF).build();
+		assertThat(harbor.getNetwork()).isSameAs(network);
+		assertThat(new Builder(harbor).build().getNetwork()).isSameAs(network);
+	}
+
+	@Test
+	public void testBuildWithoutNetwork() {
+		thrown.expect(IllegalStateException.class);
+		new Builder().network(null).self(TEST_SELF).build();
+	}
+
+	@Test
+	public void testOpenOnNetwork() throws InterruptedException {
+		MemoryNetwork network = new MemoryNetwork();
+		Peer other = new Peer.Builder(TEST_SELF).id("other-id").build();
+		Harbor first = new Builder().network(network).period(Duration.millis(10))
+				.self(TEST_SELF).build();
+		Harbor second = new Builder().network(network).period(Duration.millis(10))
+				.self(other).build();
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		first.addListener(new Harbor.Listener.Adapter() {
+			@Override
+			public void onConnected(Peer peer) {
+				latch.countDown();
+			}
+		});
+
+		// The harbors discover each other without LCM
+		first.open();
+		second.open();
+		try {
+			assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+			assertThat(first.getPeers()).hasSize(1);
+			assertThat(first.getPeers().iterator().next().getId()).isEqualTo("other-id");
+		}
+		finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	@Test
+	public void testAddSelf() {
+		Harbor harbor = new Builder().self(TEST_SELF).build();
+		Peer other = new Peer.Builder(TEST_SELF).id("test-other").build();
+
+		harbor.addSelf(other);
+		assertThat(harbor.getSelves()).containsOnly(TEST_SELF, other);
+		assertThat(harbor.getSelf()).isEqualTo(TEST_SELF);
+
+		harbor.removeSelf(other.getId());
+		assertThat(harbor.getSelves()).containsOnly(TEST_SELF);
+	}
+
+	@Test
+	public void testUpdateSelf() {
+		Harbor harbor = new Builder().self(TEST_SELF).build();
+		Peer changed = new Peer.Builder(TEST_SELF).description("changed").build();
+
+		harbor.updateSelf(changed);
+		assertThat(harbor.getSelf()).isEqualTo(changed);
+		assertThat(harbor.getSelves()).containsOnly(changed);
+		assertThat(new Builder(harbor).build().getSelf()).isEqualTo(changed);
+	}
+
+	@Test
+	public void testUpdateSelfWithDifferentId() {
+		Harbor harbor = new Builder().self(TEST_SELF).build();
+		Peer other = new Peer.Builder(TEST_SELF).id("test-other").build();
+
+		thrown.expect(IllegalArgumentException.class);
+		harbor.updateSelf(other);
+	}
+
+	@Test
+	public void testRemovePrimarySelf() {
+		Harbor harbor = new Builder().self(TEST_SELF).build();
+
+		thrown.expect(IllegalArgumentException.class);
+		harbor.removeSelf(TEST_SELF.getId());
+	}
+
+	@Test
+	public void testBuildWithFormat() {
+		Harbor harbor = new Builder().format(WireFormat.COMPACT).self(TEST_SELF).build();
+		assertThat(harbor.getFormat()).isEqualTo(WireFormat.COMPACT);
+		assertThat(new Builder(harbor).build().getFormat()).isEqualTo(WireFormat.COMPACT);
+	}
+
+	@Test
+	public void testBuildWithoutFormat() {
+		thrown.expect(IllegalStateException.class);
+		new Builder().format(null).self(TEST_SELF).build();
+	}
+
+	@Test
+	public void testBuildWithInvalidListenerCapacity() {
+		thrown.expect(IllegalArgumentException.class);
+		new Builder().listenerCapacity(-1);
+	}
+
 	@Test
 	public void testBuildWithoutSelf() {
 		thrown.expect(IllegalStateException.class);
@@ -155,8 +379,15 @@ public class HarborTest {
 		assertThat(harbor.getAddress()).isEqualTo(Harbor.DEFAULT_ADDRESS);
 		assertThat(harbor.getPort()).isEqualTo(Harbor.DEFAULT_PORT);
 		assertThat(harbor.getTtl()).isEqualTo(Harbor.DEFAULT_TTL);
+		assertThat(harbor.getNetwork()).isSameAs(LcmNetwork.FACTORY);
 		assertThat(harbor.getPeriod()).isEqualTo(Harbor.DEFAULT_PERIOD);
+		assertThat(harbor.getMaxPeriod()).isNull();
+		assertThat(harbor.getBandwidth()).isEqualTo(Publisher.UNLIMITED);
 		assertThat(harbor.getTimeout()).isEqualTo(Harbor.DEFAULT_TIMEOUT);
+		assertThat(harbor.getFailureDetector()).isNull();
+		assertThat(harbor.getTick()).isNull();
+		assertThat(harbor.getListenerCapacity()).isEqualTo(Dispatcher.INLINE);
+		assertThat(harbor.getFormat()).isEqualTo(WireFormat.FULL);
 		assertThat(harbor.getSelf()).isEqualTo(TEST_SELF);
 	}
 }
@@ -3,6 +3,7 @@ package com.theisenp.harbor;
 import static org.fest.assertions.Assertions.assertThat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -244,6 +245,77 @@ public class PeerTest {
 		assertThat(builder.build().getProtocols()).isEmpty();
 	}
 
+	@Test
+	public void testWithStatus() {
+		Peer peer = new Peer(TEST_ID, TEST_TYPE, TEST_STATUS, TEST_DESCRIPTION, mockProtocols(3));
+		assertThat(peer.withStatus(TEST_STATUS)).isSameAs(peer);
+
+		Peer changed = peer.withStatus(Status.INACTIVE);
+		assertThat(changed.getStatus()).isEqualTo(Status.INACTIVE);
+		assertThat(changed).isEqualTo(new Builder(peer).status(Status.INACTIVE).build());
+		assertThat(changed.hashCode()).isEqualTo(
+				new Builder(peer).status(Status.INACTIVE).build().hashCode());
+		assertThat(changed).isNotEqualTo(peer);
+
+		// The descriptor is shared rather than copied
+		assertThat(changed.getId()).isSameAs(peer.getId());
+		assertThat(changed.getProtocolNames()).isSameAs(peer.getProtocolNames());
+		assertThat(changed.withStatus(TEST_STATUS)).isEqualTo(peer);
+	}
+
+	@Test
+	public void testWithNullStatus() {
+		Peer peer = new Peer(TEST_ID, TEST_TYPE, TEST_STATUS, TEST_DESCRIPTION, mockProtocols(3));
+
+		thrown.expect(IllegalArgumentException.class);
+		peer.withStatus(null);
+	}
+
+	@Test
+	public void testGetAddress() {
+		Peer peer = new Peer(TEST_ID, TEST_TYPE, TEST_STATUS, TEST_DESCRIPTION, mockProtocols(3));
+		assertThat(peer.getAddress(TEST_PROTOCOL + 1)).isEqualTo(TEST_ADDRESS + 1);
+		assertThat(peer.getAddress("wrong-protocol")).isNull();
+		assertThat(peer.getAddress(null)).isNull();
+		assertThat(peer.hasProtocol(TEST_PROTOCOL + 2)).isTrue();
+		assertThat(peer.hasProtocol("wrong-protocol")).isFalse();
+	}
+
+	@Test
+	public void testProtocolNames() {
+		Map<String, String> protocols = new HashMap<>();
+		protocols.put("TCP", "first-tcp");
+		protocols.put("IPC", "first-ipc");
+		Peer first = new Peer(TEST_ID, TEST_TYPE, TEST_STATUS, TEST_DESCRIPTION, protocols);
+		Peer second = new Builder().id("other-id").type(TEST_TYPE).status(TEST_STATUS)
+				.protocol(new String("IPC"), "second-ipc").protocol(new String("TCP"), "second-tcp")
+				.build();
+
+		// Peers that support the same protocols share the sorted names
+		assertThat(first.getProtocolNames()).isEqualTo(Arrays.asList("IPC", "TCP"));
+		assertThat(second.getProtocolNames()).isSameAs(first.getProtocolNames());
+		assertThat(second.getAddress("TCP")).isEqualTo("second-tcp");
+	}
+
+	@Test
+	public void testInterned() {
+		Peer first = new Builder().id(TEST_ID).type(new String(TEST_TYPE)).status(TEST_STATUS)
+				.description(new String(TEST_DESCRIPTION)).build();
+		Peer second = new Builder().id(TEST_ID).type(new String(TEST_TYPE)).status(TEST_STATUS)
+				.description(new String(TEST_DESCRIPTION)).build();
+		assertThat(second.getType()).isSameAs(first.getType());
+		assertThat(second.getDescription()).isSameAs(first.getDescription());
+	}
+
+	@Test
+	public void testConstructWithNullAddress() {
+		Map<String, String> protocols = new HashMap<>();
+		protocols.put(TEST_PROTOCOL, null);
+
+		thrown.expect(NullPointerException.class);
+		new Peer(TEST_ID, TEST_TYPE, TEST_STATUS, TEST_DESCRIPTION, protocols);
+	}
+
 	/**
 	 * @param peer
 	 * @return A list of objects expected to compare equal to the given
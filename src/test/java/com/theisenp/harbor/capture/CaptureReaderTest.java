@@ -0,0 +1,134 @@
+package com.theisenp.harbor.capture;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.lcm.Datagram;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link CaptureReader}
+ * 
+ * @author patrick.theisen
+ */
+public class CaptureReaderTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testBadMagic() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(0x12345678);
+		data.writeByte(CaptureWriter.VERSION);
+		data.writeLong(0);
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("not a capture");
+		new CaptureReader(new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	@Test
+	public void testBadVersion() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(CaptureWriter.MAGIC);
+		data.writeByte(CaptureWriter.VERSION + 1);
+		data.writeLong(0);
+
+		thrown.expect(IOException.class);
+		thrown.expectMessage("Unsupported capture version");
+		new CaptureReader(new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new CaptureWriter(output, new VirtualScheduler()).close();
+
+		CaptureReader reader = new CaptureReader(new ByteArrayInputStream(
+				output.toByteArray()));
+		assertThat(reader.next()).isFalse();
+		assertThat(reader.isTruncated()).isFalse();
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CaptureWriter writer = new CaptureWriter(output, new VirtualScheduler());
+		writer.write("channel", new byte[] { 1, 2, 3 }, 0, 3);
+		writer.write("channel", new byte[] { 4, 5, 6 }, 0, 3);
+		writer.close();
+
+		// Cut the last record short by one byte
+		byte[] bytes = output.toByteArray();
+		bytes = Arrays.copyOf(bytes, bytes.length - 1);
+
+		CaptureReader reader = new CaptureReader(new ByteArrayInputStream(bytes));
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getLength()).isEqualTo(3);
+		assertThat(reader.isTruncated()).isFalse();
+		assertThat(reader.next()).isFalse();
+		assertThat(reader.isTruncated()).isTrue();
+		assertThat(reader.next()).isFalse();
+	}
+
+	@Test
+	public void testUnknownChannel() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(output);
+		data.writeInt(CaptureWriter.MAGIC);
+		data.writeByte(CaptureWriter.VERSION);
+		data.writeLong(0);
+		data.writeByte(0);
+		data.writeByte(5);
+		data.writeByte(0);
+
+		CaptureReader reader = new CaptureReader(new ByteArrayInputStream(
+				output.toByteArray()));
+		thrown.expect(IOException.class);
+		thrown.expectMessage("Unknown channel index");
+		reader.next();
+	}
+
+	@Test
+	public void testBufferReuse() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CaptureWriter writer = new CaptureWriter(output, new VirtualScheduler());
+		byte[] large = new byte[1 << 17];
+		large[large.length - 1] = 42;
+		writer.write("channel", new byte[] { 1 }, 0, 1);
+		writer.write("channel", new byte[] { 2 }, 0, 1);
+		writer.write("channel", large, 0, large.length);
+		writer.close();
+
+		CaptureReader reader = new CaptureReader(new ByteArrayInputStream(
+				output.toByteArray()));
+		assertThat(reader.next()).isTrue();
+		byte[] buffer = reader.getBuffer();
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getBuffer()).isSameAs(buffer);
+		assertThat(buffer[0]).isEqualTo((byte) 2);
+
+		// The buffer grows to fit a larger datagram
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getLength()).isEqualTo(large.length);
+		assertThat(reader.getBuffer()[large.length - 1]).isEqualTo((byte) 42);
+
+		Datagram datagram = reader.getDatagram();
+		assertThat(datagram.getChannel()).isEqualTo("channel");
+		assertThat(datagram.getBuffer()).isSameAs(reader.getBuffer());
+		assertThat(datagram.getOffset()).isEqualTo(0);
+		assertThat(datagram.getLength()).isEqualTo(large.length);
+	}
+}
@@ -0,0 +1,152 @@
+package com.theisenp.harbor.capture;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.lcm.Datagram;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link CaptureWriter}
+ * 
+ * @author patrick.theisen
+ */
+public class CaptureWriterTest {
+
+	@Test
+	public void testHeader() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new CaptureWriter(output, new VirtualScheduler(1234)).close();
+
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(
+				output.toByteArray()));
+		assertThat(input.readInt()).isEqualTo(CaptureWriter.MAGIC);
+		assertThat(input.readUnsignedByte()).isEqualTo(CaptureWriter.VERSION);
+		assertThat(input.readLong()).isEqualTo(1234L);
+		assertThat(input.read()).isEqualTo(-1);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		VirtualScheduler scheduler = new VirtualScheduler(1000);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CaptureWriter writer = new CaptureWriter(output, scheduler);
+
+		byte[] first = { 1, 2, 3 };
+		byte[] second = { 9, 8, 7, 6, 5 };
+		writer.receive(null, new Datagram("first", first, 0, first.length));
+		scheduler.advance(10, MILLISECONDS);
+		writer.receive(null, new Datagram("second", second, 1, 3));
+		scheduler.advance(5, MILLISECONDS);
+		writer.write("first", second, 0, second.length);
+		writer.write("empty", new byte[0], 0, 0);
+		assertThat(writer.getCount()).isEqualTo(4);
+		writer.close();
+
+		CaptureReader reader = new CaptureReader(new ByteArrayInputStream(
+				output.toByteArray()));
+		assertThat(reader.getOrigin()).isEqualTo(1000L);
+
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getTime()).isEqualTo(1000L);
+		assertThat(reader.getChannel()).isEqualTo("first");
+		assertThat(bytes(reader)).isEqualTo(first);
+
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getTime()).isEqualTo(1000 + MILLISECONDS.toNanos(10));
+		assertThat(reader.getChannel()).isEqualTo("second");
+		assertThat(bytes(reader)).isEqualTo(new byte[] { 8, 7, 6 });
+
+		// Channels that have been seen before are referred to by index
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getTime()).isEqualTo(1000 + MILLISECONDS.toNanos(15));
+		assertThat(reader.getChannel()).isEqualTo("first");
+		assertThat(bytes(reader)).isEqualTo(second);
+
+		assertThat(reader.next()).isTrue();
+		assertThat(reader.getChannel()).isEqualTo("empty");
+		assertThat(reader.getLength()).isEqualTo(0);
+
+		assertThat(reader.next()).isFalse();
+		assertThat(reader.isTruncated()).isFalse();
+		reader.close();
+	}
+
+	@Test
+	public void testCompact() throws IOException {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CaptureWriter writer = new CaptureWriter(output, scheduler);
+		byte[] payload = new byte[40];
+		writer.write("harbor-peers", payload, 0, payload.length);
+		writer.flush();
+		int size = output.size();
+
+		// A repeated record costs a short delta, an index and a length
+		scheduler.advance(100, MILLISECONDS);
+		writer.write("harbor-peers", payload, 0, payload.length);
+		writer.flush();
+		assertThat(output.size() - size).isEqualTo(4 + 1 + 1 + payload.length);
+		writer.close();
+	}
+
+	@Test
+	public void testFailure() throws IOException {
+		final IOException failure = new IOException("full");
+		OutputStream output = new OutputStream() {
+			private int remaining = 64;
+
+			@Override
+			public void write(int value) throws IOException {
+				if(remaining-- <= 0) {
+					throw failure;
+				}
+			}
+		};
+
+		// A payload larger than the buffer is written straight through, and the
+		// failure is not thrown to the subscriber
+		CaptureWriter writer = new CaptureWriter(output, new VirtualScheduler());
+		byte[] payload = new byte[1 << 14];
+		writer.receive(null, new Datagram("channel", payload, 0, payload.length));
+		assertThat(writer.getCount()).isEqualTo(0);
+
+		// Nothing more is captured after a failure
+		writer.receive(null, new Datagram("channel", payload, 0, 1));
+		assertThat(writer.getCount()).isEqualTo(0);
+
+		try {
+			writer.write("channel", payload, 0, 1);
+			fail();
+		}
+		catch(IOException exception) {
+			assertThat(exception).isSameAs(failure);
+		}
+
+		try {
+			writer.close();
+			fail();
+		}
+		catch(IOException exception) {
+			assertThat(exception).isSameAs(failure);
+		}
+	}
+
+	/**
+	 * @param reader
+	 * @return A copy of the raw bytes of the current record
+	 */
+	private static byte[] bytes(CaptureReader reader) {
+		return Arrays.copyOf(reader.getBuffer(), reader.getLength());
+	}
+}
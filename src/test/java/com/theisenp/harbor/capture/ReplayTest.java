@@ -0,0 +1,188 @@
+package com.theisenp.harbor.capture;
+
+import static com.theisenp.harbor.test.TestUtils.encode;
+import static com.theisenp.harbor.utils.LcmConstants.PEER_CHANNEL;
+import static com.theisenp.harbor.utils.PeerUtils.toMessage;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.detection.FixedTimeoutDetector;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.lcm.Datagram;
+import com.theisenp.harbor.lcm.Receiver;
+import com.theisenp.harbor.lcm.SharedTransport;
+import com.theisenp.harbor.lcm.Subscriber;
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link Replay}
+ * 
+ * @author patrick.theisen
+ */
+public class ReplayTest {
+	private static final Peer TEST_SELF = mockPeer(0, Status.ACTIVE);
+	private static final Peer TEST_PEER = mockPeer(1, Status.ACTIVE);
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testNonPositiveSpeed() throws IOException, InterruptedException {
+		thrown.expect(IllegalArgumentException.class);
+		new Replay(capture(0), new Collector()).run(0);
+	}
+
+	@Test
+	public void testNaNSpeed() throws IOException, InterruptedException {
+		thrown.expect(IllegalArgumentException.class);
+		new Replay(capture(0), new Collector()).run(Double.NaN);
+	}
+
+	@Test
+	public void testFastest() throws IOException, InterruptedException {
+		Collector collector = new Collector();
+		long start = System.nanoTime();
+		long count = new Replay(capture(0, 3600, 7200), collector).run(Replay.FASTEST);
+		assertThat(System.nanoTime() - start).isLessThan(SECONDS.toNanos(10));
+		assertThat(count).isEqualTo(3);
+		assertThat(collector.channels).isEqualTo(Arrays.asList(PEER_CHANNEL, PEER_CHANNEL,
+				PEER_CHANNEL));
+	}
+
+	@Test
+	public void testSpeed() throws IOException, InterruptedException {
+		// Two seconds of traffic replayed at ten times the speed
+		Collector collector = new Collector();
+		long start = System.nanoTime();
+		long count = new Replay(capture(0, 1, 2), collector).run(10);
+		assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(
+				MILLISECONDS.toNanos(200));
+		assertThat(count).isEqualTo(3);
+	}
+
+	@Test
+	public void testVirtual() throws IOException {
+		VirtualScheduler scheduler = new VirtualScheduler(500);
+		Collector collector = new Collector(scheduler);
+		long count = new Replay(capture(10, 20, 20, 35), collector).run(scheduler);
+		assertThat(count).isEqualTo(4);
+
+		// The first record is delivered at the current virtual time, and the
+		// rest keep their gaps
+		assertThat(collector.times).isEqualTo(Arrays.asList(500L, 500 + SECONDS.toNanos(10),
+				500 + SECONDS.toNanos(10), 500 + SECONDS.toNanos(25)));
+		assertThat(scheduler.nanoTime()).isEqualTo(500 + SECONDS.toNanos(25));
+	}
+
+	@Test
+	public void testVirtualSubscriber() throws IOException {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(scheduler),
+				new Dispatcher(), new FixedTimeoutDetector(Duration.standardMinutes(1)),
+				scheduler, TEST_SELF);
+		final List<String> events = new ArrayList<>();
+		subscriber.addListener(new Listener.Adapter() {
+			@Override
+			public void onConnected(Peer peer) {
+				events.add("connected");
+			}
+
+			@Override
+			public void onActive(Peer peer) {
+				events.add("active");
+			}
+
+			@Override
+			public void onInactive(Peer peer) {
+				events.add("inactive");
+			}
+		}, MoreExecutors.directExecutor());
+
+		// The gap between the second and third records outlasts the timeout,
+		// so the peer goes inactive in between
+		long count = new Replay(capture(0, 10, 100), subscriber).run(scheduler);
+		assertThat(count).isEqualTo(3);
+		assertThat(events).isEqualTo(Arrays.asList("connected", "active", "inactive",
+				"active"));
+		assertThat(subscriber.getPeerCount(Status.ACTIVE)).isEqualTo(1);
+	}
+
+	/**
+	 * @param seconds
+	 * @return A reader over a capture of an advertisement from the test peer
+	 * at each of the given offsets, in seconds
+	 * @throws IOException
+	 */
+	private static CaptureReader capture(long... seconds) throws IOException {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		CaptureWriter writer = new CaptureWriter(output, scheduler);
+		byte[] payload = encode(toMessage(TEST_PEER));
+		for(long offset : seconds) {
+			scheduler.advance(SECONDS.toNanos(offset) - scheduler.nanoTime(), NANOSECONDS);
+			writer.write(PEER_CHANNEL, payload, 0, payload.length);
+		}
+		writer.close();
+		return new CaptureReader(new ByteArrayInputStream(output.toByteArray()));
+	}
+
+	/**
+	 * @param seed
+	 * @param status
+	 * @return A mock {@link Peer} built from the given seed
+	 */
+	private static Peer mockPeer(int seed, Status status) {
+		String value = String.valueOf(seed);
+		Builder builder = new Builder();
+		builder.id(value);
+		builder.type(value);
+		builder.status(status);
+		return builder.build();
+	}
+
+	/**
+	 * A {@link Receiver} that collects the channel of each datagram, and the
+	 * time at which it arrived
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Collector implements Receiver {
+		private final VirtualScheduler scheduler;
+		private final List<String> channels = new ArrayList<>();
+		private final List<Long> times = new ArrayList<>();
+
+		public Collector() {
+			this(new VirtualScheduler());
+		}
+
+		public Collector(VirtualScheduler scheduler) {
+			this.scheduler = scheduler;
+		}
+
+		@Override
+		public void receive(SharedTransport transport, Datagram datagram) {
+			channels.add(datagram.getChannel());
+			times.add(scheduler.nanoTime());
+		}
+	}
+}
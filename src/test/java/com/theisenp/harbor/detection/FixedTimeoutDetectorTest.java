@@ -0,0 +1,61 @@
+package com.theisenp.harbor.detection;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.detection.FailureDetector.Monitor;
+
+/**
+ * Unit tests for {@link FixedTimeoutDetector}
+ * 
+ * @author patrick.theisen
+ */
+public class FixedTimeoutDetectorTest {
+	private static final Duration TEST_TIMEOUT = Duration.standardSeconds(5);
+	private static final long TEST_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidTimeout() {
+		thrown.expect(IllegalArgumentException.class);
+		new FixedTimeoutDetector(Duration.ZERO);
+	}
+
+	@Test
+	public void testTimeout() {
+		FixedTimeoutDetector detector = new FixedTimeoutDetector(TEST_TIMEOUT);
+		assertThat(detector.getTimeout()).isEqualTo(TEST_TIMEOUT);
+
+		Monitor monitor = detector.newMonitor();
+		monitor.heartbeat(0, 0);
+		assertThat(monitor.getInactiveDelay()).isEqualTo(TEST_TIMEOUT_NANOS);
+		assertThat(monitor.getDisconnectDelay()).isEqualTo(TEST_TIMEOUT_NANOS);
+	}
+
+	@Test
+	public void testShortInterval() {
+		Monitor monitor = new FixedTimeoutDetector(TEST_TIMEOUT).newMonitor();
+		monitor.heartbeat(0, TimeUnit.SECONDS.toNanos(1));
+		assertThat(monitor.getInactiveDelay()).isEqualTo(TEST_TIMEOUT_NANOS);
+	}
+
+	@Test
+	public void testLongInterval() {
+		// Several announced intervals outlast the timeout
+		Monitor monitor = new FixedTimeoutDetector(TEST_TIMEOUT).newMonitor();
+		long interval = TimeUnit.SECONDS.toNanos(4);
+		monitor.heartbeat(0, interval);
+
+		long expected = FixedTimeoutDetector.TIMEOUT_INTERVALS * interval;
+		assertThat(monitor.getInactiveDelay()).isEqualTo(expected);
+		assertThat(monitor.getDisconnectDelay()).isEqualTo(expected);
+	}
+}
@@ -0,0 +1,176 @@
+package com.theisenp.harbor.detection;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Delta.delta;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.detection.PhiAccrualDetector.PhiMonitor;
+
+/**
+ * Unit tests for {@link PhiAccrualDetector}
+ * 
+ * @author patrick.theisen
+ */
+public class PhiAccrualDetectorTest {
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidThreshold() {
+		thrown.expect(IllegalArgumentException.class);
+		new PhiAccrualDetector(0, 8);
+	}
+
+	@Test
+	public void testConstructWithInvertedThresholds() {
+		thrown.expect(IllegalArgumentException.class);
+		new PhiAccrualDetector(8, 4);
+	}
+
+	@Test
+	public void testConstructWithInvalidWindow() {
+		thrown.expect(IllegalArgumentException.class);
+		new PhiAccrualDetector(8, 16, 0, Duration.millis(1), Duration.ZERO, Duration.millis(1));
+	}
+
+	@Test
+	public void testConstructWithInvalidMinDeviation() {
+		thrown.expect(IllegalArgumentException.class);
+		new PhiAccrualDetector(8, 16, 10, Duration.ZERO, Duration.ZERO, Duration.millis(1));
+	}
+
+	@Test
+	public void testDeviationsFor() {
+		for(double threshold : new double[] { 1, 3, 8, 16 }) {
+			double deviations = PhiAccrualDetector.deviationsFor(threshold);
+			assertThat(PhiAccrualDetector.phi(deviations)).isEqualTo(threshold, delta(1e-6));
+		}
+
+		// A heartbeat that is exactly on time is as likely to be late as not
+		assertThat(PhiAccrualDetector.phi(0)).isEqualTo(Math.log10(2), delta(1e-6));
+	}
+
+	@Test
+	public void testFirstHeartbeat() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		assertThat(monitor.phi(0)).isEqualTo(0);
+
+		// Until a sample arrives, the announced interval is the mean
+		monitor.heartbeat(0, SECOND);
+		assertThat(monitor.getMean()).isEqualTo(SECOND);
+		assertThat(monitor.getDeviation()).isEqualTo(SECOND / 4);
+	}
+
+	@Test
+	public void testFirstHeartbeatWithoutInterval() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		monitor.heartbeat(0, 0);
+		assertThat(monitor.getMean()).isEqualTo(500 * MILLISECOND);
+	}
+
+	@Test
+	public void testLearnsInterArrivalTimes() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		long now = 0;
+		for(int i = 0; i < 10; i++) {
+			now += (i % 2 == 0) ? 900 * MILLISECOND : 1100 * MILLISECOND;
+			monitor.heartbeat(now, SECOND);
+		}
+
+		// Only the most recent inter-arrival times are remembered
+		assertThat(monitor.getMean()).isEqualTo(SECOND, delta(1));
+		assertThat(monitor.getDeviation()).isEqualTo(100 * MILLISECOND, delta(1000));
+		assertThat(monitor.phi(now)).isLessThan(1);
+		assertThat(monitor.phi(now + monitor.getInactiveDelay())).isEqualTo(8, delta(1e-3));
+	}
+
+	@Test
+	public void testMinDeviation() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		for(int i = 0; i < 10; i++) {
+			monitor.heartbeat(i * SECOND, SECOND);
+		}
+		assertThat(monitor.getMean()).isEqualTo(SECOND);
+		assertThat(monitor.getDeviation()).isEqualTo(10 * MILLISECOND);
+	}
+
+	@Test
+	public void testLossySegment() {
+		PhiAccrualDetector detector = newDetector();
+		PhiMonitor steady = detector.newMonitor();
+		PhiMonitor lossy = detector.newMonitor();
+		for(int i = 0; i < 20; i++) {
+			steady.heartbeat(i * SECOND, SECOND);
+		}
+		long now = 0;
+		for(int i = 0; i < 20; i++) {
+			now += (i % 4 == 0) ? 2 * SECOND : SECOND;
+			lossy.heartbeat(now, SECOND);
+		}
+
+		// A peer whose heartbeats are often lost is given longer
+		assertThat(steady.getInactiveDelay()).isLessThan(lossy.getInactiveDelay());
+		assertThat(steady.getInactiveDelay()).isLessThan(SECOND + SECOND / 10);
+	}
+
+	@Test
+	public void testDisconnectFollowsInactive() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		monitor.heartbeat(0, SECOND);
+
+		long disconnect = monitor.getInactiveDelay() + monitor.getDisconnectDelay();
+		assertThat(monitor.getDisconnectDelay()).isGreaterThan(0);
+		assertThat(monitor.phi(disconnect)).isEqualTo(16, delta(1e-3));
+	}
+
+	@Test
+	public void testNewIntervalClearsHistory() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		for(int i = 0; i < 10; i++) {
+			monitor.heartbeat(i * SECOND, SECOND);
+		}
+
+		// The sender has moved to a longer interval
+		monitor.heartbeat(10 * SECOND, 4 * SECOND);
+		assertThat(monitor.getMean()).isEqualTo(4 * SECOND);
+		monitor.heartbeat(14 * SECOND, 4 * SECOND);
+		assertThat(monitor.getMean()).isEqualTo(4 * SECOND);
+		assertThat(monitor.getDeviation()).isEqualTo(10 * MILLISECOND);
+	}
+
+	@Test
+	public void testWindow() {
+		PhiMonitor monitor = newDetector().newMonitor();
+		long now = 0;
+		for(int i = 0; i < 5; i++) {
+			now += 3 * SECOND;
+			monitor.heartbeat(now, 0);
+		}
+
+		// Only the most recent samples are remembered
+		for(int i = 0; i < 4; i++) {
+			now += SECOND;
+			monitor.heartbeat(now, 0);
+		}
+		assertThat(monitor.getMean()).isEqualTo(SECOND);
+	}
+
+	/**
+	 * @return A {@link PhiAccrualDetector} with thresholds of 8 and 16, a window
+	 * of 4, a minimum deviation of 10 ms, no acceptable pause and a first
+	 * estimate of 500 ms
+	 */
+	private static PhiAccrualDetector newDetector() {
+		return new PhiAccrualDetector(8, 16, 4, Duration.millis(10), Duration.ZERO,
+				Duration.millis(500));
+	}
+}
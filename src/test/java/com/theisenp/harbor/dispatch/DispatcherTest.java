@@ -0,0 +1,292 @@
+package com.theisenp.harbor.dispatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.TypeFilter;
+import com.theisenp.harbor.metrics.FlightRecorder;
+import com.theisenp.harbor.metrics.FlightRecorder.Event;
+import com.theisenp.harbor.metrics.FlightRecorder.Kind;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.Clock;
+
+/**
+ * Unit tests for {@link Dispatcher}
+ * 
+ * @author patrick.theisen
+ */
+public class DispatcherTest {
+	private static final Peer TEST_PEER;
+	static {
+		Builder builder = new Builder();
+		builder.id("test-id");
+		builder.type("test-type");
+		builder.status(Status.ACTIVE);
+		TEST_PEER = builder.build();
+	}
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidCapacity() {
+		thrown.expect(IllegalArgumentException.class);
+		new Dispatcher(-1);
+	}
+
+	@Test
+	public void testInline() {
+		UpdateListener listener = mock(UpdateListener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(listener);
+
+		dispatcher.onConnected(TEST_PEER);
+		dispatcher.onActive(TEST_PEER);
+		dispatcher.onInactive(TEST_PEER);
+		dispatcher.onUpdated(TEST_PEER, TEST_PEER);
+		dispatcher.onDisconnected(TEST_PEER);
+
+		verify(listener, times(1)).onConnected(TEST_PEER);
+		verify(listener, times(1)).onActive(TEST_PEER);
+		verify(listener, times(1)).onInactive(TEST_PEER);
+		verify(listener, times(1)).onUpdated(TEST_PEER, TEST_PEER);
+		verify(listener, times(1)).onDisconnected(TEST_PEER);
+		assertThat(dispatcher.getStats()).isEmpty();
+	}
+
+	@Test
+	public void testUpdatesSkipPlainListeners() {
+		Listener inline = mock(Listener.class);
+		Listener filtered = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(inline);
+		dispatcher.addListener(filtered, new TypeFilter("test-type"));
+
+		dispatcher.onUpdated(TEST_PEER, TEST_PEER);
+		verifyZeroInteractions(inline);
+		verifyZeroInteractions(filtered);
+
+		// Queued listeners are not even offered the update
+		Listener queued = mock(Listener.class);
+		dispatcher = new Dispatcher(10);
+		dispatcher.addListener(queued);
+		dispatcher.onUpdated(TEST_PEER, TEST_PEER);
+		assertThat(dispatcher.getStats().get(queued).getDepth()).isEqualTo(0);
+		assertThat(dispatcher.getStats().get(queued).getDelivered()).isEqualTo(0);
+		dispatcher.removeListener(queued);
+	}
+
+	@Test
+	public void testAddTwice() {
+		Listener listener = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(listener);
+		dispatcher.addListener(listener);
+
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(1)).onActive(TEST_PEER);
+	}
+
+	@Test
+	public void testRemove() {
+		Listener listener = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher(10);
+		dispatcher.addListener(listener);
+		dispatcher.removeListener(listener);
+
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(0)).onActive(TEST_PEER);
+		assertThat(dispatcher.getStats()).isEmpty();
+	}
+
+	@Test
+	public void testQueued() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(2);
+		Dispatcher dispatcher = new Dispatcher(10);
+		Listener listener = new Listener.Adapter() {
+			@Override
+			public void onConnected(Peer peer) {
+				latch.countDown();
+			}
+
+			@Override
+			public void onActive(Peer peer) {
+				latch.countDown();
+			}
+		};
+		dispatcher.addListener(listener);
+
+		dispatcher.onConnected(TEST_PEER);
+		dispatcher.onActive(TEST_PEER);
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Queued events were never delivered");
+		}
+		assertThat(dispatcher.getStats().containsKey(listener)).isTrue();
+	}
+
+	@Test
+	public void testSlowListenerIsIsolated() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch delivered = new CountDownLatch(1);
+		Dispatcher dispatcher = new Dispatcher(10);
+		dispatcher.addListener(new Listener.Adapter() {
+			@Override
+			public void onActive(Peer peer) {
+				try {
+					release.await();
+				}
+				catch(InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		dispatcher.addListener(new Listener.Adapter() {
+			@Override
+			public void onActive(Peer peer) {
+				delivered.countDown();
+			}
+		});
+
+		dispatcher.onActive(TEST_PEER);
+		if(!delivered.await(1, TimeUnit.SECONDS)) {
+			fail("The fast listener was blocked by the slow one");
+		}
+		release.countDown();
+	}
+
+	@Test
+	public void testExecutor() {
+		Listener listener = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(listener, MoreExecutors.directExecutor());
+
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(1)).onActive(TEST_PEER);
+		assertThat(dispatcher.getStats().containsKey(listener)).isTrue();
+	}
+
+	@Test
+	public void testFiltered() {
+		UpdateListener passing = mock(UpdateListener.class);
+		Listener failing = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(passing, new TypeFilter("test-type"));
+		dispatcher.addListener(failing, new TypeFilter("other-type"));
+
+		dispatcher.onConnected(TEST_PEER);
+		dispatcher.onActive(TEST_PEER);
+		dispatcher.onInactive(TEST_PEER);
+		dispatcher.onUpdated(TEST_PEER, TEST_PEER);
+		dispatcher.onDisconnected(TEST_PEER);
+
+		verify(passing, times(1)).onConnected(TEST_PEER);
+		verify(passing, times(1)).onActive(TEST_PEER);
+		verify(passing, times(1)).onInactive(TEST_PEER);
+		verify(passing, times(1)).onUpdated(TEST_PEER, TEST_PEER);
+		verify(passing, times(1)).onDisconnected(TEST_PEER);
+		verifyZeroInteractions(failing);
+	}
+
+	@Test
+	public void testFilteredAddTwice() {
+		Listener listener = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(listener, new TypeFilter("test-type"));
+		dispatcher.addListener(listener, new TypeFilter("test-type"));
+		dispatcher.addListener(listener);
+
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(1)).onActive(TEST_PEER);
+	}
+
+	@Test
+	public void testFilteredRemove() {
+		Listener listener = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher(10);
+		dispatcher.addListener(listener, new TypeFilter("test-type"));
+		assertThat(dispatcher.getStats().containsKey(listener)).isTrue();
+		dispatcher.removeListener(listener);
+
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(0)).onActive(TEST_PEER);
+		assertThat(dispatcher.getStats()).isEmpty();
+	}
+
+	@Test
+	public void testFilteredExecutor() {
+		Listener listener = mock(Listener.class);
+		Dispatcher dispatcher = new Dispatcher();
+		dispatcher.addListener(listener, new TypeFilter("test-type"),
+				MoreExecutors.directExecutor());
+
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(1)).onActive(TEST_PEER);
+		assertThat(dispatcher.getStats().containsKey(listener)).isTrue();
+	}
+
+	@Test
+	public void testMetrics() {
+		Listener listener = mock(Listener.class);
+		Listener filtered = mock(Listener.class);
+		HarborMetrics metrics = new HarborMetrics("test-id", Clock.SYSTEM);
+		Dispatcher dispatcher = new Dispatcher(Dispatcher.INLINE, metrics);
+		dispatcher.addListener(listener);
+		dispatcher.addListener(filtered, new TypeFilter("test-type"));
+
+		// Both listeners are still notified, and their callbacks are timed
+		dispatcher.onActive(TEST_PEER);
+		verify(listener, times(1)).onActive(TEST_PEER);
+		verify(filtered, times(1)).onActive(TEST_PEER);
+		assertThat(metrics.getListenerP99Micros().get("ACTIVE")).isGreaterThan(0);
+		assertThat(metrics.getListenerP99Micros().get("INACTIVE")).isEqualTo(0);
+
+		// Listeners are still removed by the instance that was added
+		dispatcher.removeListener(listener);
+		dispatcher.removeListener(filtered);
+		dispatcher.onInactive(TEST_PEER);
+		verify(listener, times(0)).onInactive(TEST_PEER);
+		verify(filtered, times(0)).onInactive(TEST_PEER);
+	}
+
+	@Test
+	public void testRecorder() {
+		Listener listener = mock(Listener.class);
+		FlightRecorder recorder = new FlightRecorder(16, Clock.SYSTEM);
+		Dispatcher dispatcher = new Dispatcher(Dispatcher.INLINE, null, recorder);
+		dispatcher.addListener(listener);
+
+		// Each event is recorded once, however many listeners it reaches
+		Peer updated = new Builder(TEST_PEER).description("test-other").build();
+		dispatcher.onActive(TEST_PEER);
+		dispatcher.onUpdated(TEST_PEER, updated);
+		verify(listener, times(1)).onActive(TEST_PEER);
+
+		List<Event> events = recorder.snapshot();
+		assertThat(events).hasSize(2);
+		assertThat(events.get(0).getKind()).isEqualTo(Kind.DISPATCHED);
+		assertThat(events.get(0).getId()).isEqualTo(TEST_PEER.getId());
+		assertThat(events.get(0).getPrevious()).isNull();
+		assertThat(events.get(0).getStatus()).isEqualTo(Status.ACTIVE);
+		assertThat(events.get(1).getPrevious()).isEqualTo(TEST_PEER.getStatus());
+		assertThat(events.get(1).getStatus()).isEqualTo(updated.getStatus());
+	}
+}
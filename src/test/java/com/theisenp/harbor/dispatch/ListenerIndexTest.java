@@ -0,0 +1,173 @@
+package com.theisenp.harbor.dispatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.DisjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+
+/**
+ * Unit tests for {@link ListenerIndex}
+ * 
+ * @author patrick.theisen
+ */
+public class ListenerIndexTest {
+	private static final Peer TEST_PEER = mockPeer("a", "ZMQ", Status.ACTIVE);
+
+	@Test
+	public void testType() {
+		ListenerIndex index = new ListenerIndex();
+		FilteredListener passing = add(index, new TypeFilter("a"));
+		FilteredListener failing = add(index, new TypeFilter("b"));
+
+		index.onActive(TEST_PEER);
+		verify(passing.getDelivery(), times(1)).onActive(TEST_PEER);
+		verifyZeroInteractions(failing.getDelivery());
+		assertThat(failing.getFiled()).hasSize(1);
+	}
+
+	@Test
+	public void testProtocol() {
+		ListenerIndex index = new ListenerIndex();
+		FilteredListener passing = add(index, new ProtocolFilter("ZMQ"));
+		FilteredListener failing = add(index, new ProtocolFilter("IPC"));
+
+		index.onConnected(TEST_PEER);
+		verify(passing.getDelivery(), times(1)).onConnected(TEST_PEER);
+		verifyZeroInteractions(failing.getDelivery());
+	}
+
+	@Test
+	public void testStatus() {
+		ListenerIndex index = new ListenerIndex();
+		FilteredListener passing = add(index, new StatusFilter(Status.ACTIVE));
+		FilteredListener failing = add(index, new StatusFilter(Status.INACTIVE));
+
+		index.onDisconnected(TEST_PEER);
+		verify(passing.getDelivery(), times(1)).onDisconnected(TEST_PEER);
+		verifyZeroInteractions(failing.getDelivery());
+	}
+
+	@Test
+	public void testConjunction() {
+		ListenerIndex index = new ListenerIndex();
+		Filter filter = new ConjunctiveFilter(new StatusFilter(Status.ACTIVE),
+				new ProtocolFilter("ZMQ"), new TypeFilter("a"));
+		FilteredListener passing = add(index, filter);
+		FilteredListener failing = add(index, new ConjunctiveFilter(
+				new StatusFilter(Status.ACTIVE), new TypeFilter("b")));
+
+		index.onInactive(TEST_PEER);
+		verify(passing.getDelivery(), times(1)).onInactive(TEST_PEER);
+		verifyZeroInteractions(failing.getDelivery());
+	}
+
+	@Test
+	public void testDisjunction() {
+		ListenerIndex index = new ListenerIndex();
+		Filter filter = new DisjunctiveFilter(new TypeFilter("a"), new TypeFilter("b"));
+		FilteredListener listener = add(index, filter);
+		assertThat(listener.getFiled()).hasSize(2);
+
+		Peer other = mockPeer("b", "IPC", Status.ACTIVE);
+		index.onActive(TEST_PEER);
+		index.onActive(other);
+		verify(listener.getDelivery(), times(1)).onActive(TEST_PEER);
+		verify(listener.getDelivery(), times(1)).onActive(other);
+	}
+
+	@Test
+	public void testDisjunctionOfProtocols() {
+		ListenerIndex index = new ListenerIndex();
+		Filter filter = new DisjunctiveFilter(new ProtocolFilter("ZMQ"),
+				new ProtocolFilter("IPC"));
+		FilteredListener listener = add(index, filter);
+
+		// A peer may have both protocols, so the listener cannot be filed
+		// under each of them without being notified twice
+		Peer peer = new Builder(TEST_PEER).protocol("IPC", "address").build();
+		index.onActive(peer);
+		verify(listener.getDelivery(), times(1)).onActive(peer);
+	}
+
+	@Test
+	public void testCustom() {
+		ListenerIndex index = new ListenerIndex();
+		FilteredListener passing = add(index, Filter.PASS);
+		FilteredListener failing = add(index, Filter.FAIL);
+		assertThat(failing.getFiled()).isEmpty();
+
+		index.onActive(TEST_PEER);
+		verify(passing.getDelivery(), times(1)).onActive(TEST_PEER);
+		verifyZeroInteractions(failing.getDelivery());
+	}
+
+	@Test
+	public void testUpdated() {
+		ListenerIndex index = new ListenerIndex();
+		FilteredListener before = add(index, new TypeFilter("a"));
+		FilteredListener after = add(index, new TypeFilter("b"));
+		FilteredListener both = add(index, new StatusFilter(Status.ACTIVE));
+		FilteredListener neither = add(index, new TypeFilter("c"));
+
+		Peer peer = mockPeer("b", "ZMQ", Status.ACTIVE);
+		index.onUpdated(TEST_PEER, peer);
+		verify((UpdateListener) before.getDelivery(), times(1)).onUpdated(TEST_PEER, peer);
+		verify((UpdateListener) after.getDelivery(), times(1)).onUpdated(TEST_PEER, peer);
+		verify((UpdateListener) both.getDelivery(), times(1)).onUpdated(TEST_PEER, peer);
+		verifyZeroInteractions(neither.getDelivery());
+	}
+
+	@Test
+	public void testRemove() {
+		ListenerIndex index = new ListenerIndex();
+		FilteredListener listener = add(index, new TypeFilter("a"));
+		assertThat(index.size()).isEqualTo(1);
+		index.remove(listener);
+
+		index.onActive(TEST_PEER);
+		verifyZeroInteractions(listener.getDelivery());
+		assertThat(listener.getFiled()).isEmpty();
+		assertThat(index.size()).isEqualTo(0);
+	}
+
+	/**
+	 * @param index
+	 * @param filter
+	 * @return A new {@link FilteredListener} with the given filter and a mock
+	 * delivery, filed in the given index
+	 */
+	private static FilteredListener add(ListenerIndex index, Filter filter) {
+		FilteredListener listener = new FilteredListener(filter, mock(UpdateListener.class), true);
+		index.add(listener);
+		return listener;
+	}
+
+	/**
+	 * @param type
+	 * @param protocol
+	 * @param status
+	 * @return A {@link Peer} with the given type, protocol and status
+	 */
+	private static Peer mockPeer(String type, String protocol, Status status) {
+		Builder builder = new Builder();
+		builder.id("test-id");
+		builder.type(type);
+		builder.status(status);
+		builder.protocol(protocol, "address");
+		return builder.build();
+	}
+}
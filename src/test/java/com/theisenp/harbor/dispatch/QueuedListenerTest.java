@@ -0,0 +1,240 @@
+package com.theisenp.harbor.dispatch;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link QueuedListener}
+ * 
+ * @author patrick.theisen
+ */
+public class QueuedListenerTest {
+	private static final Peer TEST_PEER;
+	static {
+		Builder builder = new Builder();
+		builder.id("test-id");
+		builder.type("test-type");
+		builder.status(Status.ACTIVE);
+		TEST_PEER = builder.build();
+	}
+
+	@Test
+	public void testDeliverInOrder() {
+		UpdateListener listener = mock(UpdateListener.class);
+		ManualExecutor executor = new ManualExecutor();
+		QueuedListener queued = new QueuedListener(listener, 10, executor);
+
+		queued.onConnected(TEST_PEER);
+		queued.onActive(TEST_PEER);
+		queued.onInactive(TEST_PEER);
+		queued.onUpdated(TEST_PEER, TEST_PEER);
+		queued.onDisconnected(TEST_PEER);
+		assertThat(executor.tasks).hasSize(1);
+		assertThat(queued.getStats().getDepth()).isEqualTo(5);
+
+		executor.runAll();
+		InOrder order = inOrder(listener);
+		order.verify(listener).onConnected(TEST_PEER);
+		order.verify(listener).onActive(TEST_PEER);
+		order.verify(listener).onInactive(TEST_PEER);
+		order.verify(listener).onUpdated(TEST_PEER, TEST_PEER);
+		order.verify(listener).onDisconnected(TEST_PEER);
+		assertThat(queued.getStats().getDepth()).isEqualTo(0);
+		assertThat(queued.getStats().getDelivered()).isEqualTo(5);
+	}
+
+	@Test
+	public void testHoldWhenFull() {
+		UpdateListener listener = mock(UpdateListener.class);
+		ManualExecutor executor = new ManualExecutor();
+		QueuedListener queued = new QueuedListener(listener, 2, executor);
+		Peer inactive = TEST_PEER.withStatus(Status.INACTIVE);
+		Peer updated = new Builder(TEST_PEER).type("other-type").build();
+
+		// Once the queue is full, the latest status and the merged updates are
+		// held back
+		queued.onActive(TEST_PEER);
+		queued.onActive(TEST_PEER);
+		queued.onInactive(inactive);
+		queued.onUpdated(TEST_PEER, TEST_PEER);
+		queued.onActive(TEST_PEER);
+		queued.onUpdated(TEST_PEER, updated);
+		assertThat(queued.getStats().getDropped()).isEqualTo(2);
+		assertThat(queued.getStats().getDepth()).isEqualTo(4);
+
+		executor.runAll();
+		InOrder order = inOrder(listener);
+		order.verify(listener, times(2)).onActive(TEST_PEER);
+		order.verify(listener).onUpdated(TEST_PEER, updated);
+		order.verify(listener).onActive(updated);
+		verify(listener, times(0)).onInactive(any(Peer.class));
+		assertThat(queued.getStats().getDelivered()).isEqualTo(4);
+		assertThat(queued.getStats().getDepth()).isEqualTo(0);
+	}
+
+	@Test
+	public void testKeepTransitionsWhenFull() {
+		Listener listener = mock(Listener.class);
+		ManualExecutor executor = new ManualExecutor();
+		QueuedListener queued = new QueuedListener(listener, 1, executor);
+		Peer other = new Builder(TEST_PEER).id("other-id").build();
+
+		// Connections and disconnections are never dropped, and discard
+		// anything held for the same peer
+		queued.onConnected(TEST_PEER);
+		queued.onInactive(TEST_PEER);
+		queued.onConnected(other);
+		queued.onDisconnected(TEST_PEER);
+		assertThat(queued.getStats().getDropped()).isEqualTo(1);
+		assertThat(queued.getStats().getDepth()).isEqualTo(3);
+
+		executor.runAll();
+		InOrder order = inOrder(listener);
+		order.verify(listener).onConnected(TEST_PEER);
+		order.verify(listener).onConnected(other);
+		order.verify(listener).onDisconnected(TEST_PEER);
+		verify(listener, times(0)).onInactive(any(Peer.class));
+	}
+
+	@Test
+	public void testFailingListener() {
+		ManualExecutor executor = new ManualExecutor();
+		QueuedListener queued = new QueuedListener(new Listener.Adapter() {
+			@Override
+			public void onConnected(Peer peer) {
+				throw new RuntimeException();
+			}
+		}, 10, executor);
+
+		queued.onConnected(TEST_PEER);
+		queued.onActive(TEST_PEER);
+		executor.runAll();
+		assertThat(queued.getStats().getDelivered()).isEqualTo(2);
+		assertThat(queued.getStats().getFailed()).isEqualTo(1);
+	}
+
+	@Test
+	public void testLagInVirtualTime() {
+		Listener listener = mock(Listener.class);
+		ManualExecutor executor = new ManualExecutor();
+		VirtualScheduler clock = new VirtualScheduler();
+		QueuedListener queued = new QueuedListener(listener, 10, executor, clock);
+
+		// The lag is the age of the oldest queued event
+		queued.onConnected(TEST_PEER);
+		clock.advance(3, TimeUnit.SECONDS);
+		queued.onActive(TEST_PEER);
+		clock.advance(2, TimeUnit.SECONDS);
+		assertThat(queued.getStats().getLag()).isEqualTo(Duration.standardSeconds(5));
+
+		executor.runAll();
+		assertThat(queued.getStats().getLag()).isEqualTo(Duration.ZERO);
+	}
+
+	@Test
+	public void testDedicatedThreadNames() throws Exception {
+		ThreadNames first = new ThreadNames();
+		ThreadNames second = new ThreadNames();
+		new QueuedListener(first, 10).onConnected(TEST_PEER);
+		new QueuedListener(second, 10).onConnected(TEST_PEER);
+		assertThat(first.next()).isNotEqualTo(second.next());
+	}
+
+	@Test
+	public void testStopAndShutdown() throws Exception {
+		ThreadNames names = new ThreadNames();
+		QueuedListener queued = new QueuedListener(names, 10);
+		queued.onConnected(TEST_PEER);
+		assertThat(names.next()).isNotNull();
+
+		// A stopped listener still delivers its next event
+		queued.stop();
+		queued.onActive(TEST_PEER);
+		assertThat(names.next()).isNotNull();
+
+		// A shut down listener delivers no more events
+		queued.shutdown();
+		queued.onInactive(TEST_PEER);
+		assertThat(names.next()).isNull();
+		assertThat(queued.getStats().getDelivered()).isEqualTo(2);
+	}
+
+	/**
+	 * A {@link Listener} that records the name of the thread on which each
+	 * event is delivered
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class ThreadNames extends Listener.Adapter {
+		private final BlockingQueue<String> names = new LinkedBlockingQueue<>();
+
+		@Override
+		public void onConnected(Peer peer) {
+			names.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void onActive(Peer peer) {
+			names.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void onInactive(Peer peer) {
+			names.add(Thread.currentThread().getName());
+		}
+
+		/**
+		 * @return The name of the thread of the next event, or null if none is
+		 * delivered within a second
+		 * @throws InterruptedException
+		 */
+		public String next() throws InterruptedException {
+			return names.poll(1, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * An {@link Executor} that holds tasks until they are explicitly run
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class ManualExecutor implements Executor {
+		private final List<Runnable> tasks = new ArrayList<>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		/**
+		 * Runs all held tasks, including any that are added along the way
+		 */
+		public void runAll() {
+			while(!tasks.isEmpty()) {
+				tasks.remove(0).run();
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.lcm.Network.Factory;
+
+/**
+ * Unit tests for {@link Acquire}
+ * 
+ * @author patrick.theisen
+ */
+public class AcquireTest {
+	private static final String TEST_ADDRESS = "239.255.76.67";
+	private static final int TEST_PORT = 7667;
+	private static final int TEST_TTL = 0;
+
+	@Test
+	public void testCall() throws Exception {
+		Network network = mock(Network.class);
+		Factory factory = mock(Factory.class);
+		when(factory.getUrl(TEST_ADDRESS, TEST_PORT, TEST_TTL)).thenReturn("test://acquire");
+		when(factory.open("test://acquire")).thenReturn(network);
+
+		// The network is opened by the first acquire, and shared by the rest
+		SharedTransport first = new Acquire(factory, TEST_ADDRESS, TEST_PORT, TEST_TTL).call();
+		SharedTransport second = new Acquire(factory, TEST_ADDRESS, TEST_PORT, TEST_TTL).call();
+		assertThat(second).isSameAs(first);
+		assertThat(first.getUrl()).isEqualTo("test://acquire");
+		assertThat(first.getNetwork()).isSameAs(network);
+		verify(factory, times(1)).open("test://acquire");
+
+		first.release();
+		second.release();
+		verify(network, times(1)).close();
+	}
+}
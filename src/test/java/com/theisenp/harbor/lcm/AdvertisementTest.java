@@ -0,0 +1,64 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+
+/**
+ * Unit tests for {@link Advertisement}
+ * 
+ * @author patrick.theisen
+ */
+public class AdvertisementTest {
+	private static final Peer TEST_PEER;
+	static {
+		Builder builder = new Builder();
+		builder.id("test-id");
+		builder.type("test-type");
+		builder.status(Status.ACTIVE);
+		TEST_PEER = builder.build();
+	}
+
+	@Test
+	public void testConstruct() {
+		long before = System.currentTimeMillis();
+		Advertisement advertisement = new Advertisement(TEST_PEER);
+		assertThat(advertisement.getPeer()).isEqualTo(TEST_PEER);
+		assertThat(advertisement.getIncarnation()).isGreaterThanOrEqualTo(before);
+		assertThat(advertisement.getVersion()).isEqualTo(Advertisement.INITIAL_VERSION);
+	}
+
+	@Test
+	public void testIncarnationsIncrease() {
+		// Even within the same millisecond
+		Advertisement first = new Advertisement(TEST_PEER);
+		Advertisement second = new Advertisement(TEST_PEER);
+		assertThat(second.getIncarnation()).isGreaterThan(first.getIncarnation());
+	}
+
+	@Test
+	public void testUpdate() {
+		Advertisement advertisement = new Advertisement(TEST_PEER, 10, 1);
+		Peer changed = new Builder(TEST_PEER).description("changed").build();
+		Advertisement updated = advertisement.update(changed);
+
+		assertThat(updated.getPeer()).isEqualTo(changed);
+		assertThat(updated.getIncarnation()).isEqualTo(10);
+		assertThat(updated.getVersion()).isEqualTo(2);
+	}
+
+	@Test
+	public void testIsNewer() {
+		assertThat(Advertisement.isNewer(10, 2, 10, 1)).isTrue();
+		assertThat(Advertisement.isNewer(10, 1, 10, 1)).isFalse();
+		assertThat(Advertisement.isNewer(10, 1, 10, 2)).isFalse();
+
+		// A new incarnation wins regardless of its version
+		assertThat(Advertisement.isNewer(11, 1, 10, 5)).isTrue();
+		assertThat(Advertisement.isNewer(9, 5, 10, 1)).isFalse();
+	}
+}
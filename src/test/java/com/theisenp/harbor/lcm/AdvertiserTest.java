@@ -0,0 +1,201 @@
+package com.theisenp.harbor.lcm;
+
+import static com.theisenp.harbor.test.TestUtils.wrap;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * Unit tests for {@link Advertiser}
+ * 
+ * @author patrick.theisen
+ */
+public class AdvertiserTest {
+	private static final Peer TEST_PEER;
+	static {
+		Builder builder = new Builder();
+		builder.id("test-id");
+		builder.type("test-type");
+		builder.status(Status.ACTIVE);
+		builder.protocol("test-protocol", "test-address");
+		TEST_PEER = builder.build();
+	}
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testRun() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = compact(transport);
+		advertiser.run();
+		advertiser.run();
+
+		ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+		verify(transport, times(2)).publish(eq(LcmConstants.HEARTBEAT_CHANNEL), captor.capture(),
+				eq(0), anyInt());
+		HeartbeatMessage heartbeat = new HeartbeatMessage(captor.getValue());
+		assertThat(heartbeat.id).isEqualTo(TEST_PEER.getId());
+		assertThat(heartbeat.version).isEqualTo(Advertisement.INITIAL_VERSION);
+		assertThat(heartbeat.sequence).isEqualTo(2);
+		assertThat(advertiser.getSequence()).isEqualTo(2);
+	}
+
+	@Test
+	public void testRunWithInterval() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = compact(transport);
+		advertiser.setInterval(400);
+		advertiser.run();
+
+		ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+		verify(transport, times(1)).publish(eq(LcmConstants.HEARTBEAT_CHANNEL), captor.capture(),
+				eq(0), anyInt());
+		HeartbeatMessage heartbeat = new HeartbeatMessage(captor.getValue());
+		assertThat(heartbeat.sequence).isEqualTo(1);
+		assertThat(heartbeat.interval).isEqualTo(400);
+		assertThat(advertiser.getInterval()).isEqualTo(400);
+	}
+
+	@Test
+	public void testRunReusesBuffer() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = compact(transport);
+		advertiser.run();
+		advertiser.setInterval(400);
+		advertiser.run();
+
+		// Only the changing fields are patched into the encoded heartbeat
+		ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+		verify(transport, times(2)).publish(eq(LcmConstants.HEARTBEAT_CHANNEL), captor.capture(),
+				eq(0), anyInt());
+		assertThat(captor.getAllValues().get(1)).isSameAs(captor.getAllValues().get(0));
+	}
+
+	@Test
+	public void testRunFull() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = new Advertiser(transport, new Advertisement(TEST_PEER), WireFormat.FULL);
+		advertiser.setInterval(400);
+		advertiser.run();
+		advertiser.announce();
+
+		ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+		verify(transport, times(1)).publish(eq(LcmConstants.PEER_CHANNEL), captor.capture(),
+				eq(0), anyInt());
+		verify(transport, times(0)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+		PeerMessage message = new PeerMessage(captor.getValue());
+		assertThat(message.id).isEqualTo(TEST_PEER.getId());
+		assertThat(message.interval).isEqualTo(400);
+		assertThat(message.count).isEqualTo(1);
+		assertThat(advertiser.getSequence()).isEqualTo(0);
+	}
+
+	@Test
+	public void testSize() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser compact = compact(transport);
+		Advertiser full = new Advertiser(transport, new Advertisement(TEST_PEER), WireFormat.FULL);
+
+		assertThat(compact.getSize()).isGreaterThan(0);
+		assertThat(full.getSize()).isGreaterThan(compact.getSize());
+	}
+
+	@Test
+	public void testAnnounce() {
+		SharedTransport transport = mock(SharedTransport.class);
+		compact(transport).announce();
+
+		ArgumentCaptor<DescriptorMessage> captor = ArgumentCaptor.forClass(DescriptorMessage.class);
+		verify(transport, times(1)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL), captor.capture());
+		assertThat(captor.getValue().id).isEqualTo(TEST_PEER.getId());
+		assertThat(captor.getValue().version).isEqualTo(Advertisement.INITIAL_VERSION);
+		assertThat(captor.getValue().type).isEqualTo(TEST_PEER.getType());
+		assertThat(captor.getValue().count).isEqualTo(1);
+	}
+
+	@Test
+	public void testAnnounceThrottled() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = compact(transport);
+		advertiser.announce();
+		advertiser.announce();
+		verify(transport, times(1)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+
+		Thread.sleep(Advertiser.MIN_DESCRIPTOR_INTERVAL.getMillis() + 50);
+		advertiser.announce();
+		verify(transport, times(2)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+	}
+
+	@Test
+	public void testRequest() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = compact(transport);
+		advertiser.receive(transport, request("other"));
+		verify(transport, times(0)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+
+		advertiser.receive(transport, request(TEST_PEER.getId()));
+		verify(transport, times(1)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+	}
+
+	@Test
+	public void testRequestOnWrongChannel() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Advertiser advertiser = compact(transport);
+
+		thrown.expect(RuntimeException.class);
+		advertiser.receive(transport,
+				new Datagram(LcmConstants.PEER_CHANNEL, wrap(mockRequest("other"))));
+	}
+
+	/**
+	 * @param transport
+	 * @return An {@link Advertiser} of the test peer in the
+	 * {@link WireFormat#COMPACT} format
+	 */
+	private static Advertiser compact(SharedTransport transport) {
+		return new Advertiser(transport, new Advertisement(TEST_PEER), WireFormat.COMPACT);
+	}
+
+	/**
+	 * @param id
+	 * @return A {@link Datagram} carrying a request for the given id
+	 */
+	private static Datagram request(String id) {
+		return new Datagram(LcmConstants.REQUEST_CHANNEL, wrap(mockRequest(id)));
+	}
+
+	/**
+	 * @param id
+	 * @return A {@link DescriptorRequestMessage} for the given id
+	 */
+	private static DescriptorRequestMessage mockRequest(String id) {
+		DescriptorRequestMessage request = new DescriptorRequestMessage();
+		request.id = id;
+		request.version = Advertisement.INITIAL_VERSION;
+		return request;
+	}
+}
@@ -0,0 +1,116 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+
+import com.google.common.base.Suppliers;
+
+/**
+ * Unit tests for {@link BandwidthCap}
+ * 
+ * @author patrick.theisen
+ */
+public class BandwidthCapTest {
+	private static final long TEST_PERIOD = 1000;
+	private static final long TEST_BANDWIDTH = 10000;
+	private static final long TEST_SIZE = 100;
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidPeriod() {
+		thrown.expect(IllegalArgumentException.class);
+		new BandwidthCap(mockExecutor(), mockBroadcast(1), 0, TEST_BANDWIDTH,
+				Suppliers.ofInstance(0));
+	}
+
+	@Test
+	public void testConstructWithInvalidBandwidth() {
+		thrown.expect(IllegalArgumentException.class);
+		new BandwidthCap(mockExecutor(), mockBroadcast(1), TEST_PERIOD, 0,
+				Suppliers.ofInstance(0));
+	}
+
+	@Test
+	public void testSmallGroup() {
+		// A small group fits within the budget at the configured period
+		BandwidthCap cap = new BandwidthCap(mockExecutor(), mockBroadcast(1), TEST_PERIOD,
+				TEST_BANDWIDTH, Suppliers.ofInstance(9));
+		assertThat(cap.getInterval()).isEqualTo(TEST_PERIOD);
+	}
+
+	@Test
+	public void testLargeGroup() {
+		// A round of 1000 peers is 100000 bytes, which takes 10 seconds
+		BandwidthCap cap = new BandwidthCap(mockExecutor(), mockBroadcast(1), TEST_PERIOD,
+				TEST_BANDWIDTH, Suppliers.ofInstance(999));
+		assertThat(cap.getInterval()).isEqualTo(10000);
+	}
+
+	@Test
+	public void testSeveralLocalPeers() {
+		// Remote peers are assumed to be the same size as the local ones
+		BandwidthCap cap = new BandwidthCap(mockExecutor(), mockBroadcast(4), TEST_PERIOD,
+				TEST_BANDWIDTH, Suppliers.ofInstance(996));
+		assertThat(cap.getInterval()).isEqualTo(10000);
+	}
+
+	@Test
+	public void testNoLocalPeers() {
+		BandwidthCap cap = new BandwidthCap(mockExecutor(), mockBroadcast(0), TEST_PERIOD,
+				TEST_BANDWIDTH, Suppliers.ofInstance(999));
+		assertThat(cap.getInterval()).isEqualTo(TEST_PERIOD);
+	}
+
+	@Test
+	public void testRun() {
+		Broadcast broadcast = mockBroadcast(1);
+		BandwidthCap cap = new BandwidthCap(mockExecutor(), broadcast, TEST_PERIOD,
+				TEST_BANDWIDTH, Suppliers.ofInstance(999));
+
+		// Every advertisement carries the stretched interval
+		cap.run();
+		InOrder order = inOrder(broadcast);
+		order.verify(broadcast).setInterval(10000);
+		order.verify(broadcast).run();
+	}
+
+	/**
+	 * @param peers
+	 * @return A mock {@link Broadcast} of the given number of peers, each of
+	 * which publishes {@link #TEST_SIZE} bytes per run
+	 */
+	private static Broadcast mockBroadcast(int peers) {
+		Broadcast broadcast = mock(Broadcast.class);
+		when(broadcast.size()).thenReturn(peers);
+		when(broadcast.getSize()).thenReturn(peers * TEST_SIZE);
+		return broadcast;
+	}
+
+	/**
+	 * @return A mock {@link ScheduledExecutorService} whose tasks return a mock
+	 * future
+	 */
+	private static ScheduledExecutorService mockExecutor() {
+		ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+		ScheduledFuture<?> future = mock(ScheduledFuture.class);
+		doReturn(future).when(executor).schedule(any(Runnable.class), anyLong(),
+				any(TimeUnit.class));
+		return executor;
+	}
+}
@@ -0,0 +1,172 @@
+package com.theisenp.harbor.lcm;
+
+import static com.theisenp.harbor.test.TestUtils.wrap;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatBundleMessage;
+import com.theisenp.harbor.lcmtypes.PeerBundleMessage;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * Unit tests for {@link Broadcast}
+ * 
+ * @author patrick.theisen
+ */
+public class BroadcastTest {
+
+	@Test
+	public void testRunSingle() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Broadcast broadcast = new Broadcast(transport, WireFormat.FULL);
+		broadcast.add(new Advertisement(mockPeer(1)));
+		broadcast.run();
+
+		verify(transport, times(1)).publish(eq(LcmConstants.PEER_CHANNEL), any(byte[].class),
+				eq(0), anyInt());
+		verify(transport, times(0)).publish(eq(LcmConstants.PEER_BUNDLE_CHANNEL),
+				any(PeerBundleMessage.class));
+	}
+
+	@Test
+	public void testRunBundled() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Broadcast broadcast = new Broadcast(transport, WireFormat.FULL);
+		for(int i = 1; i <= 3; i++) {
+			broadcast.add(new Advertisement(mockPeer(i)));
+		}
+		broadcast.run();
+
+		ArgumentCaptor<PeerBundleMessage> captor = ArgumentCaptor.forClass(PeerBundleMessage.class);
+		verify(transport, times(1)).publish(eq(LcmConstants.PEER_BUNDLE_CHANNEL), captor.capture());
+		verify(transport, times(0)).publish(eq(LcmConstants.PEER_CHANNEL), any(byte[].class),
+				eq(0), anyInt());
+		assertThat(captor.getValue().count).isEqualTo(3);
+	}
+
+	@Test
+	public void testRunSplitsBundles() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Broadcast broadcast = new Broadcast(transport, WireFormat.COMPACT);
+		for(int i = 1; i <= 200; i++) {
+			broadcast.add(new Advertisement(mockPeer(i)));
+		}
+		broadcast.run();
+
+		ArgumentCaptor<HeartbeatBundleMessage> captor = ArgumentCaptor
+				.forClass(HeartbeatBundleMessage.class);
+		verify(transport, atLeast(2)).publish(eq(LcmConstants.HEARTBEAT_BUNDLE_CHANNEL),
+				captor.capture());
+
+		// Every heartbeat is sent exactly once, and no bundle is too large. Each
+		// nested heartbeat takes at least 30 bytes.
+		int count = 0;
+		for(HeartbeatBundleMessage bundle : captor.getAllValues()) {
+			assertThat(bundle.count * 30).isLessThanOrEqualTo(Broadcast.MAX_BUNDLE_SIZE);
+			count += bundle.count;
+		}
+		assertThat(count).isEqualTo(200);
+	}
+
+	@Test
+	public void testRemove() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Broadcast broadcast = new Broadcast(transport, WireFormat.FULL);
+		broadcast.add(new Advertisement(mockPeer(1)));
+		broadcast.add(new Advertisement(mockPeer(2)));
+		broadcast.remove("2");
+		broadcast.run();
+
+		assertThat(broadcast.size()).isEqualTo(1);
+		verify(transport, times(1)).publish(eq(LcmConstants.PEER_CHANNEL), any(byte[].class),
+				eq(0), anyInt());
+	}
+
+	@Test
+	public void testPublish() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Broadcast broadcast = new Broadcast(transport, WireFormat.FULL);
+		broadcast.add(new Advertisement(mockPeer(1)));
+		broadcast.add(new Advertisement(mockPeer(2)));
+		broadcast.publish("2");
+		broadcast.publish("3");
+
+		// Only the requested peer is published, on its own
+		verify(transport, times(1)).publish(eq(LcmConstants.PEER_CHANNEL), any(byte[].class),
+				eq(0), anyInt());
+		verify(transport, times(0)).publish(eq(LcmConstants.PEER_BUNDLE_CHANNEL),
+				any(PeerBundleMessage.class));
+	}
+
+	@Test
+	public void testSize() {
+		Broadcast broadcast = new Broadcast(mock(SharedTransport.class), WireFormat.COMPACT);
+		assertThat(broadcast.getSize()).isEqualTo(0);
+
+		broadcast.add(new Advertisement(mockPeer(1)));
+		long single = broadcast.getSize();
+		assertThat(single).isGreaterThan(0);
+
+		// Several peers share the bundle overhead
+		broadcast.add(new Advertisement(mockPeer(2)));
+		assertThat(broadcast.getSize()).isGreaterThan(2 * single);
+	}
+
+	@Test
+	public void testRequest() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Broadcast broadcast = new Broadcast(transport, WireFormat.COMPACT);
+		broadcast.add(new Advertisement(mockPeer(1)));
+		broadcast.add(new Advertisement(mockPeer(2)));
+		verify(transport, times(2)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+
+		Thread.sleep(Advertiser.MIN_DESCRIPTOR_INTERVAL.getMillis() + 50);
+		broadcast.receive(transport, new Datagram(LcmConstants.REQUEST_CHANNEL,
+				wrap(mockRequest("2"))));
+		broadcast.receive(transport, new Datagram(LcmConstants.REQUEST_CHANNEL,
+				wrap(mockRequest("3"))));
+
+		ArgumentCaptor<DescriptorMessage> captor = ArgumentCaptor.forClass(DescriptorMessage.class);
+		verify(transport, times(3)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL), captor.capture());
+		assertThat(captor.getValue().id).isEqualTo("2");
+	}
+
+	/**
+	 * @param id
+	 * @return A {@link DescriptorRequestMessage} for the given id
+	 */
+	private static DescriptorRequestMessage mockRequest(String id) {
+		DescriptorRequestMessage request = new DescriptorRequestMessage();
+		request.id = id;
+		request.version = Advertisement.INITIAL_VERSION;
+		return request;
+	}
+
+	/**
+	 * @param seed
+	 * @return A {@link Peer} generated from the given seed
+	 */
+	private static Peer mockPeer(int seed) {
+		String value = String.valueOf(seed);
+		Builder builder = new Builder();
+		builder.id(value);
+		builder.type(value);
+		builder.status(Status.ACTIVE);
+		return builder.build();
+	}
+}
@@ -0,0 +1,66 @@
+package com.theisenp.harbor.lcm;
+
+import static com.theisenp.harbor.test.TestUtils.wrap;
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * Unit tests for {@link Datagram}
+ * 
+ * @author patrick.theisen
+ */
+public class DatagramTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testFingerprint() {
+		byte[] buffer = { 0, 1, 2, 3, 4, 5 };
+		Datagram datagram = new Datagram(LcmConstants.PEER_CHANNEL, buffer, 1, 4);
+
+		long expected = FingerprintCache.fingerprint(buffer, 1, 4);
+		assertThat(datagram.getFingerprint()).isEqualTo(expected);
+	}
+
+	@Test
+	public void testPayload() {
+		byte[] buffer = { 0, 1, 2, 3, 4, 5 };
+		Datagram datagram = new Datagram(LcmConstants.PEER_CHANNEL, buffer, 1, 4);
+
+		byte[] expected = { 1, 2, 3, 4 };
+		assertThat(datagram.getPayload()).isEqualTo(expected);
+		assertThat(datagram.getPayload()).isSameAs(datagram.getPayload());
+	}
+
+	@Test
+	public void testMessage() throws Exception {
+		HeartbeatMessage heartbeat = new HeartbeatMessage();
+		heartbeat.id = "test";
+		heartbeat.sequence = 3;
+		Datagram datagram = new Datagram(LcmConstants.HEARTBEAT_CHANNEL, wrap(heartbeat));
+
+		// The message is decoded once, and then shared
+		HeartbeatMessage decoded = (HeartbeatMessage) datagram.getMessage();
+		assertThat(decoded.id).isEqualTo("test");
+		assertThat(decoded.sequence).isEqualTo(3);
+		assertThat(datagram.getMessage()).isSameAs(decoded);
+	}
+
+	@Test
+	public void testMessageOnUnexpectedChannel() throws Exception {
+		DescriptorRequestMessage request = new DescriptorRequestMessage();
+		request.id = "test";
+		Datagram datagram = new Datagram("unexpected", wrap(request));
+
+		thrown.expect(RuntimeException.class);
+		datagram.getMessage();
+	}
+}
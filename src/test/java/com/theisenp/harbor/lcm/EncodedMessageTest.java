@@ -0,0 +1,81 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+
+/**
+ * Unit tests for {@link EncodedMessage}
+ * 
+ * @author patrick.theisen
+ */
+public class EncodedMessageTest {
+
+	@Test
+	public void testEncode() throws Exception {
+		EncodedMessage encoded = new EncodedMessage(mockHeartbeat("test-id"));
+		assertThat(encoded.getNestedLength()).isEqualTo(encoded.getLength() - 8);
+
+		HeartbeatMessage decoded = new HeartbeatMessage(encoded.getBuffer());
+		assertThat(decoded.id).isEqualTo("test-id");
+		assertThat(decoded.sequence).isEqualTo(3);
+		assertThat(decoded.interval).isEqualTo(4);
+	}
+
+	@Test
+	public void testSetLong() throws Exception {
+		EncodedMessage encoded = new EncodedMessage(mockHeartbeat("test-id"));
+		encoded.setLong(2, 5);
+		encoded.setLong(3, -6);
+
+		HeartbeatMessage decoded = new HeartbeatMessage(encoded.getBuffer());
+		assertThat(decoded.id).isEqualTo("test-id");
+		assertThat(decoded.incarnation).isEqualTo(1);
+		assertThat(decoded.version).isEqualTo(2);
+		assertThat(decoded.sequence).isEqualTo(5);
+		assertThat(decoded.interval).isEqualTo(-6);
+	}
+
+	@Test
+	public void testSetLongAfterLongId() throws Exception {
+		EncodedMessage encoded = new EncodedMessage(mockHeartbeat("a-much-longer-test-id"));
+		encoded.setLong(3, Long.MAX_VALUE);
+
+		HeartbeatMessage decoded = new HeartbeatMessage(encoded.getBuffer());
+		assertThat(decoded.sequence).isEqualTo(3);
+		assertThat(decoded.interval).isEqualTo(Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testSetLongInPeerMessage() throws Exception {
+		PeerMessage message = new PeerMessage();
+		message.id = "test-id";
+		message.type = "test-type";
+		message.description = "";
+		message.protocols = new String[0];
+		message.addresses = new String[0];
+		EncodedMessage encoded = new EncodedMessage(message);
+		encoded.setLong(2, 400);
+
+		PeerMessage decoded = new PeerMessage(encoded.getBuffer());
+		assertThat(decoded.interval).isEqualTo(400);
+		assertThat(decoded.type).isEqualTo("test-type");
+	}
+
+	/**
+	 * @param id
+	 * @return A {@link HeartbeatMessage} with the given id
+	 */
+	private static HeartbeatMessage mockHeartbeat(String id) {
+		HeartbeatMessage heartbeat = new HeartbeatMessage();
+		heartbeat.id = id;
+		heartbeat.incarnation = 1;
+		heartbeat.version = 2;
+		heartbeat.sequence = 3;
+		heartbeat.interval = 4;
+		return heartbeat;
+	}
+}
@@ -0,0 +1,176 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+
+/**
+ * Unit tests for {@link FingerprintCache}
+ * 
+ * @author patrick.theisen
+ */
+public class FingerprintCacheTest {
+
+	@Test
+	public void testFingerprint() {
+		byte[] first = { 1, 2, 3, 4 };
+		byte[] second = { 0, 1, 2, 3, 4, 5 };
+		byte[] third = { 1, 2, 3, 5 };
+
+		long expected = FingerprintCache.fingerprint(first, 0, first.length);
+		assertThat(FingerprintCache.fingerprint(second, 1, 4)).isEqualTo(expected);
+		assertThat(FingerprintCache.fingerprint(third, 0, third.length)).isNotEqualTo(expected);
+	}
+
+	@Test
+	public void testGetMissing() {
+		FingerprintCache cache = new FingerprintCache();
+		byte[] payload = payload(1);
+
+		assertThat(cache.get(fingerprint(payload), payload, 0, payload.length)).isNull();
+	}
+
+	@Test
+	public void testPutAndGet() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry entry = mockEntry(1);
+		byte[] payload = payload(1);
+
+		cache.put(fingerprint(payload), payload, entry);
+		assertThat(cache.get(fingerprint(payload), payload, 0, payload.length)).isSameAs(entry);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testGetWithOffset() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry entry = mockEntry(1);
+		byte[] payload = payload(1);
+		byte[] buffer = new byte[payload.length + 2];
+		System.arraycopy(payload, 0, buffer, 2, payload.length);
+
+		cache.put(fingerprint(payload), payload, entry);
+		assertThat(cache.get(fingerprint(payload), buffer, 2, payload.length)).isSameAs(entry);
+	}
+
+	@Test
+	public void testGetWithCollidingFingerprint() {
+		FingerprintCache cache = new FingerprintCache();
+		byte[] payload = payload(1);
+		byte[] other = payload(2);
+
+		cache.put(fingerprint(payload), payload, mockEntry(1));
+		assertThat(cache.get(fingerprint(payload), other, 0, other.length)).isNull();
+	}
+
+	@Test
+	public void testPutReplacesPreviousFingerprint() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry entry = mockEntry(1);
+		byte[] first = payload(1);
+		byte[] second = payload(2);
+
+		cache.put(fingerprint(first), first, entry);
+		cache.put(fingerprint(second), second, entry);
+		assertThat(cache.get(fingerprint(first), first, 0, first.length)).isNull();
+		assertThat(cache.get(fingerprint(second), second, 0, second.length)).isSameAs(entry);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testPutIdenticalPayloadFromOtherEntry() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry first = mockEntry(1);
+		PeerEntry second = mockEntry(2);
+		byte[] payload = payload(1);
+
+		cache.put(fingerprint(payload), payload, first);
+		cache.put(fingerprint(payload), payload, second);
+		assertThat(cache.get(fingerprint(payload), payload, 0, payload.length)).isSameAs(second);
+		assertThat(first.hasFingerprint()).isFalse();
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRemove() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry entry = mockEntry(1);
+		byte[] payload = payload(1);
+
+		cache.put(fingerprint(payload), payload, entry);
+		cache.remove(entry);
+		assertThat(cache.get(fingerprint(payload), payload, 0, payload.length)).isNull();
+		assertThat(entry.hasFingerprint()).isFalse();
+		assertThat(cache.size()).isEqualTo(0);
+	}
+
+	@Test
+	public void testManyEntries() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry[] entries = new PeerEntry[1000];
+		for(int i = 0; i < entries.length; i++) {
+			byte[] payload = payload(i);
+			entries[i] = mockEntry(i);
+			cache.put(fingerprint(payload), payload, entries[i]);
+		}
+
+		// Remove every other entry to exercise the probe sequence repair
+		for(int i = 0; i < entries.length; i += 2) {
+			cache.remove(entries[i]);
+		}
+
+		assertThat(cache.size()).isEqualTo(entries.length / 2);
+		for(int i = 0; i < entries.length; i++) {
+			byte[] payload = payload(i);
+			PeerEntry expected = (i % 2 == 0) ? null : entries[i];
+			assertThat(cache.get(fingerprint(payload), payload, 0, payload.length)).isSameAs(
+					expected);
+		}
+	}
+
+	@Test
+	public void testClear() {
+		FingerprintCache cache = new FingerprintCache();
+		PeerEntry entry = mockEntry(1);
+		byte[] payload = payload(1);
+
+		cache.put(fingerprint(payload), payload, entry);
+		cache.clear();
+		assertThat(cache.get(fingerprint(payload), payload, 0, payload.length)).isNull();
+		assertThat(cache.size()).isEqualTo(0);
+	}
+
+	/**
+	 * @param payload
+	 * @return The fingerprint of the given payload
+	 */
+	private static long fingerprint(byte[] payload) {
+		return FingerprintCache.fingerprint(payload, 0, payload.length);
+	}
+
+	/**
+	 * @param seed
+	 * @return A payload generated from the given seed
+	 */
+	private static byte[] payload(int seed) {
+		return ("payload-" + seed).getBytes();
+	}
+
+	/**
+	 * @param seed
+	 * @return A {@link PeerEntry} generated from the given seed
+	 */
+	private static PeerEntry mockEntry(int seed) {
+		String value = String.valueOf(seed);
+		Builder builder = new Builder();
+		builder.id(value);
+		builder.type(value);
+		builder.status(Status.ACTIVE);
+		Peer peer = builder.build();
+		return new PeerEntry(peer);
+	}
+}
@@ -0,0 +1,80 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link InternPool}
+ * 
+ * @author patrick.theisen
+ */
+public class InternPoolTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidCapacity() {
+		thrown.expect(IllegalArgumentException.class);
+		new InternPool(0);
+	}
+
+	@Test
+	public void testIntern() {
+		InternPool pool = new InternPool();
+		byte[] first = bytes("xx-test-id");
+		byte[] second = bytes("test-id");
+
+		// Equal bytes at different offsets resolve to the same instance
+		String value = pool.intern(first, 3, 7);
+		assertThat(value).isEqualTo("test-id");
+		assertThat(pool.intern(second, 0, second.length)).isSameAs(value);
+		assertThat(pool.size()).isEqualTo(1);
+
+		assertThat(pool.intern(first, 0, 2)).isEqualTo("xx");
+		assertThat(pool.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void testInternMultibyte() {
+		InternPool pool = new InternPool();
+		byte[] buffer = bytes("h\u00e4fen");
+		assertThat(pool.intern(buffer, 0, buffer.length)).isEqualTo("h\u00e4fen");
+	}
+
+	@Test
+	public void testInternFull() {
+		InternPool pool = new InternPool(2);
+		pool.intern(bytes("a"), 0, 1);
+		pool.intern(bytes("b"), 0, 1);
+		assertThat(pool.size()).isEqualTo(2);
+
+		// A full pool starts over
+		assertThat(pool.intern(bytes("c"), 0, 1)).isEqualTo("c");
+		assertThat(pool.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRemove() {
+		InternPool pool = new InternPool();
+		String value = pool.intern(bytes("test-id"), 0, 7);
+		pool.remove("other-id");
+		assertThat(pool.size()).isEqualTo(1);
+
+		pool.remove(value);
+		assertThat(pool.size()).isEqualTo(0);
+	}
+
+	/**
+	 * @param value
+	 * @return The UTF-8 encoding of the given string
+	 */
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,95 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+
+import lcm.lcm.LCM;
+import lcm.lcm.LCMDataInputStream;
+import lcm.lcm.LCMSubscriber;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.theisenp.harbor.lcm.Network.Handler;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.utils.HarborUtils;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * Unit tests for {@link LcmNetwork}
+ *
+ * @author patrick.theisen
+ */
+public class LcmNetworkTest {
+
+	@Test
+	public void testSubscribe() {
+		LCM lcm = mock(LCM.class);
+		Handler handler = mock(Handler.class);
+		LcmNetwork network = new LcmNetwork(lcm);
+
+		network.subscribe(LcmConstants.PEER_CHANNEL, handler);
+		ArgumentCaptor<LCMSubscriber> captor = ArgumentCaptor.forClass(LCMSubscriber.class);
+		verify(lcm, times(1)).subscribe(eq(LcmConstants.PEER_CHANNEL), captor.capture());
+
+		// The raw bytes of each message are passed straight to the handler
+		byte[] buffer = { 1, 2, 3 };
+		captor.getValue().messageReceived(lcm, LcmConstants.PEER_CHANNEL,
+				new LCMDataInputStream(buffer));
+		verify(handler, times(1)).handle(LcmConstants.PEER_CHANNEL, buffer, 0, 3);
+
+		// The same subscriber is used for every channel of the handler
+		network.subscribe(LcmConstants.HEARTBEAT_CHANNEL, handler);
+		verify(lcm, times(1)).subscribe(LcmConstants.HEARTBEAT_CHANNEL, captor.getValue());
+		network.unsubscribe(LcmConstants.PEER_CHANNEL, handler);
+		verify(lcm, times(1)).unsubscribe(LcmConstants.PEER_CHANNEL, captor.getValue());
+	}
+
+	@Test
+	public void testUnsubscribeUnknown() {
+		LCM lcm = mock(LCM.class);
+		LcmNetwork network = new LcmNetwork(lcm);
+
+		network.unsubscribe(LcmConstants.PEER_CHANNEL, mock(Handler.class));
+		verify(lcm, times(0)).unsubscribe(any(String.class), any(LCMSubscriber.class));
+	}
+
+	@Test
+	public void testPublish() throws IOException {
+		LCM lcm = mock(LCM.class);
+		LcmNetwork network = new LcmNetwork(lcm);
+		byte[] buffer = { 1, 2, 3 };
+
+		network.publish(LcmConstants.PEER_CHANNEL, buffer, 1, 2);
+		verify(lcm, times(1)).publish(LcmConstants.PEER_CHANNEL, buffer, 1, 2);
+	}
+
+	@Test
+	public void testPublishMessage() {
+		LCM lcm = mock(LCM.class);
+		LcmNetwork network = new LcmNetwork(lcm);
+		DescriptorRequestMessage message = new DescriptorRequestMessage();
+
+		network.publish(LcmConstants.REQUEST_CHANNEL, message);
+		verify(lcm, times(1)).publish(LcmConstants.REQUEST_CHANNEL, message);
+	}
+
+	@Test
+	public void testFactoryUrl() {
+		String url = LcmNetwork.FACTORY.getUrl("239.255.76.67", 7667, 1);
+		assertThat(url).isEqualTo(HarborUtils.toLcmAddress("239.255.76.67", 7667, 1));
+	}
+
+	@Test
+	public void testClose() {
+		LCM lcm = mock(LCM.class);
+		new LcmNetwork(lcm).close();
+		verify(lcm, times(1)).close();
+	}
+}
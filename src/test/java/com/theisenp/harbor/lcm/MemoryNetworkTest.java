@@ -0,0 +1,200 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.lcm.Network.Handler;
+
+/**
+ * Unit tests for {@link MemoryNetwork}
+ * 
+ * @author patrick.theisen
+ */
+public class MemoryNetworkTest {
+	private static final String CHANNEL = "test";
+	private static final String OTHER_CHANNEL = "other";
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidCapacity() {
+		thrown.expect(IllegalArgumentException.class);
+		new MemoryNetwork(0, Executors.defaultThreadFactory());
+	}
+
+	@Test
+	public void testDeliver() throws IOException, InterruptedException {
+		MemoryNetwork group = new MemoryNetwork();
+		Network publisher = group.connect();
+		Network receiver = group.connect();
+		Recorder recorder = new Recorder(1);
+		receiver.subscribe(CHANNEL, recorder);
+
+		// Only the published range is copied, so later changes are not seen
+		byte[] buffer = { 1, 2, 3, 4 };
+		publisher.publish(CHANNEL, buffer, 1, 2);
+		buffer[1] = 0;
+
+		recorder.await();
+		assertThat(recorder.messages.get(0)).isEqualTo(new byte[] { 2, 3 });
+		assertThat(group.getPublished()).isEqualTo(1);
+		publisher.close();
+		receiver.close();
+	}
+
+	@Test
+	public void testNotDeliveredToPublisher() throws IOException, InterruptedException {
+		MemoryNetwork group = new MemoryNetwork();
+		Network first = group.connect();
+		Network second = group.connect();
+		Recorder recorder = new Recorder(1);
+		first.subscribe(CHANNEL, recorder);
+
+		// The marker from the other endpoint arrives after the first message
+		first.publish(CHANNEL, new byte[] { 1 }, 0, 1);
+		second.publish(CHANNEL, new byte[] { 2 }, 0, 1);
+
+		recorder.await();
+		assertThat(recorder.messages).hasSize(1);
+		assertThat(recorder.messages.get(0)).isEqualTo(new byte[] { 2 });
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void testChannels() throws IOException, InterruptedException {
+		MemoryNetwork group = new MemoryNetwork();
+		Network publisher = group.connect();
+		Network receiver = group.connect();
+		Recorder recorder = new Recorder(1);
+		Recorder unsubscribed = new Recorder(1);
+		receiver.subscribe(CHANNEL, recorder);
+		receiver.subscribe(OTHER_CHANNEL, unsubscribed);
+		receiver.unsubscribe(OTHER_CHANNEL, unsubscribed);
+
+		publisher.publish(OTHER_CHANNEL, new byte[] { 1 }, 0, 1);
+		publisher.publish(CHANNEL, new byte[] { 2 }, 0, 1);
+
+		recorder.await();
+		assertThat(unsubscribed.messages).isEmpty();
+		assertThat(group.getDelivered()).isEqualTo(1);
+		publisher.close();
+		receiver.close();
+	}
+
+	@Test
+	public void testDropWhenFull() throws IOException, InterruptedException {
+		MemoryNetwork group = new MemoryNetwork(1, Executors.defaultThreadFactory());
+		Network publisher = group.connect();
+		Network receiver = group.connect();
+		final CountDownLatch received = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		receiver.subscribe(CHANNEL, new Handler() {
+			@Override
+			public void handle(String channel, byte[] buffer, int offset, int length) {
+				received.countDown();
+				try {
+					release.await();
+				}
+				catch(InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		// The first message blocks the receiver, the second fills its queue,
+		// and the third is dropped
+		publisher.publish(CHANNEL, new byte[] { 1 }, 0, 1);
+		if(!received.await(1, TimeUnit.SECONDS)) {
+			fail("The message was never delivered");
+		}
+		publisher.publish(CHANNEL, new byte[] { 2 }, 0, 1);
+		publisher.publish(CHANNEL, new byte[] { 3 }, 0, 1);
+		assertThat(group.getBacklog()).isEqualTo(1);
+		assertThat(group.getDropped()).isEqualTo(1);
+
+		release.countDown();
+		publisher.close();
+		receiver.close();
+	}
+
+	@Test
+	public void testFactory() throws Exception {
+		MemoryNetwork group = new MemoryNetwork();
+		MemoryNetwork other = new MemoryNetwork();
+
+		// Every url of a group is the same, and differs from those of other
+		// groups, whatever the address
+		String url = group.getUrl("239.255.76.67", 7667, 0);
+		assertThat(group.getUrl("239.255.76.68", 7668, 1)).isEqualTo(url);
+		assertThat(other.getUrl("239.255.76.67", 7667, 0)).isNotEqualTo(url);
+
+		// Each network opened by the factory is a new endpoint of the group
+		Network publisher = group.open(url);
+		Network receiver = group.open(url);
+		Recorder recorder = new Recorder(1);
+		receiver.subscribe(CHANNEL, recorder);
+		publisher.publish(CHANNEL, new byte[] { 1 }, 0, 1);
+
+		recorder.await();
+		assertThat(recorder.messages.get(0)).isEqualTo(new byte[] { 1 });
+		publisher.close();
+		receiver.close();
+	}
+
+	@Test
+	public void testPublishAfterClose() throws IOException {
+		Network network = new MemoryNetwork().connect();
+		network.close();
+
+		thrown.expect(IOException.class);
+		network.publish(CHANNEL, new byte[] { 1 }, 0, 1);
+	}
+
+	/**
+	 * A {@link Handler} that records a copy of each message
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Recorder implements Handler {
+		private final List<byte[]> messages = new CopyOnWriteArrayList<>();
+		private final CountDownLatch latch;
+
+		/**
+		 * @param count The number of messages to wait for
+		 */
+		public Recorder(int count) {
+			this.latch = new CountDownLatch(count);
+		}
+
+		@Override
+		public void handle(String channel, byte[] buffer, int offset, int length) {
+			messages.add(Arrays.copyOfRange(buffer, offset, offset + length));
+			latch.countDown();
+		}
+
+		/**
+		 * Waits for the expected number of messages
+		 * 
+		 * @throws InterruptedException
+		 */
+		public void await() throws InterruptedException {
+			if(!latch.await(1, TimeUnit.SECONDS)) {
+				fail("The messages were never delivered");
+			}
+		}
+	}
+}
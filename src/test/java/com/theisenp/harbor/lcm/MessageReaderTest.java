@@ -0,0 +1,168 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lcm.lcm.LCMEncodable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+
+/**
+ * Unit tests for {@link MessageReader}
+ * 
+ * @author patrick.theisen
+ */
+public class MessageReaderTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testReadHeartbeat() throws Exception {
+		byte[] buffer = encode(mockHeartbeat());
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 0, buffer.length);
+		assertThat(reader.isOpen()).isTrue();
+
+		reader.readFingerprint(HeartbeatMessage.LCM_FINGERPRINT);
+		assertThat(reader.readString()).isEqualTo("test-id");
+		assertThat(reader.readLong()).isEqualTo(1);
+		assertThat(reader.readLong()).isEqualTo(2);
+		assertThat(reader.readLong()).isEqualTo(-3);
+		assertThat(reader.readLong()).isEqualTo(Long.MAX_VALUE);
+		assertThat(reader.remaining()).isEqualTo(0);
+
+		reader.close();
+		assertThat(reader.isOpen()).isFalse();
+	}
+
+	@Test
+	public void testReadPeerMessage() throws Exception {
+		byte[] buffer = encode(mockMessage());
+		InternPool pool = new InternPool();
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 0, buffer.length);
+
+		reader.readFingerprint(PeerMessage.LCM_FINGERPRINT);
+		reader.skipString();
+		reader.readLong();
+		reader.readLong();
+		reader.readLong();
+		assertThat(reader.readString(pool)).isEqualTo("test-type");
+		reader.skipString();
+		assertThat(reader.readCount()).isEqualTo(2);
+		assertThat(reader.readString(pool)).isEqualTo("test-protocol-1");
+		assertThat(reader.readString(pool)).isEqualTo("test-protocol-2");
+		assertThat(reader.readString()).isEqualTo("test-address-1");
+		assertThat(reader.readString()).isEqualTo("test-address-2");
+		assertThat(reader.remaining()).isEqualTo(0);
+		assertThat(pool.size()).isEqualTo(3);
+	}
+
+	@Test
+	public void testSkipString() throws Exception {
+		byte[] buffer = encode(mockHeartbeat());
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 0, buffer.length);
+		reader.readFingerprint(HeartbeatMessage.LCM_FINGERPRINT);
+
+		// The fingerprint, the length prefix, "test-id" and its null
+		reader.skipString();
+		assertThat(reader.remaining()).isEqualTo(buffer.length - (8 + 4 + 7 + 1));
+		assertThat(reader.readLong()).isEqualTo(1);
+	}
+
+	@Test
+	public void testReadWithOffset() throws Exception {
+		byte[] encoded = encode(mockHeartbeat());
+		byte[] buffer = new byte[encoded.length + 2];
+		System.arraycopy(encoded, 0, buffer, 1, encoded.length);
+
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 1, encoded.length);
+		reader.readFingerprint(HeartbeatMessage.LCM_FINGERPRINT);
+		assertThat(reader.readString()).isEqualTo("test-id");
+	}
+
+	@Test
+	public void testReadBadFingerprint() throws Exception {
+		byte[] buffer = encode(mockHeartbeat());
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 0, buffer.length);
+
+		thrown.expect(IOException.class);
+		reader.readFingerprint(PeerMessage.LCM_FINGERPRINT);
+	}
+
+	@Test
+	public void testReadTruncated() throws Exception {
+		byte[] buffer = encode(mockHeartbeat());
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 0, buffer.length - 1);
+		reader.readFingerprint(HeartbeatMessage.LCM_FINGERPRINT);
+		reader.skipString();
+		reader.readLong();
+		reader.readLong();
+		reader.readLong();
+
+		thrown.expect(IOException.class);
+		reader.readLong();
+	}
+
+	@Test
+	public void testReadTruncatedString() throws Exception {
+		byte[] buffer = encode(mockHeartbeat());
+		MessageReader reader = new MessageReader();
+		reader.open(buffer, 0, 14);
+		reader.readFingerprint(HeartbeatMessage.LCM_FINGERPRINT);
+
+		thrown.expect(IOException.class);
+		reader.readString();
+	}
+
+	/**
+	 * @param message
+	 * @return The encoding of the given message
+	 * @throws IOException
+	 */
+	private static byte[] encode(LCMEncodable message) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		message.encode(new DataOutputStream(output));
+		return output.toByteArray();
+	}
+
+	/**
+	 * @return A {@link HeartbeatMessage} with distinct fields
+	 */
+	private static HeartbeatMessage mockHeartbeat() {
+		HeartbeatMessage heartbeat = new HeartbeatMessage();
+		heartbeat.id = "test-id";
+		heartbeat.incarnation = 1;
+		heartbeat.version = 2;
+		heartbeat.sequence = -3;
+		heartbeat.interval = Long.MAX_VALUE;
+		return heartbeat;
+	}
+
+	/**
+	 * @return A {@link PeerMessage} with two protocols
+	 */
+	private static PeerMessage mockMessage() {
+		PeerMessage message = new PeerMessage();
+		message.id = "test-id";
+		message.type = "test-type";
+		message.description = "test-description";
+		message.count = 2;
+		message.protocols = new String[] { "test-protocol-1", "test-protocol-2" };
+		message.addresses = new String[] { "test-address-1", "test-address-2" };
+		return message;
+	}
+}
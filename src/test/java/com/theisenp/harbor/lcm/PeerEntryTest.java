@@ -0,0 +1,88 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.timing.Timeout;
+
+/**
+ * Unit tests for {@link PeerEntry}
+ * 
+ * @author patrick.theisen
+ */
+public class PeerEntryTest {
+	private static final Peer TEST_PEER;
+	static {
+		Builder builder = new Builder();
+		builder.id("test-id");
+		builder.type("test-type");
+		builder.status(Status.ACTIVE);
+		TEST_PEER = builder.build();
+	}
+
+	@Test
+	public void testConstruct() {
+		PeerEntry entry = new PeerEntry(TEST_PEER);
+		assertThat(entry.getId()).isEqualTo(TEST_PEER.getId());
+		assertThat(entry.getPeer()).isEqualTo(TEST_PEER);
+		assertThat(entry.getStatus()).isEqualTo(Status.ACTIVE);
+	}
+
+	@Test
+	public void testTransition() {
+		PeerEntry entry = new PeerEntry(TEST_PEER);
+		Peer inactive = new Builder(TEST_PEER).status(Status.INACTIVE).build();
+
+		assertThat(entry.transition(TEST_PEER, inactive)).isTrue();
+		assertThat(entry.getPeer()).isSameAs(inactive);
+		assertThat(entry.getStatus()).isEqualTo(Status.INACTIVE);
+	}
+
+	@Test
+	public void testTransitionFromStalePeer() {
+		PeerEntry entry = new PeerEntry(TEST_PEER);
+		Peer inactive = new Builder(TEST_PEER).status(Status.INACTIVE).build();
+		Peer disconnected = new Builder(TEST_PEER).status(Status.DISCONNECTED).build();
+
+		entry.transition(TEST_PEER, inactive);
+		assertThat(entry.transition(TEST_PEER, disconnected)).isFalse();
+		assertThat(entry.getPeer()).isSameAs(inactive);
+	}
+
+	@Test
+	public void testTouch() {
+		PeerEntry entry = new PeerEntry(TEST_PEER);
+		entry.touch(100, 50);
+
+		assertThat(entry.getLastSeen()).isEqualTo(100);
+		assertThat(entry.getDeadline()).isEqualTo(150);
+	}
+
+	@Test
+	public void testTimeout() {
+		PeerEntry entry = new PeerEntry(TEST_PEER);
+		Timeout timeout = mock(Timeout.class);
+		entry.setTimeout(timeout);
+
+		assertThat(entry.getTimeout()).isSameAs(timeout);
+	}
+
+	@Test
+	public void testVersion() {
+		PeerEntry entry = new PeerEntry(TEST_PEER, 10, 2);
+		assertThat(entry.getIncarnation()).isEqualTo(10);
+		assertThat(entry.getVersion()).isEqualTo(2);
+		assertThat(entry.isOlderThan(10, 2)).isFalse();
+		assertThat(entry.isOlderThan(10, 1)).isFalse();
+		assertThat(entry.isOlderThan(10, 3)).isTrue();
+		assertThat(entry.isOlderThan(11, 1)).isTrue();
+
+		entry.setVersion(11, 1);
+		assertThat(entry.isOlderThan(10, 3)).isFalse();
+	}
+}
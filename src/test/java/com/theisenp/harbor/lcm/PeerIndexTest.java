@@ -0,0 +1,166 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.Peer;
+import com.theisenp.harbor.Peer.Builder;
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.DisjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+
+/**
+ * Unit tests for {@link PeerIndex}
+ * 
+ * @author patrick.theisen
+ */
+public class PeerIndexTest {
+
+	@Test
+	public void testSelectType() {
+		PeerIndex index = new PeerIndex();
+		PeerEntry first = add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+		add(index, mockPeer(2, "b", "ZMQ", Status.ACTIVE));
+
+		assertThat(index.select(new TypeFilter("a"))).containsOnly(first);
+		assertThat(index.select(new TypeFilter("c"))).isEmpty();
+	}
+
+	@Test
+	public void testSelectProtocol() {
+		PeerIndex index = new PeerIndex();
+		PeerEntry first = add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+		add(index, mockPeer(2, "a", "IPC", Status.ACTIVE));
+
+		assertThat(index.select(new ProtocolFilter("ZMQ"))).containsOnly(first);
+		assertThat(index.select(new ProtocolFilter("TCP"))).isEmpty();
+	}
+
+	@Test
+	public void testSelectStatus() {
+		PeerIndex index = new PeerIndex();
+		PeerEntry first = add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+		add(index, mockPeer(2, "a", "ZMQ", Status.INACTIVE));
+
+		assertThat(index.select(new StatusFilter(Status.ACTIVE))).containsOnly(first);
+	}
+
+	@Test
+	public void testSelectConjunction() {
+		PeerIndex index = new PeerIndex();
+		PeerEntry first = add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+		add(index, mockPeer(2, "a", "IPC", Status.ACTIVE));
+		add(index, mockPeer(3, "b", "ZMQ", Status.ACTIVE));
+		add(index, mockPeer(4, "a", "ZMQ", Status.INACTIVE));
+
+		Filter filter = new ConjunctiveFilter(new StatusFilter(Status.ACTIVE), new TypeFilter("a"),
+				new ProtocolFilter("ZMQ"));
+		assertThat(index.select(filter)).containsOnly(first);
+	}
+
+	@Test
+	public void testSelectDisjunction() {
+		PeerIndex index = new PeerIndex();
+		PeerEntry first = add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+		PeerEntry second = add(index, mockPeer(2, "b", "IPC", Status.ACTIVE));
+		add(index, mockPeer(3, "c", "ZMQ", Status.ACTIVE));
+
+		Filter filter = new DisjunctiveFilter(new TypeFilter("a"), new TypeFilter("b"));
+		assertThat(index.select(filter)).containsOnly(first, second);
+	}
+
+	@Test
+	public void testSelectCustom() {
+		PeerIndex index = new PeerIndex();
+		add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+
+		// Custom filters can only be answered by a scan
+		assertThat(index.select(Filter.PASS)).isNull();
+		assertThat(index.select(new DisjunctiveFilter(new TypeFilter("a"), Filter.PASS)))
+				.isNull();
+		assertThat(index.select(Filter.FAIL)).isEmpty();
+	}
+
+	@Test
+	public void testSelectConjunctionWithCustom() {
+		PeerIndex index = new PeerIndex();
+		PeerEntry first = add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+		add(index, mockPeer(2, "b", "ZMQ", Status.ACTIVE));
+
+		// The indexed children still narrow down the candidates
+		Filter filter = new ConjunctiveFilter(new TypeFilter("a"), Filter.PASS);
+		assertThat(index.select(filter)).containsOnly(first);
+		assertThat(index.select(new ConjunctiveFilter(Filter.PASS))).isNull();
+	}
+
+	@Test
+	public void testUpdate() {
+		PeerIndex index = new PeerIndex();
+		Peer previous = mockPeer(1, "a", "ZMQ", Status.ACTIVE);
+		PeerEntry entry = add(index, previous);
+
+		Peer peer = mockPeer(1, "b", "IPC", Status.INACTIVE);
+		index.update(entry, previous, peer);
+		assertThat(index.select(new TypeFilter("a"))).isEmpty();
+		assertThat(index.select(new ProtocolFilter("ZMQ"))).isEmpty();
+		assertThat(index.select(new StatusFilter(Status.ACTIVE))).isEmpty();
+		assertThat(index.select(new TypeFilter("b"))).containsOnly(entry);
+		assertThat(index.select(new ProtocolFilter("IPC"))).containsOnly(entry);
+		assertThat(index.select(new StatusFilter(Status.INACTIVE))).containsOnly(entry);
+	}
+
+	@Test
+	public void testRemove() {
+		PeerIndex index = new PeerIndex();
+		Peer peer = mockPeer(1, "a", "ZMQ", Status.ACTIVE);
+		PeerEntry entry = add(index, peer);
+
+		index.remove(entry, peer);
+		assertThat(index.select(new TypeFilter("a"))).isEmpty();
+		assertThat(index.select(new ProtocolFilter("ZMQ"))).isEmpty();
+		assertThat(index.select(new StatusFilter(Status.ACTIVE))).isEmpty();
+	}
+
+	@Test
+	public void testClear() {
+		PeerIndex index = new PeerIndex();
+		add(index, mockPeer(1, "a", "ZMQ", Status.ACTIVE));
+
+		index.clear();
+		assertThat(index.select(new TypeFilter("a"))).isEmpty();
+		assertThat(index.select(new StatusFilter(Status.ACTIVE))).isEmpty();
+	}
+
+	/**
+	 * @param index
+	 * @param peer
+	 * @return A new {@link PeerEntry} for the given peer, filed in the given
+	 * index
+	 */
+	private static PeerEntry add(PeerIndex index, Peer peer) {
+		PeerEntry entry = new PeerEntry(peer);
+		index.add(entry, peer);
+		return entry;
+	}
+
+	/**
+	 * @param seed
+	 * @param type
+	 * @param protocol
+	 * @param status
+	 * @return A {@link Peer} with the given type, protocol and status
+	 */
+	private static Peer mockPeer(int seed, String type, String protocol, Status status) {
+		Builder builder = new Builder();
+		builder.id(String.valueOf(seed));
+		builder.type(type);
+		builder.status(status);
+		builder.protocol(protocol, "address-" + seed);
+		return builder.build();
+	}
+}
@@ -2,9 +2,16 @@ package com.theisenp.harbor.lcm;
 
 import static com.theisenp.harbor.test.PeerMessageAssert.assertThat;
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+
 import lcm.lcm.LCM;
 
 import org.junit.Test;
@@ -33,14 +40,38 @@ public class PublishTest {
 	}
 
 	@Test
-	public void testRun() {
+	public void testRun() throws Exception {
 		LCM lcm = mock(LCM.class);
 		new Publish(lcm, TEST_PEER).run();
 
 		ArgumentCaptor<String> channelCaptor = ArgumentCaptor.forClass(String.class);
-		ArgumentCaptor<PeerMessage> messageCaptor = ArgumentCaptor.forClass(PeerMessage.class);
-		verify(lcm, times(1)).publish(channelCaptor.capture(), messageCaptor.capture());
+		ArgumentCaptor<byte[]> bufferCaptor = ArgumentCaptor.forClass(byte[].class);
+		verify(lcm, times(1)).publish(channelCaptor.capture(), bufferCaptor.capture(), eq(0),
+				anyInt());
 		assertThat(channelCaptor.getValue()).isEqualTo(LcmConstants.PEER_CHANNEL);
-		assertThat(messageCaptor.getValue()).isEqualTo(PeerUtils.toMessage(TEST_PEER));
+		assertThat(new PeerMessage(bufferCaptor.getValue())).isEqualTo(
+				PeerUtils.toMessage(TEST_PEER));
+	}
+
+	@Test
+	public void testRunOnNetwork() throws Exception {
+		Network network = mock(Network.class);
+		new Publish(network, TEST_PEER).run();
+
+		ArgumentCaptor<byte[]> bufferCaptor = ArgumentCaptor.forClass(byte[].class);
+		verify(network, times(1)).publish(eq(LcmConstants.PEER_CHANNEL),
+				bufferCaptor.capture(), eq(0), anyInt());
+		assertThat(new PeerMessage(bufferCaptor.getValue())).isEqualTo(
+				PeerUtils.toMessage(TEST_PEER));
+	}
+
+	@Test
+	public void testRunOnNetworkFailure() throws Exception {
+		Network network = mock(Network.class);
+		doThrow(new IOException()).when(network).publish(any(String.class),
+				any(byte[].class), anyInt(), anyInt());
+
+		// A failed send is dropped
+		new Publish(network, TEST_PEER).run();
 	}
 }
@@ -1,22 +1,36 @@
 package com.theisenp.harbor.lcm;
 
+import static com.theisenp.harbor.test.TestUtils.wrap;
 import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.util.concurrent.TimeUnit;
 
-import lcm.lcm.LCM;
-
 import org.joda.time.Duration;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableScheduledFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.theisenp.harbor.Peer;
 import com.theisenp.harbor.Peer.Builder;
 import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.timing.JitteredSchedule;
+import com.theisenp.harbor.utils.LcmConstants;
 
 /**
  * Unit tests for {@link Publisher}
@@ -34,23 +48,243 @@ public class PublisherTest {
 		TEST_PEER = builder.build();
 	}
 
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
 	@Test
 	public void testApply() throws Exception {
-		ListeningScheduledExecutorService executor = mock(ListeningScheduledExecutorService.class);
-		LCM lcm = mock(LCM.class);
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
 
-		new Publisher(executor, TEST_PERIOD, TEST_PEER).apply(lcm);
+		new Publisher(executor, TEST_PERIOD, TEST_PEER).apply(transport);
 
+		// The first run falls at a random phase within the first period
 		ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
 		ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
-		ArgumentCaptor<Long> periodCaptor = ArgumentCaptor.forClass(Long.class);
-		ArgumentCaptor<TimeUnit> timeUnitCaptor = ArgumentCaptor.forClass(TimeUnit.class);
-		verify(executor, times(1)).scheduleAtFixedRate(runnableCaptor.capture(),
-				delayCaptor.capture(), periodCaptor.capture(), timeUnitCaptor.capture());
-
-		assertThat(runnableCaptor.getValue()).isInstanceOf(Publish.class);
-		assertThat(delayCaptor.getValue()).isEqualTo(0);
-		assertThat(periodCaptor.getValue()).isEqualTo(TEST_PERIOD.getMillis());
-		assertThat(timeUnitCaptor.getValue()).isEqualTo(TimeUnit.MILLISECONDS);
+		verify(executor, times(1)).schedule(runnableCaptor.capture(), delayCaptor.capture(),
+				eq(TimeUnit.NANOSECONDS));
+		verify(executor, times(0)).scheduleAtFixedRate(any(Runnable.class), anyLong(),
+				anyLong(), any(TimeUnit.class));
+
+		assertThat(runnableCaptor.getValue()).isInstanceOf(JitteredSchedule.class);
+		Runnable task = ((JitteredSchedule) runnableCaptor.getValue()).getTask();
+		assertThat(task).isInstanceOf(Broadcast.class);
+		assertThat(((Broadcast) task).size()).isEqualTo(1);
+		assertThat(delayCaptor.getValue()).isGreaterThanOrEqualTo(0);
+		assertThat(delayCaptor.getValue()).isLessThan(
+				TimeUnit.MILLISECONDS.toNanos(TEST_PERIOD.getMillis()));
+	}
+
+	@Test
+	public void testApplyCompact() throws Exception {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
+
+		ListenableFuture<Object> future = new Publisher(executor, TEST_PERIOD, TEST_PEER,
+				WireFormat.COMPACT).apply(transport);
+
+		Broadcast broadcast = getBroadcast(executor);
+		verify(transport, times(1)).subscribe(LcmConstants.REQUEST_CHANNEL, broadcast);
+		verify(transport, times(1)).publish(eq(LcmConstants.DESCRIPTOR_CHANNEL),
+				any(DescriptorMessage.class));
+
+		// Cancelling the heartbeat stops answering requests
+		future.cancel(false);
+		verify(transport, times(1)).unsubscribe(LcmConstants.REQUEST_CHANNEL, broadcast);
+	}
+
+	@Test
+	public void testApplyAdaptive() throws Exception {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
+		Duration maxPeriod = TEST_PERIOD.multipliedBy(8);
+
+		Publisher publisher = new Publisher(executor, TEST_PERIOD, maxPeriod, TEST_PEER,
+				WireFormat.COMPACT);
+		assertThat(publisher.isAdaptive()).isTrue();
+		publisher.apply(transport);
+
+		// The first publication is immediate, and the rest are scheduled by it
+		ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(1)).submit(runnableCaptor.capture());
+		verify(executor, times(0)).scheduleAtFixedRate(any(Runnable.class), anyLong(),
+				anyLong(), any(TimeUnit.class));
+		assertThat(runnableCaptor.getValue()).isInstanceOf(Trickle.class);
+
+		// The broadcast and the schedule both listen for requests
+		verify(transport, times(2)).subscribe(eq(LcmConstants.REQUEST_CHANNEL),
+				any(Receiver.class));
+	}
+
+	@Test
+	public void testRequestResetsAdaptive() throws Exception {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
+		Duration maxPeriod = TEST_PERIOD.multipliedBy(8);
+		new Publisher(executor, TEST_PERIOD, maxPeriod, TEST_PEER, WireFormat.COMPACT)
+				.apply(transport);
+
+		// Let the interval grow
+		ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(1)).submit(runnableCaptor.capture());
+		Trickle trickle = (Trickle) runnableCaptor.getValue();
+		trickle.run();
+		trickle.run();
+		assertThat(trickle.getInterval()).isEqualTo(4 * TEST_PERIOD.getMillis());
+
+		// A request for an unknown peer is ignored
+		ArgumentCaptor<Receiver> receiverCaptor = ArgumentCaptor.forClass(Receiver.class);
+		verify(transport, times(2)).subscribe(eq(LcmConstants.REQUEST_CHANNEL),
+				receiverCaptor.capture());
+		for(Receiver receiver : receiverCaptor.getAllValues()) {
+			receiver.receive(transport, request("test-unknown"));
+		}
+		assertThat(trickle.getInterval()).isEqualTo(4 * TEST_PERIOD.getMillis());
+
+		// A request for a local peer signals an inconsistency
+		for(Receiver receiver : receiverCaptor.getAllValues()) {
+			receiver.receive(transport, request(TEST_PEER.getId()));
+		}
+		assertThat(trickle.getInterval()).isEqualTo(TEST_PERIOD.getMillis());
+		verify(executor, times(2)).submit(trickle);
+	}
+
+	@Test
+	public void testConstructWithInvalidMaxPeriod() {
+		thrown.expect(IllegalArgumentException.class);
+		new Publisher(mockExecutor(), TEST_PERIOD, Duration.millis(1), WireFormat.FULL);
+	}
+
+	@Test
+	public void testApplyCapped() throws Exception {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
+		Publisher publisher = new Publisher(executor, TEST_PERIOD, TEST_PEER);
+		publisher.capBandwidth(1000, Suppliers.ofInstance(0));
+		assertThat(publisher.getBandwidth()).isEqualTo(1000);
+		publisher.apply(transport);
+
+		// The capped schedule drives the jittered one
+		ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(1)).schedule(runnableCaptor.capture(), anyLong(),
+				eq(TimeUnit.NANOSECONDS));
+		Runnable task = ((JitteredSchedule) runnableCaptor.getValue()).getTask();
+		assertThat(task).isInstanceOf(BandwidthCap.class);
+	}
+
+	@Test
+	public void testCapBandwidthWithInvalidBandwidth() {
+		thrown.expect(IllegalArgumentException.class);
+		new Publisher(mockExecutor(), TEST_PERIOD, TEST_PEER).capBandwidth(0,
+				Suppliers.ofInstance(0));
+	}
+
+	@Test
+	public void testCapBandwidthAdaptive() {
+		thrown.expect(IllegalStateException.class);
+		new Publisher(mockExecutor(), TEST_PERIOD, TEST_PERIOD.multipliedBy(8), TEST_PEER,
+				WireFormat.FULL).capBandwidth(1000, Suppliers.ofInstance(0));
+	}
+
+	@Test
+	public void testAddSelf() throws Exception {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
+		Publisher publisher = new Publisher(executor, TEST_PERIOD, TEST_PEER);
+		Peer other = new Builder(TEST_PEER).id("test-other").build();
+
+		publisher.addSelf(other);
+		publisher.apply(transport);
+		assertThat(publisher.getSelves()).containsOnly(TEST_PEER, other);
+
+		Broadcast broadcast = getBroadcast(executor);
+		assertThat(broadcast.size()).isEqualTo(2);
+
+		// Selves can come and go while the broadcast is running
+		publisher.removeSelf(other.getId());
+		assertThat(publisher.getSelves()).containsOnly(TEST_PEER);
+		assertThat(broadcast.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void testAddExistingSelf() {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		Publisher publisher = new Publisher(executor, TEST_PERIOD, TEST_PEER);
+		Advertisement first = publisher.getAdvertisement(TEST_PEER.getId());
+
+		Peer changed = new Builder(TEST_PEER).description("changed").build();
+		publisher.addSelf(changed);
+		Advertisement second = publisher.getAdvertisement(TEST_PEER.getId());
+
+		assertThat(second.getPeer()).isEqualTo(changed);
+		assertThat(second.getIncarnation()).isEqualTo(first.getIncarnation());
+		assertThat(second.getVersion()).isEqualTo(first.getVersion() + 1);
+	}
+
+	@Test
+	public void testUpdateSelf() throws Exception {
+		ListeningScheduledExecutorService executor = mockExecutor();
+		SharedTransport transport = mock(SharedTransport.class);
+		Publisher publisher = new Publisher(executor, TEST_PERIOD, TEST_PEER);
+		publisher.apply(transport);
+
+		// The new version goes out without waiting for the schedule
+		Peer changed = new Builder(TEST_PEER).description("changed").build();
+		publisher.updateSelf(changed);
+		assertThat(publisher.getSelves()).containsOnly(changed);
+
+		ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+		verify(transport, times(1)).publish(eq(LcmConstants.PEER_CHANNEL), captor.capture(),
+				eq(0), anyInt());
+		PeerMessage message = new PeerMessage(captor.getValue());
+		assertThat(message.description).isEqualTo("changed");
+		assertThat(message.version).isEqualTo(Advertisement.INITIAL_VERSION + 1);
+	}
+
+	@Test
+	public void testUpdateUnknownSelf() {
+		Publisher publisher = new Publisher(mockExecutor(), TEST_PERIOD, TEST_PEER);
+		Peer other = new Builder(TEST_PEER).id("test-other").build();
+
+		thrown.expect(IllegalArgumentException.class);
+		publisher.updateSelf(other);
+	}
+
+	/**
+	 * @return A mock {@link ListeningScheduledExecutorService} whose scheduled
+	 * tasks return a mock future
+	 */
+	private static ListeningScheduledExecutorService mockExecutor() {
+		ListeningScheduledExecutorService executor = mock(ListeningScheduledExecutorService.class);
+		ListenableScheduledFuture<?> future = mock(ListenableScheduledFuture.class);
+		doReturn(future).when(executor).scheduleAtFixedRate(any(Runnable.class), anyLong(),
+				anyLong(), any(TimeUnit.class));
+		doReturn(future).when(executor).submit(any(Runnable.class));
+		doReturn(future).when(executor).schedule(any(Runnable.class), anyLong(),
+				any(TimeUnit.class));
+		return executor;
+	}
+
+	/**
+	 * @param executor
+	 * @return The {@link Broadcast} run by the fixed rate schedule that was
+	 * started on the given mock executor
+	 */
+	private static Broadcast getBroadcast(ListeningScheduledExecutorService executor) {
+		ArgumentCaptor<Runnable> runnableCaptor = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, times(1)).schedule(runnableCaptor.capture(), anyLong(),
+				eq(TimeUnit.NANOSECONDS));
+		return (Broadcast) ((JitteredSchedule) runnableCaptor.getValue()).getTask();
+	}
+
+	/**
+	 * @param id
+	 * @return A {@link Datagram} carrying a request for the given id
+	 */
+	private static Datagram request(String id) {
+		DescriptorRequestMessage request = new DescriptorRequestMessage();
+		request.id = id;
+		request.version = Advertisement.INITIAL_VERSION;
+		return new Datagram(LcmConstants.REQUEST_CHANNEL, wrap(request));
 	}
 }
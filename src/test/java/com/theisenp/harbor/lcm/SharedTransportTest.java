@@ -0,0 +1,222 @@
+package com.theisenp.harbor.lcm;
+
+import static com.theisenp.harbor.test.TestUtils.encode;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+
+import com.theisenp.harbor.lcm.Network.Factory;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.timing.VirtualScheduler;
+import com.theisenp.harbor.utils.LcmConstants;
+
+/**
+ * Unit tests for {@link SharedTransport}
+ * 
+ * @author patrick.theisen
+ */
+public class SharedTransportTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testAcquireShares() throws Exception {
+		Network network = mock(Network.class);
+		Factory factory = factory(network);
+		SharedTransport first = SharedTransport.acquire(factory, "test://shares");
+		SharedTransport second = SharedTransport.acquire(factory, "test://shares");
+
+		assertThat(second).isSameAs(first);
+		assertThat(second.getNetwork()).isSameAs(network);
+		assertThat(second.getReferences()).isEqualTo(2);
+		verify(factory, times(1)).open("test://shares");
+		first.release();
+		second.release();
+	}
+
+	@Test
+	public void testAcquireWithOtherFactory() throws Exception {
+		Network network = mock(Network.class);
+		Network other = mock(Network.class);
+		SharedTransport first = SharedTransport.acquire(factory(network), "test://factories");
+		SharedTransport second = SharedTransport.acquire(factory(other), "test://factories");
+
+		// Each factory opens a network of its own for the same url
+		assertThat(second).isNotSameAs(first);
+		assertThat(first.getNetwork()).isSameAs(network);
+		assertThat(second.getNetwork()).isSameAs(other);
+		first.release();
+		second.release();
+	}
+
+	@Test
+	public void testRelease() throws Exception {
+		Network network = mock(Network.class);
+		Factory factory = factory(network);
+		SharedTransport first = SharedTransport.acquire(factory, "test://release");
+		SharedTransport second = SharedTransport.acquire(factory, "test://release");
+
+		first.release();
+		verify(network, times(0)).close();
+		second.release();
+		verify(network, times(1)).close();
+
+		// The next Harbor starts over with a new instance
+		Network other = mock(Network.class);
+		when(factory.open("test://release")).thenReturn(other);
+		SharedTransport third = SharedTransport.acquire(factory, "test://release");
+		assertThat(third).isNotSameAs(first);
+		assertThat(third.getNetwork()).isSameAs(other);
+		third.release();
+	}
+
+	@Test
+	public void testReleaseTooOften() throws Exception {
+		SharedTransport transport = SharedTransport.acquire(factory(mock(Network.class)),
+				"test://often");
+		transport.release();
+
+		thrown.expect(IllegalStateException.class);
+		transport.release();
+	}
+
+	@Test
+	public void testSubscribe() throws Exception {
+		Network network = mock(Network.class);
+		SharedTransport transport = SharedTransport.acquire(factory(network), "test://subscribe");
+		Receiver first = mock(Receiver.class);
+		Receiver second = mock(Receiver.class);
+
+		// The transport itself subscribes to each channel once
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, first);
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, second);
+		verify(network, times(1)).subscribe(LcmConstants.HEARTBEAT_CHANNEL, transport);
+
+		transport.unsubscribe(LcmConstants.HEARTBEAT_CHANNEL, first);
+		verify(network, times(0)).unsubscribe(LcmConstants.HEARTBEAT_CHANNEL, transport);
+		transport.unsubscribe(LcmConstants.HEARTBEAT_CHANNEL, second);
+		verify(network, times(1)).unsubscribe(LcmConstants.HEARTBEAT_CHANNEL, transport);
+		transport.release();
+	}
+
+	@Test
+	public void testReceive() throws Exception {
+		Network network = mock(Network.class);
+		SharedTransport transport = SharedTransport.acquire(factory(network), "test://receive");
+		Receiver first = mock(Receiver.class);
+		Receiver second = mock(Receiver.class);
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, first);
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, second);
+
+		handle(transport, LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(1));
+
+		// Every receiver gets the same datagram
+		ArgumentCaptor<Datagram> captor = ArgumentCaptor.forClass(Datagram.class);
+		verify(first, times(1)).receive(eq(transport), captor.capture());
+		verify(second, times(1)).receive(transport, captor.getValue());
+		transport.release();
+	}
+
+	@Test
+	public void testPublishLoopback() throws Exception {
+		Network network = mock(Network.class);
+		SharedTransport transport = SharedTransport.acquire(factory(network), "test://loopback");
+		Receiver receiver = mock(Receiver.class);
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, receiver);
+
+		transport.publish(LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(1));
+
+		// The message goes out on the network and straight to local receivers
+		ArgumentCaptor<Datagram> captor = ArgumentCaptor.forClass(Datagram.class);
+		verify(network, times(1)).publish(eq(LcmConstants.HEARTBEAT_CHANNEL), any(byte[].class),
+				eq(0), anyInt());
+		verify(receiver, times(1)).receive(eq(transport), captor.capture());
+		HeartbeatMessage received = (HeartbeatMessage) captor.getValue().getMessage();
+		assertThat(received.sequence).isEqualTo(1);
+		transport.release();
+	}
+
+	@Test
+	public void testEchoDropped() throws Exception {
+		Network network = mock(Network.class);
+		SharedTransport transport = SharedTransport.acquire(factory(network), "test://echo");
+		Receiver receiver = mock(Receiver.class);
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, receiver);
+
+		// The echo of a local message is dropped, but other messages are not
+		transport.publish(LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(1));
+		handle(transport, LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(1));
+		verify(receiver, times(1)).receive(eq(transport), any(Datagram.class));
+
+		handle(transport, LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(2));
+		verify(receiver, times(2)).receive(eq(transport), any(Datagram.class));
+		transport.release();
+	}
+
+	@Test
+	public void testEchoWindowInVirtualTime() throws Exception {
+		VirtualScheduler clock = new VirtualScheduler();
+		SharedTransport transport = SharedTransport.acquire(factory(mock(Network.class)),
+				"test://window", clock);
+		Receiver receiver = mock(Receiver.class);
+		transport.subscribe(LcmConstants.HEARTBEAT_CHANNEL, receiver);
+
+		// A copy that arrives after the echo window is not an echo
+		transport.publish(LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(1));
+		clock.advance(2, TimeUnit.SECONDS);
+		handle(transport, LcmConstants.HEARTBEAT_CHANNEL, mockHeartbeat(1));
+		verify(receiver, times(2)).receive(eq(transport), any(Datagram.class));
+		transport.release();
+	}
+
+	/**
+	 * Hands the encoding of the given message to the given
+	 * {@link SharedTransport}, as its {@link Network} would
+	 * 
+	 * @param transport
+	 * @param channel
+	 * @param message
+	 */
+	private static void handle(SharedTransport transport, String channel,
+			HeartbeatMessage message) {
+		byte[] buffer = encode(message);
+		transport.handle(channel, buffer, 0, buffer.length);
+	}
+
+	/**
+	 * @param network
+	 * @return A {@link Factory} that opens the given {@link Network} for any
+	 * url
+	 * @throws Exception
+	 */
+	private static Factory factory(Network network) throws Exception {
+		Factory factory = mock(Factory.class);
+		when(factory.open(anyString())).thenReturn(network);
+		return factory;
+	}
+
+	/**
+	 * @param sequence
+	 * @return A {@link HeartbeatMessage} with the given sequence number
+	 */
+	private static HeartbeatMessage mockHeartbeat(long sequence) {
+		HeartbeatMessage heartbeat = new HeartbeatMessage();
+		heartbeat.id = "test";
+		heartbeat.sequence = sequence;
+		return heartbeat;
+	}
+}
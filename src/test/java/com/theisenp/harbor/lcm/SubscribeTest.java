@@ -3,7 +3,6 @@ package com.theisenp.harbor.lcm;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import lcm.lcm.LCM;
 
 import org.junit.Test;
 
@@ -18,9 +17,19 @@ public class SubscribeTest {
 
 	@Test
 	public void testApply() throws Exception {
-		LCM lcm = mock(LCM.class);
+		SharedTransport transport = mock(SharedTransport.class);
 		Subscriber subscriber = mock(Subscriber.class);
-		new Subscribe(subscriber).apply(lcm);
-		verify(lcm, times(1)).subscribe(LcmConstants.PEER_CHANNEL, subscriber);
+		new Subscribe(subscriber).apply(transport);
+		verify(transport, times(1)).subscribe(LcmConstants.PEER_CHANNEL, subscriber);
+	}
+
+	@Test
+	public void testApplyCompact() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Subscriber subscriber = mock(Subscriber.class);
+		new Subscribe(subscriber, WireFormat.COMPACT).apply(transport);
+		verify(transport, times(1)).subscribe(LcmConstants.HEARTBEAT_CHANNEL, subscriber);
+		verify(transport, times(1)).subscribe(LcmConstants.DESCRIPTOR_CHANNEL, subscriber);
+		verify(transport, times(0)).subscribe(LcmConstants.PEER_CHANNEL, subscriber);
 	}
 }
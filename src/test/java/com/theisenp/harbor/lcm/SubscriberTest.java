@@ -1,22 +1,34 @@
 package com.theisenp.harbor.lcm;
 
 import static com.theisenp.harbor.test.TestUtils.wrap;
+import static com.theisenp.harbor.utils.LcmConstants.DESCRIPTOR_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.HEARTBEAT_BUNDLE_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.HEARTBEAT_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.PEER_BUNDLE_CHANNEL;
 import static com.theisenp.harbor.utils.LcmConstants.PEER_CHANNEL;
+import static com.theisenp.harbor.utils.LcmConstants.REQUEST_CHANNEL;
+import static com.theisenp.harbor.utils.PeerUtils.toDescriptor;
 import static com.theisenp.harbor.utils.PeerUtils.toMessage;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.fest.assertions.Fail.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import lcm.lcm.LCM;
 import lcm.lcm.LCMDataInputStream;
 
 import org.joda.time.Duration;
@@ -25,13 +37,40 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.theisenp.harbor.Harbor.Listener;
+import com.theisenp.harbor.Harbor.UpdateListener;
 import com.theisenp.harbor.Peer;
 import com.theisenp.harbor.Peer.Builder;
 import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.detection.FailureDetector;
+import com.theisenp.harbor.detection.FailureDetector.Monitor;
+import com.theisenp.harbor.detection.FixedTimeoutDetector;
+import com.theisenp.harbor.dispatch.Dispatcher;
+import com.theisenp.harbor.filters.ConjunctiveFilter;
+import com.theisenp.harbor.filters.Filter;
+import com.theisenp.harbor.filters.ProtocolFilter;
+import com.theisenp.harbor.filters.StatusFilter;
+import com.theisenp.harbor.filters.TypeFilter;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
+import com.theisenp.harbor.lcmtypes.DescriptorRequestMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatBundleMessage;
+import com.theisenp.harbor.lcmtypes.HeartbeatMessage;
+import com.theisenp.harbor.lcmtypes.PeerBundleMessage;
+import com.theisenp.harbor.lcmtypes.PeerMessage;
+import com.theisenp.harbor.metrics.FlightRecorder;
+import com.theisenp.harbor.metrics.FlightRecorder.Event;
+import com.theisenp.harbor.metrics.FlightRecorder.Kind;
+import com.theisenp.harbor.metrics.FlightRecorder.Sink;
+import com.theisenp.harbor.metrics.HarborMetrics;
+import com.theisenp.harbor.timing.ExecutorTimeoutScheduler;
+import com.theisenp.harbor.timing.TimeoutScheduler;
+import com.theisenp.harbor.timing.TimingWheel;
+import com.theisenp.harbor.timing.VirtualScheduler;
 
 /**
  * Unit tests for {@link Subscriber}
@@ -40,6 +79,7 @@ import com.theisenp.harbor.Peer.Status;
  */
 public class SubscriberTest {
 	private static final Peer TEST_SELF = mockPeer(0, Status.ACTIVE);
+	private static final long TEST_INCARNATION = 1000;
 
 	private ListeningScheduledExecutorService executor;
 
@@ -114,6 +154,7 @@ public class SubscriberTest {
 		}
 
 		assertThat(subscriber.getPeers()).hasSize(peers.size());
+		assertThat(subscriber.getPeerCount()).isEqualTo(peers.size());
 		for(Peer peer : peers) {
 			assertThat(subscriber.getPeers()).contains(asActive(peer));
 			verify(listener, times(1)).onConnected(peer);
@@ -202,6 +243,187 @@ public class SubscriberTest {
 		}
 	}
 
+	@Test
+	public void testTimeoutDisconnectedWithTimingWheel() throws InterruptedException {
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		TimingWheel wheel = new TimingWheel(executor, Duration.millis(1));
+		final Subscriber subscriber = new Subscriber(wheel, Duration.millis(10), TEST_SELF);
+
+		final CountDownLatch inactive = new CountDownLatch(1);
+		final CountDownLatch disconnected = new CountDownLatch(1);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		subscriber.addListener(new Listener.Adapter() {
+			@Override
+			public void onInactive(Peer peer) {
+				assertThat(subscriber.getPeers()).containsOnly(asInactive(peer));
+				inactive.countDown();
+			}
+
+			@Override
+			public void onDisconnected(Peer peer) {
+				assertThat(subscriber.getPeers()).isEmpty();
+				disconnected.countDown();
+			}
+		});
+
+		if(!inactive.await(1, TimeUnit.SECONDS)) {
+			fail("Peer was never deactivated");
+		}
+		if(!disconnected.await(1, TimeUnit.SECONDS)) {
+			fail("Peer was never disconnected");
+		}
+	}
+
+	@Test
+	public void testTimeoutInVirtualTime() {
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		Listener listener = mock(Listener.class);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		TimingWheel wheel = new TimingWheel(scheduler, scheduler, Duration.standardSeconds(1));
+		Subscriber subscriber = new Subscriber(wheel, new Dispatcher(),
+				new FixedTimeoutDetector(Duration.standardHours(1)), scheduler, TEST_SELF);
+
+		// A repeated advertisement within the timeout keeps the peer active
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		scheduler.advance(50, TimeUnit.MINUTES);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		scheduler.advance(50, TimeUnit.MINUTES);
+		verify(listener, times(0)).onInactive(any(Peer.class));
+
+		scheduler.advance(11, TimeUnit.MINUTES);
+		verify(listener, times(1)).onInactive(asInactive(peer));
+		assertThat(subscriber.getPeers()).containsOnly(asInactive(peer));
+
+		scheduler.advance(1, TimeUnit.HOURS);
+		verify(listener, times(1)).onDisconnected(any(Peer.class));
+		assertThat(subscriber.getPeers()).isEmpty();
+	}
+
+	@Test
+	public void testMetrics() {
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		TimingWheel wheel = new TimingWheel(scheduler, scheduler, Duration.standardSeconds(1));
+		Subscriber subscriber = new Subscriber(wheel, new Dispatcher(),
+				new FixedTimeoutDetector(Duration.standardMinutes(1)), scheduler, TEST_SELF);
+		HarborMetrics metrics = new HarborMetrics(TEST_SELF.getId(), scheduler);
+		subscriber.instrument(metrics);
+
+		// Advertisements from the self peer are counted as they are dropped
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(TEST_SELF)));
+		assertThat(metrics.getReceived()).isEqualTo(2);
+		assertThat(metrics.getSelfDropped()).isEqualTo(1);
+		assertThat(metrics.getTransitions()).isEqualTo(1);
+		assertThat(subscriber.getPeerCount(Status.ACTIVE)).isEqualTo(1);
+
+		// Timing out counts a transition to each of inactive and disconnected
+		scheduler.advance(2, TimeUnit.MINUTES);
+		assertThat(subscriber.getPeerCount(Status.ACTIVE)).isEqualTo(0);
+		assertThat(subscriber.getPeerCount(Status.INACTIVE)).isEqualTo(1);
+		scheduler.advance(2, TimeUnit.MINUTES);
+		assertThat(metrics.getTransitions()).isEqualTo(3);
+		assertThat(subscriber.getPeerCount()).isEqualTo(0);
+		assertThat(wheel.getPendingCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testRecorder() {
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		FlightRecorder recorder = new FlightRecorder(16, scheduler);
+		Dispatcher dispatcher = new Dispatcher(Dispatcher.INLINE, null, recorder);
+		TimeoutScheduler timeouts = new ExecutorTimeoutScheduler(scheduler);
+		Subscriber subscriber = new Subscriber(timeouts, dispatcher,
+				new FixedTimeoutDetector(Duration.standardMinutes(1)), scheduler, TEST_SELF);
+		subscriber.setRecorder(recorder);
+		final List<List<Event>> dumps = new ArrayList<>();
+		recorder.setSink(new Sink() {
+			@Override
+			public void onAnomaly(String reason, List<Event> events) {
+				dumps.add(events);
+			}
+		});
+
+		// Advertisements from the self peer are not recorded
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(TEST_SELF)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		scheduler.advance(90, TimeUnit.SECONDS);
+		assertThat(subscriber.getPeerCount(Status.INACTIVE)).isEqualTo(1);
+		assertThat(dumps).isEmpty();
+
+		// A peer that recovers is reported as an anomaly, along with the events
+		// that led up to it
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		assertThat(dumps).hasSize(1);
+		List<Event> events = dumps.get(0);
+
+		String id = peer.getId();
+		assertEvent(events.get(0), Kind.RECEIVED, id, null, null);
+		assertEvent(events.get(1), Kind.TRANSITIONED, id, null, Status.ACTIVE);
+		assertEvent(events.get(2), Kind.DISPATCHED, id, null, Status.CONNECTED);
+		assertEvent(events.get(3), Kind.DISPATCHED, id, null, Status.ACTIVE);
+		assertEvent(events.get(4), Kind.RECEIVED, id, Status.ACTIVE, Status.ACTIVE);
+		assertEvent(events.get(5), Kind.TRANSITIONED, id, Status.ACTIVE, Status.INACTIVE);
+		assertEvent(events.get(6), Kind.DISPATCHED, id, null, Status.INACTIVE);
+		assertEvent(events.get(7), Kind.RECEIVED, id, Status.INACTIVE, Status.INACTIVE);
+		assertEvent(events.get(8), Kind.TRANSITIONED, id, Status.INACTIVE, Status.ACTIVE);
+		assertEvent(events.get(9), Kind.DISPATCHED, id, null, Status.ACTIVE);
+		assertThat(events).hasSize(10);
+	}
+
+	@Test
+	public void testTap() {
+		final Peer peer = mockPeer(1, Status.CONNECTED);
+		final Subscriber subscriber = new Subscriber(executor, Duration.standardMinutes(1),
+				TEST_SELF);
+		final List<Integer> counts = new ArrayList<>();
+		final List<String> channels = new ArrayList<>();
+		subscriber.setTap(new Receiver() {
+			@Override
+			public void receive(SharedTransport transport, Datagram datagram) {
+				// The tap sees each datagram before the subscriber handles it
+				counts.add(subscriber.getPeerCount());
+				channels.add(datagram.getChannel());
+			}
+		});
+
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		subscriber.messageReceived(null, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 1, 1)));
+		assertThat(counts).isEqualTo(Arrays.asList(0, 1));
+		assertThat(channels).isEqualTo(Arrays.asList(PEER_CHANNEL, HEARTBEAT_CHANNEL));
+
+		subscriber.setTap(null);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		assertThat(channels).hasSize(2);
+	}
+
+	@Test
+	public void testReconnectAfterDisconnect() throws InterruptedException {
+		final Peer peer = mockPeer(1, Status.CONNECTED);
+		final Subscriber subscriber = new Subscriber(executor, Duration.millis(10), TEST_SELF);
+
+		final CountDownLatch latch = new CountDownLatch(2);
+		subscriber.addListener(new Listener.Adapter() {
+			@Override
+			public void onConnected(Peer connected) {
+				latch.countDown();
+			}
+
+			@Override
+			public void onDisconnected(Peer disconnected) {
+				subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+			}
+		});
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Peer was never reconnected");
+		}
+	}
+
 	@Test
 	public void testClear() {
 		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
@@ -215,6 +437,34 @@ public class SubscriberTest {
 		assertThat(subscriber.getPeers()).isEmpty();
 	}
 
+	@Test
+	public void testConcurrentUpdates() throws InterruptedException {
+		final Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+		final CountDownLatch done = new CountDownLatch(4);
+
+		for(int t = 0; t < 4; t++) {
+			final int offset = t * 100;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int round = 0; round < 10; round++) {
+						for(int i = 1; i <= 100; i++) {
+							Peer peer = mockPeer(offset + i, Status.CONNECTED);
+							subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+							subscriber.getPeers();
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+
+		if(!done.await(5, TimeUnit.SECONDS)) {
+			fail("Updates never completed");
+		}
+		assertThat(subscriber.getPeers()).hasSize(400);
+	}
+
 	/**
 	 * The goal of this test is to make sure that listeners are handled
 	 * correctly. Buggy implementations may throw a
@@ -254,6 +504,41 @@ public class SubscriberTest {
 		}
 	}
 
+	@Test
+	public void testQueuedListenerDoesNotBlockUpdates() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch connected = new CountDownLatch(10);
+		Dispatcher dispatcher = new Dispatcher(100);
+		Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(executor), dispatcher,
+				Duration.standardSeconds(1), TEST_SELF);
+
+		subscriber.addListener(new Listener.Adapter() {
+			@Override
+			public void onConnected(Peer peer) {
+				try {
+					release.await();
+				}
+				catch(InterruptedException exception) {
+					Thread.currentThread().interrupt();
+				}
+				connected.countDown();
+			}
+		});
+
+		for(int i = 1; i <= 10; i++) {
+			Peer peer = mockPeer(i, Status.CONNECTED);
+			subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		}
+		assertThat(subscriber.getPeers()).hasSize(10);
+		assertThat(subscriber.getListenerStats().values().iterator().next().getDepth())
+				.isGreaterThan(0);
+
+		release.countDown();
+		if(!connected.await(1, TimeUnit.SECONDS)) {
+			fail("Queued notifications were never delivered");
+		}
+	}
+
 	@Test
 	public void testRemoveListener() {
 		Peer peer = mockPeer(1, Status.CONNECTED);
@@ -268,6 +553,555 @@ public class SubscriberTest {
 		verify(listener, times(0)).onActive(any(Peer.class));
 	}
 
+	@Test
+	public void testHeartbeatFromUnknownPeer() {
+		LCM lcm = mock(LCM.class);
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		subscriber.addListener(listener);
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 1, 1)));
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 1, 2)));
+
+		// The descriptor is requested once, and the peer stays unknown until then
+		ArgumentCaptor<DescriptorRequestMessage> captor = ArgumentCaptor
+				.forClass(DescriptorRequestMessage.class);
+		verify(lcm, times(1)).publish(eq(REQUEST_CHANNEL), captor.capture());
+		assertThat(captor.getValue().id).isEqualTo("1");
+		assertThat(captor.getValue().version).isEqualTo(1);
+		assertThat(subscriber.getPeers()).isEmpty();
+		verify(listener, times(0)).onConnected(any(Peer.class));
+	}
+
+	@Test
+	public void testHeartbeatFromSelf() {
+		LCM lcm = mock(LCM.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL,
+				wrap(mockHeartbeat(TEST_SELF.getId(), 1, 1)));
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(TEST_SELF, 1)));
+
+		assertThat(subscriber.getPeers()).isEmpty();
+		verify(lcm, times(0)).publish(eq(REQUEST_CHANNEL), any(DescriptorRequestMessage.class));
+	}
+
+	@Test
+	public void testHeartbeatOnTransport() {
+		SharedTransport transport = mock(SharedTransport.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		// Requests go back out on the transport that the heartbeat arrived on
+		Datagram datagram = new Datagram(HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 1, 1)));
+		subscriber.receive(transport, datagram);
+		verify(transport, times(1)).publish(eq(REQUEST_CHANNEL),
+				any(DescriptorRequestMessage.class));
+	}
+
+	@Test
+	public void testSharedDatagram() throws Exception {
+		Listener first = mock(Listener.class);
+		Listener second = mock(Listener.class);
+		Subscriber firstSubscriber = new Subscriber(executor, Duration.standardSeconds(1),
+				TEST_SELF);
+		Subscriber secondSubscriber = new Subscriber(executor, Duration.standardSeconds(1),
+				TEST_SELF);
+		firstSubscriber.addListener(first);
+		secondSubscriber.addListener(second);
+
+		// Both subscribers are fed from a single decode
+		Peer peer = mockPeer(1, Status.ACTIVE);
+		Datagram datagram = new Datagram(PEER_CHANNEL, wrap(message(peer, 1)));
+		firstSubscriber.receive(null, datagram);
+		Object decoded = datagram.getMessage();
+		secondSubscriber.receive(null, datagram);
+
+		assertThat(datagram.getMessage()).isSameAs(decoded);
+		verify(first, times(1)).onActive(peer);
+		verify(second, times(1)).onActive(peer);
+	}
+
+	@Test
+	public void testQuery() {
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+		Peer first = new Builder(mockPeer(1, Status.ACTIVE)).type("a").protocol("ZMQ", "1")
+				.build();
+		Peer second = new Builder(mockPeer(2, Status.ACTIVE)).type("a").protocol("IPC", "2")
+				.build();
+		Peer third = new Builder(mockPeer(3, Status.ACTIVE)).type("b").protocol("ZMQ", "3")
+				.build();
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(first)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(second)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(third)));
+
+		Filter filter = new ConjunctiveFilter(new StatusFilter(Status.ACTIVE), new TypeFilter("a"),
+				new ProtocolFilter("ZMQ"));
+		assertThat(subscriber.query(filter)).containsOnly(first);
+		assertThat(subscriber.query(new TypeFilter("a"))).containsOnly(first, second);
+		assertThat(subscriber.query(Filter.PASS)).containsOnly(first, second, third);
+	}
+
+	@Test
+	public void testQueryFollowsStatus() throws Exception {
+		Subscriber subscriber = new Subscriber(executor, Duration.millis(200), TEST_SELF);
+		Peer peer = mockPeer(1, Status.ACTIVE);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(peer)));
+		assertThat(subscriber.query(new StatusFilter(Status.ACTIVE))).containsOnly(peer);
+
+		// After the timeout, the peer is only found among the inactive peers
+		Thread.sleep(300);
+		Peer inactive = new Builder(peer).status(Status.INACTIVE).build();
+		assertThat(subscriber.query(new StatusFilter(Status.ACTIVE))).isEmpty();
+		assertThat(subscriber.query(new StatusFilter(Status.INACTIVE))).containsOnly(inactive);
+
+		subscriber.clear();
+		assertThat(subscriber.query(new StatusFilter(Status.INACTIVE))).isEmpty();
+	}
+
+	@Test
+	public void testDescriptorAddsPeer() {
+		LCM lcm = mock(LCM.class);
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		subscriber.addListener(listener);
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(peer, 1)));
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 1, 1)));
+
+		// Heartbeats with a known version never trigger a request
+		assertThat(subscriber.getPeers()).containsOnly(asActive(peer));
+		verify(listener, times(1)).onConnected(peer);
+		verify(listener, times(1)).onActive(asActive(peer));
+		verify(lcm, times(0)).publish(eq(REQUEST_CHANNEL), any(DescriptorRequestMessage.class));
+	}
+
+	@Test
+	public void testHeartbeatKeepsPeerActive() throws InterruptedException {
+		LCM lcm = mock(LCM.class);
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.millis(200), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		subscriber.addListener(listener);
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(peer, 1)));
+		for(int i = 1; i <= 6; i++) {
+			Thread.sleep(100);
+			subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 1, i)));
+		}
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(peer));
+		verify(listener, times(0)).onInactive(any(Peer.class));
+	}
+
+	@Test
+	public void testIntervalStretchesTimeout() throws InterruptedException {
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.millis(50), TEST_SELF);
+		subscriber.addListener(listener);
+
+		// Three announced intervals outlast the configured timeout
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		PeerMessage message = message(peer, 1);
+		message.interval = 100;
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message));
+		Thread.sleep(150);
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(peer));
+		verify(listener, times(0)).onInactive(any(Peer.class));
+	}
+
+	@Test
+	public void testHeartbeatIntervalStretchesTimeout() throws InterruptedException {
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.millis(50), TEST_SELF);
+		subscriber.addListener(listener);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		HeartbeatMessage heartbeat = mockHeartbeat("1", 1, 1);
+		heartbeat.interval = 100;
+		subscriber.messageReceived(null, DESCRIPTOR_CHANNEL, wrap(descriptor(peer, 1)));
+		subscriber.messageReceived(null, HEARTBEAT_CHANNEL, wrap(heartbeat));
+		Thread.sleep(150);
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(peer));
+		verify(listener, times(0)).onInactive(any(Peer.class));
+	}
+
+	@Test
+	public void testFailureDetector() throws InterruptedException {
+		Monitor monitor = mock(Monitor.class);
+		when(monitor.getInactiveDelay()).thenReturn(TimeUnit.MILLISECONDS.toNanos(10));
+		when(monitor.getDisconnectDelay()).thenReturn(TimeUnit.MILLISECONDS.toNanos(10));
+		FailureDetector detector = mock(FailureDetector.class);
+		when(detector.newMonitor()).thenReturn(monitor);
+		final Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(executor),
+				new Dispatcher(), detector, TEST_SELF);
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		PeerMessage message = message(mockPeer(1, Status.CONNECTED), 1);
+		message.interval = 100;
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message));
+		subscriber.addListener(new Listener.Adapter() {
+			@Override
+			public void onDisconnected(Peer peer) {
+				latch.countDown();
+			}
+		});
+
+		// The detector's delays replace the timeout and announced interval
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Peer was never disconnected");
+		}
+		verify(monitor, times(1)).heartbeat(anyLong(), eq(TimeUnit.MILLISECONDS.toNanos(100)));
+	}
+
+	@Test
+	public void testRepeatedPayloadFromInactivePeer() {
+		Monitor monitor = mock(Monitor.class);
+		when(monitor.getInactiveDelay()).thenReturn(TimeUnit.SECONDS.toNanos(1));
+		when(monitor.getDisconnectDelay()).thenReturn(TimeUnit.MINUTES.toNanos(1));
+		FailureDetector detector = mock(FailureDetector.class);
+		when(detector.newMonitor()).thenReturn(monitor);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(scheduler),
+				new Dispatcher(), detector, scheduler, TEST_SELF);
+
+		PeerMessage message = message(mockPeer(1, Status.CONNECTED), 1);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message));
+		scheduler.advance(2, TimeUnit.SECONDS);
+		assertThat(subscriber.getPeerCount(Status.INACTIVE)).isEqualTo(1);
+
+		// The identical payload misses the fast path, and is only recorded once
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message));
+		assertThat(subscriber.getPeerCount(Status.ACTIVE)).isEqualTo(1);
+		verify(monitor, times(2)).heartbeat(anyLong(), anyLong());
+
+		// Once active again, the fast path records it
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message));
+		verify(monitor, times(3)).heartbeat(anyLong(), anyLong());
+	}
+
+	@Test
+	public void testUnansweredRequestsExpire() {
+		LCM lcm = mock(LCM.class);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(scheduler),
+				new Dispatcher(), new FixedTimeoutDetector(Duration.standardSeconds(1)),
+				scheduler, TEST_SELF);
+
+		// Heartbeats from unknown ids only request so many descriptors at once
+		for(int i = 0; i <= Subscriber.MAX_REQUESTS; i++) {
+			subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("" + i, 1, 1)));
+		}
+		verify(lcm, times(Subscriber.MAX_REQUESTS)).publish(eq(REQUEST_CHANNEL),
+				any(DescriptorRequestMessage.class));
+
+		// Once the unanswered requests have expired, there is room again
+		scheduler.advance(1, TimeUnit.MINUTES);
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("next", 1, 1)));
+		verify(lcm, times(Subscriber.MAX_REQUESTS + 1)).publish(eq(REQUEST_CHANNEL),
+				any(DescriptorRequestMessage.class));
+	}
+
+	@Test
+	public void testHeartbeatWithNewVersion() {
+		LCM lcm = mock(LCM.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(peer, 1)));
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 2, 1)));
+
+		ArgumentCaptor<DescriptorRequestMessage> captor = ArgumentCaptor
+				.forClass(DescriptorRequestMessage.class);
+		verify(lcm, times(1)).publish(eq(REQUEST_CHANNEL), captor.capture());
+		assertThat(captor.getValue().version).isEqualTo(2);
+
+		// The new descriptor replaces the old one
+		Peer changed = new Builder(peer).description("changed").build();
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(changed, 2)));
+		assertThat(subscriber.getPeers()).containsOnly(asActive(changed));
+	}
+
+	@Test
+	public void testDescriptorIsNotAHeartbeat() {
+		LCM lcm = mock(LCM.class);
+		Monitor monitor = mock(Monitor.class);
+		when(monitor.getInactiveDelay()).thenReturn(TimeUnit.SECONDS.toNanos(1));
+		when(monitor.getDisconnectDelay()).thenReturn(TimeUnit.MINUTES.toNanos(1));
+		FailureDetector detector = mock(FailureDetector.class);
+		when(detector.newMonitor()).thenReturn(monitor);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(scheduler),
+				new Dispatcher(), detector, scheduler, TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(peer, 1)));
+		verify(monitor, times(1)).heartbeat(anyLong(), anyLong());
+
+		// The heartbeat is recorded, and requests the new descriptor
+		scheduler.advance(500, TimeUnit.MILLISECONDS);
+		subscriber.messageReceived(lcm, HEARTBEAT_CHANNEL, wrap(mockHeartbeat("1", 2, 1)));
+		verify(monitor, times(2)).heartbeat(anyLong(), anyLong());
+		verify(lcm, times(1)).publish(eq(REQUEST_CHANNEL), any(DescriptorRequestMessage.class));
+
+		// The reply, and any repeat of it, only moves the deadline
+		scheduler.advance(500, TimeUnit.MILLISECONDS);
+		Peer changed = new Builder(peer).description("changed").build();
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(changed, 2)));
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(changed, 2)));
+		assertThat(subscriber.getPeers()).containsOnly(asActive(changed));
+		verify(monitor, times(2)).heartbeat(anyLong(), anyLong());
+
+		scheduler.advance(700, TimeUnit.MILLISECONDS);
+		assertThat(subscriber.getPeerCount(Status.ACTIVE)).isEqualTo(1);
+		scheduler.advance(500, TimeUnit.MILLISECONDS);
+		assertThat(subscriber.getPeerCount(Status.INACTIVE)).isEqualTo(1);
+	}
+
+	@Test
+	public void testUpdatedPeer() {
+		UpdateListener listener = mock(UpdateListener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		Peer changed = new Builder(peer).description("changed").build();
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(peer, 1)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(changed, 2)));
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(changed));
+		verify(listener, times(1)).onUpdated(asActive(peer), asActive(changed));
+		verify(listener, times(1)).onActive(any(Peer.class));
+	}
+
+	@Test
+	public void testUpdateWithoutNewVersion() {
+		UpdateListener listener = mock(UpdateListener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		// Only the version is compared, so a changed descriptor is ignored
+		// until the version moves
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		Peer changed = new Builder(peer).description("changed").build();
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(peer, 2)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(changed, 2)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(changed, 1)));
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(peer));
+		verify(listener, times(0)).onUpdated(any(Peer.class), any(Peer.class));
+	}
+
+	@Test
+	public void testUpdateFromNewIncarnation() {
+		UpdateListener listener = mock(UpdateListener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		Peer restarted = new Builder(peer).description("restarted").build();
+		Advertisement first = new Advertisement(peer, TEST_INCARNATION, 5);
+		Advertisement second = new Advertisement(restarted, TEST_INCARNATION + 1, 1);
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(first)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(second)));
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(restarted));
+		verify(listener, times(1)).onUpdated(asActive(peer), asActive(restarted));
+	}
+
+	@Test
+	public void testRestartWithEarlierIncarnation() {
+		Monitor monitor = mock(Monitor.class);
+		when(monitor.getInactiveDelay()).thenReturn(TimeUnit.SECONDS.toNanos(1));
+		when(monitor.getDisconnectDelay()).thenReturn(TimeUnit.MINUTES.toNanos(1));
+		FailureDetector detector = mock(FailureDetector.class);
+		when(detector.newMonitor()).thenReturn(monitor);
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Subscriber subscriber = new Subscriber(new ExecutorTimeoutScheduler(scheduler),
+				new Dispatcher(), detector, scheduler, TEST_SELF);
+		UpdateListener listener = mock(UpdateListener.class);
+		subscriber.addListener(listener);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		Peer restarted = new Builder(peer).description("restarted").build();
+		Advertisement first = new Advertisement(peer, TEST_INCARNATION, 5);
+		Advertisement second = new Advertisement(restarted, TEST_INCARNATION - 1, 1);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(first)));
+
+		// While the peer is active, a lower incarnation is ignored
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(second)));
+		assertThat(subscriber.getPeers()).containsOnly(asActive(peer));
+		verify(listener, times(0)).onUpdated(any(Peer.class), any(Peer.class));
+
+		// Once the peer has gone quiet, it is taken as a restart
+		scheduler.advance(2, TimeUnit.SECONDS);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(second)));
+		assertThat(subscriber.getPeers()).containsOnly(asActive(restarted));
+		verify(listener, times(1)).onUpdated(asInactive(peer), asInactive(restarted));
+	}
+
+	@Test
+	public void testUpdatedInactivePeer() throws InterruptedException {
+		UpdateListener listener = mock(UpdateListener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.millis(100), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		Peer changed = new Builder(peer).description("changed").build();
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(peer, 1)));
+		Thread.sleep(150);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(changed, 2)));
+
+		InOrder order = inOrder(listener);
+		order.verify(listener).onInactive(asInactive(peer));
+		order.verify(listener).onUpdated(asInactive(peer), asInactive(changed));
+		order.verify(listener).onActive(asActive(changed));
+	}
+
+	@Test
+	public void testPeerBundle() {
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		PeerBundleMessage bundle = new PeerBundleMessage();
+		bundle.count = 3;
+		bundle.peers = new PeerMessage[] { toMessage(mockPeer(1, Status.CONNECTED)),
+				toMessage(mockPeer(2, Status.CONNECTED)), toMessage(TEST_SELF) };
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_BUNDLE_CHANNEL, wrap(bundle));
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(mockPeer(1, Status.CONNECTED)),
+				asActive(mockPeer(2, Status.CONNECTED)));
+		verify(listener, times(2)).onConnected(any(Peer.class));
+	}
+
+	@Test
+	public void testHeartbeatBundle() {
+		LCM lcm = mock(LCM.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		Peer peer = mockPeer(1, Status.CONNECTED);
+		subscriber.messageReceived(lcm, DESCRIPTOR_CHANNEL, wrap(descriptor(peer, 1)));
+
+		HeartbeatBundleMessage bundle = new HeartbeatBundleMessage();
+		bundle.count = 2;
+		bundle.heartbeats = new HeartbeatMessage[] { mockHeartbeat("1", 1, 1),
+				mockHeartbeat("2", 1, 1) };
+		subscriber.messageReceived(lcm, HEARTBEAT_BUNDLE_CHANNEL, wrap(bundle));
+
+		// Only the unknown peer's descriptor is requested
+		ArgumentCaptor<DescriptorRequestMessage> captor = ArgumentCaptor
+				.forClass(DescriptorRequestMessage.class);
+		verify(lcm, times(1)).publish(eq(REQUEST_CHANNEL), captor.capture());
+		assertThat(captor.getValue().id).isEqualTo("2");
+	}
+
+	@Test
+	public void testPeerBundleSkipsKnownDescriptors() {
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+		Peer first = mockPeer(1, Status.CONNECTED);
+		Peer second = mockPeer(2, Status.CONNECTED);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(message(first, 1)));
+
+		// The descriptors of our own peer and of a known peer are skipped over
+		PeerBundleMessage bundle = new PeerBundleMessage();
+		bundle.count = 3;
+		bundle.peers = new PeerMessage[] { toMessage(TEST_SELF), message(first, 1),
+				message(second, 1) };
+		subscriber.addListener(listener);
+		subscriber.messageReceived(null, PEER_BUNDLE_CHANNEL, wrap(bundle));
+
+		assertThat(subscriber.getPeers()).containsOnly(asActive(first), asActive(second));
+		verify(listener, times(1)).onConnected(asActive(second));
+	}
+
+	@Test
+	public void testTruncatedHeartbeat() {
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+		LCMDataInputStream stream = wrap(mockHeartbeat("1", 1, 1));
+		byte[] buffer = stream.getBuffer();
+		int offset = stream.getBufferOffset();
+		int length = stream.available();
+
+		thrown.expect(RuntimeException.class);
+		subscriber.messageReceived(null, HEARTBEAT_CHANNEL, new LCMDataInputStream(buffer, offset,
+				length - 1));
+	}
+
+	@Test
+	public void testAddSelf() {
+		Listener listener = mock(Listener.class);
+		Subscriber subscriber = new Subscriber(executor, Duration.standardSeconds(1), TEST_SELF);
+
+		Peer other = mockPeer(1, Status.ACTIVE);
+		subscriber.addListener(listener);
+		subscriber.addSelf(other);
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(other)));
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(other)));
+		assertThat(subscriber.getPeers()).isEmpty();
+
+		// Once removed, the peer is discovered like any other
+		subscriber.removeSelf(other.getId());
+		subscriber.messageReceived(null, PEER_CHANNEL, wrap(toMessage(other)));
+		assertThat(subscriber.getPeers()).containsOnly(other);
+		verify(listener, times(1)).onConnected(any(Peer.class));
+	}
+
+	/**
+	 * Asserts that the given {@link Event} has the given fields
+	 * 
+	 * @param event
+	 * @param kind
+	 * @param id
+	 * @param previous
+	 * @param status
+	 */
+	private static void assertEvent(Event event, Kind kind, String id, Status previous,
+			Status status) {
+		assertThat(event.getKind()).isEqualTo(kind);
+		assertThat(event.getId()).isEqualTo(id);
+		assertThat(event.getPrevious()).isEqualTo(previous);
+		assertThat(event.getStatus()).isEqualTo(status);
+	}
+
+	/**
+	 * @param peer
+	 * @param version
+	 * @return A {@link PeerMessage} advertising the given version of the given
+	 * {@link Peer}
+	 */
+	private static PeerMessage message(Peer peer, long version) {
+		return toMessage(new Advertisement(peer, TEST_INCARNATION, version));
+	}
+
+	/**
+	 * @param peer
+	 * @param version
+	 * @return A {@link DescriptorMessage} advertising the given version of the
+	 * given {@link Peer}
+	 */
+	private static DescriptorMessage descriptor(Peer peer, long version) {
+		return toDescriptor(new Advertisement(peer, TEST_INCARNATION, version));
+	}
+
+	/**
+	 * @param id
+	 * @param version
+	 * @param sequence
+	 * @return A {@link HeartbeatMessage} with the given fields
+	 */
+	private static HeartbeatMessage mockHeartbeat(String id, long version, long sequence) {
+		HeartbeatMessage heartbeat = new HeartbeatMessage();
+		heartbeat.id = id;
+		heartbeat.incarnation = TEST_INCARNATION;
+		heartbeat.version = version;
+		heartbeat.sequence = sequence;
+		return heartbeat;
+	}
+
 	/**
 	 * @param peer
 	 * @return The given {@link Peer} with an active {@link Status}
@@ -0,0 +1,197 @@
+package com.theisenp.harbor.lcm;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.InOrder;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Unit tests for {@link Trickle}
+ * 
+ * @author patrick.theisen
+ */
+public class TrickleTest {
+	private static final long TEST_MIN = 100;
+	private static final long TEST_MAX = 400;
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidMin() {
+		thrown.expect(IllegalArgumentException.class);
+		new Trickle(mockExecutor(), mock(Broadcast.class), 0, TEST_MAX);
+	}
+
+	@Test
+	public void testConstructWithInvalidMax() {
+		thrown.expect(IllegalArgumentException.class);
+		new Trickle(mockExecutor(), mock(Broadcast.class), TEST_MIN, TEST_MIN - 1);
+	}
+
+	@Test
+	public void testConstructWithInvalidJitter() {
+		thrown.expect(IllegalArgumentException.class);
+		new Trickle(mockExecutor(), mock(Broadcast.class), TEST_MIN, TEST_MAX, 2, new Random());
+	}
+
+	@Test
+	public void testStart() {
+		ScheduledExecutorService executor = mockExecutor();
+		Trickle trickle = newTrickle(executor, mock(Broadcast.class));
+
+		ListenableFuture<Object> future = trickle.start();
+		assertThat(future.isDone()).isFalse();
+		verify(executor, times(1)).submit(trickle);
+	}
+
+	@Test
+	public void testDoubling() {
+		ScheduledExecutorService executor = mockExecutor();
+		Broadcast broadcast = mock(Broadcast.class);
+		Trickle trickle = newTrickle(executor, broadcast);
+		trickle.start();
+
+		for(int i = 0; i < 4; i++) {
+			trickle.run();
+		}
+
+		// The interval doubles up to the maximum, and each run announces it
+		InOrder order = inOrder(broadcast);
+		for(long interval : new long[] {100, 200, 400, 400}) {
+			order.verify(broadcast).setInterval(interval);
+			order.verify(broadcast).run();
+		}
+		verify(executor, times(1)).schedule(trickle, 100, TimeUnit.MILLISECONDS);
+		verify(executor, times(1)).schedule(trickle, 200, TimeUnit.MILLISECONDS);
+		verify(executor, times(2)).schedule(trickle, 400, TimeUnit.MILLISECONDS);
+		assertThat(trickle.getInterval()).isEqualTo(TEST_MAX);
+	}
+
+	@Test
+	public void testJitter() {
+		ScheduledExecutorService executor = mockExecutor();
+		Broadcast broadcast = mock(Broadcast.class);
+		Random random = mock(Random.class);
+		when(random.nextDouble()).thenReturn(0.5);
+		Trickle trickle = new Trickle(executor, broadcast, TEST_MIN, TEST_MAX, 0.2, random);
+		trickle.start();
+		trickle.run();
+
+		// The publication is brought forward, but the full interval is announced
+		verify(executor, times(1)).schedule(trickle, 90, TimeUnit.MILLISECONDS);
+		verify(broadcast, times(1)).setInterval(TEST_MIN);
+	}
+
+	@Test
+	public void testReset() {
+		ScheduledExecutorService executor = mockExecutor();
+		Broadcast broadcast = mock(Broadcast.class);
+		Trickle trickle = newTrickle(executor, broadcast);
+		trickle.start();
+		trickle.run();
+		trickle.run();
+
+		// The pending run is replaced by an immediate one
+		trickle.reset();
+		verify(executor, times(2)).submit(trickle);
+		assertThat(trickle.getInterval()).isEqualTo(TEST_MIN);
+
+		// Further resets wait for it
+		trickle.reset();
+		verify(executor, times(2)).submit(trickle);
+
+		trickle.run();
+		verify(broadcast, times(2)).setInterval(TEST_MIN);
+	}
+
+	@Test
+	public void testResetAtMinimum() {
+		ScheduledExecutorService executor = mockExecutor();
+		Trickle trickle = newTrickle(executor, mock(Broadcast.class));
+		trickle.start();
+		trickle.run();
+
+		// The next run is already due within the minimum interval
+		trickle.reset();
+		verify(executor, times(1)).submit(trickle);
+	}
+
+	@Test
+	public void testResetBeforeStart() {
+		ScheduledExecutorService executor = mockExecutor();
+		Trickle trickle = newTrickle(executor, mock(Broadcast.class));
+
+		trickle.reset();
+		verify(executor, never()).submit(any(Runnable.class));
+	}
+
+	@Test
+	public void testCancel() {
+		ScheduledExecutorService executor = mockExecutor();
+		Broadcast broadcast = mock(Broadcast.class);
+		Trickle trickle = newTrickle(executor, broadcast);
+		trickle.start().cancel(false);
+
+		trickle.run();
+		verify(broadcast, never()).run();
+		verify(executor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+	}
+
+	@Test
+	public void testFailure() {
+		ScheduledExecutorService executor = mockExecutor();
+		Broadcast broadcast = mock(Broadcast.class);
+		doThrow(new RuntimeException()).when(broadcast).run();
+		Trickle trickle = newTrickle(executor, broadcast);
+		ListenableFuture<Object> future = trickle.start();
+
+		trickle.run();
+		assertThat(future.isDone()).isTrue();
+
+		trickle.run();
+		verify(broadcast, times(1)).run();
+	}
+
+	/**
+	 * @param executor
+	 * @param broadcast
+	 * @return A new {@link Trickle} without jitter, so that its schedule is
+	 * predictable
+	 */
+	private static Trickle newTrickle(ScheduledExecutorService executor, Broadcast broadcast) {
+		return new Trickle(executor, broadcast, TEST_MIN, TEST_MAX, 0, new Random());
+	}
+
+	/**
+	 * @return A mock {@link ScheduledExecutorService} whose tasks return a mock
+	 * future
+	 */
+	private static ScheduledExecutorService mockExecutor() {
+		ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+		ScheduledFuture<?> future = mock(ScheduledFuture.class);
+		doReturn(future).when(executor).submit(any(Runnable.class));
+		doReturn(future).when(executor).schedule(any(Runnable.class), anyLong(),
+				any(TimeUnit.class));
+		return executor;
+	}
+}
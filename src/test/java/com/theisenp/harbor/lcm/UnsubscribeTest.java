@@ -3,7 +3,6 @@ package com.theisenp.harbor.lcm;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import lcm.lcm.LCM;
 
 import org.junit.Test;
 
@@ -18,9 +17,19 @@ public class UnsubscribeTest {
 
 	@Test
 	public void testApply() throws Exception {
-		LCM lcm = mock(LCM.class);
+		SharedTransport transport = mock(SharedTransport.class);
 		Subscriber subscriber = mock(Subscriber.class);
-		new Unsubscribe(subscriber).apply(lcm);
-		verify(lcm, times(1)).unsubscribe(LcmConstants.PEER_CHANNEL, subscriber);
+		new Unsubscribe(subscriber).apply(transport);
+		verify(transport, times(1)).unsubscribe(LcmConstants.PEER_CHANNEL, subscriber);
+	}
+
+	@Test
+	public void testApplyCompact() throws Exception {
+		SharedTransport transport = mock(SharedTransport.class);
+		Subscriber subscriber = mock(Subscriber.class);
+		new Unsubscribe(subscriber, WireFormat.COMPACT).apply(transport);
+		verify(transport, times(1)).unsubscribe(LcmConstants.HEARTBEAT_CHANNEL, subscriber);
+		verify(transport, times(1)).unsubscribe(LcmConstants.DESCRIPTOR_CHANNEL, subscriber);
+		verify(transport, times(0)).unsubscribe(LcmConstants.PEER_CHANNEL, subscriber);
 	}
 }
@@ -0,0 +1,177 @@
+package com.theisenp.harbor.metrics;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.metrics.FlightRecorder.Event;
+import com.theisenp.harbor.metrics.FlightRecorder.Kind;
+import com.theisenp.harbor.metrics.FlightRecorder.Sink;
+import com.theisenp.harbor.timing.Clock;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link FlightRecorder}
+ * 
+ * @author patrick.theisen
+ */
+public class FlightRecorderTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testCapacity() {
+		assertThat(new FlightRecorder(1, Clock.SYSTEM).getCapacity()).isEqualTo(1);
+		assertThat(new FlightRecorder(1000, Clock.SYSTEM).getCapacity()).isEqualTo(1024);
+		assertThat(new FlightRecorder(1024, Clock.SYSTEM).getCapacity()).isEqualTo(1024);
+		assertThat(new FlightRecorder(Clock.SYSTEM).getCapacity()).isEqualTo(
+				FlightRecorder.DEFAULT_CAPACITY);
+	}
+
+	@Test
+	public void testCapacityInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		new FlightRecorder(0, Clock.SYSTEM);
+	}
+
+	@Test
+	public void testRecord() {
+		VirtualScheduler clock = new VirtualScheduler();
+		FlightRecorder recorder = new FlightRecorder(16, clock);
+		assertThat(recorder.snapshot()).isEmpty();
+
+		recorder.record(Kind.RECEIVED, "test-id", null, null);
+		clock.advance(5, MILLISECONDS);
+		recorder.record(Kind.TRANSITIONED, "test-id", null, Status.ACTIVE);
+		recorder.record(Kind.DISPATCHED, "test-id", Status.ACTIVE, Status.INACTIVE, 42);
+
+		List<Event> events = recorder.snapshot();
+		assertThat(events).hasSize(3);
+		assertThat(recorder.getCount()).isEqualTo(3);
+
+		Event event = events.get(1);
+		assertThat(event.getSequence()).isEqualTo(1);
+		assertThat(event.getTime()).isEqualTo(MILLISECONDS.toNanos(5));
+		assertThat(event.getThread()).isEqualTo(Thread.currentThread().getId());
+		assertThat(event.getKind()).isEqualTo(Kind.TRANSITIONED);
+		assertThat(event.getId()).isEqualTo("test-id");
+		assertThat(event.getPrevious()).isNull();
+		assertThat(event.getStatus()).isEqualTo(Status.ACTIVE);
+
+		event = events.get(2);
+		assertThat(event.getTime()).isEqualTo(42);
+		assertThat(event.getPrevious()).isEqualTo(Status.ACTIVE);
+		assertThat(event.getStatus()).isEqualTo(Status.INACTIVE);
+	}
+
+	@Test
+	public void testWrap() {
+		FlightRecorder recorder = new FlightRecorder(4, new VirtualScheduler());
+		for(int i = 0; i < 10; i++) {
+			recorder.record(Kind.RECEIVED, "test-id-" + i, Status.ACTIVE, Status.ACTIVE);
+		}
+
+		// Only the most recent records are kept, from the oldest
+		List<Event> events = recorder.snapshot();
+		assertThat(events).hasSize(4);
+		for(int i = 0; i < 4; i++) {
+			assertThat(events.get(i).getSequence()).isEqualTo(6 + i);
+			assertThat(events.get(i).getId()).isEqualTo("test-id-" + (6 + i));
+		}
+	}
+
+	@Test
+	public void testConcurrentRecords() throws InterruptedException {
+		final FlightRecorder recorder = new FlightRecorder(64, Clock.SYSTEM);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for(int i = 0; i < 4; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch(InterruptedException exception) {
+						return;
+					}
+
+					// Each thread records its own id, so a torn record would
+					// pair an id with the wrong thread
+					String id = String.valueOf(getId());
+					for(int j = 0; j < 10000; j++) {
+						recorder.record(Kind.RECEIVED, id, Status.ACTIVE, Status.ACTIVE);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		while(recorder.getCount() < 40000) {
+			for(Event event : recorder.snapshot()) {
+				assertThat(event.getId()).isEqualTo(String.valueOf(event.getThread()));
+			}
+		}
+		for(Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(recorder.snapshot()).hasSize(64);
+	}
+
+	@Test
+	public void testAnomaly() {
+		VirtualScheduler clock = new VirtualScheduler();
+		FlightRecorder recorder = new FlightRecorder(16, clock);
+		recorder.record(Kind.RECEIVED, "test-id", Status.ACTIVE, Status.ACTIVE);
+		assertThat(recorder.anomaly("test-reason")).isFalse();
+
+		final List<String> reasons = new ArrayList<>();
+		final List<List<Event>> dumps = new ArrayList<>();
+		recorder.setSink(new Sink() {
+			@Override
+			public void onAnomaly(String reason, List<Event> events) {
+				reasons.add(reason);
+				dumps.add(events);
+			}
+		});
+		assertThat(recorder.anomaly("test-reason")).isTrue();
+		assertThat(reasons).isEqualTo(Arrays.asList("test-reason"));
+		assertThat(dumps.get(0)).hasSize(1);
+
+		// Anomalies that follow too closely are not dumped again
+		assertThat(recorder.anomaly("test-reason")).isFalse();
+		clock.advance(FlightRecorder.MIN_ANOMALY_INTERVAL.getMillis(), MILLISECONDS);
+		assertThat(recorder.anomaly("test-other")).isTrue();
+		assertThat(reasons).isEqualTo(Arrays.asList("test-reason", "test-other"));
+	}
+
+	@Test
+	public void testDump() throws IOException {
+		VirtualScheduler clock = new VirtualScheduler();
+		FlightRecorder recorder = new FlightRecorder(16, clock);
+		clock.advance(1, SECONDS);
+		recorder.record(Kind.TRANSITIONED, "test-id", Status.ACTIVE, Status.INACTIVE);
+		recorder.record(Kind.DISPATCHED, "test-id", null, Status.INACTIVE);
+
+		StringBuilder output = new StringBuilder();
+		recorder.dump(output);
+		String prefix = " 1000000000 thread-" + Thread.currentThread().getId();
+		assertThat(output.toString()).isEqualTo(
+				"#0" + prefix + " TRANSITIONED test-id ACTIVE -> INACTIVE\n"
+						+ "#1" + prefix + " DISPATCHED test-id null -> INACTIVE\n");
+	}
+}
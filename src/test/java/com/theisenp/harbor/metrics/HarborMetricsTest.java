@@ -0,0 +1,123 @@
+package com.theisenp.harbor.metrics;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.metrics.HarborMetrics.Callback;
+import com.theisenp.harbor.metrics.HarborMetrics.Source;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link HarborMetrics}
+ * 
+ * @author patrick.theisen
+ */
+public class HarborMetricsTest {
+
+	@Test
+	public void testCounts() {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		metrics.received(0);
+		metrics.received(0);
+		metrics.published();
+		metrics.selfDropped();
+		metrics.transition();
+
+		assertThat(metrics.getName()).isEqualTo("test-id");
+		assertThat(metrics.getReceived()).isEqualTo(2);
+		assertThat(metrics.getPublished()).isEqualTo(1);
+		assertThat(metrics.getSelfDropped()).isEqualTo(1);
+		assertThat(metrics.getTransitions()).isEqualTo(1);
+	}
+
+	@Test
+	public void testRates() {
+		VirtualScheduler clock = new VirtualScheduler();
+		HarborMetrics metrics = new HarborMetrics("test-id", clock);
+
+		// Seven complete seconds of ten datagrams each
+		for(int i = 0; i < 7; i++) {
+			for(int j = 0; j < 10; j++) {
+				metrics.received(0);
+			}
+			clock.advance(1, SECONDS);
+		}
+		assertThat(metrics.getReceivedPerSecond()).isEqualTo(10.0);
+		assertThat(metrics.getPublishedPerSecond()).isEqualTo(0.0);
+
+		// Seconds without events bring the rate back down
+		clock.advance(7, SECONDS);
+		assertThat(metrics.getReceivedPerSecond()).isEqualTo(0.0);
+		assertThat(metrics.getReceived()).isEqualTo(70);
+	}
+
+	@Test
+	public void testDurations() {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		assertThat(metrics.getDecodeP99Micros()).isEqualTo(0.0);
+
+		metrics.received(MICROSECONDS.toNanos(3));
+		metrics.received(MICROSECONDS.toNanos(5));
+		assertThat(metrics.getDecodeMeanMicros()).isEqualTo(4.0);
+		assertThat(metrics.getDecodeP99Micros()).isEqualTo(8.0);
+
+		metrics.lateness(MILLISECONDS.toNanos(-1));
+		metrics.lateness(MILLISECONDS.toNanos(1));
+		assertThat(metrics.getPublishLatenessMeanMicros()).isEqualTo(500.0);
+		assertThat(metrics.getPublishLatenessP99Micros()).isEqualTo(1024.0);
+
+		metrics.callback(Callback.UPDATED, MICROSECONDS.toNanos(100));
+		assertThat(metrics.getListenerP99Micros().get("UPDATED")).isEqualTo(128.0);
+		assertThat(metrics.getListenerP99Micros().get("ACTIVE")).isEqualTo(0.0);
+	}
+
+	@Test
+	public void testSource() {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		assertThat(metrics.getPendingTimeouts()).isEqualTo(0);
+		assertThat(metrics.getPeers().get("ACTIVE")).isEqualTo(0);
+
+		metrics.setSource(new Source() {
+			@Override
+			public int getPeerCount(Status status) {
+				return status.ordinal();
+			}
+
+			@Override
+			public int getPendingTimeouts() {
+				return 5;
+			}
+		});
+		assertThat(metrics.getPendingTimeouts()).isEqualTo(5);
+		assertThat(metrics.getPeerCount(Status.INACTIVE)).isEqualTo(Status.INACTIVE.ordinal());
+		assertThat(metrics.getPeers()).hasSize(Status.values().length);
+	}
+
+	@Test
+	public void testRegister() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		metrics.received(0);
+
+		metrics.register();
+		try {
+			assertThat(server.getAttribute(metrics.getObjectName(), "Received")).isEqualTo(1L);
+		}
+		finally {
+			metrics.unregister();
+		}
+		assertThat(server.isRegistered(metrics.getObjectName())).isFalse();
+
+		// Unregistering twice is harmless
+		metrics.unregister();
+	}
+}
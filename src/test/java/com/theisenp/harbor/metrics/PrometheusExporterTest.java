@@ -0,0 +1,140 @@
+package com.theisenp.harbor.metrics;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.theisenp.harbor.metrics.HarborMetrics.Callback;
+import com.theisenp.harbor.timing.VirtualScheduler;
+
+/**
+ * Unit tests for {@link PrometheusExporter}
+ * 
+ * @author patrick.theisen
+ */
+public class PrometheusExporterTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testScrapeCounters() {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		metrics.received(0);
+		metrics.published();
+		metrics.published();
+
+		PrometheusExporter exporter = new PrometheusExporter(0);
+		exporter.add(metrics);
+		String text = exporter.scrape();
+		assertThat(text).contains("# TYPE harbor_datagrams_received_total counter\n");
+		assertThat(text).contains("harbor_datagrams_received_total{harbor=\"test-id\"} 1\n");
+		assertThat(text).contains("harbor_datagrams_published_total{harbor=\"test-id\"} 2\n");
+		assertThat(text).contains("harbor_peers{harbor=\"test-id\",status=\"ACTIVE\"} 0\n");
+	}
+
+	@Test
+	public void testScrapeHistogram() {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		metrics.callback(Callback.CONNECTED, MICROSECONDS.toNanos(3));
+		metrics.callback(Callback.CONNECTED, MICROSECONDS.toNanos(5));
+
+		PrometheusExporter exporter = new PrometheusExporter(0);
+		exporter.add(metrics);
+		String text = exporter.scrape();
+		String labels = "harbor=\"test-id\",callback=\"CONNECTED\"";
+		String bucket = "harbor_listener_seconds_bucket{" + labels + ",le=";
+
+		// Buckets are cumulative and bounded in seconds
+		assertThat(text).contains("# TYPE harbor_listener_seconds histogram\n");
+		assertThat(text).contains(bucket + "\"2.0E-6\"} 0\n");
+		assertThat(text).contains(bucket + "\"4.0E-6\"} 1\n");
+		assertThat(text).contains(bucket + "\"8.0E-6\"} 2\n");
+		assertThat(text).contains(bucket + "\"+Inf\"} 2\n");
+		assertThat(text).contains("harbor_listener_seconds_sum{" + labels + "} 8.0E-6\n");
+		assertThat(text).contains("harbor_listener_seconds_count{" + labels + "} 2\n");
+	}
+
+	@Test
+	public void testEscape() {
+		assertThat(PrometheusExporter.escape("a\"b\\c\nd")).isEqualTo("a\\\"b\\\\c\\nd");
+	}
+
+	@Test
+	public void testRemove() {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		PrometheusExporter exporter = new PrometheusExporter(0);
+		exporter.add(metrics);
+		exporter.remove(metrics);
+		assertThat(exporter.scrape()).excludes("test-id");
+	}
+
+	@Test
+	public void testServe() throws IOException {
+		HarborMetrics metrics = new HarborMetrics("test-id", new VirtualScheduler());
+		metrics.transition();
+		PrometheusExporter exporter = new PrometheusExporter(0);
+		exporter.add(metrics);
+		exporter.start();
+		try {
+			URL url = new URL("http://localhost:" + exporter.getPort() + PrometheusExporter.PATH);
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			assertThat(connection.getResponseCode()).isEqualTo(200);
+			assertThat(connection.getContentType()).isEqualTo(PrometheusExporter.CONTENT_TYPE);
+			assertThat(read(connection.getInputStream())).isEqualTo(exporter.scrape());
+		}
+		finally {
+			exporter.stop();
+		}
+	}
+
+	@Test
+	public void testStartTwice() throws IOException {
+		PrometheusExporter exporter = new PrometheusExporter(0);
+		exporter.start();
+		try {
+			thrown.expect(IllegalStateException.class);
+			exporter.start();
+		}
+		finally {
+			exporter.stop();
+		}
+	}
+
+	@Test
+	public void testPortBeforeStart() {
+		thrown.expect(IllegalStateException.class);
+		new PrometheusExporter(0).getPort();
+	}
+
+	/**
+	 * @param input
+	 * @return The remaining contents of the given {@link InputStream}, decoded
+	 * as UTF-8
+	 * @throws IOException
+	 */
+	private static String read(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		try {
+			while((count = input.read(buffer)) != -1) {
+				output.write(buffer, 0, count);
+			}
+		}
+		finally {
+			input.close();
+		}
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
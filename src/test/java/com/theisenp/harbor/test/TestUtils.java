@@ -21,10 +21,18 @@ public class TestUtils {
 	 * @throws IOException
 	 */
 	public static LCMDataInputStream wrap(LCMEncodable message) {
+		return new LCMDataInputStream(encode(message));
+	}
+
+	/**
+	 * @param message
+	 * @return The encoding of the given {@link LCMEncodable}
+	 */
+	public static byte[] encode(LCMEncodable message) {
 		try {
 			ByteArrayOutputStream output = new ByteArrayOutputStream();
 			message.encode(new DataOutputStream(output));
-			return new LCMDataInputStream(output.toByteArray());
+			return output.toByteArray();
 		}
 		catch(IOException exception) {
 			throw new RuntimeException(exception);
@@ -0,0 +1,108 @@
+package com.theisenp.harbor.timing;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit tests for {@link ExecutorTimeoutScheduler}
+ * 
+ * @author patrick.theisen
+ */
+public class ExecutorTimeoutSchedulerTest {
+	private ScheduledExecutorService executor;
+	private ScheduledFuture<?> future;
+	private Runnable task;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setUp() {
+		executor = mock(ScheduledExecutorService.class);
+		future = mock(ScheduledFuture.class);
+		task = mock(Runnable.class);
+		when((ScheduledFuture) executor.schedule(any(Runnable.class), anyLong(),
+				any(TimeUnit.class))).thenReturn(future);
+	}
+
+	@Test
+	public void testSchedule() {
+		new ExecutorTimeoutScheduler(executor).schedule(task, 10, MILLISECONDS);
+		verify(executor, times(1)).schedule(any(Runnable.class), eq(10L), eq(MILLISECONDS));
+
+		// The scheduled runnable runs the task
+		scheduled().run();
+		verify(task, times(1)).run();
+	}
+
+	@Test
+	public void testReset() {
+		when(future.cancel(false)).thenReturn(true);
+		Timeout timeout = new ExecutorTimeoutScheduler(executor).schedule(task, 10, MILLISECONDS);
+
+		assertThat(timeout.reset(20, MILLISECONDS)).isTrue();
+		verify(future, times(1)).cancel(false);
+		verify(executor, times(1)).schedule(any(Runnable.class), eq(20L), eq(MILLISECONDS));
+	}
+
+	@Test
+	public void testResetExpired() {
+		when(future.cancel(false)).thenReturn(false);
+		Timeout timeout = new ExecutorTimeoutScheduler(executor).schedule(task, 10, MILLISECONDS);
+
+		assertThat(timeout.reset(20, MILLISECONDS)).isFalse();
+		verify(executor, times(0)).schedule(any(Runnable.class), eq(20L), any(TimeUnit.class));
+	}
+
+	@Test
+	public void testCancel() {
+		when(future.cancel(false)).thenReturn(true);
+		Timeout timeout = new ExecutorTimeoutScheduler(executor).schedule(task, 10, MILLISECONDS);
+
+		assertThat(timeout.cancel()).isTrue();
+		verify(future, times(1)).cancel(false);
+	}
+
+	@Test
+	public void testPendingCount() {
+		when(future.cancel(false)).thenReturn(true);
+		ExecutorTimeoutScheduler scheduler = new ExecutorTimeoutScheduler(executor);
+		Timeout cancelled = scheduler.schedule(task, 10, MILLISECONDS);
+
+		// Resetting a timeout leaves it pending
+		assertThat(cancelled.reset(20, MILLISECONDS)).isTrue();
+		assertThat(scheduler.getPendingCount()).isEqualTo(1);
+
+		// Expired and cancelled timeouts are no longer pending
+		scheduler.schedule(task, 10, MILLISECONDS);
+		assertThat(scheduler.getPendingCount()).isEqualTo(2);
+		scheduled().run();
+		assertThat(scheduler.getPendingCount()).isEqualTo(1);
+		assertThat(cancelled.cancel()).isTrue();
+		assertThat(scheduler.getPendingCount()).isEqualTo(0);
+	}
+
+	/**
+	 * @return The last {@link Runnable} scheduled on the executor
+	 */
+	private Runnable scheduled() {
+		ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+		verify(executor, atLeastOnce()).schedule(captor.capture(), anyLong(),
+				any(TimeUnit.class));
+		return captor.getValue();
+	}
+}
@@ -0,0 +1,214 @@
+package com.theisenp.harbor.timing;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Unit tests for {@link JitteredSchedule}
+ * 
+ * @author patrick.theisen
+ */
+public class JitteredScheduleTest {
+	private static final Duration TEST_PERIOD = Duration.standardHours(1);
+	private static final long TEST_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(TEST_PERIOD
+			.getMillis());
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testConstructWithInvalidPeriod() {
+		thrown.expect(IllegalArgumentException.class);
+		new JitteredSchedule(mockExecutor(), mock(Runnable.class), Duration.ZERO);
+	}
+
+	@Test
+	public void testConstructWithInvalidJitter() {
+		thrown.expect(IllegalArgumentException.class);
+		new JitteredSchedule(mockExecutor(), mock(Runnable.class), TEST_PERIOD, -1, new Random());
+	}
+
+	@Test
+	public void testStart() {
+		ScheduledExecutorService executor = mockExecutor();
+		JitteredSchedule schedule = new JitteredSchedule(executor, mock(Runnable.class),
+				TEST_PERIOD, 0, mockRandom(0.25));
+
+		// The first run falls at a random phase within the first period
+		ListenableFuture<Object> future = schedule.start();
+		assertThat(future.isDone()).isFalse();
+		verify(executor, times(1)).schedule(schedule, TEST_PERIOD_NANOS / 4, NANOSECONDS);
+	}
+
+	@Test
+	public void testRun() {
+		ScheduledExecutorService executor = mockExecutor();
+		Runnable task = mock(Runnable.class);
+		JitteredSchedule schedule = new JitteredSchedule(executor, task, TEST_PERIOD, 0,
+				mockRandom(0.5));
+		long start = System.nanoTime();
+		schedule.start();
+
+		// Run early, as a jittered run might. The next run still falls one
+		// period after the first slot, rather than one period after this run.
+		schedule.run();
+		long elapsed = System.nanoTime() - start;
+		verify(task, times(1)).run();
+
+		long delay = captureDelay(executor, 2);
+		assertThat(delay).isLessThanOrEqualTo(TEST_PERIOD_NANOS * 3 / 2);
+		assertThat(delay).isGreaterThanOrEqualTo(TEST_PERIOD_NANOS * 3 / 2 - elapsed);
+		assertThat(schedule.getSkipped()).isEqualTo(0);
+	}
+
+	@Test
+	public void testJitter() {
+		ScheduledExecutorService executor = mockExecutor();
+		JitteredSchedule schedule = new JitteredSchedule(executor, mock(Runnable.class),
+				TEST_PERIOD, 0.2, mockRandom(0));
+		long start = System.nanoTime();
+		schedule.start();
+
+		// The run is displaced by up to half the jitter window in either
+		// direction
+		schedule.run();
+		long elapsed = System.nanoTime() - start;
+
+		long delay = captureDelay(executor, 2);
+		assertThat(delay).isLessThanOrEqualTo(TEST_PERIOD_NANOS * 9 / 10);
+		assertThat(delay).isGreaterThanOrEqualTo(TEST_PERIOD_NANOS * 9 / 10 - elapsed);
+	}
+
+	@Test
+	public void testSkip() throws InterruptedException {
+		ScheduledExecutorService executor = mockExecutor();
+		Runnable task = mock(Runnable.class);
+		JitteredSchedule schedule = new JitteredSchedule(executor, task, Duration.millis(1), 0,
+				mockRandom(0));
+		schedule.start();
+
+		// A late run skips the slots that it missed, rather than catching up
+		Thread.sleep(10);
+		schedule.run();
+		verify(task, times(1)).run();
+		assertThat(schedule.getSkipped()).isGreaterThanOrEqualTo(8);
+		assertThat(captureDelay(executor, 2)).isLessThanOrEqualTo(TimeUnit.MILLISECONDS
+				.toNanos(1));
+	}
+
+	@Test
+	public void testSetPeriod() {
+		ScheduledExecutorService executor = mockExecutor();
+		JitteredSchedule schedule = new JitteredSchedule(executor, mock(Runnable.class),
+				TEST_PERIOD, 0, mockRandom(0));
+		long start = System.nanoTime();
+		schedule.start();
+		schedule.run();
+
+		// The pending run is replaced by one a new period after the last slot
+		schedule.setPeriod(TEST_PERIOD.multipliedBy(2));
+		long elapsed = System.nanoTime() - start;
+		assertThat(schedule.getPeriod()).isEqualTo(TEST_PERIOD.multipliedBy(2));
+
+		long delay = captureDelay(executor, 3);
+		assertThat(delay).isLessThanOrEqualTo(2 * TEST_PERIOD_NANOS);
+		assertThat(delay).isGreaterThanOrEqualTo(2 * TEST_PERIOD_NANOS - elapsed);
+	}
+
+	@Test
+	public void testSetPeriodBeforeFirstRun() {
+		ScheduledExecutorService executor = mockExecutor();
+		JitteredSchedule schedule = new JitteredSchedule(executor, mock(Runnable.class),
+				TEST_PERIOD, 0, mockRandom(0.5));
+		schedule.start();
+
+		// The first run keeps its phase
+		schedule.setPeriod(TEST_PERIOD.multipliedBy(2));
+		verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), eq(NANOSECONDS));
+		assertThat(schedule.getPeriod()).isEqualTo(TEST_PERIOD.multipliedBy(2));
+	}
+
+	@Test
+	public void testCancel() {
+		ScheduledExecutorService executor = mockExecutor();
+		Runnable task = mock(Runnable.class);
+		JitteredSchedule schedule = new JitteredSchedule(executor, task, TEST_PERIOD);
+		schedule.start().cancel(false);
+
+		schedule.run();
+		verify(task, never()).run();
+		verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), eq(NANOSECONDS));
+	}
+
+	@Test
+	public void testFailure() {
+		ScheduledExecutorService executor = mockExecutor();
+		Runnable task = mock(Runnable.class);
+		doThrow(new RuntimeException()).when(task).run();
+		JitteredSchedule schedule = new JitteredSchedule(executor, task, TEST_PERIOD);
+		ListenableFuture<Object> future = schedule.start();
+
+		schedule.run();
+		assertThat(future.isDone()).isTrue();
+
+		schedule.run();
+		verify(task, times(1)).run();
+	}
+
+	/**
+	 * @param executor
+	 * @param count The number of runs scheduled so far
+	 * @return The delay of the most recently scheduled run
+	 */
+	private static long captureDelay(ScheduledExecutorService executor, int count) {
+		ArgumentCaptor<Long> delayCaptor = ArgumentCaptor.forClass(Long.class);
+		verify(executor, times(count)).schedule(any(Runnable.class), delayCaptor.capture(),
+				eq(NANOSECONDS));
+		return delayCaptor.getValue();
+	}
+
+	/**
+	 * @param value
+	 * @return A mock {@link Random} that always returns the given value
+	 */
+	private static Random mockRandom(double value) {
+		Random random = mock(Random.class);
+		when(random.nextDouble()).thenReturn(value);
+		return random;
+	}
+
+	/**
+	 * @return A mock {@link ScheduledExecutorService} whose tasks return a mock
+	 * future
+	 */
+	private static ScheduledExecutorService mockExecutor() {
+		ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+		ScheduledFuture<?> future = mock(ScheduledFuture.class);
+		doReturn(future).when(executor).schedule(any(Runnable.class), anyLong(),
+				any(TimeUnit.class));
+		return executor;
+	}
+}
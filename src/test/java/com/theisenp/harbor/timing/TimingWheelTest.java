@@ -0,0 +1,326 @@
+package com.theisenp.harbor.timing;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Unit tests for {@link TimingWheel}
+ * 
+ * @author patrick.theisen
+ */
+public class TimingWheelTest {
+	private static final Duration TEST_TICK = Duration.millis(5);
+
+	private ScheduledExecutorService executor;
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Before
+	public void setUp() {
+		executor = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConstructWithInvalidTick() {
+		thrown.expect(IllegalArgumentException.class);
+		new TimingWheel(executor, Duration.ZERO);
+	}
+
+	@Test
+	public void testConstructWithInvalidSize() {
+		thrown.expect(IllegalArgumentException.class);
+		new TimingWheel(executor, TEST_TICK, 100);
+	}
+
+	@Test
+	public void testExpire() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		CountDownLatch latch = new CountDownLatch(1);
+
+		long start = System.nanoTime();
+		wheel.schedule(new CountDown(latch), 20, MILLISECONDS);
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+		assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(20));
+	}
+
+	@Test
+	public void testExpireBeyondOneRotation() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK, 4);
+		CountDownLatch latch = new CountDownLatch(1);
+
+		long start = System.nanoTime();
+		wheel.schedule(new CountDown(latch), 50, MILLISECONDS);
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+		assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	public void testReset() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		CountDownLatch latch = new CountDownLatch(1);
+
+		long start = System.nanoTime();
+		Timeout timeout = wheel.schedule(new CountDown(latch), 20, MILLISECONDS);
+		Thread.sleep(10);
+		assertThat(timeout.reset(50, MILLISECONDS)).isTrue();
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+		assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(MILLISECONDS.toNanos(60));
+	}
+
+	@Test
+	public void testResetEarlier() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		CountDownLatch latch = new CountDownLatch(1);
+
+		Timeout timeout = wheel.schedule(new CountDown(latch), 10, TimeUnit.SECONDS);
+		assertThat(timeout.reset(10, MILLISECONDS)).isTrue();
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+	}
+
+	@Test
+	public void testResetExpired() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		CountDownLatch latch = new CountDownLatch(1);
+
+		Timeout timeout = wheel.schedule(new CountDown(latch), 10, MILLISECONDS);
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+
+		assertThat(timeout.reset(10, MILLISECONDS)).isFalse();
+		assertThat(timeout.cancel()).isFalse();
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		AtomicInteger count = new AtomicInteger();
+
+		Timeout timeout = wheel.schedule(new Increment(count), 10, MILLISECONDS);
+		assertThat(timeout.cancel()).isTrue();
+		assertThat(timeout.reset(10, MILLISECONDS)).isFalse();
+
+		Thread.sleep(50);
+		assertThat(count.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void testStop() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		AtomicInteger count = new AtomicInteger();
+
+		Timeout timeout = wheel.schedule(new Increment(count), 10, MILLISECONDS);
+		wheel.stop();
+
+		Thread.sleep(50);
+		assertThat(count.get()).isEqualTo(0);
+		assertThat(timeout.reset(10, MILLISECONDS)).isFalse();
+	}
+
+	@Test
+	public void testRestartAfterStop() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		CountDownLatch latch = new CountDownLatch(1);
+		wheel.schedule(new CountDown(new CountDownLatch(1)), 10, MILLISECONDS);
+
+		// Hold up the executor so the stopped wheel is discarded only after
+		// the wheel has been restarted
+		CountDownLatch blocked = new CountDownLatch(1);
+		executor.execute(new Await(blocked));
+		wheel.stop();
+		Timeout timeout = wheel.schedule(new CountDown(latch), 10, MILLISECONDS);
+		blocked.countDown();
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+		assertThat(timeout.cancel()).isFalse();
+		wheel.stop();
+	}
+
+	@Test
+	public void testFailingTask() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		wheel.setFailureHandler(new UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread thread, Throwable exception) {
+				failure.set(exception);
+			}
+		});
+		CountDownLatch latch = new CountDownLatch(1);
+
+		final RuntimeException exception = new IllegalStateException();
+		wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				throw exception;
+			}
+		}, 10, MILLISECONDS);
+		wheel.schedule(new CountDown(latch), 10, MILLISECONDS);
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Timeout never expired");
+		}
+		assertThat(failure.get()).isSameAs(exception);
+	}
+
+	@Test
+	public void testManyTimeouts() throws InterruptedException {
+		TimingWheel wheel = new TimingWheel(executor, TEST_TICK, 8);
+		CountDownLatch latch = new CountDownLatch(1000);
+
+		for(int i = 0; i < 1000; i++) {
+			wheel.schedule(new CountDown(latch), i % 100, MILLISECONDS);
+		}
+
+		if(!latch.await(1, TimeUnit.SECONDS)) {
+			fail("Not all timeouts expired");
+		}
+	}
+
+	@Test
+	public void testExpireInVirtualTime() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		TimingWheel wheel = new TimingWheel(scheduler, scheduler, TEST_TICK, 8);
+		AtomicInteger count = new AtomicInteger();
+
+		// Far more rotations than would be practical in real time
+		Timeout timeout = wheel.schedule(new Increment(count), 1, TimeUnit.HOURS);
+		scheduler.advance(59, TimeUnit.MINUTES);
+		assertThat(timeout.reset(1, TimeUnit.HOURS)).isTrue();
+		scheduler.advance(59, TimeUnit.MINUTES);
+		assertThat(count.get()).isEqualTo(0);
+
+		// The timeout fires within one tick of its deadline
+		scheduler.advance(1, TimeUnit.MINUTES);
+		scheduler.advance(TEST_TICK.getMillis(), MILLISECONDS);
+		assertThat(count.get()).isEqualTo(1);
+		wheel.stop();
+	}
+
+	@Test
+	public void testPendingCount() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		TimingWheel wheel = new TimingWheel(scheduler, scheduler, TEST_TICK, 8);
+		AtomicInteger count = new AtomicInteger();
+		Timeout cancelled = wheel.schedule(new Increment(count), 1, TimeUnit.SECONDS);
+		wheel.schedule(new Increment(count), 1, TimeUnit.SECONDS);
+		assertThat(wheel.getPendingCount()).isEqualTo(2);
+
+		// Resetting a timeout leaves it pending
+		assertThat(cancelled.reset(2, TimeUnit.SECONDS)).isTrue();
+		assertThat(wheel.getPendingCount()).isEqualTo(2);
+
+		// Expired and cancelled timeouts are no longer pending
+		scheduler.advance(1, TimeUnit.SECONDS);
+		scheduler.advance(TEST_TICK.getMillis(), MILLISECONDS);
+		assertThat(count.get()).isEqualTo(1);
+		assertThat(wheel.getPendingCount()).isEqualTo(1);
+		assertThat(cancelled.cancel()).isTrue();
+		assertThat(wheel.getPendingCount()).isEqualTo(0);
+		wheel.stop();
+	}
+
+	/**
+	 * A {@link Runnable} that counts down a {@link CountDownLatch}
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class CountDown implements Runnable {
+		private final CountDownLatch latch;
+
+		/**
+		 * @param latch
+		 */
+		public CountDown(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * A {@link Runnable} that waits for a {@link CountDownLatch}
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Await implements Runnable {
+		private final CountDownLatch latch;
+
+		/**
+		 * @param latch
+		 */
+		public Await(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			try {
+				latch.await();
+			}
+			catch(InterruptedException exception) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * A {@link Runnable} that increments an {@link AtomicInteger}
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Increment implements Runnable {
+		private final AtomicInteger count;
+
+		/**
+		 * @param count
+		 */
+		public Increment(AtomicInteger count) {
+			this.count = count;
+		}
+
+		@Override
+		public void run() {
+			count.incrementAndGet();
+		}
+	}
+}
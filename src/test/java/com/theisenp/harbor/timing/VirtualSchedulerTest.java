@@ -0,0 +1,213 @@
+package com.theisenp.harbor.timing;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Fail.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Unit tests for {@link VirtualScheduler}
+ * 
+ * @author patrick.theisen
+ */
+public class VirtualSchedulerTest {
+
+	@Rule
+	public final ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testAdvanceWithNegativeDelay() {
+		thrown.expect(IllegalArgumentException.class);
+		new VirtualScheduler().advance(-1, SECONDS);
+	}
+
+	@Test
+	public void testAdvance() {
+		VirtualScheduler scheduler = new VirtualScheduler(100);
+		Recorder recorder = new Recorder(scheduler);
+		scheduler.schedule(recorder.task("second"), 2, SECONDS);
+		scheduler.schedule(recorder.task("first"), 1, SECONDS);
+
+		// Nothing runs until the clock moves
+		assertThat(scheduler.nanoTime()).isEqualTo(100);
+		assertThat(recorder.names).isEmpty();
+
+		// Each task sees the clock at its own deadline
+		scheduler.advance(3, SECONDS);
+		assertThat(recorder.names).containsExactly("first", "second");
+		assertThat(recorder.times).containsExactly(100 + SECONDS.toNanos(1),
+				100 + SECONDS.toNanos(2));
+		assertThat(scheduler.nanoTime()).isEqualTo(100 + SECONDS.toNanos(3));
+		assertThat(scheduler.getPendingCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testSameDeadline() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Recorder recorder = new Recorder(scheduler);
+		for(int i = 0; i < 10; i++) {
+			scheduler.schedule(recorder.task(String.valueOf(i)), 1, SECONDS);
+		}
+
+		// Tasks that fall due together run in the order they were scheduled
+		scheduler.advance(1, SECONDS);
+		assertThat(recorder.names).containsExactly("0", "1", "2", "3", "4", "5", "6", "7", "8",
+				"9");
+	}
+
+	@Test
+	public void testTaskSchedulesTask() {
+		final VirtualScheduler scheduler = new VirtualScheduler();
+		final Recorder recorder = new Recorder(scheduler);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				scheduler.schedule(recorder.task("nested"), 1, SECONDS);
+			}
+		}, 1, SECONDS);
+
+		scheduler.advance(5, SECONDS);
+		assertThat(recorder.times).containsExactly(SECONDS.toNanos(2));
+	}
+
+	@Test
+	public void testFixedRate() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Recorder recorder = new Recorder(scheduler);
+		ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(recorder.task("tick"), 500,
+				1000, MILLISECONDS);
+
+		scheduler.advance(3, SECONDS);
+		assertThat(recorder.times).containsExactly(MILLISECONDS.toNanos(500),
+				MILLISECONDS.toNanos(1500), MILLISECONDS.toNanos(2500));
+		assertThat(scheduler.getPendingCount()).isEqualTo(1);
+
+		future.cancel(false);
+		scheduler.advance(3, SECONDS);
+		assertThat(recorder.times).hasSize(3);
+		assertThat(scheduler.getPendingCount()).isEqualTo(0);
+	}
+
+	@Test
+	public void testFixedDelay() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Recorder recorder = new Recorder(scheduler);
+		scheduler.scheduleWithFixedDelay(recorder.task("tick"), 0, 1, SECONDS);
+
+		scheduler.advance(2, SECONDS);
+		assertThat(recorder.times).containsExactly(0L, SECONDS.toNanos(1), SECONDS.toNanos(2));
+	}
+
+	@Test
+	public void testCancel() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Recorder recorder = new Recorder(scheduler);
+		ScheduledFuture<?> future = scheduler.schedule(recorder.task("cancelled"), 1, SECONDS);
+
+		assertThat(future.cancel(false)).isTrue();
+		assertThat(scheduler.getPendingCount()).isEqualTo(0);
+
+		scheduler.advance(1, SECONDS);
+		assertThat(recorder.names).isEmpty();
+		assertThat(future.cancel(false)).isFalse();
+	}
+
+	@Test
+	public void testSubmit() throws Exception {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		ListenableFuture<Integer> future = scheduler.submit(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return 42;
+			}
+		});
+
+		// Submitted tasks are due immediately, but still wait for the clock
+		assertThat(future.isDone()).isFalse();
+		scheduler.runPending();
+		assertThat(future.get()).isEqualTo(42);
+		assertThat(scheduler.nanoTime()).isEqualTo(0);
+	}
+
+	@Test
+	public void testFailure() throws InterruptedException {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				throw new IllegalStateException();
+			}
+		}, 1, 1, SECONDS);
+
+		// A failing periodic task stops, without taking down the scheduler
+		scheduler.advance(5, SECONDS);
+		assertThat(scheduler.getPendingCount()).isEqualTo(0);
+		try {
+			future.get();
+		}
+		catch(ExecutionException exception) {
+			assertThat(exception.getCause()).isInstanceOf(IllegalStateException.class);
+			return;
+		}
+		fail("The task should have failed");
+	}
+
+	@Test
+	public void testShutdown() {
+		VirtualScheduler scheduler = new VirtualScheduler();
+		Recorder recorder = new Recorder(scheduler);
+		ScheduledFuture<?> future = scheduler.schedule(recorder.task("discarded"), 1, SECONDS);
+
+		assertThat(scheduler.shutdownNow()).hasSize(1);
+		assertThat(future.isCancelled()).isTrue();
+		assertThat(scheduler.isShutdown()).isTrue();
+
+		thrown.expect(RejectedExecutionException.class);
+		scheduler.execute(recorder.task("rejected"));
+	}
+
+	/**
+	 * Records the name of each task that runs, and the time at which it runs
+	 * 
+	 * @author patrick.theisen
+	 */
+	private static class Recorder {
+		private final Clock clock;
+		private final List<String> names = new ArrayList<>();
+		private final List<Long> times = new ArrayList<>();
+
+		/**
+		 * @param clock
+		 */
+		public Recorder(Clock clock) {
+			this.clock = clock;
+		}
+
+		/**
+		 * @param name
+		 * @return A task that records the given name and the current time
+		 */
+		public Runnable task(final String name) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					names.add(name);
+					times.add(clock.nanoTime());
+				}
+			};
+		}
+	}
+}
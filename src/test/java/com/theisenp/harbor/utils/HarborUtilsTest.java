@@ -8,6 +8,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import com.theisenp.harbor.Harbor;
+import com.theisenp.harbor.metrics.FlightRecorder;
 
 /**
  * Unit tests for {@link HarborUtils}
@@ -105,6 +106,28 @@ public class HarborUtilsTest {
 		HarborUtils.validatePeriod(Duration.ZERO);
 	}
 
+	@Test
+	public void testValidateMaxPeriod() {
+		HarborUtils.validateMaxPeriod(TEST_PERIOD);
+	}
+
+	@Test
+	public void testValidateMaxPeriodInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		HarborUtils.validateMaxPeriod(Duration.ZERO);
+	}
+
+	@Test
+	public void testValidateBandwidth() {
+		HarborUtils.validateBandwidth(10000);
+	}
+
+	@Test
+	public void testValidateBandwidthInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		HarborUtils.validateBandwidth(-1);
+	}
+
 	@Test
 	public void testValidateTimeout() {
 		HarborUtils.validateTimeout(TEST_TIMEOUT);
@@ -115,4 +138,45 @@ public class HarborUtilsTest {
 		thrown.expect(IllegalArgumentException.class);
 		HarborUtils.validateTimeout(Duration.ZERO);
 	}
+
+	@Test
+	public void testValidateTick() {
+		HarborUtils.validateTick(Duration.millis(10));
+	}
+
+	@Test
+	public void testValidateTickInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		HarborUtils.validateTick(Duration.ZERO);
+	}
+
+	@Test
+	public void testValidateListenerCapacity() {
+		HarborUtils.validateListenerCapacity(0);
+		HarborUtils.validateListenerCapacity(100);
+	}
+
+	@Test
+	public void testValidateListenerCapacityInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		HarborUtils.validateListenerCapacity(-1);
+	}
+
+	@Test
+	public void testValidateRecorderCapacity() {
+		HarborUtils.validateRecorderCapacity(1);
+		HarborUtils.validateRecorderCapacity(FlightRecorder.MAX_CAPACITY);
+	}
+
+	@Test
+	public void testValidateRecorderCapacityInvalid() {
+		thrown.expect(IllegalArgumentException.class);
+		HarborUtils.validateRecorderCapacity(0);
+	}
+
+	@Test
+	public void testValidateRecorderCapacityTooLarge() {
+		thrown.expect(IllegalArgumentException.class);
+		HarborUtils.validateRecorderCapacity(FlightRecorder.MAX_CAPACITY + 1);
+	}
 }
@@ -1,6 +1,7 @@
 package com.theisenp.harbor.utils;
 
 import static com.theisenp.harbor.test.PeerMessageAssert.assertThat;
+import static java.util.Arrays.asList;
 import static org.fest.assertions.Assertions.assertThat;
 
 import org.junit.Test;
@@ -8,6 +9,8 @@ import org.junit.Test;
 import com.theisenp.harbor.Peer;
 import com.theisenp.harbor.Peer.Builder;
 import com.theisenp.harbor.Peer.Status;
+import com.theisenp.harbor.lcm.Advertisement;
+import com.theisenp.harbor.lcmtypes.DescriptorMessage;
 import com.theisenp.harbor.lcmtypes.PeerMessage;
 
 /**
@@ -24,6 +27,8 @@ public class PeerUtilsTest {
 	private static final String TEST_FIRST_ADDRESS = "test-address-1";
 	private static final String TEST_SECOND_PROTOCOL = "test-protocol-2";
 	private static final String TEST_SECOND_ADDRESS = "test-address-2";
+	private static final long TEST_INCARNATION = 1000;
+	private static final long TEST_VERSION = 7;
 
 	@Test
 	public void testFromMessage() {
@@ -35,6 +40,36 @@ public class PeerUtilsTest {
 		assertThat(PeerUtils.toMessage(mockPeer())).isEqualTo(mockPeerMessage());
 	}
 
+	@Test
+	public void testToMessageWithAdvertisement() {
+		Advertisement advertisement = new Advertisement(mockPeer(), TEST_INCARNATION, TEST_VERSION);
+		PeerMessage message = PeerUtils.toMessage(advertisement);
+		assertThat(message).isEqualTo(mockPeerMessage());
+		assertThat(message.incarnation).isEqualTo(TEST_INCARNATION);
+		assertThat(message.version).isEqualTo(TEST_VERSION);
+	}
+
+	@Test
+	public void testFromDescriptor() {
+		Peer peer = PeerUtils.fromDescriptor(mockDescriptorMessage(), TEST_STATUS);
+		assertThat(peer).isEqualTo(mockPeer());
+	}
+
+	@Test
+	public void testToDescriptor() {
+		Advertisement advertisement = new Advertisement(mockPeer(), TEST_INCARNATION, TEST_VERSION);
+		DescriptorMessage actual = PeerUtils.toDescriptor(advertisement);
+		DescriptorMessage expected = mockDescriptorMessage();
+		assertThat(actual.id).isEqualTo(expected.id);
+		assertThat(actual.incarnation).isEqualTo(expected.incarnation);
+		assertThat(actual.version).isEqualTo(expected.version);
+		assertThat(actual.type).isEqualTo(expected.type);
+		assertThat(actual.description).isEqualTo(expected.description);
+		assertThat(actual.count).isEqualTo(expected.count);
+		assertThat(asList(actual.protocols)).isEqualTo(asList(expected.protocols));
+		assertThat(asList(actual.addresses)).isEqualTo(asList(expected.addresses));
+	}
+
 	/**
 	 * @return A {@link Peer} generated from the test data
 	 */
@@ -62,4 +97,20 @@ public class PeerUtilsTest {
 		result.addresses = new String[] { TEST_FIRST_ADDRESS, TEST_SECOND_ADDRESS };
 		return result;
 	}
+
+	/**
+	 * @return A {@link DescriptorMessage} generated from the test data
+	 */
+	private static DescriptorMessage mockDescriptorMessage() {
+		DescriptorMessage result = new DescriptorMessage();
+		result.id = TEST_ID;
+		result.incarnation = TEST_INCARNATION;
+		result.version = TEST_VERSION;
+		result.type = TEST_TYPE;
+		result.description = TEST_DESCRIPTION;
+		result.count = 2;
+		result.protocols = new String[] { TEST_FIRST_PROTOCOL, TEST_SECOND_PROTOCOL };
+		result.addresses = new String[] { TEST_FIRST_ADDRESS, TEST_SECOND_ADDRESS };
+		return result;
+	}
 }